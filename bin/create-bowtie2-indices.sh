@@ -611,6 +611,24 @@ then
 fi
 
 
+################################################################################
+##
+##  Create the reference bundles of the map, GTF, and chromosome id files
+##
+################################################################################
+
+## The Java tools map the bundles instead of parsing the reference files
+JAVA_DIR=$PROJECT_DIR/exon-pipeline-scripts/java
+JAVA_CLASS_DIR="$JAVA_DIR/classes:$JAVA_DIR"
+MAP_DIR="$PROJECT_DATA_DIR/map-files"
+REFERENCE_FILES=`ls $MAP_DIR/*.map $MAP_DIR/*.map.gz 2>/dev/null`
+REFERENCE_FILES="$REFERENCE_FILES $GTF_FILE $GENOME_FASTA_FILE.fai"
+
+echo "Creating the reference bundles"
+java -oss8M -ss8M -mx4G -cp ${CLASSPATH}:${JAVA_CLASS_DIR} CreateReferenceBundles $REFERENCE_FILES
+CREATE_REFERENCE_BUNDLES_STATUS=$?
+
+
 ################################################################################
 ##
 ##  Wait for processes to finish and check exit status
@@ -618,6 +636,12 @@ fi
 ################################################################################
 
 EXIT_STATUS=0
+if [ "$CREATE_REFERENCE_BUNDLES_STATUS" != "0" ]
+then
+  echo "ERROR: Problem with CreateReferenceBundles $REFERENCE_FILES"
+  EXIT_STATUS=1
+fi
+
 if [ "$CREATE_TRANSCRIPT_BOWTIE2_INDEX_PID" != "" ]
 then
   waitPid $CREATE_TRANSCRIPT_BOWTIE2_INDEX_PID $TRANSCRIPT_BOWTIE2_INDEX_DIR "$BOWTIE2_BUILD_EXE $TRANSCRIPT_FASTA_FILE $TRANSCRIPT_BOWTIE2_INDEX_DIR/bowtie2Index" \
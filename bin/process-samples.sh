@@ -782,6 +782,9 @@ then
   export CLASSPATH=$HOME
 fi
 
+JAVA_CLASS_DIR="$JAVA_DIR/classes:$JAVA_DIR"
+JAVA="java -oss8M -ss8M -ms4G -mx4G -cp ${JAVA_CLASS_DIR}:${CLASSPATH}"
+
 NUM_READS_FILE=$PROJECT_DIR/statistic-files/samples-num-reads.txt
 
 mkdir -p $PROJECT_DIR/statistic-files
@@ -1727,7 +1730,7 @@ do
   then
     if [ "$CHUNK_GENE_COUNT_FILES" != "" ]
     then
-      $UTIL_LIB_DIR/combineCounts.py -A -i $CHUNK_GENE_COUNT_FILES -o $SAMPLE_GENE_COUNT_FILE
+      $JAVA CombineCountFiles -A -i $CHUNK_GENE_COUNT_FILES -o $SAMPLE_GENE_COUNT_FILE
       SAMPLE_GENE_COUNT_FILES="$SAMPLE_GENE_COUNT_FILES $SAMPLE_GENE_COUNT_FILE"
     fi
   fi
@@ -1736,7 +1739,7 @@ do
   then
     if [ "$CHUNK_EXON_COUNT_FILES" != "" ]
     then
-      $UTIL_LIB_DIR/combineCounts.py -A -i $CHUNK_EXON_COUNT_FILES -o $SAMPLE_EXON_COUNT_FILE
+      $JAVA CombineCountFiles -A -i $CHUNK_EXON_COUNT_FILES -o $SAMPLE_EXON_COUNT_FILE
       SAMPLE_EXON_COUNT_FILES="$SAMPLE_EXON_COUNT_FILES $SAMPLE_EXON_COUNT_FILE"
     fi
   fi
@@ -1745,17 +1748,17 @@ do
   then
     if [ "$CHUNK_JUNCTION_COUNT_FILES" != "" ]
     then
-      $UTIL_LIB_DIR/combineCounts.py -A -i $CHUNK_JUNCTION_COUNT_FILES -o $SAMPLE_JUNCTION_COUNT_FILE
+      $JAVA CombineCountFiles -A -i $CHUNK_JUNCTION_COUNT_FILES -o $SAMPLE_JUNCTION_COUNT_FILE
       SAMPLE_JUNCTION_COUNT_FILES="$SAMPLE_JUNCTION_COUNT_FILES $SAMPLE_JUNCTION_COUNT_FILE"
       NUM_COMBINED_LINES=`cat $SAMPLE_JUNCTION_COUNT_FILE | wc -l`
       if [ "$NUM_COMBINED_LINES" = "0" ]
       then
         echo "No output generated for sample $SAMPLE"
-	echo "Call: $UTIL_LIB_DIR/combineCounts.py -A -i $CHUNK_JUNCTION_COUNT_FILES -o $SAMPLE_JUNCTION_COUNT_FILE"
+	echo "Call: $JAVA CombineCountFiles -A -i $CHUNK_JUNCTION_COUNT_FILES -o $SAMPLE_JUNCTION_COUNT_FILE"
 	exit 1
       fi
     fi
-    ## $UTIL_LIB_DIR/combineCounts.py -A -i $CHUNK_JUNCTION_SAM_COUNT_FILES -o $SAMPLE_JUNCTION_SAM_COUNT_FILE
+    ## $JAVA CombineCountFiles -A -i $CHUNK_JUNCTION_SAM_COUNT_FILES -o $SAMPLE_JUNCTION_SAM_COUNT_FILE
     ## SAMPLE_JUNCTION_SAM_COUNT_FILES="$SAMPLE_JUNCTION_COUNT_FILES $SAMPLE_JUNCTION_SAM_COUNT_FILE"
   fi
 
@@ -1793,7 +1796,7 @@ then
   then
     ## Combine gene count files
     PROJECT_GENE_COUNT_FILE=$PROJECT_COUNT_DIR/$PROJECT-$EQP_ALIGNER-$READ_TYPE-gene.$COUNT_TYPE
-    $UTIL_LIB_DIR/combineCounts.py -i $SAMPLE_GENE_COUNT_FILES -o $PROJECT_GENE_COUNT_FILE -s $EQP_ALIGNER-$READ_TYPE-gene.$COUNT_TYPE
+    $JAVA CombineCountFiles -i $SAMPLE_GENE_COUNT_FILES -o $PROJECT_GENE_COUNT_FILE -s $EQP_ALIGNER-$READ_TYPE-gene.$COUNT_TYPE
   fi
 fi
 
@@ -1803,7 +1806,7 @@ then
   then
     ## Combine exon count files
     PROJECT_EXON_COUNT_FILE=$PROJECT_COUNT_DIR/$PROJECT-$EQP_ALIGNER-$READ_TYPE-exon.$COUNT_TYPE
-    $UTIL_LIB_DIR/combineCounts.py -i $SAMPLE_EXON_COUNT_FILES -o $PROJECT_EXON_COUNT_FILE -s $EQP_ALIGNER-$READ_TYPE-exon.$COUNT_TYPE
+    $JAVA CombineCountFiles -i $SAMPLE_EXON_COUNT_FILES -o $PROJECT_EXON_COUNT_FILE -s $EQP_ALIGNER-$READ_TYPE-exon.$COUNT_TYPE
   fi
 fi
 
@@ -1818,7 +1821,7 @@ then
     fi
     ## Combine junction count files
     PROJECT_JUNCTION_COUNT_FILE=$PROJECT_COUNT_DIR/$PROJECT-$EQP_ALIGNER-$READ_TYPE-junction.$COUNT_TYPE
-    $UTIL_LIB_DIR/combineCounts.py -i $SAMPLE_JUNCTION_COUNT_FILES -o $PROJECT_JUNCTION_COUNT_FILE \
+    $JAVA CombineCountFiles -i $SAMPLE_JUNCTION_COUNT_FILES -o $PROJECT_JUNCTION_COUNT_FILE \
       -s $EQP_ALIGNER-$READ_TYPE-junction.$COUNT_TYPE # -I $MAP_DIR/${FILE_BASE}_junction_exon.map.gz 
   fi
 fi
@@ -561,9 +561,13 @@ if [ "$SORT" = "TRUE" ]
 then
   SAM_SORT_INPUT_FILE=`echo $SAM_FILE | sed -e 's/[.]sam$/-unsorted.sam/'`
   mv $SAM_FILE.gz $SAM_SORT_INPUT_FILE
-  zcat $SAM_SORT_INPUT_FILE | $SAMTOOLS_EXE view -Sb - | $SAMTOOLS_EXE sort -m 3000000000 - $SAM_FILE-sorted
-  $SAMTOOLS_EXE view -h $SAM_FILE-sorted.bam | gzip > $SAM_FILE.gz
-  rm $SAM_SORT_INPUT_FILE $SAM_FILE-sorted.bam
+  zcat $SAM_SORT_INPUT_FILE | $JAVA SortSamFile -m 3000 -T $SAM_DIR | gzip > $SAM_FILE.gz
+  if [ ${PIPESTATUS[1]} -ne 0 ]
+  then
+    echo "Problem with sorting of $SAM_SORT_INPUT_FILE ... exiting"
+    exit 1
+  fi
+  rm $SAM_SORT_INPUT_FILE
   date
 fi
 
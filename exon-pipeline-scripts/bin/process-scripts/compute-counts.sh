@@ -570,6 +570,12 @@ HALF_MAX_MEMORY=`echo $MAX_MEMORY | sed -e 's;G$; / 2;' | bc | sed -e 's/$/G/'`
 
 JAVA_CLASS_DIR="$JAVA_DIR/classes:$JAVA_DIR"
 JAVA="java -oss8M -ss8M -ms$HALF_MAX_MEMORY -mx$HALF_MAX_MEMORY -cp ${JAVA_CLASS_DIR}:${CLASSPATH}"
+
+## Submit the Java tools to a running QuantificationServer if EQP_SERVER_FILE is set
+if [ "$EQP_SERVER_FILE" != "" -a -f "$EQP_SERVER_FILE" ]
+then
+  JAVA="java -mx256M -cp ${JAVA_CLASS_DIR}:${CLASSPATH} QuantificationClient -f $EQP_SERVER_FILE"
+fi
 echo "JAVA=$JAVA"
 
 
@@ -799,6 +805,8 @@ COMBINED_BED_WEIGHT_FILE="$COMBINED_SAM_FILE_BASE-bed.wgt"
 
 FINAL_WEIGHT_FILE_BASE=`echo $COMBINED_SAM_FILE_BASE | sed -e "s/-combined.*/-final/"`
 FINAL_WEIGHT_FILE="$FINAL_WEIGHT_FILE_BASE.wgt"
+FINAL_WEIGHT_TMP_FILE="$FINAL_WEIGHT_FILE_BASE-tmp.wgt"
+BED_READ_WEIGHTS="FALSE"
 
 ############################### Combine the weight files #######################
 
@@ -855,18 +863,28 @@ then
     echo "File $GENOME_SAM_WEIGHT_FILE not found ... exiting."
     exit 1
   fi
+elif [ "$COMPUTE_GENE_COUNT" = "TRUE" -a "$COMPUTE_UNWEIGHTED" != "TRUE" ]
+then
+  ## The BED read weights are computed by the gene counting (ComputeCounts -w bed) which
+  ## writes them to $FINAL_WEIGHT_TMP_FILE; this saves a pass over the intersection BED file.
+  ## The file is renamed to $FINAL_WEIGHT_FILE when the gene counting has succeeded.
+  if [ ! -f $WEIGHT_DIR/$FINAL_WEIGHT_FILE -o "$RECOMPUTE" = "TRUE" ]
+  then
+    echo "BED read weights are computed while counting genes"
+    BED_READ_WEIGHTS="TRUE"
+  fi
 else
-  if [ ! -f $FINAL_WEIGHT_FILE -o "$RECOMPUTE" = "TRUE" ]
+  if [ ! -f $WEIGHT_DIR/$FINAL_WEIGHT_FILE -o "$RECOMPUTE" = "TRUE" ]
   then
     echo "Computing BED read weights"
-    JAVA_BED_READ_WEIGHT_CMD=" ComputeReadWeights -b - -o $FINAL_WEIGHT_FILE"
+    JAVA_BED_READ_WEIGHT_CMD=" ComputeReadWeights -b - -o $WEIGHT_DIR/$FINAL_WEIGHT_FILE"
     echo $JAVA_BED_READ_WEIGHT_CMD
     zcat $BED_DIR/$INTERSECTION_BED_FILE | $JAVA $JAVA_BED_READ_WEIGHT_CMD
   
     if [ $? -ne 0 ]
     then
       echo "ERROR: Problem with $JAVA_BED_READ_WEIGHT_CMD ... exiting."
-      OUTPUT_FILE="$FINAL_WEIGHT_FILE"
+      OUTPUT_FILE="$WEIGHT_DIR/$FINAL_WEIGHT_FILE"
       if [ -f $OUTPUT_FILE ]
       then
         rm $OUTPUT_FILE
@@ -891,6 +909,15 @@ then
   WEIGHT_OPTION="-u"  
 fi
 
+## ComputeGeneCountsSam reads the weight file after the gene counts are finished
+SAM_WEIGHT_OPTION="$WEIGHT_OPTION"
+GENE_WEIGHT_OPTION="$WEIGHT_OPTION"
+if [ "$BED_READ_WEIGHTS" = "TRUE" ]
+then
+  WEIGHT_OPTION="-w bed -W $READ_WEIGHT_THRESHOLD"
+  GENE_WEIGHT_OPTION="$WEIGHT_OPTION -R $WEIGHT_DIR/$FINAL_WEIGHT_TMP_FILE"
+fi
+
 
 ################################################################################
 ##
@@ -929,7 +956,7 @@ then
     fi
     
     echo "Computing gene counts"
-    GENE_COUNT_JAVA_CMD="ComputeCounts $GENE_COUNT_OPTION $WEIGHT_OPTION $COUNT_STRAND_SPECIFIC_OPTION $UNAMBIGUOUS_OPTION \
+    GENE_COUNT_JAVA_CMD="ComputeCounts $GENE_COUNT_OPTION $GENE_WEIGHT_OPTION $COUNT_STRAND_SPECIFIC_OPTION $UNAMBIGUOUS_OPTION \
         $CONTAINMENT_OPTION $NONSPLICE_CONFORMING_OPTION -m $EXON_GENE_MAP_FILE -b - -o -"
     echo "Java cmd: $GENE_COUNT_JAVA_CMD"
     zcat $BED_DIR/$INTERSECTION_BED_FILE | $JAVA $GENE_COUNT_JAVA_CMD > $GENE_COUNT_FILE &
@@ -977,6 +1004,19 @@ then
   waitPid $GENE_COUNT_PID $GENE_COUNT_FILE "$GENE_COUNT_JAVA_CMD" "Waiting for computation of gene counts to finish"
 fi
 
+## The BED read weights written by the gene counting are only kept if it succeeded
+if [ "$BED_READ_WEIGHTS" = "TRUE" ]
+then
+  if [ "$EXIT_STATUS" = "0" -a -f $WEIGHT_DIR/$FINAL_WEIGHT_TMP_FILE ]
+  then
+    mv $WEIGHT_DIR/$FINAL_WEIGHT_TMP_FILE $WEIGHT_DIR/$FINAL_WEIGHT_FILE
+  else
+    echo "ERROR: BED read weights not computed."
+    rm -f $WEIGHT_DIR/$FINAL_WEIGHT_TMP_FILE
+    EXIT_STATUS=1
+  fi
+fi
+
 
 ################################################################################
 ##
@@ -1017,6 +1057,12 @@ fi
 
 ## Scale up the memory requirements of JAVA
 JAVA="java -oss8M -ss8M -ms$MAX_MEMORY -mx$MAX_MEMORY -cp ${JAVA_CLASS_DIR}:${CLASSPATH}"
+
+## Submit the Java tools to a running QuantificationServer if EQP_SERVER_FILE is set
+if [ "$EQP_SERVER_FILE" != "" -a -f "$EQP_SERVER_FILE" ]
+then
+  JAVA="java -mx256M -cp ${JAVA_CLASS_DIR}:${CLASSPATH} QuantificationClient -f $EQP_SERVER_FILE"
+fi
 echo "JAVA=$JAVA"
 
 if [ "$OUTPUT_PREFIX" = "" ]
@@ -1064,7 +1110,7 @@ then
   if [ "$JUNCTION_SAM_FILE" != "" -a \( "$RECOMPUTE" = "TRUE" -o ! -f $JUNCTION_SAM_COUNT_FILE \) ]
   then
     echo "Computing junction SAM counts"
-    JUNCTION_SAM_COUNT_JAVA_CMD="ComputeGeneCountsSam $NON_ZERO_JUNCTION_COUNT_OPTION -m $FILTERED_JUNCTION_JUNCTION_MAP_FILE $WEIGHT_OPTION -s - \
+    JUNCTION_SAM_COUNT_JAVA_CMD="ComputeGeneCountsSam $NON_ZERO_JUNCTION_COUNT_OPTION -m $FILTERED_JUNCTION_JUNCTION_MAP_FILE $SAM_WEIGHT_OPTION -s - \
        -O $JUNCTION_OVERLAP -o $JUNCTION_SAM_COUNT_FILE"
     echo "$JUNCTION_SAM_COUNT_JAVA_CMD"
     zcat $JUNCTION_SAM_PATH | $JAVA $JUNCTION_SAM_COUNT_JAVA_CMD
@@ -144,7 +144,8 @@ QUIET_OPTION=""
 USE_PIPED_COMPUTATION="TRUE"
 BED_OPTION_LIST=""
 CREATE_BAM_FILE="FALSE"
-while [ "$1" = "-r" -o "$1" = "-gtf" -o "$1" = "-d" -o "$1" = "-o" -o $1 = "-p" -o $1 = "-q" -o "$1" = "-bam" ]
+THREAD_OPTION=""
+while [ "$1" = "-r" -o "$1" = "-gtf" -o "$1" = "-d" -o "$1" = "-o" -o $1 = "-p" -o $1 = "-q" -o "$1" = "-bam" -o "$1" = "-t" ]
 do
 
   if [ "$1" = "-r" ]
@@ -196,6 +197,13 @@ do
     CREATE_BAM_FILE="TRUE"
   fi
 
+  if [ "$1" = "-t" ]
+  then
+    shift
+    THREAD_OPTION="-t $1"
+    shift
+  fi
+
 done
 
 
@@ -212,7 +220,7 @@ then
   echo
   echo "where <options> is"
   echo "   [-r] [-gtf] [-d <edit distance>] [-s <direction>]"
-  echo "   [-L <read length>] [-o <output-prefix>] [-p] [-q]"
+  echo "   [-L <read length>] [-o <output-prefix>] [-p] [-q] [-t <threads>]"
   echo
   echo " project dir: directory where the relevant files are stored"
   echo " transcript SAM file: the file containing the alignments of the"
@@ -238,6 +246,7 @@ then
   echo "     working directory with the prefix STRING."
   echo " -p: use a piped computation (instead of a sequential one)"
   echo " -q: do not output messages to stderr"
+  echo " -t INT: use INT threads to compute the genome alignments"
   exit
 fi
 
@@ -520,11 +529,11 @@ GENOME_FILE_OPTION=""
 echo "Computing SAM file without correction"
 echo "Command pipeline:"  
 echo "  zcat $BED_DIR/$INTERSECTION_BED_FILE | \ "
-echo "  \$JAVA ComputeGenomeSamFile -c $CHROMOSOME_ID_FILE -s $SAM_DIR/$COMBINED_SAM_FILE -b - -o - $QUIET_OPTION $GENOME_FILE_OPTION | \ "
+echo "  \$JAVA ComputeGenomeSamFile -c $CHROMOSOME_ID_FILE -s $SAM_DIR/$COMBINED_SAM_FILE -b - -o - $QUIET_OPTION $GENOME_FILE_OPTION $THREAD_OPTION | \ "
 echo "  cat $SAM_HEADER_FILE $GENOME_SAM_HEADER_FILE - | grep '[A-z0-9]' > $SAM_DIR/$EQP_GENOME_SAM_FILE_BASE-simple.sam"
 
 zcat $BED_DIR/$INTERSECTION_BED_FILE | \
-$JAVA ComputeGenomeSamFile -c $CHROMOSOME_ID_FILE -s $SAM_DIR/$COMBINED_SAM_FILE -b - -o - $QUIET_OPTION $GENOME_FILE_OPTION | \
+$JAVA ComputeGenomeSamFile -c $CHROMOSOME_ID_FILE -s $SAM_DIR/$COMBINED_SAM_FILE -b - -o - $QUIET_OPTION $GENOME_FILE_OPTION $THREAD_OPTION | \
 cat $SAM_HEADER_FILE $GENOME_SAM_HEADER_FILE - | grep '[A-z0-9]' > $SAM_DIR/$EQP_GENOME_SAM_FILE_BASE-simple.sam
 if [ $? -ne 0 ]
 then
@@ -649,8 +658,8 @@ then
 
   echo "Converting the adjusted genome SAM file to a BAM file"
   date
-  $SAMTOOLS_EXE view -bS -h $EQP_GENOME_SAM_DIR/$EQP_GENOME_SAM_FILE_BASE.sam | \
-  $SAMTOOLS_EXE sort -m 5000000000 - $EQP_GENOME_SAM_DIR/$EQP_GENOME_SAM_FILE_BASE
+  $JAVA SortSamFile -i $EQP_GENOME_SAM_DIR/$EQP_GENOME_SAM_FILE_BASE.sam -c $CHROMOSOME_ID_FILE -m 4000 $THREAD_OPTION \
+    -T $EQP_GENOME_SAM_DIR -B $EQP_GENOME_SAM_DIR/$EQP_GENOME_SAM_FILE_BASE.bam
   if [ $? -ne 0 ]
   then
     echo "ERROR: Problem with converstion of $EQP_SAM_FILE_BASE.sam to BAM file ... exiting."
@@ -42,7 +42,9 @@ USE_WEIGHT_FILE="FALSE"
 WEIGHT_FILE=""
 QUANTIFY_OPTION=""
 QUIET_OPTION=""
-while [ "$1" = "-h" -o "$1" = "--help" -o "$1" = "-M" -o "$1" = "-Q" -o "$1" = "-q" -o "$1" = "-W" -o "$1" = "-w" ]
+SORTED_OPTION=""
+THREAD_OPTION=""
+while [ "$1" = "-h" -o "$1" = "--help" -o "$1" = "-M" -o "$1" = "-Q" -o "$1" = "-q" -o "$1" = "-W" -o "$1" = "-w" -o "$1" = "-c" -o "$1" = "-t" ]
 do
 
   if [ "$1" = "-h" -o "$1" = "--help" ]
@@ -77,6 +79,19 @@ do
     QUIET_OPTION="-q"
   fi
 
+  if [ "$1" = "-c" ]
+  then
+    shift
+    SORTED_OPTION="-c"
+  fi
+
+  if [ "$1" = "-t" ]
+  then
+    shift
+    THREAD_OPTION="-t $1"
+    shift
+  fi
+
   if [ "$1" = "-M" ]
   then
     shift
@@ -98,7 +113,7 @@ then
   echo "Usage: $PROG_NAME <options> <project dir> <genome SAM file>"
   echo
   echo "where <options> is"
-  echo "   [-W|-w <weight file>] [-Q]"
+  echo "   [-W|-w <weight file>] [-Q] [-c] [-t <threads>]"
   echo
   echo " project dir: directory where the relevant files are stored"
   echo " genome SAM file: the file containing the spliced alignments of the reads"
@@ -106,6 +121,10 @@ then
   echo " -W: Use weight file"
   echo " -w STRING: Use weight file STRING"
   echo " -Q: Quantify intron spanning reads"
+  echo " -c: The genome SAM file is coordinate sorted; junctions are written while the"
+  echo "     file is read (cannot be combined with -W or -w)"
+  echo " -t INT: Use INT threads to process the chromosomes of a coordinate sorted"
+  echo "     genome SAM file (requires -c)"
   exit
 fi
 
@@ -311,7 +330,7 @@ date
 ##
 ################################################################################
 
-JAVA_CMD="ExtractSplicedExonExonIds $QUANTIFY_OPTION $QUIET_OPTION $WEIGHT_OPTION -g $GTF_FILE -o $OUTPUT_FILE -s $GENOME_SAM_PATH"
+JAVA_CMD="ExtractSplicedExonExonIds $QUANTIFY_OPTION $QUIET_OPTION $SORTED_OPTION $THREAD_OPTION $WEIGHT_OPTION -g $GTF_FILE -o $OUTPUT_FILE -s $GENOME_SAM_PATH"
 echo "Java call: $JAVA_CMD"
 $JAVA $JAVA_CMD
 if [ $? -ne 0 ]
@@ -170,7 +170,8 @@ then
   echo "Usage: $PROG_NAME [-k] [-m] <project dir> <merged BAM file> <SAM/BAM file 1>"
   echo "         [<SAM/BAM file 2> ...]"
   echo
-  echo "-k: keep the sorted BAM files that are generated (default: remove them)"
+  echo "-k: ignored - the input files are sorted and merged in one pass without"
+  echo "    intermediate sorted BAM files"
   echo "-m: discard unmapped reads and keep only mapped reads"
   echo
   echo "project dir: directory where the relevant files are stored"
@@ -221,88 +222,72 @@ TOOLS_DIR=$PROJECT_DIR/exon-pipeline-scripts/tools
 checkTool $TOOLS_DIR samtools 0.1.17
 SAMTOOLS_EXE=$TOOL_EXE
 
+JAVA_CLASS_DIR=$PROJECT_DIR/exon-pipeline-scripts/java/classes
+JAVA="java -oss8M -ss8M -ms8G -mx8G -cp ${JAVA_CLASS_DIR}:${CLASSPATH}"
+
 GENOME_DIR=$PROJECT_DIR/exon-pipeline-files/genome-files
 GENOME_FASTA_INDEX_FILE=$GENOME_DIR/genome.fa.fai
 
 
 ################################################################################
 ##
-##  Convert to BAM format and sort input files
+##  Sort and merge the input files
 ##
 ################################################################################
 
 # Change to the output directory to take care of temp files
 cd $OUTPUT_DIR
 
-SORTED_BAM_FILES=""
-REMOVE_BAM_FILE_LIST=""
+# The alignments of all input files are sorted together by SortSamFile; samtools
+# only converts the input files to SAM format. The header is taken from the first
+# input file.
+INPUT_ERROR_FILE=$MERGED_BAM_FILE.input-error
+rm -f $INPUT_ERROR_FILE
+
+echo "Pipeline calls:"
+HEADER_OPTION="-h"
 for INPUT_FILE_PATH in $INPUT_FILES
 do
-  INPUT_DIR=`dirname $INPUT_FILE_PATH`
   INPUT_FILE=`basename $INPUT_FILE_PATH`
   INPUT_FILE_BASE=`echo $INPUT_FILE | sed -e 's/.gz$//' | sed -e 's/.[bs]am$//'` 
   INPUT_FILE_EXT=`echo $INPUT_FILE | sed -e "s/$INPUT_FILE_BASE[.]//"`
-  OUTPUT_DIR=`dirname $MERGED_BAM_FILE`
-  SORTED_BAM_FILE_BASE=$OUTPUT_DIR/$INPUT_FILE_BASE-sorted
   if [ "$INPUT_FILE_EXT" = "bam" ]
   then
-  
-    echo "Sorting file $INPUT_FILE"
-    echo "Pipeline calls:"
-    echo "  $SAMTOOLS_EXE view -b $MAPPED_READS_OPTION -t $GENOME_FASTA_INDEX_FILE $INPUT_FILE_PATH | \ "
-    echo "  $SAMTOOLS_EXE sort -m 6000000000 - $SORTED_BAM_FILE_BASE"
-    
-    $SAMTOOLS_EXE view -b $MAPPED_READS_OPTION -t $GENOME_FASTA_INDEX_FILE $INPUT_FILE_PATH | \
-      $SAMTOOLS_EXE sort -m 6000000000 - $SORTED_BAM_FILE_BASE
-    if [ $? -ne 0 ]
-    then
-      echo "Problem with samtools view/sort $INPUT_FILE_PATH ... exiting"
-      exit 1
-    fi
+    echo "  $SAMTOOLS_EXE view $HEADER_OPTION $MAPPED_READS_OPTION $INPUT_FILE_PATH | \ "
+  elif [ "$INPUT_FILE_EXT" = "sam" -o "$INPUT_FILE_EXT" = "sam.gz" ]
+  then
+    echo "  zcat -f $INPUT_FILE_PATH | $SAMTOOLS_EXE view -S $HEADER_OPTION $MAPPED_READS_OPTION -t $GENOME_FASTA_INDEX_FILE - | \ "
   else
-    if [ "$INPUT_FILE_EXT" = "sam" ]
-    then
-      CAT="cat"
-    elif [ "$INPUT_FILE_EXT" = "sam.gz" ]
-    then
-      CAT="zcat"
-    else
-      echo "Unknown extension: $INPUT_FILE_EXT for file $INPUT_FILE_PATH ... exiting"
-      exit 1
-    fi
-
-    echo "Converting to BAM format and sorting file $INPUT_FILE"
-    echo "Pipeline calls:"
-    echo "  $CAT $INPUT_FILE_PATH | \ "
-    echo "  $SAMTOOLS_EXE view -bS $MAPPED_READS_OPTION -t $GENOME_FASTA_INDEX_FILE - | \ "
-    echo "  $SAMTOOLS_EXE sort -m 6000000000 - $SORTED_BAM_FILE_BASE"
-    
-    $CAT $INPUT_FILE_PATH | \
-    $SAMTOOLS_EXE view -bS $MAPPED_READS_OPTION -t $GENOME_FASTA_INDEX_FILE - | \
-    $SAMTOOLS_EXE sort -m 6000000000 - $SORTED_BAM_FILE_BASE
-    if [ $? -ne 0 ]
-    then
-      echo "Problem with samtools view/sort $INPUT_FILE_PATH ... exiting"
-      exit 1
-    fi
-    REMOVE_BAM_FILE_LIST="$REMOVE_BAM_FILE_LIST $SORTED_BAM_FILE_BASE.bam"
+    echo "Unknown extension: $INPUT_FILE_EXT for file $INPUT_FILE_PATH ... exiting"
+    exit 1
   fi
-  SORTED_BAM_FILES="$SORTED_BAM_FILES $SORTED_BAM_FILE_BASE.bam"
+  HEADER_OPTION=""
 done
+echo "  $JAVA SortSamFile -c $GENOME_FASTA_INDEX_FILE -m 6000 -t 4 -T $OUTPUT_DIR -B $MERGED_BAM_FILE"
 
-if [ $NUM_INPUT_FILES -gt 1 ]
-then
-  $SAMTOOLS_EXE merge $MERGED_BAM_FILE $SORTED_BAM_FILES
+HEADER_OPTION="-h"
+for INPUT_FILE_PATH in $INPUT_FILES
+do
+  INPUT_FILE=`basename $INPUT_FILE_PATH`
+  INPUT_FILE_BASE=`echo $INPUT_FILE | sed -e 's/.gz$//' | sed -e 's/.[bs]am$//'` 
+  INPUT_FILE_EXT=`echo $INPUT_FILE | sed -e "s/$INPUT_FILE_BASE[.]//"`
+  if [ "$INPUT_FILE_EXT" = "bam" ]
+  then
+    $SAMTOOLS_EXE view $HEADER_OPTION $MAPPED_READS_OPTION $INPUT_FILE_PATH
+  else
+    zcat -f $INPUT_FILE_PATH | $SAMTOOLS_EXE view -S $HEADER_OPTION $MAPPED_READS_OPTION -t $GENOME_FASTA_INDEX_FILE -
+  fi
   if [ $? -ne 0 ]
   then
-    echo "Problem with samtools merge $MERGED_BAM_FILE $SORTED_BAM_FILES ... exiting"
-    exit 1
+    echo "Problem with samtools view $INPUT_FILE_PATH ... exiting" 1>&2
+    touch $INPUT_ERROR_FILE
   fi
-elif [ -f $SORTED_BAM_FILES ]
+  HEADER_OPTION=""
+done | $JAVA SortSamFile -c $GENOME_FASTA_INDEX_FILE -m 6000 -t 4 -T $OUTPUT_DIR -B $MERGED_BAM_FILE
+if [ $? -ne 0 -o -f $INPUT_ERROR_FILE ]
 then
-  mv $SORTED_BAM_FILES $MERGED_BAM_FILE
-else
-  echo "File $SORTED_BAM_FILES does not exist ... exiting."
+  echo "Problem with sorting and merging of $INPUT_FILES ... exiting"
+  rm -f $INPUT_ERROR_FILE $MERGED_BAM_FILE
   exit 1
 fi
 
@@ -314,12 +299,5 @@ then
   exit 1
 fi
 
-if [ "$KEEP_BAM_FILES" = "FALSE" -a $NUM_INPUT_FILES -gt 1 ]
-then
-  echo "Removing sorted BAM files:"
-  echo $REMOVE_BAM_FILE_LIST
-  rm -f $REMOVE_BAM_FILE_LIST
-fi
-
 echo "Merging of BAM files successfully completed."
 date
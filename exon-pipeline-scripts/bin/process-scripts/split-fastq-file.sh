@@ -72,11 +72,12 @@ cleanUp ()
 FASTQ_FILE_1=
 FASTQ_FILE_2=
 SPLIT_READ_NUM=25000000
+NUM_THREADS=1
 PAIRED_END="FALSE"
 REMOVE_DUPLICATES="FALSE"
 COMPUTE_DUPLICATES="FALSE"
 TALLY_OPTIONS="--with-quality"
-while [ "$1" = "-1" -o "$1" = "-2" -o "$1" = "-s" -o "$1" = "-r" -o "$1" = "-remove-duplicates" -o "$1" = "-d" -o "$1" = "-tally" ]
+while [ "$1" = "-1" -o "$1" = "-2" -o "$1" = "-s" -o "$1" = "-t" -o "$1" = "-r" -o "$1" = "-remove-duplicates" -o "$1" = "-d" -o "$1" = "-tally" ]
 do
   if [ "$1" = "-1" ]
   then
@@ -100,6 +101,13 @@ do
     SPLIT_READ_NUM=$1
     shift
   fi
+
+  if [ "$1" = "-t" ]
+  then
+    shift
+    NUM_THREADS=$1
+    shift
+  fi
   
   if [ "$1" = "-r" -o "$1" = "-remove-duplicates" ]
   then
@@ -131,10 +139,11 @@ then
   echo "       <project dir> <sample dir> <fastq dir>"
   echo
   echo "where <options> is:"
-  echo "  [-s <split read num>] [-r|-remove-duplicates]"
+  echo "  [-s <split read num>] [-t <threads>] [-r|-remove-duplicates]"
   echo
   echo "-s INT: set the number of reads per file [$SPLIT_READ_NUM]"
-  echo "-r|-remove-duplicates: remove duplicate reads with reaper/tally"
+  echo "-t INT: number of threads to compress the split files [$NUM_THREADS]"
+  echo "-r|-remove-duplicates: remove duplicate reads"
   exit
 fi
 
@@ -203,9 +212,21 @@ fi
 
 ############################ Remove duplicate #################################
 
+## If only duplicates are to be removed, then ChangeFastqIdsAndSplit collapses
+## identical read pairs itself (option -c); tally is only needed for the
+## computation of the duplicates file. The read pairs are split into temporary
+## partitions in $SAMPLE_DIR if their number exceeds the memory of the JVM.
+## Note that the ids of the reads collapsed with -c have the form
+## Fxxxxx/[12] <multiplicity> while the reads collapsed by tally get the ids
+## Fxxxxx/[12] without multiplicity.
 UNIQUE_FASTQ_FILE_1="$FASTQ_FILE_1"
 UNIQUE_FASTQ_FILE_2="$FASTQ_FILE_2"
-if [ "$REMOVE_DUPLICATES" = "TRUE" -o "$COMPUTE_DUPLICATES" = "TRUE" ]
+COLLAPSE_OPTION=""
+if [ "$REMOVE_DUPLICATES" = "TRUE" -a "$COMPUTE_DUPLICATES" != "TRUE" ]
+then
+  echo "Removing duplicate reads with ChangeFastqIdsAndSplit"
+  COLLAPSE_OPTION="-c -T $SAMPLE_DIR"
+elif [ "$REMOVE_DUPLICATES" = "TRUE" -o "$COMPUTE_DUPLICATES" = "TRUE" ]
 then
   TOOLS_DIR=$PROJECT_DIR/exon-pipeline-scripts/tools
   
@@ -312,11 +333,11 @@ date
 if [ "$PAIRED_END" = "TRUE" ]
 then
   echo "Creating new fastq file(s) for $UNIQUE_FASTQ_FILE_1 and $UNIQUE_FASTQ_FILE_2"
-  $JAVA ChangeFastqIdsAndSplit -s $SPLIT_READ_NUM -f $UNIQUE_FASTQ_FILE_1 -F $UNIQUE_FASTQ_FILE_2 -o $FASTQ_DIR/${SAMPLE_NAME}_1.fq.gz \
+  $JAVA ChangeFastqIdsAndSplit $COLLAPSE_OPTION -t $NUM_THREADS -s $SPLIT_READ_NUM -f $UNIQUE_FASTQ_FILE_1 -F $UNIQUE_FASTQ_FILE_2 -o $FASTQ_DIR/${SAMPLE_NAME}_1.fq.gz \
      -O $FASTQ_DIR/${SAMPLE_NAME}_2.fq.gz
 else 
   echo "Creating new fastq file(s) for $UNIQUE_FASTQ_FILE_1"
-  $JAVA ChangeFastqIdsAndSplit -s $SPLIT_READ_NUM -S -f $UNIQUE_FASTQ_FILE_1 -o $FASTQ_DIR/${SAMPLE_NAME}_1.fq.gz
+  $JAVA ChangeFastqIdsAndSplit $COLLAPSE_OPTION -t $NUM_THREADS -s $SPLIT_READ_NUM -S -f $UNIQUE_FASTQ_FILE_1 -o $FASTQ_DIR/${SAMPLE_NAME}_1.fq.gz
 fi
 
 date
@@ -796,8 +796,20 @@ then
   echo "  $JUNCTION_COMBINE_SAM_FILE_CMD |"
   echo "  $GENOME_COMBINE_SAM_FILE_CMD | gzip > $SAM_DIR/$COMBINED_SAM_FILE"
 
-  ## Excute the commands
-  $ZCAT_TRANSCRIPT_SAM_FILE_CMD | $JUNCTION_COMBINE_SAM_FILE_CMD_FULL | $GENOME_COMBINE_SAM_FILE_CMD_FULL | gzip > $SAM_DIR/$COMBINED_SAM_FILE
+  ## Excute the commands; if all three SAM files are present, then they are combined
+  ## by one call of CombineSamFiles which yields the same result as the pipeline.
+  if [ "$JUNCTION_FILE_MISSING" != "TRUE" -a "$GENOME_FILE_MISSING" != "TRUE" ]
+  then
+    COMBINE_SAM_FILES_CMD="CombineSamFiles -1 - -2 $JUNCTION_SAM_PATH -a $GENOME_SAM_PATH \
+      -w $WEIGHT_DIR/$TRANSCRIPT_SAM_EDIT_DISTANCE_FILE -W $WEIGHT_DIR/$JUNCTION_SAM_EDIT_DISTANCE_FILE \
+      -A $WEIGHT_DIR/$GENOME_SAM_EDIT_DISTANCE_FILE -o -"
+    echo "Executed as:"
+    echo "  $ZCAT_TRANSCRIPT_SAM_FILE_CMD |"
+    echo "  $COMBINE_SAM_FILES_CMD | gzip > $SAM_DIR/$COMBINED_SAM_FILE"
+    $ZCAT_TRANSCRIPT_SAM_FILE_CMD | $JAVA $COMBINE_SAM_FILES_CMD | gzip > $SAM_DIR/$COMBINED_SAM_FILE
+  else
+    $ZCAT_TRANSCRIPT_SAM_FILE_CMD | $JUNCTION_COMBINE_SAM_FILE_CMD_FULL | $GENOME_COMBINE_SAM_FILE_CMD_FULL | gzip > $SAM_DIR/$COMBINED_SAM_FILE
+  fi
   if [ $? -ne 0 ]
   then
     echo "ERROR: Problem with generation of combined SAM file"
@@ -0,0 +1,55 @@
+/**File: BedRecordParsingHotPath.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.util.*;
+
+import eqp.benchmark.HotPath;
+
+
+/***********************************************************************************
+ *
+ *                              Class BedRecordParsingHotPath
+ *
+ *  BedRecord construction for all lines of the intersection BED file.
+ *
+ ***********************************************************************************/
+
+public class BedRecordParsingHotPath implements HotPath {
+
+  private String [] intersectionLines = null;
+
+  public void setUp (long seed, int numFragments) throws Exception {
+    intersectionLines = new SyntheticAlignmentData (seed, numFragments).getIntersectionLines ().toArray (new String [0]);
+  }
+
+  public void prepare () {
+  }
+
+  public int run () throws Exception {
+
+    int checksum = 0;
+    for (String intersectionLine: intersectionLines) {
+      BedRecord bedRecord = new BedRecord (intersectionLine);
+      checksum += bedRecord.getOverlap () + bedRecord.getReadAlignedLength ();
+    }
+
+    return checksum;
+
+  }
+
+}
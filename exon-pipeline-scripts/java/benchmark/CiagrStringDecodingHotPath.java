@@ -0,0 +1,62 @@
+/**File: CiagrStringDecodingHotPath.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.util.*;
+
+import eqp.benchmark.HotPath;
+
+
+/***********************************************************************************
+ *
+ *                              Class CiagrStringDecodingHotPath
+ *
+ *  CiagrString decoding (with intron coordinates) of the CIGAR strings of all SAM
+ *  records.
+ *
+ ***********************************************************************************/
+
+public class CiagrStringDecodingHotPath implements HotPath {
+
+  private SamRecord [] samRecords = null;
+
+  public void setUp (long seed, int numFragments) throws Exception {
+
+    Vector<String> samLines = new SyntheticAlignmentData (seed, numFragments).getSamLines ();
+    samRecords = new SamRecord [samLines.size ()];
+    for (int i = 0; i < samRecords.length; i++) {
+      samRecords[i] = new SamRecord (samLines.get (i));
+    }
+
+  }
+
+  public void prepare () {
+  }
+
+  public int run () throws Exception {
+
+    int checksum = 0;
+    for (SamRecord samRecord: samRecords) {
+      CiagrString ciagrString = new CiagrString (samRecord, true);
+      checksum += ciagrString.getReadAlignedLength () + ciagrString.getNumIntrons ();
+    }
+
+    return checksum;
+
+  }
+
+}
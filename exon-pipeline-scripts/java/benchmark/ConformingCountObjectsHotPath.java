@@ -0,0 +1,76 @@
+/**File: ConformingCountObjectsHotPath.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.util.*;
+
+import eqp.benchmark.HotPath;
+
+
+/***********************************************************************************
+ *
+ *                              Class ConformingCountObjectsHotPath
+ *
+ *  GenomicAlignment.getConformingCountObjects in gene count mode (as ComputeCounts
+ *  -g) for the genomic alignments of all fragments.
+ *
+ ***********************************************************************************/
+
+public class ConformingCountObjectsHotPath implements HotPath {
+
+  private Vector<GenomicAlignment> genomicAlignments = new Vector<GenomicAlignment> ();
+  private HashSetTable<Exon, String> countObjectTable = null;
+
+  public void setUp (long seed, int numFragments) throws Exception {
+
+    SyntheticAlignmentData syntheticAlignmentData = WeightObjectAlignmentsHotPath.setUpGeneCountMode (seed, numFragments);
+    countObjectTable = Exon.getCountObjectTable ();
+
+    String [] intersectionLines = syntheticAlignmentData.getIntersectionLines ().toArray (new String [0]);
+    for (WeightObject weightObject: WeightObjectAlignmentsHotPath.createWeightObjects (intersectionLines)) {
+      weightObject.adjustGenomicAlignments ();
+      weightObject.mergeWeightAlignments ();
+      for (WeightObjectAlignment weightObjectAlignment: weightObject.getWeightObjectAlignmentSet ()) {
+	if (weightObjectAlignment.getGenomicAlignment1 () != null) {
+	  genomicAlignments.add (weightObjectAlignment.getGenomicAlignment1 ());
+	}
+	if (weightObjectAlignment.getGenomicAlignment2 () != null) {
+	  genomicAlignments.add (weightObjectAlignment.getGenomicAlignment2 ());
+	}
+      }
+    }
+
+  }
+
+  public void prepare () {
+  }
+
+  public int run () throws Exception {
+
+    int checksum = 0;
+    HashSet<String> conformingCountObjects = new HashSet<String> ();
+    for (GenomicAlignment genomicAlignment: genomicAlignments) {
+      conformingCountObjects.clear ();
+      genomicAlignment.addConformingCountObjects (1, countObjectTable, false, false, conformingCountObjects);
+      checksum += conformingCountObjects.size ();
+    }
+
+    return checksum;
+
+  }
+
+}
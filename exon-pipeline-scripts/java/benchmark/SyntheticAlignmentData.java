@@ -0,0 +1,378 @@
+/**File: SyntheticAlignmentData.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class SyntheticAlignmentData
+ *
+ *  Synthetic paired-end genome alignments of a sample for the benchmarks. The
+ *  data is determined by the seed and the number of fragments:
+ *
+ *  - an annotation of numGenes genes on five chromosomes; a gene has 1 to 20 exons
+ *    of 50 to 400 bases separated by introns of 80 bases to 20 kb (log-uniform)
+ *  - gene expression follows a Zipf distribution over the genes
+ *  - the number of alignments of a fragment follows the distribution of multi-
+ *    mapping reads of RNA-seq samples: about 78% of the fragments align uniquely
+ *    and the number of alignments of the others decays with 1/k^2 up to 20; the
+ *    additional alignments fall mostly into neighbouring genes (paralogs)
+ *  - reads which cross exon boundaries are spliced; a few reads have soft-clipped
+ *    bases, insertions or deletions, and 10% of the fragments have single-read
+ *    alignments of the first read only
+ *
+ *  From the alignments it creates the SAM records, the intersection BED lines as
+ *  created by ConvertSamBed and bedtools intersect -wo against the exon BED file
+ *  (sorted by fragment), the count object map (exon -> gene), and the read weight
+ *  file lines.
+ *
+ ***********************************************************************************/
+
+class SyntheticAlignmentData {
+
+  private static final int readLength      = 101;
+  private static final int numChromosomes  = 5;
+  private static final int maxNumLoci      = 20;
+  private static final double uniqueFraction = 0.78;
+
+  private Random random = null;
+
+  /* Gene model: exon coordinates are 1-based and inclusive */
+  private String [] geneChromosomes = null;
+  private String [] geneStrands     = null;
+  private int [][]  exonStarts      = null;
+  private int [][]  exonEnds        = null;
+  private int []    transcriptLengths = null;
+
+  private double [] cumulativeExpression = null;
+  private double [] cumulativeNumLoci    = null;
+
+  private String sequence      = null;
+  private String qualityString = null;
+
+  private Vector<String> samLines           = new Vector<String> ();
+  private Vector<String> intersectionLines  = new Vector<String> ();
+  private Vector<String> weightLines        = new Vector<String> ();
+  private StringBuffer   countObjectMap     = new StringBuffer ();
+
+
+  /***********************************************************************************
+   *
+   *                           Constructor
+   *
+   ***********************************************************************************/
+
+  SyntheticAlignmentData (long seed, int numFragments) throws IOException {
+
+    random = new Random (seed);
+
+    int numGenes = Math.max (100, numFragments / 10);
+    createAnnotation (numGenes);
+
+    StringBuffer sequenceBuffer = new StringBuffer ();
+    StringBuffer qualityBuffer  = new StringBuffer ();
+    for (int i = 0; i < readLength; i++) {
+      sequenceBuffer.append ("ACGT".charAt (random.nextInt (4)));
+      qualityBuffer.append ((char) ('5' + random.nextInt (10)));
+    }
+    sequence      = sequenceBuffer.toString ();
+    qualityString = qualityBuffer.toString ();
+
+    for (int fragmentIndex = 1; fragmentIndex <= numFragments; fragmentIndex++) {
+      createFragment (String.format ("F%09d", fragmentIndex));
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  Vector<String> getSamLines () {
+    return samLines;
+  }
+
+  Vector<String> getIntersectionLines () {
+    return intersectionLines;
+  }
+
+  Vector<String> getWeightLines () {
+    return weightLines;
+  }
+
+  BufferedReader getCountObjectMapReader () {
+    return new BufferedReader (new StringReader (countObjectMap.toString ()));
+  }
+
+
+  /***********************************************************************************
+   *
+   *  createAnnotation: genes are placed one after the other on the chromosomes
+   *
+   ***********************************************************************************/
+
+  private void createAnnotation (int numGenes) {
+
+    geneChromosomes   = new String [numGenes];
+    geneStrands       = new String [numGenes];
+    exonStarts        = new int [numGenes][];
+    exonEnds          = new int [numGenes][];
+    transcriptLengths = new int [numGenes];
+
+    int genesPerChromosome = (numGenes + numChromosomes - 1) / numChromosomes;
+    int position = 0;
+    for (int gene = 0; gene < numGenes; gene++) {
+      if (gene % genesPerChromosome == 0) {
+	position = 10000;
+      }
+
+      geneChromosomes[gene] = "chr" + (gene / genesPerChromosome + 1);
+      geneStrands[gene]     = random.nextBoolean ()?"+":"-";
+
+      int numExons = 1;
+      while (numExons < 20 && random.nextDouble () < 0.85) {
+	numExons++;
+      }
+
+      exonStarts[gene] = new int [numExons];
+      exonEnds[gene]   = new int [numExons];
+      for (int exon = 0; exon < numExons; exon++) {
+	if (exon > 0) {
+	  position += (int) Math.exp (Math.log (80) + random.nextDouble () * (Math.log (20000) - Math.log (80)));
+	}
+	int exonLength = 50 + random.nextInt (351);
+	exonStarts[gene][exon] = position + 1;
+	exonEnds[gene][exon]   = position + exonLength;
+	transcriptLengths[gene] += exonLength;
+	position += exonLength;
+
+	String exonId = geneChromosomes[gene] + "/" + exonStarts[gene][exon] + "/" + exonEnds[gene][exon] + "/" + geneStrands[gene];
+	countObjectMap.append (exonId + "\tG" + gene + "\n");
+      }
+
+      position += 5000 + random.nextInt (45000);
+    }
+
+    /* Zipf distributed expression over a random order of the genes */
+    int [] expressionRanks = new int [numGenes];
+    for (int gene = 0; gene < numGenes; gene++) {
+      expressionRanks[gene] = gene + 1;
+    }
+    for (int gene = numGenes - 1; gene > 0; gene--) {
+      int other = random.nextInt (gene + 1);
+      int rank  = expressionRanks[gene];
+      expressionRanks[gene]  = expressionRanks[other];
+      expressionRanks[other] = rank;
+    }
+
+    cumulativeExpression = new double [numGenes];
+    double sum = 0;
+    for (int gene = 0; gene < numGenes; gene++) {
+      sum += transcriptLengths[gene] >= 2 * readLength?1.0 / expressionRanks[gene]:0;
+      cumulativeExpression[gene] = sum;
+    }
+
+    /* Number of alignments of a fragment */
+    cumulativeNumLoci = new double [maxNumLoci + 1];
+    double tailSum = 0;
+    for (int k = 2; k <= maxNumLoci; k++) {
+      tailSum += 1.0 / (k * k);
+    }
+    cumulativeNumLoci[1] = uniqueFraction;
+    for (int k = 2; k <= maxNumLoci; k++) {
+      cumulativeNumLoci[k] = cumulativeNumLoci[k - 1] + (1 - uniqueFraction) / (k * k * tailSum);
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  private int sample (double [] cumulativeValues, int first) {
+
+    double value = random.nextDouble () * cumulativeValues[cumulativeValues.length - 1];
+    int index = Arrays.binarySearch (cumulativeValues, first, cumulativeValues.length, value);
+    if (index < 0) {
+      index = - index - 1;
+    }
+
+    return Math.min (index, cumulativeValues.length - 1);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  createFragment: the alignments of one fragment
+   *
+   ***********************************************************************************/
+
+  private void createFragment (String fragmentName) throws IOException {
+
+    int numLoci    = sample (cumulativeNumLoci, 1);
+    boolean pairedEnd = random.nextDouble () >= 0.1;
+
+    int gene = sample (cumulativeExpression, 0);
+    while (transcriptLengths[gene] < 2 * readLength) {
+      gene = sample (cumulativeExpression, 0);
+    }
+    int insertLength = Math.max (readLength, (int) (250 + 50 * random.nextGaussian ()));
+
+    HashSet<Integer> usedGenes = new HashSet<Integer> ();
+    int sumEditDistance = 0;
+    for (int locus = 1; locus <= numLoci; locus++) {
+      int locusGene = gene;
+      if (locus > 1) {
+	/* Paralogs are mostly close to the original gene */
+	locusGene = random.nextBoolean ()?gene + random.nextInt (7) - 3:random.nextInt (geneChromosomes.length);
+	locusGene = Math.max (0, Math.min (geneChromosomes.length - 1, locusGene));
+      }
+      if (transcriptLengths[locusGene] < 2 * readLength || usedGenes.contains (locusGene)) {
+	locusGene = gene;
+      }
+      usedGenes.add (locusGene);
+
+      int editDistance = random.nextInt (3);
+      sumEditDistance += editDistance;
+
+      int fragmentLength = Math.min (insertLength, transcriptLengths[locusGene]);
+      int transcriptStart = random.nextInt (transcriptLengths[locusGene] - fragmentLength + 1);
+      String alignmentId  = String.format ("-A%06d", locus);
+
+      if (pairedEnd) {
+	addRead (fragmentName, alignmentId, 1, locusGene, transcriptStart, numLoci, locus, editDistance, true);
+	addRead (fragmentName, alignmentId, 2, locusGene, transcriptStart + fragmentLength - readLength, numLoci, locus, editDistance, true);
+      } else {
+	addRead (fragmentName, alignmentId, 1, locusGene, transcriptStart, numLoci, locus, editDistance, false);
+      }
+    }
+
+    weightLines.add (fragmentName + "\t" + numLoci + "\t" + sumEditDistance + "\t" + (pairedEnd?"paired-end":"single-read"));
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  addRead: the SAM record and the intersection BED lines of one read
+   *
+   ***********************************************************************************/
+
+  private void addRead (String fragmentName, String alignmentId, int readIndex, int gene, int transcriptStart, int numLoci, int locus,
+			int editDistance, boolean pairedEnd) throws IOException {
+
+    /* Soft clipping, insertion, or deletion of the read */
+    int softClipLength  = random.nextDouble () < 0.05?1 + random.nextInt (5):0;
+    int insertionLength = random.nextDouble () < 0.02?1 + random.nextInt (3):0;
+    int deletionLength  = insertionLength == 0 && random.nextDouble () < 0.02?1 + random.nextInt (3):0;
+    int matchLength     = readLength - softClipLength - insertionLength;
+
+    /* The genome blocks of the read: [start, end] 1-based, split at the exon boundaries */
+    int [] starts = exonStarts[gene];
+    int [] ends   = exonEnds[gene];
+    int exon = 0;
+    int offset = transcriptStart + softClipLength;
+    while (offset >= ends[exon] - starts[exon] + 1) {
+      offset -= ends[exon] - starts[exon] + 1;
+      exon++;
+    }
+
+    Vector<int []> blocks = new Vector<int []> ();
+    int remaining = matchLength + deletionLength;
+    int blockStart = starts[exon] + offset;
+    while (remaining > 0) {
+      if (exon >= starts.length) {
+	/* Deletions at the very end of a transcript run over the last exon */
+	int [] lastBlock = blocks.lastElement ();
+	lastBlock[1] += remaining;
+	break;
+      }
+      int blockLength = Math.min (remaining, ends[exon] - blockStart + 1);
+      blocks.add (new int [] {blockStart, blockStart + blockLength - 1});
+      remaining -= blockLength;
+      exon++;
+      if (exon < starts.length) {
+	blockStart = starts[exon];
+      }
+    }
+
+    /* CIGAR string and BED entries of the blocks; the soft clipping is in the first, the indel in the longest block */
+    int indelBlock = 0;
+    for (int b = 1; b < blocks.size (); b++) {
+      if (blocks.get (b)[1] - blocks.get (b)[0] > blocks.get (indelBlock)[1] - blocks.get (indelBlock)[0]) {
+	indelBlock = b;
+      }
+    }
+
+    StringBuffer cigar = new StringBuffer ();
+    if (softClipLength > 0) {
+      cigar.append (softClipLength + "S");
+    }
+
+    String chromosome = geneChromosomes[gene];
+    String strand     = (readIndex == 1) == geneStrands[gene].equals ("+")?"+":"-";
+    String readSuffix = (pairedEnd?"/P":"/S") + readIndex;
+    for (int b = 0; b < blocks.size (); b++) {
+      int [] block = blocks.get (b);
+      int blockRefLength   = block[1] - block[0] + 1;
+      int blockInsertions  = b == 0?softClipLength:0;
+      int blockDeletions   = 0;
+      if (b > 0) {
+	cigar.append ((block[0] - blocks.get (b - 1)[1] - 1) + "N");
+      }
+      if (b == indelBlock && (insertionLength > 0 || deletionLength > 0)) {
+	int firstMatch = Math.max (1, (blockRefLength - deletionLength) / 2);
+	if (insertionLength > 0) {
+	  cigar.append (firstMatch + "M" + insertionLength + "I" + (blockRefLength - firstMatch) + "M");
+	  blockInsertions += insertionLength;
+	} else {
+	  cigar.append (firstMatch + "M" + deletionLength + "D" + (blockRefLength - firstMatch - deletionLength) + "M");
+	  blockDeletions = deletionLength;
+	}
+      } else {
+	cigar.append (blockRefLength + "M");
+      }
+
+      int blockReadLength = blockRefLength - blockDeletions + blockInsertions;
+      String bedName = fragmentName + alignmentId + "-L" + blockReadLength + "-I" + blockInsertions + "-D" + blockDeletions +
+	"-F" + b + "-" + (blocks.size () - 1) + readSuffix;
+      String bedLine = chromosome + "\t" + (block[0] - 1) + "\t" + block[1] + "\t" + bedName + "\t" + (b + 1) + "\t" + strand;
+
+      /* bedtools intersect -wo with the exons of the gene */
+      for (int e = 0; e < starts.length; e++) {
+	int overlap = Math.min (block[1], ends[e]) - Math.max (block[0], starts[e]) + 1;
+	if (overlap > 0) {
+	  String exonId = chromosome + "/" + starts[e] + "/" + ends[e] + "/" + geneStrands[gene];
+	  intersectionLines.add (bedLine + "\t" + chromosome + "\t" + (starts[e] - 1) + "\t" + ends[e] + "\t" + exonId + "\t0\t" +
+				 geneStrands[gene] + "\t" + overlap);
+	}
+      }
+    }
+
+    int flag = strand.equals ("-")?16:0;
+    if (pairedEnd) {
+      flag += 1 + 2 + (readIndex == 1?64:128) + (strand.equals ("-")?32:16);
+    }
+    samLines.add (fragmentName + "\t" + flag + "\t" + chromosome + "\t" + blocks.get (0)[0] + "\t" + (numLoci == 1?255:1) +
+		  "\t" + cigar + "\t" + (pairedEnd?"=":"*") + "\t0\t0\t" + sequence + "\t" + qualityString + "\tNH:i:" + numLoci +
+		  "\tHI:i:" + locus + "\tNM:i:" + editDistance);
+
+  }
+
+}
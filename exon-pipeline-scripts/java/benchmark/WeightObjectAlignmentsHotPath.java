@@ -0,0 +1,93 @@
+/**File: WeightObjectAlignmentsHotPath.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.util.*;
+
+import eqp.benchmark.HotPath;
+
+
+/***********************************************************************************
+ *
+ *                              Class WeightObjectAlignmentsHotPath
+ *
+ *  WeightObject.adjustGenomicAlignments and mergeWeightAlignments for the weight
+ *  objects of all fragments in gene count mode (as ComputeCounts -g).
+ *
+ ***********************************************************************************/
+
+public class WeightObjectAlignmentsHotPath implements HotPath {
+
+  private String [] intersectionLines = null;
+  private Vector<WeightObject> weightObjects = null;
+
+  /* The settings of ComputeCounts -g and the count objects of the synthetic annotation */
+  static SyntheticAlignmentData setUpGeneCountMode (long seed, int numFragments) throws Exception {
+
+    SyntheticAlignmentData syntheticAlignmentData = new SyntheticAlignmentData (seed, numFragments);
+
+    UtilLib.setCountMode ("gene");
+    UtilLib.setOverlapThreshold (8);
+    Exon.loadCountObjectFile (syntheticAlignmentData.getCountObjectMapReader ());
+
+    return syntheticAlignmentData;
+
+  }
+
+  /* The weight objects of the fragments as created by ComputeCounts */
+  static Vector<WeightObject> createWeightObjects (String [] intersectionLines) throws Exception {
+
+    Vector<WeightObject> weightObjects = new Vector<WeightObject> ();
+    WeightObject weightObject = null;
+    String oldFragmentId = "";
+    for (String intersectionLine: intersectionLines) {
+      BedRecord bedRecord = new BedRecord (intersectionLine);
+      if (weightObject == null || ! bedRecord.getFragmentId ().equals (oldFragmentId)) {
+	weightObject = new WeightObject (bedRecord);
+	weightObjects.add (weightObject);
+	oldFragmentId = bedRecord.getFragmentId ();
+      } else {
+	weightObject.addBedRecord (bedRecord);
+      }
+    }
+
+    return weightObjects;
+
+  }
+
+  public void setUp (long seed, int numFragments) throws Exception {
+    intersectionLines = setUpGeneCountMode (seed, numFragments).getIntersectionLines ().toArray (new String [0]);
+  }
+
+  public void prepare () throws Exception {
+    weightObjects = createWeightObjects (intersectionLines);
+  }
+
+  public int run () throws Exception {
+
+    int checksum = 0;
+    for (WeightObject weightObject: weightObjects) {
+      weightObject.adjustGenomicAlignments ();
+      weightObject.mergeWeightAlignments ();
+      checksum += weightObject.getWeightObjectAlignmentSet ().size ();
+    }
+
+    return checksum;
+
+  }
+
+}
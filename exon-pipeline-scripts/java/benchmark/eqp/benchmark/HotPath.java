@@ -0,0 +1,46 @@
+/**File: HotPath.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+package eqp.benchmark;
+
+
+/***********************************************************************************
+ *
+ *                              Interface HotPath
+ *
+ *  A hot path of the tools which is measured by the benchmarks. JMH requires the
+ *  benchmarks to be in a named package while the tools are in the default package
+ *  which cannot be referenced from a named package. The hot paths are therefore
+ *  implemented by the classes <name>HotPath in the default package (next to the
+ *  tools) and the benchmarks load them by name; run is called through this
+ *  interface which does not add a measurable cost.
+ *
+ ***********************************************************************************/
+
+public interface HotPath {
+
+  /* Create the synthetic data of numFragments fragments */
+  void setUp (long seed, int numFragments) throws Exception;
+
+  /* Prepare the input of the next call of run if run consumes its input */
+  void prepare () throws Exception;
+
+  /* Process the data once; returns a checksum of the results */
+  int run () throws Exception;
+
+}
@@ -0,0 +1,66 @@
+/**File: ParsingBenchmark.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+package eqp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class ParsingBenchmark
+ *
+ *  The time to parse all SAM records, intersection BED lines, CIGAR strings, or
+ *  read weight lines of a synthetic sample of numFragments fragments (see
+ *  SyntheticAlignmentData).
+ *
+ ***********************************************************************************/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ParsingBenchmark {
+
+  @Param({"SamRecordConstruction", "BedRecordParsing", "CiagrStringDecoding", "FragmentEntryParsing"})
+  public String hotPathName;
+
+  @Param({"20000"})
+  public int numFragments;
+
+  @Param({"17"})
+  public long seed;
+
+  private HotPath hotPath = null;
+
+  @Setup(Level.Trial)
+  public void setUp () throws Exception {
+    hotPath = (HotPath) Class.forName (hotPathName + "HotPath").newInstance ();
+    hotPath.setUp (seed, numFragments);
+  }
+
+  @Benchmark
+  public int parse () throws Exception {
+    return hotPath.run ();
+  }
+
+}
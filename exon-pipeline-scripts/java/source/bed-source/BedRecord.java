@@ -40,7 +40,7 @@ class BedRecord implements Comparable<BedRecord> {
   private static int debugLevel = UtilLib.getDebugLevel ();
 
   private static Pattern versionPattern = Pattern.compile("[.][0-9]+$");
-  private static HashSet<String> incorrectStartCoordinates = new HashSet<String> (10000);
+  private static Set<String> incorrectStartCoordinates = Collections.synchronizedSet (new HashSet<String> (10000));
 
   public static void setDebugLevel (int value) {
     debugLevel = value;
@@ -521,10 +521,15 @@ class BedRecord implements Comparable<BedRecord> {
 
     boolean conformingAlignment = isConformingAlignment ();
 
-    if (debugLevel >= 2 || ComputeCounts.getSpecialReadIdSet ().contains(getFragmentId ())) {
+    if (debugLevel >= 2) {
       System.out.println(referenceSequenceId + "/" + readAlignStart  + "/" + readAlignEnd + " vs. " + exon + " conforming: " + conformingAlignment);
     }
 
+    if (FragmentTrace.ON && FragmentTrace.isTraced (getFragmentId ())) {
+      FragmentTrace.trace (getFragmentId (), "bedRecord", referenceSequenceId + "/" + readAlignStart  + "/" + readAlignEnd + "\t" + exon +
+			   "\tconforming: " + conformingAlignment);
+    }
+
     if (debugLevel >= 2) {
       System.out.println("Exon of BedRecord before creating GenomicInterval: " + exon);
     }
@@ -568,9 +573,14 @@ class BedRecord implements Comparable<BedRecord> {
 
     boolean conformingAlignment = isConformingAlignment ();
 
-    if (debugLevel >= 2 || ComputeCounts.getSpecialReadIdSet ().contains(getFragmentId ())) {
+    if (debugLevel >= 2) {
       System.out.println(referenceSequenceId + "/" + readAlignStart  + "/" + readAlignEnd + " conforming: " + conformingAlignment);
     }
+
+    if (FragmentTrace.ON && FragmentTrace.isTraced (getFragmentId ())) {
+      FragmentTrace.trace (getFragmentId (), "bedRecord", referenceSequenceId + "/" + readAlignStart  + "/" + readAlignEnd + "\t" + exon +
+			   "\tconforming: " + conformingAlignment);
+    }
         
     return new GenomicInterval(exon.getChromosome (), getGenomeAlignmentStart (), getGenomeAlignmentEnd (), getAlignStrand (),
 			       getOverlap(), exon, lengthDifference, readAlignedLength, numInsertions,
@@ -0,0 +1,631 @@
+/**File: CombineCountFiles.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class CombineCountFiles
+ *
+ *  Combines the count files of the samples of a project into one table with a
+ *  column per sample (the Java version of combineCounts.py) and optionally
+ *  computes the FPKM and TPM values of the counts (the Java version of
+ *  computeFpkm.py).
+ *
+ *  The rows of the table are the count objects of the count object map file
+ *  (option -m) in the order of the output of ComputeCounts, the ids of an id
+ *  file (option -I) in the order of the file or, otherwise, the sorted union of
+ *  the ids of all count files. The count files are read in parallel into a
+ *  MappedCountMatrix - each file fills its own columns - and the table, the FPKM
+ *  and the TPM values are written in one pass over the rows of the matrix.
+ *
+ ***********************************************************************************/
+
+public class CombineCountFiles {
+
+  private static int debugLevel = 0;
+  private static int countUnit  = 500 * 1000;
+
+  private static int numThreads = 1;
+
+
+  /***********************************************************************************
+   *
+   *  readCountObjectLengths: the lengths of the count objects in the length file
+   *  (e.g. the gene length file of computeFpkm.py) with the lines
+   *
+   *    <count object id> <length>
+   *
+   ***********************************************************************************/
+
+  private static void readCountObjectLengths (String lengthFilename, HashMap<String, Integer> rowIndex, double[] rowLengths) throws IOException {
+
+    BufferedReader reader = UtilLib.getBufferedReader (lengthFilename);
+    String line = reader.readLine ();
+    while (line != null) {
+      String [] fields = line.split ("\t");
+      if (fields.length >= 2 && ! fields[0].equals("Gene Id") && rowIndex.containsKey (fields[0])) {
+	rowLengths[rowIndex.get (fields[0]).intValue ()] = Integer.parseInt (fields[1]);
+      }
+      line = reader.readLine ();
+    }
+    reader.close ();
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  computeCountObjectLengths: the lengths of the union of the exons of the count
+   *  objects of the count object map file; the rows are the output ids of the count
+   *  objects (see Exon.getOutputCountObjectIds)
+   *
+   ***********************************************************************************/
+
+  private static void computeCountObjectLengths (HashMap<String, Integer> rowIndex, double[] rowLengths,
+						 LinkedHashMap<String, String> outputCountObjectIds) {
+
+    HashSetTable<Exon, String> countObjectTable = Exon.getCountObjectTable ();
+    HashSetTable<String, Exon> countObjectExons = new HashSetTable<String, Exon> ();
+    for (Exon exon: countObjectTable.keySet ()) {
+      for (String countObjectId: countObjectTable.get (exon)) {
+	countObjectExons.putValue (countObjectId, exon);
+      }
+    }
+
+    for (String outputCountObjectId: outputCountObjectIds.keySet ()) {
+      Integer row = rowIndex.get (outputCountObjectId);
+      String  countObjectId = outputCountObjectIds.get (outputCountObjectId);
+      if (row != null && countObjectExons.containsKey (countObjectId)) {
+	rowLengths[row.intValue ()] = Exon.computeExonSetLength (countObjectExons.get (countObjectId));
+      }
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  readNumReads: the number of aligned reads per sample; the lines are
+   *
+   *    <sample> [<chunk>] <number of aligned reads>
+   *
+   *  and the numbers of the chunks of a sample are added up
+   *
+   ***********************************************************************************/
+
+  private static Hashtable<String, Long> readNumReads (String numReadsFilename) throws IOException {
+
+    Hashtable<String, Long> numReads = new Hashtable<String, Long> ();
+
+    BufferedReader reader = UtilLib.getBufferedReader (numReadsFilename);
+    String line = reader.readLine ();
+    while (line != null) {
+      String [] fields = line.split ("\t");
+      if (fields.length >= 2 && fields[0].indexOf ("Sample") < 0) {
+	long sampleNumReads = Long.parseLong (fields[fields.length - 1]);
+	if (numReads.containsKey (fields[0])) {
+	  sampleNumReads = sampleNumReads + numReads.get (fields[0]).longValue ();
+	}
+	numReads.put (fields[0], new Long (sampleNumReads));
+      }
+      line = reader.readLine ();
+    }
+    reader.close ();
+
+    return numReads;
+
+  }
+
+
+  /***********************************************************************************/
+
+  private static String getCause (ExecutionException e) {
+    return e.getCause () == null?e.getMessage ():e.getCause ().getMessage ();
+  }
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("CombineCountFiles.java\n" +
+      "   -- Program to combine the count files of several samples into one table.\n" +
+      "\n" +
+      "USAGE: java CombineCountFiles [-m <count object map file>|-I <id file>]\n" +
+      "        [-F <FPKM file>] [-T <TPM file>] -o <output file> -i <count file> ...\n" +
+      "\n" +
+      "The count files are read in parallel into a memory-mapped matrix with one\n" +
+      "column per sample. The column header of a count file is its base name without\n" +
+      "the suffix (option -s) unless the file starts with a header line\n" +
+      "\"Id <column header> ...\" in which case all its columns are used.\n" +
+      "\n" +
+      "-i STRING: count files - one or more count files.\n" +
+      "-L STRING: count file list - a file with the names of the count files, one per\n" +
+      "   line.\n" +
+      "-s STRING: suffix (regular expression) which is removed from the file names to\n" +
+      "   obtain the column headers [].\n" +
+      "-m STRING: count object map file - the rows are the count objects of the file in\n" +
+      "   the order of ComputeCounts with the ids that ComputeCounts writes (the ids of\n" +
+      "   the second column of a file with three columns). The lengths of the count\n" +
+      "   objects for -F and -T are computed from the exons of the file if -l is not\n" +
+      "   given.\n" +
+      "-I STRING: id file - the rows are the ids in the first column of the file in the\n" +
+      "   order of the file. Without -m or -I, the rows are the sorted union of the ids\n" +
+      "   of all count files which requires an additional pass over the files.\n" +
+      "-n: output only rows with at least one non-zero count.\n" +
+      "-A: add up the counts of the count files column by column instead of writing\n" +
+      "    separate columns; all count files need to have the same number of columns\n" +
+      "    (no header line is written).\n" +
+      "-o STRING: output file - the combined counts (- for STDOUT) [-].\n" +
+      "-F STRING: FPKM file - the FPKM values of the count objects with a length [].\n" +
+      "-T STRING: TPM file - the TPM values of the count objects with a length [].\n" +
+      "-l STRING: length file - a file with the lines <count object id> <length>.\n" +
+      "-r STRING: read number file - a file with the lines <sample> [<chunk>] <number\n" +
+      "   of aligned reads>; the numbers are added up for each sample. The FPKM values\n" +
+      "   are normalized by the sum of the counts of a sample if the file is not given.\n" +
+      "-t INT: number of threads which read count files [" + numThreads + "].\n" +
+      "-W STRING: directory of the temporary matrix file [java.io.tmpdir].\n" +
+      "-X STRING: metrics file - write throughput metrics as JSON lines.\n" +
+      "-d INT: debug level [0].\n");
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    String  outputFilename         = "-";
+    String  countObjectMapFilename = "";
+    String  idFilename             = "";
+    String  listFilename           = "";
+    String  fileSuffix             = "";
+    String  fpkmFilename           = "";
+    String  tpmFilename            = "";
+    String  lengthFilename         = "";
+    String  numReadsFilename       = "";
+    String  tmpDirName             = "";
+    String  metricsFilename        = "";
+    boolean outputZeroes           = true;
+    boolean addUp                  = false;
+
+    Vector<String> countFilenames = new Vector<String> ();
+
+    Getopt g = new Getopt("CombineCountFiles.java", args, "Ad:F:i:I:l:L:m:no:r:s:t:T:W:X:h");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'A':
+	addUp = true;
+	break;
+      case 'd':
+	debugLevel = Integer.parseInt(g.getOptarg());
+	break;
+      case 'F':
+	fpkmFilename = g.getOptarg();
+	break;
+      case 'i':
+	countFilenames.add (g.getOptarg());
+	break;
+      case 'I':
+	idFilename = g.getOptarg();
+	break;
+      case 'l':
+	lengthFilename = g.getOptarg();
+	break;
+      case 'L':
+	listFilename = g.getOptarg();
+	break;
+      case 'm':
+	countObjectMapFilename = g.getOptarg();
+	break;
+      case 'n':
+	outputZeroes = false;
+	break;
+      case 'o':
+	outputFilename = g.getOptarg();
+	break;
+      case 'r':
+	numReadsFilename = g.getOptarg();
+	break;
+      case 's':
+	fileSuffix = g.getOptarg();
+	break;
+      case 't':
+	numThreads = Integer.parseInt(g.getOptarg());
+	break;
+      case 'T':
+	tpmFilename = g.getOptarg();
+	break;
+      case 'W':
+	tmpDirName = g.getOptarg();
+	break;
+      case 'X':
+	metricsFilename = g.getOptarg();
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned unknown option: " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    /* As with combineCounts.py, -i may be followed by several count files */
+    for (int i = g.getOptind (); i < args.length; i++) {
+      countFilenames.add (args[i]);
+    }
+
+    ExecutorService executorService = null;
+    MappedCountMatrix countMatrix = null;
+    try {
+
+      if (! listFilename.equals("")) {
+	BufferedReader listReader = UtilLib.getBufferedReader (listFilename);
+	String line = listReader.readLine ();
+	while (line != null) {
+	  if (! line.trim().equals("")) {
+	    countFilenames.add (line.trim ());
+	  }
+	  line = listReader.readLine ();
+	}
+	listReader.close ();
+      }
+
+      if (countFilenames.size () == 0) {
+	throw new IOException ("ERROR: No count files given (options -i or -L).");
+      }
+
+      if (! countObjectMapFilename.equals("") && ! idFilename.equals("")) {
+	throw new IOException ("ERROR: Only one of the options -m and -I can be used.");
+      }
+
+      boolean computeFpkm = ! fpkmFilename.equals("") || ! tpmFilename.equals("");
+      if (computeFpkm && addUp) {
+	throw new IOException ("ERROR: FPKM and TPM values (options -F and -T) cannot be computed for added up counts (option -A).");
+      }
+
+      if (computeFpkm && lengthFilename.equals("") && countObjectMapFilename.equals("")) {
+	throw new IOException ("ERROR: FPKM and TPM values (options -F and -T) need a length file (option -l) or a count object map file (option -m).");
+      }
+
+      boolean metricsStarted = false;
+      if (! metricsFilename.equals("")) {
+	metricsStarted = PipelineMetrics.start (metricsFilename);
+      }
+      StageMetrics countFileMetrics = PipelineMetrics.getStage ("CombineCountFiles count files");
+      StageMetrics outputMetrics    = PipelineMetrics.getStage ("CombineCountFiles rows");
+
+      executorService = Executors.newFixedThreadPool (Math.max (numThreads, 1));
+
+
+      /***********************************************************************************
+       *
+       *  The columns of the count files
+       *
+       ***********************************************************************************/
+
+      Vector<CountFile> countFiles = new Vector<CountFile> (countFilenames.size ());
+      Vector<String>    columnHeaders = new Vector<String> ();
+      for (String countFilename: countFilenames) {
+	CountFile countFile = new CountFile (countFilename, fileSuffix);
+	countFile.setFirstColumn (columnHeaders.size ());
+	columnHeaders.addAll (Arrays.asList (countFile.getColumnHeaders ()));
+	countFiles.add (countFile);
+      }
+
+      System.err.println ("Combining " + countFiles.size () + " count files with " + columnHeaders.size () + " columns.");
+
+      /* As in combineCounts.py, the counts of the files are added up column by column */
+      int numAddedColumns = countFiles.get (0).getNumColumns ();
+      if (addUp) {
+	for (CountFile countFile: countFiles) {
+	  if (countFile.getNumColumns () != numAddedColumns) {
+	    throw new IOException ("ERROR: The number of columns " + countFile.getNumColumns () + " of " + countFile.getFilename () +
+				   " differs from the number of columns " + numAddedColumns + " of " + countFiles.get (0).getFilename () +
+				   " (option -A).");
+	  }
+	}
+      }
+
+
+      /***********************************************************************************
+       *
+       *  The rows
+       *
+       ***********************************************************************************/
+
+      Vector<String> rowIds = new Vector<String> ();
+      LinkedHashMap<String, String> outputCountObjectIds = null;
+      if (! countObjectMapFilename.equals("")) {
+	System.err.println ("Loading exon count object map file " + countObjectMapFilename);
+	Exon.loadCountObjectFile (countObjectMapFilename);
+	outputCountObjectIds = Exon.getOutputCountObjectIds ();
+	rowIds.addAll (outputCountObjectIds.keySet ());
+      } else if (! idFilename.equals("")) {
+	System.err.println ("Reading count objects ids from file " + idFilename);
+	BufferedReader idReader = UtilLib.getBufferedReader (idFilename);
+	String line = idReader.readLine ();
+	while (line != null) {
+	  int tabPos = line.indexOf ('\t');
+	  String countObjectId = tabPos >= 0?line.substring (0, tabPos):line;
+	  if (! countObjectId.equals("")) {
+	    rowIds.add (countObjectId);
+	  }
+	  line = idReader.readLine ();
+	}
+	idReader.close ();
+      } else {
+	Vector<Future<HashSet<String>>> idSets = new Vector<Future<HashSet<String>>> (countFiles.size ());
+	for (final CountFile countFile: countFiles) {
+	  idSets.add (executorService.submit (new Callable<HashSet<String>> () {
+	      public HashSet<String> call () throws IOException {
+		return countFile.readIds ();
+	      }
+	    }));
+	}
+
+	TreeSet<String> countObjectIds = new TreeSet<String> ();
+	for (Future<HashSet<String>> idSet: idSets) {
+	  try {
+	    countObjectIds.addAll (idSet.get ());
+	  }
+	  catch (ExecutionException e) {
+	    throw new IOException (getCause (e));
+	  }
+	}
+	rowIds.addAll (countObjectIds);
+      }
+
+      /* An id which occurs several times in the id file refers to its first row */
+      HashMap<String, Integer> rowIndex = new HashMap<String, Integer> (2 * rowIds.size () + 1);
+      for (int row = 0; row < rowIds.size (); row++) {
+	if (! rowIndex.containsKey (rowIds.get (row))) {
+	  rowIndex.put (rowIds.get (row), new Integer (row));
+	}
+      }
+
+      double[] rowLengths = null;
+      if (computeFpkm) {
+	rowLengths = new double [rowIds.size ()];
+	if (! lengthFilename.equals("")) {
+	  readCountObjectLengths (lengthFilename, rowIndex, rowLengths);
+	} else {
+	  computeCountObjectLengths (rowIndex, rowLengths, outputCountObjectIds);
+	}
+      }
+
+
+      /***********************************************************************************
+       *
+       *  Read the count files in parallel
+       *
+       ***********************************************************************************/
+
+      countMatrix = new MappedCountMatrix (rowIds.size (), columnHeaders.size (), tmpDirName);
+
+      final HashMap<String, Integer> finalRowIndex    = rowIndex;
+      final double[]                 finalRowLengths  = rowLengths;
+      final MappedCountMatrix        finalCountMatrix = countMatrix;
+      final StageMetrics             finalMetrics     = countFileMetrics;
+
+      Vector<Future<CountFile>> readCountFiles = new Vector<Future<CountFile>> (countFiles.size ());
+      for (final CountFile countFile: countFiles) {
+	readCountFiles.add (executorService.submit (new Callable<CountFile> () {
+	    public CountFile call () throws IOException {
+	      countFile.readCounts (finalRowIndex, finalRowLengths, finalCountMatrix, finalMetrics);
+	      return countFile;
+	    }
+	  }));
+      }
+
+      double[] columnSums     = new double [columnHeaders.size ()];
+      double[] columnRateSums = new double [columnHeaders.size ()];
+      for (Future<CountFile> readCountFile: readCountFiles) {
+	CountFile countFile = null;
+	try {
+	  countFile = readCountFile.get ();
+	}
+	catch (ExecutionException e) {
+	  throw new IOException (getCause (e));
+	}
+
+	for (int column = 0; column < countFile.getNumColumns (); column++) {
+	  columnSums[countFile.getFirstColumn () + column]     = countFile.getColumnSum (column);
+	  columnRateSums[countFile.getFirstColumn () + column] = countFile.getColumnRateSum (column);
+	}
+
+	if (countFile.getNumUnknownIds () > 0) {
+	  System.err.println ("Warning: " + countFile.getNumUnknownIds () + " ids of " + countFile.getFilename () + " are not in the rows and are ignored.");
+	}
+      }
+
+      executorService.shutdown ();
+      executorService = null;
+
+
+      /***********************************************************************************
+       *
+       *  The FPKM normalization: the number of aligned reads or the sum of the counts
+       *  of each column
+       *
+       ***********************************************************************************/
+
+      double[] columnNumReads = columnSums;
+      if (computeFpkm && ! numReadsFilename.equals("")) {
+	Hashtable<String, Long> numReads = readNumReads (numReadsFilename);
+	columnNumReads = new double [columnHeaders.size ()];
+	for (int column = 0; column < columnHeaders.size (); column++) {
+	  if (! numReads.containsKey (columnHeaders.get (column))) {
+	    throw new IOException ("ERROR: No number of aligned reads for sample " + columnHeaders.get (column) + " in file " + numReadsFilename + ".");
+	  }
+	  columnNumReads[column] = numReads.get (columnHeaders.get (column)).doubleValue ();
+	}
+      } else if (computeFpkm) {
+	System.err.println ("Using the sum of the counts per sample for the FPKM normalization.");
+      }
+
+
+      /***********************************************************************************
+       *
+       *  Write the combined counts and the FPKM and TPM values
+       *
+       ***********************************************************************************/
+
+      System.err.println ("Writing combined counts to " + (outputFilename.equals("-")?"stdout":outputFilename));
+      PrintWriter outputWriter = UtilLib.getPrintWriter (outputFilename);
+      PrintWriter fpkmWriter   = fpkmFilename.equals("")?null:UtilLib.getPrintWriter (fpkmFilename);
+      PrintWriter tpmWriter    = tpmFilename.equals("")?null:UtilLib.getPrintWriter (tpmFilename);
+
+      StringBuffer headerBuffer = new StringBuffer ();
+      for (String columnHeader: columnHeaders) {
+	headerBuffer.append ("\t" + columnHeader);
+      }
+
+      if (! addUp) {
+	outputWriter.println ("Id" + headerBuffer);
+      }
+      if (fpkmWriter != null) {
+	fpkmWriter.println ("Gene Id" + headerBuffer);
+      }
+      if (tpmWriter != null) {
+	tpmWriter.println ("Gene Id" + headerBuffer);
+      }
+
+      int numColumns = columnHeaders.size ();
+      int numRowsWithoutLength = 0;
+      StringBuffer lineBuffer = new StringBuffer ();
+      for (int i = 0; i < rowIds.size (); i++) {
+
+	long startTime = outputMetrics.getStartTime ();
+
+	String countObjectId = rowIds.get (i);
+	int    row           = rowIndex.get (countObjectId).intValue ();
+
+	boolean isZero = true;
+	for (int column = 0; column < numColumns && isZero; column++) {
+	  isZero = countMatrix.get (row, column) == 0;
+	}
+
+	if (! outputZeroes && isZero) {
+	  continue;
+	}
+
+	if (addUp) {
+	  lineBuffer.setLength (0);
+	  lineBuffer.append (countObjectId);
+	  for (int column = 0; column < numAddedColumns; column++) {
+	    double columnSum = 0;
+	    for (CountFile countFile: countFiles) {
+	      columnSum = columnSum + countMatrix.get (row, countFile.getFirstColumn () + column);
+	    }
+	    lineBuffer.append ('\t');
+	    lineBuffer.append (columnSum);
+	  }
+	  outputWriter.println (lineBuffer);
+	} else {
+	  lineBuffer.setLength (0);
+	  lineBuffer.append (countObjectId);
+	  for (int column = 0; column < numColumns; column++) {
+	    lineBuffer.append ('\t');
+	    lineBuffer.append (countMatrix.get (row, column));
+	  }
+	  outputWriter.println (lineBuffer);
+	}
+
+	if (computeFpkm && rowLengths[row] <= 0) {
+	  numRowsWithoutLength++;
+	} else if (computeFpkm) {
+	  double rowLength = rowLengths[row];
+
+	  if (fpkmWriter != null) {
+	    lineBuffer.setLength (0);
+	    lineBuffer.append (countObjectId);
+	    for (int column = 0; column < numColumns; column++) {
+	      double fpkm = columnNumReads[column] > 0?countMatrix.get (row, column) / (rowLength / 1000.0) / (columnNumReads[column] / (1000.0 * 1000.0)):0;
+	      lineBuffer.append ('\t');
+	      lineBuffer.append (fpkm);
+	    }
+	    fpkmWriter.println (lineBuffer);
+	  }
+
+	  if (tpmWriter != null) {
+	    lineBuffer.setLength (0);
+	    lineBuffer.append (countObjectId);
+	    for (int column = 0; column < numColumns; column++) {
+	      double tpm = columnRateSums[column] > 0?countMatrix.get (row, column) / rowLength / columnRateSums[column] * 1000.0 * 1000.0:0;
+	      lineBuffer.append ('\t');
+	      lineBuffer.append (tpm);
+	    }
+	    tpmWriter.println (lineBuffer);
+	  }
+	}
+
+	outputMetrics.addRecords (1);
+	outputMetrics.addProcessTime (startTime);
+
+	if (i > 0 && i % countUnit == 0) {
+	  System.err.print (".");
+	}
+      }
+
+      if (rowIds.size () > countUnit) {
+	System.err.println (".");
+      }
+
+      outputWriter.close ();
+      if (fpkmWriter != null) {
+	fpkmWriter.close ();
+      }
+      if (tpmWriter != null) {
+	tpmWriter.close ();
+      }
+
+      if (numRowsWithoutLength > 0) {
+	System.err.println ("There are " + numRowsWithoutLength + " count objects without length which are not in the FPKM and TPM files.");
+      }
+
+      if (metricsStarted) {
+	PipelineMetrics.stop ();
+      }
+
+      System.err.println ("CombineCountFiles done.");
+
+    }
+    catch (Exception e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      System.exit (1);
+    }
+    finally {
+      if (executorService != null) {
+	executorService.shutdownNow ();
+      }
+      if (countMatrix != null) {
+	countMatrix.close ();
+      }
+    }
+  }
+}
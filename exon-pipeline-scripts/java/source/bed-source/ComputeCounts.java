@@ -31,24 +31,14 @@ import java.util.regex.Pattern;
  * This is the main method to compute exon, gene, and junction counts. It works as
  * follows:
  *
- * countTable = Hashtable(<String>, <Double>)
+ * countTable = CountAccumulator (the counts are added to its shard countShard)
  *
- * for each bedRecord with overlap > 0 do
- *   if weightObject is null:
- *     weightObject = WeightObject (bedRecord)
- *   elsif oldFragmentId == bedRecord.getFragmentId:
- *     add bedRecord to weightObject
- *   else:
- *     get readWeight of oldFragmentId
- *     numGenomicAlignments = weightObject.getNumGenomicAlignments();
- *     objectWeight = min(readWeight, 1 / numGenomicAlignments)
- *     if objectWeight > readWeightThreshold:
- *       processWeightObject (weightObject, countTable)
- *     weightObject = WeightObject (bedRecord)
- *     oldFragmentId = bedRecord.getFragmentId
- *
- * process last weightObject:
- *   processWeightObject (weightObject, countTable)
+ * for each fragment of the bed file do (see FragmentCounter)
+ *   weightObject = WeightObject (bedRecords of the fragment)
+ *   numGenomicAlignments = weightObject.getNumGenomicAlignments();
+ *   objectWeight = min(readWeight, 1 / numGenomicAlignments)
+ *   if objectWeight > readWeightThreshold:
+ *     processWeightObject (weightObject, countShard)
  *
  * for countObjectId in countTable.keys union Exon.getCountObjectIds do
  *   print countObjectId, countTable[countObjectId]
@@ -59,42 +49,23 @@ public class ComputeCounts {
 
   private static int debugLevel = 2;
 
+  /* The first field of the header line of a partial count file (option -P) */
+  public static final String PARTIAL_COUNTS_HEADER = "ComputeCounts partial counts";
+
   private static Hashtable<String, Hashtable<GenomicAlignment, Integer>> overlapTable1 = null;
   private static Hashtable<String, Hashtable<GenomicAlignment, Integer>> overlapTable2 = null;
   
   /* private static Hashtable<String, Integer> countObjectLengthTable = null; */
   private static HashSetTable<String, Exon> countObjectExonTable   = null;
 
-  private static Hashtable<String, Double> readWeightTable = new  Hashtable<String, Double> (50 * 1000 * 1000);
-
-  private static final String [] specialCountObjectIdSetValues = new String [] {};
-  
-  private static HashSet<String> specialCountObjectIdSet = new HashSet<String> (Arrays.asList(specialCountObjectIdSetValues));
-
-  private static double specialCount = 0;
-  private static String specialReadIds = "";
-  
-  private static HashSet<String> specialReadIdSet = new HashSet<String> ();
-
-  public static String getSpecialReadId () {
-    return specialReadIds;
-  }
-
-  public static HashSet<String> getSpecialReadIdSet () {
-    return specialReadIdSet;
-  }
-  
-  private static HashSet<WeightObject> countObjectIdWeightObjects    = new HashSet<WeightObject> ();
-  private static HashSet<WeightObject> countObjectIdWeightObjectsNew = new HashSet<WeightObject> ();
-
-  private static PriorityQueue<String> weightFragmentIdQueue = new PriorityQueue<String> (1000);
-  private static Hashtable<String, Double> weightFragmentIdTable = new Hashtable<String, Double> (1000);
-  
 
   /***********************************************************************************
    *
    *                           addToTableEntry  
    *
+   *  Used for the tables of a single weight object; the counts of all weight objects
+   *  are added to a CountAccumulator
+   *
    ***********************************************************************************/
 
   public static void addToTableEntry (Hashtable<String, Double> entryTable, String key, double value) {
@@ -111,132 +82,6 @@ public class ComputeCounts {
   }
 
 
-  /***********************************************************************************
-   * 
-   *                           getReadWeight
-   *
-   *  Retrieve the weight for fragmentId from weightReader: 
-   *    Read entries from weightReader until fragmentId is found
-   *    if an entry with a larger id is found, raise an exception
-   *
-   ***********************************************************************************/
-
-  private static double getReadWeight (String fragmentId, BufferedReader weightReader) throws IOException {
-
-    if (debugLevel >= 1) {
-      System.err.println ("Calling getReadWeight for: " +  fragmentId);
-    }
-
-    if (debugLevel >= 2 || debugLevel >= 1) {
-      System.err.println ("Looking for fragmentId: " + fragmentId);
-    }
-
-    if (weightReader == null) {
-      return 1.0;
-    }
-
-    String line = weightReader.readLine ();
-
-    if (line == null) {
-      return 1.0;
-    }
-
-    StringTokenizer st = new StringTokenizer (line, "\t");
-
-    String weightFragmentId = "";
-    if (st.hasMoreTokens()) {
-      weightFragmentId = st.nextToken ();	
-    }
-
-    Double alignmentNum = null;
-    if (st.hasMoreTokens()) {
-      alignmentNum = new Double(st.nextToken ());	
-    } else {
-      throw new IOException ("No weight for read " + weightFragmentId + " found.");
-    }
-
-    if (debugLevel >= 2 || debugLevel >= 1) {
-      System.err.println ("Weight fragment id: " + weightFragmentId + ", alignmentNum: " + alignmentNum);
-    }
-
-    if (weightFragmentIdQueue.size () > 1000) {
-      String minFragmentId = weightFragmentIdQueue.poll ();
-      if (debugLevel >= 2 || debugLevel >= 1) {
-	System.err.println ("Min fragment id: " + minFragmentId + ", weightFragmentIdQueue.size (): " + weightFragmentIdQueue.size ());
-      }
-
-      if (minFragmentId != null) {
-	weightFragmentIdTable.remove (minFragmentId);
-      }
-    }
-
-    weightFragmentIdQueue.add (weightFragmentId);
-    weightFragmentIdTable.put (weightFragmentId, alignmentNum);
-
-    while (! weightFragmentId.equals (fragmentId)) {
-
-      int compValue = weightFragmentId.compareTo (fragmentId);
-
-      if (compValue == 1) {
-	alignmentNum = weightFragmentIdTable.get (fragmentId);
-	if (alignmentNum == null) {
-	  String minFragmentId = weightFragmentIdQueue.poll ();
-	  throw new IOException ("Fragment id: " + fragmentId + " not found in read weight file - current weight fragment id: " + weightFragmentId +
-				 ", minimum stored weight fragment id: " + minFragmentId);
-	} else {
-	  return 1.0 / alignmentNum.doubleValue ();
-	}
-      }
-
-      line = weightReader.readLine ();
-
-      if (line == null) {
-	throw new IOException ("Fragment id: " + fragmentId + " not found in read weight file.");
-	/* return 1.0; */
-      }
-
-      st = new StringTokenizer (line, "\t");
-      
-      if (st.hasMoreTokens()) {
-	weightFragmentId = st.nextToken ();	
-      }
-
-      if (st.hasMoreTokens()) {
-	alignmentNum = new Double(st.nextToken ());	
-      } else {
-	throw new IOException ("No weight for read " + weightFragmentId + " found.");
-      }
-
-      if (debugLevel >= 2 || debugLevel >= 1) {
-	System.err.println ("Weight fragment id: " + weightFragmentId + ", alignmentNum: " + alignmentNum);
-      }
-
-      if (weightFragmentIdQueue.size () > 1000) {
-	String minFragmentId = weightFragmentIdQueue.poll ();
-	if (debugLevel >= 2 || debugLevel >= 1) {
-	  System.err.println ("min fragment id: " + minFragmentId);
-	}
-
-	if (minFragmentId != null) {
-	  weightFragmentIdTable.remove (minFragmentId);
-	}
-      }
-      
-      weightFragmentIdQueue.add (weightFragmentId);
-      weightFragmentIdTable.put (weightFragmentId, alignmentNum);
-      
-
-    }
-
-    if (debugLevel >= 1) {
-      System.err.println ("Weight: " + alignmentNum + " from " + line + " for " + fragmentId);
-    }
-
-    return 1.0 / alignmentNum.doubleValue ();
-
-  }
-  
-  
   /***********************************************************************************
    * 
    *                          processWeightObject
@@ -255,24 +100,17 @@ public class ComputeCounts {
    ***********************************************************************************/
 
   private static double processWeightObject (WeightObject weightObject, double objectWeight, int minExonNum, boolean countConsecutive,
-					     boolean pairedEndOnlyMode, Hashtable<String, Double> countTable, boolean excludeAmbiguousReads,
+					     boolean pairedEndOnlyMode, CountAccumulator.Shard countShard, boolean excludeAmbiguousReads,
 					     boolean genomicIntervalMode, boolean checkWeights) throws IOException {
 
-    if (debugLevel >= 1) {
-      System.err.println ();
-      System.err.println("processWeightObject new start.");
-    }
-    
-    if (debugLevel >= 2 || debugLevel >= 1) {
-      System.err.println("weightObject: " + weightObject + ", objectWeight: " + objectWeight);
-    }
-
-    HashSetTable<Exon, String> countObjectTable = Exon.getCountObjectTable ();
+    String  fragmentId = weightObject.getFragmentId ();
+    boolean traced     = FragmentTrace.ON && FragmentTrace.isTraced (fragmentId);
 
-    if (getSpecialReadIdSet().contains(weightObject.getFragmentId ())) {
-      debugLevel = 2;
+    if (traced) {
+      FragmentTrace.trace (fragmentId, "weightObject", "objectWeight: " + objectWeight + ", " + weightObject);
     }
 
+    HashSetTable<Exon, String> countObjectTable = Exon.getCountObjectTable ();
 
     /* Compute genomic alignment strings and adjust them if necessary */
     weightObject.adjustGenomicAlignments ();
@@ -286,39 +124,37 @@ public class ComputeCounts {
     Hashtable<String, Double> weightObjectCountTable1 = new Hashtable<String, Double> (100);
     Hashtable<String, Double> weightObjectCountTable2 = new Hashtable<String, Double> (100);
     boolean excludeAmbiguousGenomicIntervals = excludeAmbiguousReads && genomicIntervalMode;
-    
-    if (debugLevel >= 2 || debugLevel >= 1) {
-      System.err.println("processWeightObject - excludeAmbiguousGenomicIntervals: " + excludeAmbiguousGenomicIntervals + ", excludeAmbiguousReads: " + 
-			 excludeAmbiguousReads + ", genomicIntervalMode: " +  genomicIntervalMode);
-    }
 
+    /* The sets of conforming count objects are reused for all weight object alignments */
+    HashSet<String> conformingCountObjectIds1 = new HashSet<String> ();
+    HashSet<String> conformingCountObjectIds2 = new HashSet<String> ();
+    
     for (WeightObjectAlignment weightObjectAlignment: weightObject.getWeightObjectAlignmentSet()) {
 
-      if (debugLevel >= 2 || debugLevel >= 1) {
-	System.err.println("processWeightObject - WeightObjectAlignment: " + weightObjectAlignment);
+      if (traced) {
+	FragmentTrace.trace (fragmentId, "alignment", weightObjectAlignment);
       }
 
       GenomicAlignment genomicAlignment1 = weightObjectAlignment.getGenomicAlignment1();
-      HashSet<String> conformingCountObjectIds1 = new HashSet<String> ();
+      conformingCountObjectIds1.clear ();
       if (genomicAlignment1 != null) {
-	conformingCountObjectIds1 =
-	  genomicAlignment1.getConformingCountObjects (minExonNum, countObjectTable, countConsecutive, excludeAmbiguousGenomicIntervals);
+	genomicAlignment1.addConformingCountObjects (minExonNum, countObjectTable, countConsecutive, excludeAmbiguousGenomicIntervals,
+						     conformingCountObjectIds1);
       }
 
-      if (debugLevel >= 2 || debugLevel >= 1) {
-	System.err.println("conformingCountObjectIds1: " + conformingCountObjectIds1);
+      if (traced) {
+	FragmentTrace.trace (fragmentId, "conforming1", conformingCountObjectIds1);
       }
-
       
       GenomicAlignment genomicAlignment2 = weightObjectAlignment.getGenomicAlignment2();
-      HashSet<String> conformingCountObjectIds2 = new HashSet<String> ();
+      conformingCountObjectIds2.clear ();
       if (genomicAlignment2 != null) {
-	conformingCountObjectIds2 =
-	  genomicAlignment2.getConformingCountObjects (minExonNum, countObjectTable, countConsecutive, excludeAmbiguousGenomicIntervals);
+	genomicAlignment2.addConformingCountObjects (minExonNum, countObjectTable, countConsecutive, excludeAmbiguousGenomicIntervals,
+						     conformingCountObjectIds2);
       }
 
-      if (debugLevel >= 2 || debugLevel >= 1) {
-	System.err.println("conformingCountObjectIds2: " + conformingCountObjectIds2);
+      if (traced) {
+	FragmentTrace.trace (fragmentId, "conforming2", conformingCountObjectIds2);
       }
 
       /* Note that retainAll and addAll also work if genomicAlignment1 == null or genomicAlignment2 == null */
@@ -335,36 +171,23 @@ public class ComputeCounts {
       }
 
       for (String countObjectId: conformingCountObjectIds1) {
-	if (specialCountObjectIdSet.contains(countObjectId)) {
-	  System.err.println("Putting " + countObjectId + " into the weightObjectCountTable for " + weightObject + " with weight " + objectWeight +
-			     " based on alignment 1 of " + weightObjectAlignment);
-
+	if (FragmentTrace.ON && FragmentTrace.isTracedCountObject (countObjectId)) {
+	  FragmentTrace.trace (fragmentId, "conforming", countObjectId + "\t" + objectWeight + "\tread1\t" + weightObjectAlignment);
 	}
 	addToTableEntry (weightObjectCountTable1, countObjectId, objectWeight);
       }
 	
       for (String countObjectId: conformingCountObjectIds2) {
-	if (specialCountObjectIdSet.contains(countObjectId)) {
-	  System.err.println("Putting " + countObjectId + " into the weightObjectCountTable for " + weightObject + " with weight " + objectWeight +
-			     " based on alignment 1 of  " + weightObjectAlignment);
-
+	if (FragmentTrace.ON && FragmentTrace.isTracedCountObject (countObjectId)) {
+	  FragmentTrace.trace (fragmentId, "conforming", countObjectId + "\t" + objectWeight + "\tread2\t" + weightObjectAlignment);
 	}
 	addToTableEntry (weightObjectCountTable2, countObjectId, objectWeight);
       }
 
-      if (debugLevel >= 2 || debugLevel >= 1) {
-	System.err.println("Resulting conformingCountObjectIds1: " + conformingCountObjectIds1);
-      }
-
     }
 
-    if (debugLevel >= 2 || debugLevel >= 1) {
-      if (weightObjectCountTable.keySet ().size () == 0 && weightObjectCountTable1.keySet ().size () == 0 && weightObjectCountTable2.keySet ().size () == 0) {
-	System.err.println ("No count object ids found for: " + weightObject.getFragmentId ());
-      } else if (weightObjectCountTable.keySet ().size () > 1 / objectWeight) {
-	System.err.println ("More than one count object id for " + weightObject.getFragmentId () + ": " + weightObjectCountTable.keySet () +
-			    ", objectWeight: " + objectWeight);
-      }
+    if (traced && weightObjectCountTable.size () == 0 && weightObjectCountTable1.size () == 0 && weightObjectCountTable2.size () == 0) {
+      FragmentTrace.trace (fragmentId, "noCountObjects", "");
     }
 
 
@@ -377,6 +200,9 @@ public class ComputeCounts {
       
       /* Check whether the weight object contributes to more than one count object */
       if (countObjectIds.size() >= 2) {
+	if (traced) {
+	  FragmentTrace.trace (fragmentId, "excludedAmbiguous", countObjectIds);
+	}
 	return 0;
       }
     }
@@ -387,19 +213,17 @@ public class ComputeCounts {
        several exon ids may be associated with one gene/genomic interval/strand tuple. */
     double sumWeightAdded = 0;
     for (String countObjectId: weightObjectCountTable.keySet ()) {
-      if (debugLevel >= 2 || debugLevel >= 1) {
-	System.err.println(weightObject.getFragmentId () + ": adding " + weightObjectCountTable.get(countObjectId).doubleValue () + " to " + countObjectId);
-      }
 
       /* Disregarding a margin for rounding errors a weight object should contribute at most 1 to a count object */
       if (weightObjectCountTable.get(countObjectId).doubleValue () > 1.001 && checkWeights) {
 	throw new IOException ("Weight " + weightObjectCountTable.get(countObjectId).doubleValue () + " of weight object " + weightObject + " for count object " +
 			       countObjectId + " is larger than 1.");
       }
-      addToTableEntry (countTable, countObjectId, Math.min (1, weightObjectCountTable.get(countObjectId).doubleValue ()));
-      if (specialCountObjectIdSet.contains(countObjectId)) {
-	System.err.println("Adding pe weight object: " + weightObject + " with weight " + weightObjectCountTable.get(countObjectId).doubleValue () + " to " + countObjectId +
-			   " giving a total weight of " + countTable.get(countObjectId));
+      int countObjectIndex = countShard.getIndex (countObjectId);
+      countShard.add (countObjectIndex, Math.min (1, weightObjectCountTable.get(countObjectId).doubleValue ()));
+      if (FragmentTrace.ON && (traced || FragmentTrace.isTracedCountObject (countObjectId))) {
+	FragmentTrace.trace (fragmentId, "add", countObjectId + "\t" + weightObjectCountTable.get(countObjectId).doubleValue () + "\tpe\t" +
+			     countShard.get(countObjectIndex));
       }
       sumWeightAdded = sumWeightAdded + Math.min (1, weightObjectCountTable.get(countObjectId).doubleValue ());
     }
@@ -420,25 +244,17 @@ public class ComputeCounts {
 	weight2 = weightObjectCountTable2.get(countObjectId).doubleValue ();
       }
 
-      if (debugLevel >= 2 || debugLevel >= 1) {
-	System.err.println(weightObject.getFragmentId () + ": adding max(" + weight1 + ", " + weight2 + ") to " + countObjectId);
-      }
-      	  
       double weight = Math.max (weight1, weight2);
-      addToTableEntry (countTable, countObjectId, Math.min (1, weight));
-      if (specialCountObjectIdSet.contains(countObjectId)) {
-	System.err.println("Adding sr weight object: " + weightObject + " with weight max (" + weight1 + ", " + weight2 + ") to " + countObjectId +
-			   " yielding a count of " + countTable.get(countObjectId));
+      int countObjectIndex = countShard.getIndex (countObjectId);
+      countShard.add (countObjectIndex, Math.min (1, weight));
+      if (FragmentTrace.ON && (traced || FragmentTrace.isTracedCountObject (countObjectId))) {
+	FragmentTrace.trace (fragmentId, "add", countObjectId + "\tmax(" + weight1 + ", " + weight2 + ")\tsr\t" + countShard.get(countObjectIndex));
       }
       sumWeightAdded = sumWeightAdded + Math.min (1, weight);
     }
 
-    if (getSpecialReadIdSet().contains(weightObject.getFragmentId ())) {
-      debugLevel = UtilLib.getDebugLevel ();
-    }
-
-    if (debugLevel >= 1) {
-      System.err.println("processWeightObject new done with " + sumWeightAdded + " added.");
+    if (traced) {
+      FragmentTrace.trace (fragmentId, "done", sumWeightAdded);
     }
 
     return sumWeightAdded;
@@ -447,6 +263,129 @@ public class ComputeCounts {
 
  
 
+  /***********************************************************************************
+   *
+   *  writeCounts: write the counts of countTable in the order of the count object
+   *  map file or the count object file; also used by MergePartialCounts
+   *
+   ***********************************************************************************/
+
+  public static void writeCounts (CountAccumulator countTable, String countObjectMapFilename, String countObjectFilename, String outputFilename,
+				  PrintWriter outputWriter, boolean outputZeroes) throws IOException {
+
+    String line = "";
+    if (countObjectFilename.equals ("")) {
+
+      if (Exon.getCountObjectMapColumn () == 2) {
+	TreeSet<String> countObjectIds = null;
+	if (countObjectMapFilename != ""  && Exon.getCountObjectIds() != null) {
+	  if (Exon.getCountObjectMapColumn () == 2)
+	    countObjectIds = new TreeSet<String> (Exon.getCountObjectIds().keySet ());
+	} else {
+	  countObjectIds = new TreeSet<String> (countTable.getKeys ());
+	}
+
+	for (String countObjectId: countObjectIds) {
+	  if (FragmentTrace.ON && FragmentTrace.isTracedCountObject (countObjectId)) {
+	    FragmentTrace.trace ("-", "count", countObjectId + "\t" + countTable.get(countObjectId));
+	  }
+	  if (countTable.get(countObjectId) != null) {
+	    if (outputZeroes || countTable.get(countObjectId).doubleValue() != 0) {
+	      outputWriter.println(countObjectId + "\t" + countTable.get(countObjectId).doubleValue());
+	    }
+	  } else if (outputZeroes) {
+	    outputWriter.println(countObjectId + "\t" + 0);
+	  }
+	}
+      } else {
+	/* The count object ids of the third column of countObjectMapFilename correspond to
+	   external count objects ids in the second column which are going to be used for output */
+	BufferedReader countObjectMapReader = UtilLib.getBufferedReader (countObjectMapFilename);
+
+	int countUnit  = 500 * 1000;
+	int lineNumber = 0;
+	line = countObjectMapReader.readLine();
+
+	int numCountIds = 0;
+	int numCountIdsQuantified = 0;
+	while (line != null) {
+	  StringTokenizer st = new StringTokenizer (line, "\t");
+	  if (! st.hasMoreTokens()) {
+	    throw new IOException ("No exon id found.");
+	  }
+	  String exonId = st.nextToken ();
+
+	  if (! exonId.equals("Exon Id")) {
+	    if (! st.hasMoreTokens()) {
+	      throw new IOException ("No second column found for exon " + exonId + ".");
+	    }
+	    String outputCountObjectId = st.nextToken ();
+
+	    if (! st.hasMoreTokens()) {
+	      throw new IOException ("No third column found for exon " + exonId + ".");
+	    }
+	    String countObjectId = st.nextToken ();
+
+	    numCountIds++;
+	    if (countTable.get(countObjectId) != null) {
+	      if (outputZeroes || countTable.get(countObjectId).doubleValue() != 0) {
+		outputWriter.println(outputCountObjectId + "\t" + countTable.get(countObjectId).doubleValue());
+	      }
+	      numCountIdsQuantified++;
+	    } else if (outputZeroes) {
+	      outputWriter.println(outputCountObjectId + "\t" + 0.0);
+	    }
+	  }
+
+	  if (lineNumber % countUnit == 0) {
+	    System.err.print (".");
+	  }
+
+	  line = countObjectMapReader.readLine();
+	  lineNumber++;
+	}
+	if (lineNumber > countUnit) {
+	  System.err.println (".");
+	}
+
+	countObjectMapReader.close ();
+      }
+    } else {
+
+      System.err.println ("Reading count ids from file " + countObjectFilename);
+      BufferedReader countObjectReader = UtilLib.getBufferedReader (countObjectFilename);
+      int numCountIds = 0;
+      int numCountIdsQuantified = 0;
+      line = countObjectReader.readLine();
+      while (line != null) {
+	int tabPos = line.indexOf ("\t");
+	String countObjectId = "";
+	if (tabPos == -1) {
+	  countObjectId = line;
+	} else {
+	  countObjectId = line.substring (0, tabPos);
+	}
+	numCountIds++;
+
+	if (countTable.get(countObjectId) != null) {
+	  if (outputZeroes || countTable.get(countObjectId).doubleValue() != 0) {
+	    outputWriter.println(countObjectId + "\t" + countTable.get(countObjectId).doubleValue());
+	  }
+	  numCountIdsQuantified++;
+	} else if (outputZeroes) {
+	  outputWriter.println(countObjectId + "\t" + 0.0);
+	}
+	line = countObjectReader.readLine();
+      }
+      countObjectReader.close ();
+
+      System.err.println (numCountIds + " count ids written to file " + outputFilename);
+      System.err.println ("of which " + numCountIdsQuantified + " were quantified.");
+    }
+
+  }
+
+
   /***********************************************************************************/
 
    private static void printHelp () {
@@ -485,7 +424,12 @@ public class ComputeCounts {
     "      <fragment id>, <read weight>. Reads are weighted by the minimum of\n" +
     "      the read weight contained in this file,if present, and the read weight\n" +
     "      computed from the number of genomic alignments in the bed file. If the\n" +
-    "      keyword \"none\" is selected, then the reads are not weighted.\n" +
+    "      keyword \"none\" is selected, then the reads are not weighted. If the\n" +
+    "      keyword \"bed\" is selected, then the reads are weighted by the number of\n" +
+    "      genomic alignments in the bed file only; this is the read weight file of\n" +
+    "      ComputeReadWeights for the bed file which is not read in this case.\n" +
+    " -R STRING: write the read weights computed from the bed file (the output of\n" +
+    "      ComputeReadWeights) to file STRING while counting.\n" +
     " -m count object map file: contains the exon to count object mapping. It\n" +
     "    consists of two columns, the exon id (<gene id>/<chr>/<start>/\n" +
     "    <end>/<strand>) and the id of the count object.\n" +
@@ -493,8 +437,25 @@ public class ComputeCounts {
     "    when outputting the results.\n" +
     " -s: set strand specific mode - only count reads on the same strand as the.\n" +
     "        gene, exon, or junction.\n" +
-    " -S STRING: special count object id [<empty string>].\n" +
+    " -S STRING: trace the contributions of the fragments to count object STRING;\n" +
+    "     can be used several times [<empty string>].\n" +
+    " -D STRING: trace the counting decisions for the fragments with the colon\n" +
+    "     separated fragment ids in STRING [<empty string>].\n" +
+    " -T STRING: file to which the traces are written; if neither -D nor -S is\n" +
+    "     set, all fragments are traced [stderr].\n" +
     " -n: output only non-zero counts (otherwise output all counts).\n" +
+    " -V: validate that the read weight file is sorted by fragment id and report\n" +
+    "     the first fragment id out of order.\n" +
+    " -X STRING: write the throughput metrics of the BED reading and the counting\n" +
+    "     as JSON lines to file STRING every 10 seconds.\n" +
+    " -K STRING: count store - also write the counts as a sample of the count store\n" +
+    "     in directory STRING (see ManageCountStore); the count store is created for\n" +
+    "     the count objects of the count object map file if it does not exist.\n" +
+    " -k STRING: sample name in the count store [<output file without extension>].\n" +
+    " -P: write partial counts to the output file: the sums of the counts with their\n" +
+    "     rounding compensations. The partial counts of the shards of a bed file (see\n" +
+    "     SplitFragmentShards) are merged by MergePartialCounts into the counts of the\n" +
+    "     whole bed file.\n" +
     "\n");
   }
                                      
@@ -512,18 +473,16 @@ public class ComputeCounts {
     String countObjectMapFilename = "";
     String countObjectFilename = "";
     String outputFilename = "-";
+    String traceFilename  = "";
+    String metricsFilename = "";
+    String countStoreDirName = "";
+    String weightOutputFilename = "";
+    String sampleName = "";
 
     double readWeightThreshold = 0.01;
     
     int  overlapThreshold = 1;
 
-    String oldAlignmentId = "";
-    String oldFragmentId = "";
-
-    WeightObjectAlignment weightObjectAlignment = null;
-    WeightObject          weightObject = null;
-
-    boolean printLines             = false;
     boolean useReadWeights         = true;
     boolean excludeAmbiguousReads  = false;
 
@@ -539,11 +498,11 @@ public class ComputeCounts {
     /* outputZeroes controls whether only non-zero count objects are output or all count objects */
     boolean outputZeroes     = true;
 
-    int countUnit = 2 * 1250 * 1000;
     boolean checkWeights = false;
+    boolean partialCountsMode = false;
     boolean genomicIntervalMode = false;
     
-    Getopt g = new Getopt("ComputeCounts.java", args, "ab:cCd:D:egGijm:M:nNo:O:pr:sS:uUw:W:zh");
+    Getopt g = new Getopt("ComputeCounts.java", args, "ab:cCd:D:egGijk:K:m:M:nNo:O:pPr:R:sS:T:uUVw:W:X:zh");
     
     int c;
     String arg = "";
@@ -568,7 +527,7 @@ public class ComputeCounts {
 	UtilLib.setDebugLevel (Integer.parseInt(g.getOptarg()));
 	break;
       case 'D':
-	specialReadIds = g.getOptarg();
+	FragmentTraceOptions.addFragmentIds (g.getOptarg());
 	break;
       case 'e':
 	UtilLib.setCountMode("exon");
@@ -588,6 +547,15 @@ public class ComputeCounts {
 	minExonNum = 2;
 	countConsecutive = true;
 	break;
+      case 'k':
+	sampleName = g.getOptarg();
+	break;
+      case 'K':
+	countStoreDirName = g.getOptarg();
+	break;
+      case 'R':
+	weightOutputFilename = g.getOptarg();
+	break;
       case 'm':
 	countObjectMapFilename = g.getOptarg();
 	break;
@@ -612,11 +580,17 @@ public class ComputeCounts {
       case 'p':
 	togglePairedEndOnlyMode = true;
 	break;
+      case 'P':
+	partialCountsMode = true;
+	break;
       case 's':
 	UtilLib.setStrandedMode ();
 	break;
       case 'S':
-	specialCountObjectIdSet.add(g.getOptarg());
+	FragmentTraceOptions.addCountObjectId (g.getOptarg());
+	break;
+      case 'T':
+	traceFilename = g.getOptarg();
 	break;
       case 'u':
 	useReadWeights = false;
@@ -624,12 +598,18 @@ public class ComputeCounts {
       case 'U':
 	excludeAmbiguousReads = true;
 	break;
+      case 'V':
+	FragmentNameKey.setValidateOrder (true);
+	break;
       case 'w':
 	weightFilename = g.getOptarg();
 	break;	
       case 'W':
 	readWeightThreshold = Double.parseDouble(g.getOptarg());
 	break;
+      case 'X':
+	metricsFilename = g.getOptarg();
+	break;
       case 'h':
 	printHelp();
 	System.exit(0);
@@ -648,10 +628,10 @@ public class ComputeCounts {
 
     debugLevel = UtilLib.getDebugLevel ();
     UtilLib.setOverlapThreshold(overlapThreshold);
-    
-    StringTokenizer st = new StringTokenizer (specialReadIds, ":");
-    while (st.hasMoreTokens ()) {
-      specialReadIdSet.add(st.nextToken ());
+
+    /* Without trace targets all fragments are traced if a trace file is given or in debug mode */
+    if (! FragmentTraceOptions.hasTargets ()) {
+      FragmentTraceOptions.setTraceAll (! traceFilename.equals("") || debugLevel >= 1);
     }
 
     if (togglePairedEndOnlyMode) {
@@ -664,6 +644,15 @@ public class ComputeCounts {
     
     String line = "";
     try {
+
+      if (! traceFilename.equals("")) {
+	FragmentTraceOptions.setTraceWriter (UtilLib.getPrintWriter (traceFilename));
+      }
+
+      boolean metricsStarted = false;
+      if (! metricsFilename.equals("")) {
+	metricsStarted = PipelineMetrics.start (metricsFilename);
+      }
       
       BufferedReader reader = UtilLib.getBufferedReader (intersectionFilename);
       
@@ -673,8 +662,28 @@ public class ComputeCounts {
 
       System.err.println("Loading exon count object map file " + countObjectMapFilename);
       System.err.flush();
-      BufferedReader countObjectMapReader = UtilLib.getBufferedReader (countObjectMapFilename);
-      Exon.loadCountObjectFile (countObjectMapReader);
+      Exon.loadCountObjectFile (countObjectMapFilename);
+
+      /* The count store is opened before the counting to detect a mismatch with the count object map early */
+      CountStore countStore = null;
+      LinkedHashMap<String, String> outputCountObjectIds = null;
+      if (! countStoreDirName.equals("")) {
+	if (countObjectMapFilename.equals("")) {
+	  throw new IOException ("ERROR: A count store (option -K) needs a count object map file (option -m).");
+	}
+	if (partialCountsMode) {
+	  throw new IOException ("ERROR: Partial counts (option -P) cannot be written to a count store (option -K); use MergePartialCounts first.");
+	}
+	if (sampleName.equals("")) {
+	  if (outputFilename.equals("-")) {
+	    throw new IOException ("ERROR: No sample name for the count store given (option -k).");
+	  }
+	  sampleName = new File (outputFilename).getName ().replaceFirst ("[.][^.]*$", "");
+	}
+	/* The rows of the count store are the ids of the count file (see writeCounts) */
+	outputCountObjectIds = Exon.getOutputCountObjectIds ();
+	countStore = CountStore.open (countStoreDirName, outputCountObjectIds.keySet ());
+      }
       if (debugLevel >= 3) {
 	System.err.println("countObjectTable:");
 	HashSetTable<Exon, String> countObjectTable = Exon.getCountObjectTable ();
@@ -701,167 +710,45 @@ public class ComputeCounts {
 	System.err.println("useReadWeights: " + useReadWeights);
       }
 
+      /* With the keyword bed the read weights are computed from the fragments of the bed file - as by ComputeReadWeights
+         - which saves a pass over the bed file */
+      boolean bedReadWeights = weightFilename.equals("bed");
+
       BufferedReader weightReader = null;
-      if (weightFilename != "" && ! weightFilename.equals("none")) {
+      if (weightFilename != "" && ! weightFilename.equals("none") && ! bedReadWeights) {
 	weightReader = UtilLib.getBufferedReader (weightFilename);
       }
 
-      Hashtable<String, Double> countTable = new Hashtable<String, Double> (4 * 1000 * 1000);
-      overlapTable1 = new Hashtable<String, Hashtable<GenomicAlignment, Integer>> (400);
-      overlapTable2 = new Hashtable<String, Hashtable<GenomicAlignment, Integer>> (400);
-
-      if (debugLevel >= 1) {
-	System.err.println("Reading a line from file " + intersectionFilename);
+      PrintWriter weightWriter = null;
+      if (! weightOutputFilename.equals("")) {
+	weightWriter = UtilLib.getPrintWriter (weightOutputFilename);
       }
-      line = reader.readLine();
-
-      int lineNumber = 0;
-      double objectWeight = 1.0;
-
-      int numWeightObjects = 0;
-      int numWeightObjectsIncluded = 0;
-      int numWeightObjectsExcluded = 0;
-      double sumObjectWeight = 0.0;
-      double weightAdded = 0.0;
 
-      System.err.println("Reading bed file: " + intersectionFilename + " (. = " + countUnit + " lines)");
-      while (line != null) {
-	
-	BedRecord bedRecord = new BedRecord (line);
-
-	if (bedRecord.getOverlap () > 0) {
-	  
-	  /* We consider fragments as weight objects. If there are two single-read alignments of one fragment
-	     against a count object, then we count this as one. */
-	  String  fragmentId = bedRecord.getFragmentId ();
-	  
-	  if (debugLevel >= 2 || debugLevel >= 1) {
-	    System.err.println ("BedRecord Weight object id: " + fragmentId);
-	  }
-	  
-	  if (printLines) {
-	    System.err.println (bedRecord.toString());
-	  }
-	  
-	  if (weightObject == null) {
-
-	    weightObject = new WeightObject (bedRecord);
-	    numWeightObjects++;
-	    
-	  } else if (! fragmentId.equals(oldFragmentId)) {
-
-	    int numGenomicAlignments = weightObject.getNumGenomicAlignments();
-	    if (weightReader != null) {
-	      objectWeight = getReadWeight (oldFragmentId, weightReader);	      
-	      if (debugLevel >= 1 || (! specialReadIds.equals("") && oldFragmentId.indexOf(specialReadIds) >= 0)) {
-		System.err.println ("Old weight object id: " + oldFragmentId + " with weight: " + objectWeight);
-	      }	      
-	      if (debugLevel >= 1|| (! specialReadIds.equals("") && oldFragmentId.indexOf(specialReadIds) >= 0)) {
-		System.err.println ("weightObject " + weightObject + " - numGenomicAlignments: " + numGenomicAlignments + " vs " + objectWeight);
-	      }	      
-	      if (objectWeight > 1.0 / numGenomicAlignments) {
-		objectWeight = 1.0 / numGenomicAlignments;
-	      }
-	    }
-	    
-	    /* Finish old weight object */
-	    if (objectWeight >= readWeightThreshold) {
-	      double objectAddWeight = useReadWeights?objectWeight:1.0;
-	      weightAdded = processWeightObject (weightObject, objectAddWeight, minExonNum, countConsecutive, pairedEndOnlyMode, countTable, excludeAmbiguousReads,
-						 genomicIntervalMode, checkWeights);
-	      sumObjectWeight = sumObjectWeight + weightAdded;
-	      if (weightAdded > 0) {
-		numWeightObjectsIncluded++;
-	      } else {
-		numWeightObjectsExcluded++;
-	      }
-	      	      
-	    } else {
-	      numWeightObjectsExcluded++;
-	    }
-	    
-	    /* Create new weight object */
-	    numWeightObjects++;
-	    weightObject = new WeightObject (bedRecord);
-	    
-	  } else {
-	    
-	    if (debugLevel >= 2 || debugLevel >= 1) {
-	      System.err.println ("adding bed record: " + bedRecord);
-	    }
-	    weightObject.addBedRecord (bedRecord);
-	    
-	  }
-	  
-	  if (! oldFragmentId.equals(fragmentId)) {
-	    debugLevel = UtilLib.getDebugLevel ();
-	  }
-	  
-	  oldFragmentId = fragmentId;
-	}
-	  
-	lineNumber++;
-	if (lineNumber % countUnit == 0) {
-	  System.err.print(".");
-	  System.err.flush();
-	}
-	  
-	line = reader.readLine();
-
-	if (debugLevel >= 1) {
-	  System.err.println ("Line: " + line);
-	}
-	if (debugLevel >= 2 || debugLevel >= 1) {
-	  System.err.println ("count table: " + countTable);
-	}
-	
-      }
-
-      if (debugLevel >= 1) {
-	System.err.println ("Processing last fragment");
-      }
-
-      /* process last fragment */
-      if (weightObject != null) {
-
-	int numGenomicAlignments = weightObject.getNumGenomicAlignments();	  	  
-	if (weightReader != null) {
-	  objectWeight = getReadWeight (oldFragmentId, weightReader);	
-	  if (debugLevel >= 1) {
-	    System.err.println ("Old weight object id: " + oldFragmentId + " with weight: " + objectWeight);
-	  }	  
-	  if (debugLevel >= 1) {
-	    System.err.println ("numGenomicAlignments: " + numGenomicAlignments);
-	  }	  
-	  if (objectWeight > 1.0 / numGenomicAlignments) {
-	    objectWeight = 1.0 / numGenomicAlignments;
-	  }
-	}
-
-	if (debugLevel >= 1) {
-	  System.err.println ("Old weight object id: " + oldFragmentId + " with weight: " + objectWeight);
-	}
+      CountAccumulator countTable = new CountAccumulator (Exon.getCountObjectIds ().keySet ());
+      overlapTable1 = new Hashtable<String, Hashtable<GenomicAlignment, Integer>> (400);
+      overlapTable2 = new Hashtable<String, Hashtable<GenomicAlignment, Integer>> (400);
 
-	if (objectWeight >= readWeightThreshold) {
-	  double objectAddWeight = useReadWeights?objectWeight:1.0;
-	  weightAdded = processWeightObject (weightObject, objectAddWeight, minExonNum, countConsecutive, pairedEndOnlyMode, countTable, excludeAmbiguousReads,
-					     genomicIntervalMode, checkWeights);
-	  sumObjectWeight = sumObjectWeight + weightAdded;
-	  if (weightAdded > 0) {
-	    numWeightObjectsIncluded++;
-	  } else {
-	    numWeightObjectsExcluded++;
+      final int     processMinExonNum            = minExonNum;
+      final boolean processCountConsecutive      = countConsecutive;
+      final boolean processPairedEndOnlyMode     = pairedEndOnlyMode;
+      final boolean processExcludeAmbiguousReads = excludeAmbiguousReads;
+      final boolean processGenomicIntervalMode   = genomicIntervalMode;
+      final boolean processCheckWeights          = checkWeights;
+      FragmentCounter fragmentCounter = new FragmentCounter ("ComputeCounts", new FragmentCounter.FragmentProcessor () {
+	  public double processWeightObject (WeightObject weightObject, double objectWeight, CountAccumulator.Shard countShard) throws IOException {
+	    return ComputeCounts.processWeightObject (weightObject, objectWeight, processMinExonNum, processCountConsecutive, processPairedEndOnlyMode,
+						      countShard, processExcludeAmbiguousReads, processGenomicIntervalMode, processCheckWeights);
 	  }
-	} else {
-	  numWeightObjectsExcluded++;
-	}
-      }
-
-      if (lineNumber >= countUnit) {
-	System.err.println();
-      }
-
-      System.err.println(lineNumber + " lines read.");
+	}, countTable);
+      fragmentCounter.setWeightReader (weightReader);
+      fragmentCounter.setWeightWriter (weightWriter);
+      fragmentCounter.setBedReadWeights (bedReadWeights);
+      fragmentCounter.setUseReadWeights (useReadWeights);
+      fragmentCounter.setReadWeightThreshold (readWeightThreshold);
+
+      System.err.println("Reading bed file: " + intersectionFilename + " " + FragmentCounter.getCountUnitMessage ());
+      fragmentCounter.countFragments (reader);
+      System.err.println(fragmentCounter.getNumLines () + " lines read.");
       
       reader.close();
 
@@ -872,124 +759,39 @@ public class ComputeCounts {
 	System.err.println ("Number of columns for file " + countObjectMapFilename + ": " + Exon.getCountObjectMapColumn ());
       }
 
-      if (countObjectFilename.equals ("")) {
-
-	if (Exon.getCountObjectMapColumn () == 2) {
-	  TreeSet<String> countObjectIds = null;
-	  if (countObjectMapFilename != ""  && Exon.getCountObjectIds() != null) {
-	    if (Exon.getCountObjectMapColumn () == 2)
-	      countObjectIds = new TreeSet<String> (Exon.getCountObjectIds().keySet ());	
-	  } else {
-	    countObjectIds = new TreeSet<String> (countTable.keySet ());
-	  }
-	
-	  for (String countObjectId: countObjectIds) {
-	    if (specialCountObjectIdSet.contains(countObjectId)) {
-	      System.err.println ("Count for " + countObjectId + ": " + countTable.get(countObjectId));
-	    }
-	    if (countTable.get(countObjectId) != null) {
-	      if (outputZeroes || countTable.get(countObjectId).doubleValue() != 0) {
-		outputWriter.println(countObjectId + "\t" + countTable.get(countObjectId).doubleValue());
-	      }
-	    } else if (outputZeroes) {
-	      outputWriter.println(countObjectId + "\t" + 0);
-	    }
-	  }
-	} else {
-	  /* The count object ids of the third column of countObjectMapFilename correspond to
-	     external count objects ids in the second column which are going to be used for output */
-	  countObjectMapReader = UtilLib.getBufferedReader (countObjectMapFilename);
-	  
-	  countUnit = 500 * 1000;
-	  lineNumber = 0;
-	  line = countObjectMapReader.readLine();
-	  
-	  int numCountIds = 0;
-	  int numCountIdsQuantified = 0;
-	  while (line != null) {
-	    st = new StringTokenizer (line, "\t");
-	    if (! st.hasMoreTokens()) {
-	      throw new IOException ("No exon id found.");
-	    }
-	    String exonId = st.nextToken ();
-	
-	    if (! exonId.equals("Exon Id")) {
-	      if (! st.hasMoreTokens()) {
-		throw new IOException ("No second column found for exon " + exonId + ".");
-	      }
-	      String outputCountObjectId = st.nextToken ();
-
-	      if (! st.hasMoreTokens()) {
-		throw new IOException ("No third column found for exon " + exonId + ".");
-	      }
-	      String countObjectId = st.nextToken ();
-	      
-	      numCountIds++;
-	      if (countTable.get(countObjectId) != null) {
-		if (outputZeroes || countTable.get(countObjectId).doubleValue() != 0) {
-		  outputWriter.println(outputCountObjectId + "\t" + countTable.get(countObjectId).doubleValue());
-		}
-		numCountIdsQuantified++;
-	      } else if (outputZeroes) {
-		outputWriter.println(outputCountObjectId + "\t" + 0.0);
-	      }
-	    }
-
-	    if (lineNumber % countUnit == 0) {
-	      System.err.print (".");
-	    }
-	    	  
-	    line = countObjectMapReader.readLine();
-	    lineNumber++;
-	  }
-	  if (lineNumber > countUnit) {
-	    System.err.println (".");
-	  }
-	  
-	  countObjectMapReader.close ();
-	}
+      if (partialCountsMode) {
+	outputWriter.println ("#" + PARTIAL_COUNTS_HEADER + "\t" + UtilLib.getCountMode () + "\t" + fragmentCounter.getNumWeightObjects () + "\t" +
+			      fragmentCounter.getNumWeightObjectsIncluded () + "\t" + fragmentCounter.getNumWeightObjectsExcluded () + "\t" +
+			      fragmentCounter.getSumObjectWeight ());
+	countTable.writePartialCounts (outputWriter);
       } else {
-
-	System.err.println ("Reading count ids from file " + countObjectFilename);
-	BufferedReader countObjectReader = UtilLib.getBufferedReader (countObjectFilename);
-	int numCountIds = 0;
-	int numCountIdsQuantified = 0;
-	line = countObjectReader.readLine();
-	while (line != null) {
-	  int tabPos = line.indexOf ("\t");
-	  String countObjectId = "";
-	  if (tabPos == -1) {
-	    countObjectId = line;
-	  } else {
-	    countObjectId = line.substring (0, tabPos);
-	  }
-	  numCountIds++;
-	  
-	  if (countTable.get(countObjectId) != null) {
-	    if (outputZeroes || countTable.get(countObjectId).doubleValue() != 0) {
-	      outputWriter.println(countObjectId + "\t" + countTable.get(countObjectId).doubleValue());
-	    }
-	    numCountIdsQuantified++;
-	  } else if (outputZeroes) {
-	    outputWriter.println(countObjectId + "\t" + 0.0);
-	  }
-	  line = countObjectReader.readLine();
-	}
-	countObjectReader.close ();
-	
-	System.err.println (numCountIds + " count ids written to file " + outputFilename);
-	System.err.println ("of which " + numCountIdsQuantified + " were quantified.");
+	writeCounts (countTable, countObjectMapFilename, countObjectFilename, outputFilename, outputWriter, outputZeroes);
       }
 
       outputWriter.close ();
+      if (weightWriter != null) {
+	weightWriter.close ();
+      }
+      FragmentTrace.close ();
+
+      if (countStore != null) {
+	double [] counts = new double [countStore.getNumRows ()];
+	for (int row = 0; row < counts.length; row++) {
+	  Double count = countTable.get (outputCountObjectIds.get (countStore.getRowIds ().get (row)));
+	  counts[row] = count != null?count.doubleValue ():0;
+	}
+	boolean replaced = countStore.putSample (sampleName, counts);
+	System.err.println ((replaced?"Replaced":"Added") + " sample " + sampleName + " in count store " + countStoreDirName + ".");
+      }
 
-      System.err.format ("Num weight objects in BED file: " + numWeightObjects + ", num weight objects included: " + numWeightObjectsIncluded +
-			 " (%.2f%%), num weight objects excluded: " + numWeightObjectsExcluded + " (%.2f%%).%n", numWeightObjectsIncluded * 100.0 / numWeightObjects,
-			 numWeightObjectsExcluded * 100.0 / numWeightObjects);
-      System.err.format ("Sum of weights contributing to count objects: %.2f%n", sumObjectWeight);
+      fragmentCounter.printStatistics ();
 
       if (UtilLib.getCountMode().equals ("gene")) {
-	System.err.println("NUMBER_EXPRESSED_READS=" + numWeightObjectsIncluded);
+	System.err.println("NUMBER_EXPRESSED_READS=" + fragmentCounter.getNumWeightObjectsIncluded ());
+      }
+
+      if (metricsStarted) {
+	PipelineMetrics.stop ();
       }
 
     }
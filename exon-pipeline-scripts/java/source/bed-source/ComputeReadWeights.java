@@ -150,8 +150,8 @@ public class ComputeReadWeights {
 	      System.err.println(weightObject.toBedString ());
 	    }
 
-	    /* Create a new weight object */
-	    weightObject = new WeightObject (bedRecord);
+	    /* Reuse the weight object for the new fragment */
+	    weightObject.reset (bedRecord);
 	    
 	  } else {
 
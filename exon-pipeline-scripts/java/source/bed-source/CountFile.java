@@ -0,0 +1,226 @@
+/**File: CountFile.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class CountFile
+ *
+ *  A count file of one sample (e.g. the output of ComputeCounts) with the lines
+ *
+ *    <count object id> <count> [<count> ...]
+ *
+ *  and an optional header line "Id <column header> ...". The counts of the file
+ *  are stored in the columns firstColumn, ..., firstColumn + numColumns - 1 of the
+ *  count matrix.
+ *
+ ***********************************************************************************/
+
+public class CountFile {
+
+  private String   filename      = "";
+  private String[] columnHeaders = null;
+  private int      firstColumn   = 0;
+
+  /* Computed by readCounts */
+  private double[] columnSums     = null;
+  private double[] columnRateSums = null;
+  private int      numUnknownIds  = 0;
+
+  CountFile (String filename, String fileSuffix) throws IOException {
+
+    this.filename = filename;
+
+    BufferedReader reader = UtilLib.getBufferedReader (filename);
+    String line = reader.readLine ();
+    reader.close ();
+
+    if (line == null) {
+      throw new IOException ("ERROR: Count file " + filename + " is empty.");
+    }
+
+    String [] fields = line.split ("\t");
+    if (fields[0].equals("Id")) {
+      columnHeaders = Arrays.copyOfRange (fields, 1, fields.length);
+    } else {
+      String sampleName = new File (filename).getName ();
+      if (! fileSuffix.equals("")) {
+	sampleName = sampleName.replaceAll (fileSuffix, "");
+      }
+      sampleName = sampleName.replaceAll ("[ _-]+$", "");
+
+      columnHeaders = new String [Math.max (fields.length - 1, 1)];
+      if (columnHeaders.length == 1) {
+	columnHeaders[0] = sampleName;
+      } else {
+	for (int i = 0; i < columnHeaders.length; i++) {
+	  columnHeaders[i] = sampleName + "-" + (i + 1);
+	}
+      }
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  public String getFilename () {
+    return filename;
+  }
+
+  public String[] getColumnHeaders () {
+    return columnHeaders;
+  }
+
+  public int getNumColumns () {
+    return columnHeaders.length;
+  }
+
+  public int getFirstColumn () {
+    return firstColumn;
+  }
+
+  public void setFirstColumn (int value) {
+    firstColumn = value;
+  }
+
+  public double getColumnSum (int column) {
+    return columnSums[column];
+  }
+
+  public double getColumnRateSum (int column) {
+    return columnRateSums[column];
+  }
+
+  public int getNumUnknownIds () {
+    return numUnknownIds;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  readIds: the count object ids of the file
+   *
+   ***********************************************************************************/
+
+  public HashSet<String> readIds () throws IOException {
+
+    HashSet<String> countObjectIds = new HashSet<String> ();
+
+    BufferedReader reader = UtilLib.getBufferedReader (filename);
+    String line = reader.readLine ();
+    while (line != null) {
+      int tabPos = line.indexOf ('\t');
+      String countObjectId = tabPos >= 0?line.substring (0, tabPos):line;
+      if (! countObjectId.equals("") && ! countObjectId.equals("Id")) {
+	countObjectIds.add (countObjectId);
+      }
+      line = reader.readLine ();
+    }
+    reader.close ();
+
+    return countObjectIds;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  readCounts: store the counts in the columns of the file in countMatrix and
+   *  compute the sum of the counts and of the counts per base (for the count
+   *  objects with a length > 0) of each column
+   *
+   ***********************************************************************************/
+
+  public void readCounts (HashMap<String, Integer> rowIndex, double[] rowLengths, MappedCountMatrix countMatrix, StageMetrics metrics) throws IOException {
+
+    int numColumns = getNumColumns ();
+    columnSums     = new double [numColumns];
+    columnRateSums = new double [numColumns];
+
+    BitSet readRows = new BitSet (countMatrix.getNumRows ());
+
+    long numLines = 0;
+    long numChars = 0;
+    long startTime = metrics.getStartTime ();
+
+    BufferedReader reader = UtilLib.getBufferedReader (filename);
+    String line = reader.readLine ();
+    while (line != null) {
+
+      numLines++;
+      numChars = numChars + line.length () + 1;
+
+      int tabPos = line.indexOf ('\t');
+      String countObjectId = tabPos >= 0?line.substring (0, tabPos):line;
+      if (countObjectId.equals("") || countObjectId.equals("Id")) {
+	line = reader.readLine ();
+	continue;
+      }
+
+      Integer row = rowIndex.get (countObjectId);
+      if (row == null) {
+	numUnknownIds++;
+	line = reader.readLine ();
+	continue;
+      }
+
+      /* ComputeCounts writes the id of a count object of a count object map with three
+	 columns once per exon; the repeated lines are not added to the sums again */
+      if (readRows.get (row.intValue ())) {
+	line = reader.readLine ();
+	continue;
+      }
+      readRows.set (row.intValue ());
+
+      double rowLength = rowLengths != null?rowLengths[row.intValue ()]:0;
+      for (int column = 0; column < numColumns && tabPos >= 0; column++) {
+	int nextTabPos = line.indexOf ('\t', tabPos + 1);
+	String countString = nextTabPos >= 0?line.substring (tabPos + 1, nextTabPos):line.substring (tabPos + 1);
+	double count = 0;
+	try {
+	  count = Double.parseDouble (countString);
+	}
+	catch (NumberFormatException e) {
+	  throw new IOException ("ERROR: Count " + countString + " of " + countObjectId + " in file " + filename + " is not a number.");
+	}
+
+	countMatrix.set (row.intValue (), firstColumn + column, count);
+	columnSums[column] = columnSums[column] + count;
+	if (rowLength > 0) {
+	  columnRateSums[column] = columnRateSums[column] + count / rowLength;
+	}
+
+	tabPos = nextTabPos;
+      }
+
+      line = reader.readLine ();
+
+    }
+    reader.close ();
+
+    metrics.addRecords (numLines);
+    metrics.addBytes   (numChars);
+    metrics.addParseTime (startTime);
+
+  }
+
+}
@@ -0,0 +1,264 @@
+/**File: CountObjectMasks.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class CountObjectMasks
+ *
+ *  Count objects are identified by int ids which are assigned when a count
+ *  object is first seen; the ids of the count objects of an exon are cached
+ *  for the count object table of Exon. The ids and the cache are read without
+ *  a lock; only new ids are assigned under the lock of the class.
+ *
+ *  An object of the class records for the count objects of one genomic alignment
+ *  the field indices of the genomic intervals with a conforming alignment to an
+ *  exon of the count object as a bit mask (bit i for field index i). The masks
+ *  are indexed by count object id and reset after each genomic alignment, so
+ *  each thread uses one object for all genomic alignments (getThreadMasks).
+ *
+ ***********************************************************************************/
+
+class CountObjectMasks {
+
+  /* A long has one bit for each of the field indices 0, ..., MAX_FIELD_INDEX */
+  public static final int MAX_FIELD_INDEX = 63;
+
+
+  /***********************************************************************************
+   *
+   *                              Count object ids
+   *
+   ***********************************************************************************/
+
+  private static ConcurrentHashMap<String, Integer> countObjectIdTable = new ConcurrentHashMap<String, Integer> (100 * 1000);
+
+  /* countObjects is replaced by a larger copy when it is full; the count object of an id is set before the id is
+     put into countObjectIdTable */
+  private static volatile String [] countObjects    = new String [100 * 1000];
+  private static int                numCountObjects = 0;
+
+  /* The cache of the exon ids of one count object table */
+  private static class ExonIdTable {
+
+    private HashSetTable<Exon, String>       countObjectTable = null;
+    private ConcurrentHashMap<Exon, int []> exonIds          = new ConcurrentHashMap<Exon, int []> (100 * 1000);
+
+    private ExonIdTable (HashSetTable<Exon, String> countObjectTable) {
+      this.countObjectTable = countObjectTable;
+    }
+
+  }
+
+  private static volatile ExonIdTable exonIdTable = new ExonIdTable (null);
+
+  public static int getId (String countObject) {
+
+    Integer id = countObjectIdTable.get (countObject);
+    if (id != null) {
+      return id.intValue ();
+    }
+
+    return addId (countObject);
+
+  }
+
+  private static synchronized int addId (String countObject) {
+
+    Integer id = countObjectIdTable.get (countObject);
+    if (id == null) {
+      if (numCountObjects == countObjects.length) {
+	countObjects = Arrays.copyOf (countObjects, 2 * countObjects.length);
+      }
+      countObjects[numCountObjects] = countObject;
+      id = new Integer (numCountObjects);
+      numCountObjects++;
+      countObjectIdTable.put (countObject, id);
+    }
+
+    return id.intValue ();
+
+  }
+
+  public static String getCountObject (int id) {
+    return countObjects[id];
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              getExonIds
+   *
+   *  The ids of the count objects associated to exon in countObjectTable. As in
+   *  GenomicInterval.computeOverlaps, an exon without a count object is added to
+   *  countObjectTable as its own count object.
+   *
+   ***********************************************************************************/
+
+  public static int [] getExonIds (Exon exon, HashSetTable<Exon, String> countObjectTable, int debugLevel) {
+
+    ExonIdTable curExonIdTable = exonIdTable;
+    if (curExonIdTable.countObjectTable == countObjectTable) {
+      int [] exonIds = curExonIdTable.exonIds.get (exon);
+      if (exonIds != null) {
+	return exonIds;
+      }
+    }
+
+    return addExonIds (exon, countObjectTable, debugLevel);
+
+  }
+
+  private static synchronized int [] addExonIds (Exon exon, HashSetTable<Exon, String> countObjectTable, int debugLevel) {
+
+    if (exonIdTable.countObjectTable != countObjectTable) {
+      exonIdTable = new ExonIdTable (countObjectTable);
+    }
+
+    int [] exonIds = exonIdTable.exonIds.get (exon);
+    if (exonIds != null) {
+      return exonIds;
+    }
+
+    HashSet<String> countObjectSet = countObjectTable.get (exon);
+    if (countObjectSet == null) {
+      if (debugLevel >= 1) {
+	System.err.println ("No count object associated to exon " + exon);
+      }
+      countObjectTable.putValue (exon, exon.toString());
+      countObjectSet = countObjectTable.get (exon);
+    }
+
+    exonIds = new int [countObjectSet.size ()];
+    int i = 0;
+    for (String countObject: countObjectSet) {
+      exonIds[i] = getId (countObject);
+      i++;
+    }
+
+    exonIdTable.exonIds.put (exon, exonIds);
+
+    return exonIds;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              getThreadMasks
+   *
+   ***********************************************************************************/
+
+  private static ThreadLocal<CountObjectMasks> threadMasks = new ThreadLocal<CountObjectMasks> () {
+    protected CountObjectMasks initialValue () {
+      return new CountObjectMasks ();
+    }
+  };
+
+  public static CountObjectMasks getThreadMasks () {
+    return threadMasks.get ();
+  }
+
+
+  /***********************************************************************************
+   *
+   *                     Object variables and methods
+   *
+   ***********************************************************************************/
+
+  /* masks[id] is the mask of count object id; isRecorded[id] is true if id is one of the first numIds of ids */
+  private long []    masks      = new long [1024];
+  private boolean [] isRecorded = new boolean [1024];
+  private int []     ids        = new int [64];
+  private int        numIds     = 0;
+
+  /* Record a conforming alignment of a genomic interval with field index fieldIndex to count object id; a negative
+     field index records the count object without setting a bit */
+  public void record (int id, int fieldIndex) {
+
+    if (id >= masks.length) {
+      int length = Math.max (2 * masks.length, id + 1);
+      masks      = Arrays.copyOf (masks, length);
+      isRecorded = Arrays.copyOf (isRecorded, length);
+    }
+
+    if (! isRecorded[id]) {
+      if (numIds == ids.length) {
+	ids = Arrays.copyOf (ids, 2 * ids.length);
+      }
+      ids[numIds] = id;
+      numIds++;
+      isRecorded[id] = true;
+    }
+
+    if (fieldIndex >= 0) {
+      masks[id] = masks[id] | (1L << fieldIndex);
+    }
+
+  }
+
+  public int getNumIds () {
+    return numIds;
+  }
+
+  public int getId (int i) {
+    return ids[i];
+  }
+
+  public long getMask (int i) {
+    return masks[ids[i]];
+  }
+
+  public void clear () {
+
+    for (int i = 0; i < numIds; i++) {
+      masks[ids[i]]      = 0;
+      isRecorded[ids[i]] = false;
+    }
+    numIds = 0;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              Mask methods
+   *
+   ***********************************************************************************/
+
+  /* The number of field indices in mask */
+  public static int getNumFieldIndices (long mask) {
+    return Long.bitCount (mask);
+  }
+
+  /* true if mask contains at least k consecutive field indices */
+  public static boolean hasConsecutiveFieldIndices (long mask, int k) {
+
+    /* After the i-th step bit j is set iff the bits j, ..., j + i are set */
+    for (int i = 1; i < k && mask != 0; i++) {
+      mask = mask & (mask >>> 1);
+    }
+
+    return k <= 0 || mask != 0;
+
+  }
+
+}
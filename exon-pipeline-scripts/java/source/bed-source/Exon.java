@@ -53,6 +53,34 @@ class Exon implements Comparable {
     return countObjectIds;
   }
 
+  /* The external count object ids of the second column of a count object map with
+     three columns in the order of the file and their count object ids */
+  private static LinkedHashMap<String, String> outputCountObjectIds = null;
+
+  /***********************************************************************************
+   * 
+   *  getOutputCountObjectIds: the ids which ComputeCounts.writeCounts writes for
+   *  the count objects - the sorted count object ids or, for a count object map with
+   *  three columns, the external ids of the second column - mapped to the count
+   *  object ids
+   *
+   ***********************************************************************************/
+
+  public static LinkedHashMap<String, String> getOutputCountObjectIds () {
+
+    if (countObjectMapColumn > 2) {
+      return outputCountObjectIds;
+    }
+
+    LinkedHashMap<String, String> sortedCountObjectIds = new LinkedHashMap<String, String> (2 * countObjectIds.size () + 1);
+    for (String countObjectId: countObjectIds.keySet ()) {
+      sortedCountObjectIds.put (countObjectId, countObjectId);
+    }
+
+    return sortedCountObjectIds;
+
+  }
+
   private static int countObjectMapColumn = 2;
   public static int getCountObjectMapColumn () {
     return countObjectMapColumn;
@@ -70,69 +98,28 @@ class Exon implements Comparable {
   public static void loadCountObjectFile (BufferedReader reader) throws IOException {
 
     if (reader == null) {
-      countObjectTable = new HashSetTable<Exon, String> ();
-      countObjectIds   = new TreeMap<String, String> ();
+      countObjectTable     = new HashSetTable<Exon, String> ();
+      countObjectIds       = new TreeMap<String, String> ();
+      outputCountObjectIds = new LinkedHashMap<String, String> ();
       return;
     }
     
-    countObjectTable = new HashSetTable<Exon, String> (700 * 1000);
-    countObjectIds   = new TreeMap<String, String> ();
+    countObjectTable     = new HashSetTable<Exon, String> (700 * 1000);
+    countObjectIds       = new TreeMap<String, String> ();
+    outputCountObjectIds = new LinkedHashMap<String, String> ();
     
     HashMap<String, String> exonIds = new HashMap<String, String> (500 * 1000);
 
     int countUnit = 500 * 1000;
 
+    /* At most three columns are used */
+    String [] fields = new String [3];
+
     String line = reader.readLine();
     int lineNumber  = 1;
     while (line != null) {
-      int fieldNumber = 0;
-      StringTokenizer st = new StringTokenizer (line, "\t");
 
-      String exonId = "";
-      if (st.hasMoreTokens()) {
-	exonId = st.nextToken ();	
-      } else {
-	throw new IOException ("No exon id found.");
-      }
-      fieldNumber++;
-
-      /* Try to save space by reusing identical strings */
-      if (exonIds.containsKey (exonId)) {
-	exonId = exonIds.get (exonId);
-      } else {
-	exonIds.put (exonId, exonId);
-      }
-	
-      if (! exonId.equals("Exon Id")) {
-	String countObjectId = "";
-	if (st.hasMoreTokens()) {
-	  countObjectId = st.nextToken ();
-	} else {
-	  throw new IOException ("No count object for exon " + exonId + " found on loading.");
-	}
-	fieldNumber++;
-
-	/* Check if there is a third column; if so, use the id in the third column as the countObjectId */
-	if (st.hasMoreTokens()) {
-	  countObjectId = st.nextToken ();
-	  fieldNumber++;
-	}
-
-	if (fieldNumber < countObjectMapColumn) {
-	  throw new IOException ("Not all lines have " + countObjectMapColumn + " columns.");
-	} else if (fieldNumber > countObjectMapColumn) {
-	  countObjectMapColumn = fieldNumber;
-	}
-
-	/* Try to save space by reusing identical strings */
-	if (countObjectIds.containsKey (countObjectId)) {
-	  countObjectId = countObjectIds.get (countObjectId);
-	} else {
-	  countObjectIds.put (countObjectId, countObjectId);
-	}
-	
-	countObjectTable.add (new Exon (exonId, "/"), countObjectId);
-      }
+      addCountObjectFields (fields, ReferenceBundle.splitLine (line, fields), exonIds);
 
       if (lineNumber % countUnit == 0) {
 	System.err.print (".");
@@ -151,6 +138,93 @@ class Exon implements Comparable {
 
   }
 
+
+  /***********************************************************************************
+   * 
+   *  loadCountObjectFile: use the reference bundle of countObjectMapFilename if it
+   *  exists
+   *
+   ***********************************************************************************/
+
+  public static void loadCountObjectFile (String countObjectMapFilename) throws IOException {
+
+    ReferenceBundle referenceBundle = ReferenceBundle.open (UtilLib.getPath (countObjectMapFilename));
+    if (referenceBundle == null) {
+      loadCountObjectFile (UtilLib.getBufferedReader (countObjectMapFilename));
+      return;
+    }
+
+    System.err.println ("Using reference bundle " + referenceBundle.getFilename ());
+
+    countObjectTable     = new HashSetTable<Exon, String> (Math.max (referenceBundle.getNumRows (), 1000));
+    countObjectIds       = new TreeMap<String, String> ();
+    outputCountObjectIds = new LinkedHashMap<String, String> ();
+
+    HashMap<String, String> exonIds = new HashMap<String, String> (Math.max (referenceBundle.getNumRows (), 1000));
+
+    String [] fields = new String [Math.max (referenceBundle.getMaxNumFields (), 3)];
+    for (int row = 0; row < referenceBundle.getNumRows (); row++) {
+      int numFields = referenceBundle.getFields (row, fields);
+      addCountObjectFields (fields, Math.min (numFields, 3), exonIds);
+    }
+
+  }
+
+
+  /***********************************************************************************
+   * 
+   *  addCountObjectFields: add the exon and count object of a line of the count
+   *  object file to countObjectTable
+   *
+   ***********************************************************************************/
+
+  private static void addCountObjectFields (String [] fields, int numFields, HashMap<String, String> exonIds) throws IOException {
+
+    if (numFields == 0) {
+      throw new IOException ("No exon id found.");
+    }
+
+    String exonId = fields[0];
+
+    /* Try to save space by reusing identical strings */
+    if (exonIds.containsKey (exonId)) {
+      exonId = exonIds.get (exonId);
+    } else {
+      exonIds.put (exonId, exonId);
+    }
+	
+    if (exonId.equals("Exon Id")) {
+      return;
+    }
+
+    if (numFields < 2) {
+      throw new IOException ("No count object for exon " + exonId + " found on loading.");
+    }
+
+    /* Check if there is a third column; if so, use the id in the third column as the countObjectId */
+    String countObjectId = fields[numFields - 1];
+
+    if (numFields < countObjectMapColumn) {
+      throw new IOException ("Not all lines have " + countObjectMapColumn + " columns.");
+    } else if (numFields > countObjectMapColumn) {
+      countObjectMapColumn = numFields;
+    }
+
+    /* Try to save space by reusing identical strings */
+    if (countObjectIds.containsKey (countObjectId)) {
+      countObjectId = countObjectIds.get (countObjectId);
+    } else {
+      countObjectIds.put (countObjectId, countObjectId);
+    }
+
+    if (numFields > 2 && ! outputCountObjectIds.containsKey (fields[1])) {
+      outputCountObjectIds.put (fields[1], countObjectId);
+    }
+	
+    countObjectTable.add (new Exon (exonId, "/"), countObjectId);
+
+  }
+
   /***********************************************************************************
    * 
    *                           computeExonSetLength
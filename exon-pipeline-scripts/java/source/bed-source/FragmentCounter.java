@@ -0,0 +1,506 @@
+/**File: FragmentCounter.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class FragmentCounter
+ *
+ *  The fragment loop of the counting tools (ComputeCounts, ComputeExonCountsBed):
+ *
+ *  for each bedRecord with overlap > 0 do
+ *    if bedRecord.getFragmentId != oldFragmentId:
+ *      processFragment (weightObject)
+ *      weightObject.reset (bedRecord)
+ *    else:
+ *      weightObject.addBedRecord (bedRecord)
+ *  processFragment (weightObject)
+ *
+ *  processFragment computes the weight of the fragment - the minimum of the read
+ *  weight of the read weight file and 1 / number of genomic alignments - and passes
+ *  the weight object to the FragmentProcessor of the tool if the weight is at least
+ *  the read weight threshold. The FragmentProcessor adds the counts of the fragment
+ *  to a shard of the CountAccumulator.
+ *
+ *  ComputeExonCountsBed counts each read of an unpaired fragment as a weight
+ *  object of its own and weights it with the read weight of the read weight file
+ *  only (setSingleReadWeightObjects, setLimitReadWeights).
+ *
+ *  The read weight file must be sorted like the BED file. It is read along with
+ *  the BED file; only the weights of the last 1000 fragment ids of the read weight
+ *  file are kept.
+ *
+ ***********************************************************************************/
+
+public class FragmentCounter {
+
+  /***********************************************************************************
+   *
+   *  FragmentProcessor: counts the fragment of weightObject with weight objectWeight
+   *  in countShard and returns the sum of the weights added
+   *
+   ***********************************************************************************/
+
+  public interface FragmentProcessor {
+
+    public double processWeightObject (WeightObject weightObject, double objectWeight, CountAccumulator.Shard countShard) throws IOException;
+
+  }
+
+
+  private static final int COUNT_UNIT = 2 * 1250 * 1000;
+
+  /* The number of read weight file entries which are kept for fragments that are processed later */
+  private static final int WEIGHT_QUEUE_SIZE = 1000;
+
+  private int debugLevel = 0;
+
+  private FragmentProcessor      processor  = null;
+  private CountAccumulator       countTable = null;
+  private CountAccumulator.Shard countShard = null;
+
+  private BufferedReader weightReader        = null;
+  private PrintWriter    weightWriter        = null;
+  private boolean        bedReadWeights      = false;
+  private boolean        useReadWeights      = true;
+  private boolean        limitReadWeights    = true;
+  private double         readWeightThreshold = 0.01;
+
+  private boolean singleReadWeightObjects = false;
+
+  private PriorityQueue<String>     weightFragmentIdQueue = new PriorityQueue<String> (WEIGHT_QUEUE_SIZE);
+  private Hashtable<String, Double> weightFragmentIdTable = new Hashtable<String, Double> (WEIGHT_QUEUE_SIZE);
+
+  /* The fragment id of the last line read from the read weight file */
+  private String currentWeightFragmentId  = null;
+  private long   currentWeightFragmentKey = FragmentNameKey.noKey;
+
+  /* Only used in validation mode (option -V) */
+  private String lastWeightFragmentId  = null;
+  private long   lastWeightFragmentKey = FragmentNameKey.noKey;
+  private int    weightLineNumber      = 0;
+
+  private StageMetrics bedMetrics      = null;
+  private StageMetrics fragmentMetrics = null;
+
+  private int    numLines                 = 0;
+  private int    numWeightObjects         = 0;
+  private int    numWeightObjectsIncluded = 0;
+  private int    numWeightObjectsExcluded = 0;
+  private double sumObjectWeight          = 0.0;
+
+
+  /***********************************************************************************/
+
+  public FragmentCounter (String toolName, FragmentProcessor processor, CountAccumulator countTable) {
+
+    debugLevel = UtilLib.getDebugLevel ();
+
+    this.processor  = processor;
+    this.countTable = countTable;
+    this.countShard = countTable.getShard ();
+
+    bedMetrics      = PipelineMetrics.getStage (toolName + " BED");
+    fragmentMetrics = PipelineMetrics.getStage (toolName + " fragments");
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  Read weights: the read weight file (weightReader), the read weights of the BED
+   *  file (bedReadWeights), and the file to which the read weights of the BED file
+   *  are written (weightWriter). If useReadWeights is false, the read weights are
+   *  only used to filter the fragments.
+   *
+   ***********************************************************************************/
+
+  public void setWeightReader (BufferedReader weightReader) {
+    this.weightReader = weightReader;
+  }
+
+  public void setWeightWriter (PrintWriter weightWriter) {
+    this.weightWriter = weightWriter;
+  }
+
+  public void setBedReadWeights (boolean bedReadWeights) {
+    this.bedReadWeights = bedReadWeights;
+  }
+
+  public void setUseReadWeights (boolean useReadWeights) {
+    this.useReadWeights = useReadWeights;
+  }
+
+  public void setReadWeightThreshold (double readWeightThreshold) {
+    this.readWeightThreshold = readWeightThreshold;
+  }
+
+  /* If limitReadWeights is false, the read weight of the read weight file is not limited by
+     1 / number of genomic alignments */
+  public void setLimitReadWeights (boolean limitReadWeights) {
+    this.limitReadWeights = limitReadWeights;
+  }
+
+  /* If singleReadWeightObjects is true, the alignments of each read of an unpaired fragment are
+     a weight object */
+  public void setSingleReadWeightObjects (boolean singleReadWeightObjects) {
+    this.singleReadWeightObjects = singleReadWeightObjects;
+  }
+
+
+  /***********************************************************************************/
+
+  public CountAccumulator getCountTable () {
+    return countTable;
+  }
+
+  public int getNumLines () {
+    return numLines;
+  }
+
+  public int getNumWeightObjects () {
+    return numWeightObjects;
+  }
+
+  public int getNumWeightObjectsIncluded () {
+    return numWeightObjectsIncluded;
+  }
+
+  public int getNumWeightObjectsExcluded () {
+    return numWeightObjectsExcluded;
+  }
+
+  public double getSumObjectWeight () {
+    return sumObjectWeight;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  checkWeightFragmentIdOrder: in validation mode check that the read weight file
+   *  is sorted by fragment id
+   *
+   ***********************************************************************************/
+
+  private void checkWeightFragmentIdOrder (String weightFragmentId, long weightFragmentKey) throws IOException {
+
+    weightLineNumber++;
+    if (! FragmentNameKey.validateOrder ()) {
+      return;
+    }
+
+    if (lastWeightFragmentId != null) {
+      FragmentNameKey.checkOrder (lastWeightFragmentId, lastWeightFragmentKey, weightFragmentId, weightFragmentKey, "Read weight file",
+				  weightLineNumber);
+    }
+    lastWeightFragmentId  = weightFragmentId;
+    lastWeightFragmentKey = weightFragmentKey;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  storeWeight: keep the weight of weightFragmentId for a later fragment; the
+   *  smallest fragment id is dropped if more than WEIGHT_QUEUE_SIZE are stored
+   *
+   ***********************************************************************************/
+
+  private void storeWeight (String weightFragmentId, long weightFragmentKey, Double alignmentNum) {
+
+    currentWeightFragmentId  = weightFragmentId;
+    currentWeightFragmentKey = weightFragmentKey;
+
+    if (debugLevel >= 2) {
+      System.err.println ("Weight fragment id: " + weightFragmentId + ", alignmentNum: " + alignmentNum);
+    }
+
+    if (weightFragmentIdQueue.size () > WEIGHT_QUEUE_SIZE) {
+      String minFragmentId = weightFragmentIdQueue.poll ();
+      if (debugLevel >= 2) {
+	System.err.println ("Min fragment id: " + minFragmentId + ", weightFragmentIdQueue.size (): " + weightFragmentIdQueue.size ());
+      }
+
+      if (minFragmentId != null) {
+	weightFragmentIdTable.remove (minFragmentId);
+      }
+    }
+
+    weightFragmentIdQueue.add (weightFragmentId);
+    weightFragmentIdTable.put (weightFragmentId, alignmentNum);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           getReadWeight
+   *
+   *  Retrieve the weight for fragmentId with key fragmentKey from weightReader:
+   *    If the weight of fragmentId was already read (e.g. for the other read of an
+   *    unpaired fragment), return the stored weight
+   *    Read entries from weightReader until fragmentId is found
+   *    if an entry with a larger id is found, raise an exception
+   *
+   ***********************************************************************************/
+
+  private double getReadWeight (String fragmentId, long fragmentKey) throws IOException {
+
+    if (currentWeightFragmentId != null &&
+	FragmentNameKey.compare (currentWeightFragmentId, currentWeightFragmentKey, fragmentId, fragmentKey) >= 0) {
+      Double alignmentNum = weightFragmentIdTable.get (fragmentId);
+      if (alignmentNum != null) {
+	if (FragmentTrace.ON && FragmentTrace.isTraced (fragmentId)) {
+	  FragmentTrace.trace (fragmentId, "weightFile", alignmentNum + " (stored)");
+	}
+	return 1.0 / alignmentNum.doubleValue ();
+      }
+    }
+
+    String line = weightReader.readLine ();
+
+    if (line == null) {
+      return 1.0;
+    }
+
+    StringTokenizer st = new StringTokenizer (line, "\t");
+
+    String weightFragmentId = "";
+    if (st.hasMoreTokens()) {
+      weightFragmentId = st.nextToken ();
+    }
+    long weightFragmentKey = FragmentNameKey.getKey (weightFragmentId);
+    checkWeightFragmentIdOrder (weightFragmentId, weightFragmentKey);
+
+    Double alignmentNum = null;
+    if (st.hasMoreTokens()) {
+      alignmentNum = new Double(st.nextToken ());
+    } else {
+      throw new IOException ("No weight for read " + weightFragmentId + " found.");
+    }
+
+    storeWeight (weightFragmentId, weightFragmentKey, alignmentNum);
+
+    while (! weightFragmentId.equals (fragmentId)) {
+
+      int compValue = FragmentNameKey.compare (weightFragmentId, weightFragmentKey, fragmentId, fragmentKey);
+
+      if (compValue > 0) {
+	alignmentNum = weightFragmentIdTable.get (fragmentId);
+	if (alignmentNum == null) {
+	  String minFragmentId = weightFragmentIdQueue.poll ();
+	  throw new IOException ("Fragment id: " + fragmentId + " not found in read weight file - current weight fragment id: " + weightFragmentId +
+				 ", minimum stored weight fragment id: " + minFragmentId);
+	} else {
+	  if (FragmentTrace.ON && FragmentTrace.isTraced (fragmentId)) {
+	    FragmentTrace.trace (fragmentId, "weightFile", alignmentNum + " (stored)");
+	  }
+	  return 1.0 / alignmentNum.doubleValue ();
+	}
+      }
+
+      line = weightReader.readLine ();
+
+      if (line == null) {
+	throw new IOException ("Fragment id: " + fragmentId + " not found in read weight file.");
+      }
+
+      st = new StringTokenizer (line, "\t");
+
+      if (st.hasMoreTokens()) {
+	weightFragmentId = st.nextToken ();
+      }
+      weightFragmentKey = FragmentNameKey.getKey (weightFragmentId);
+      checkWeightFragmentIdOrder (weightFragmentId, weightFragmentKey);
+
+      if (st.hasMoreTokens()) {
+	alignmentNum = new Double(st.nextToken ());
+      } else {
+	throw new IOException ("No weight for read " + weightFragmentId + " found.");
+      }
+
+      storeWeight (weightFragmentId, weightFragmentKey, alignmentNum);
+
+    }
+
+    if (FragmentTrace.ON && FragmentTrace.isTraced (fragmentId)) {
+      FragmentTrace.trace (fragmentId, "weightFile", alignmentNum);
+    }
+
+    return 1.0 / alignmentNum.doubleValue ();
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  processFragment: weight the fragment and count it if its weight is at least
+   *  the read weight threshold
+   *
+   ***********************************************************************************/
+
+  private void processFragment (WeightObject weightObject) throws IOException {
+
+    String fragmentId   = weightObject.getFragmentId ();
+    double objectWeight = 1.0;
+
+    fragmentMetrics.addRecords (1);
+
+    int numGenomicAlignments = weightObject.getNumGenomicAlignments();
+    if (weightWriter != null) {
+      weightWriter.println (fragmentId + "\t" + numGenomicAlignments);
+    }
+    if (weightReader != null) {
+      objectWeight = getReadWeight (fragmentId, weightObject.getFragmentKey ());
+      if (FragmentTrace.ON && FragmentTrace.isTraced (fragmentId)) {
+	FragmentTrace.trace (fragmentId, "readWeight", objectWeight + "\t" + numGenomicAlignments);
+      }
+      if (limitReadWeights && objectWeight > 1.0 / numGenomicAlignments) {
+	objectWeight = 1.0 / numGenomicAlignments;
+      }
+    } else if (bedReadWeights) {
+      objectWeight = 1.0 / numGenomicAlignments;
+      if (FragmentTrace.ON && FragmentTrace.isTraced (fragmentId)) {
+	FragmentTrace.trace (fragmentId, "readWeight", objectWeight + "\t" + numGenomicAlignments);
+      }
+    }
+
+    if (objectWeight >= readWeightThreshold) {
+      double objectAddWeight = useReadWeights?objectWeight:1.0;
+      long processStartTime = fragmentMetrics.getStartTime ();
+      double weightAdded = processor.processWeightObject (weightObject, objectAddWeight, countShard);
+      fragmentMetrics.addProcessTime (processStartTime);
+      sumObjectWeight = sumObjectWeight + weightAdded;
+      if (weightAdded > 0) {
+	numWeightObjectsIncluded++;
+      } else {
+	numWeightObjectsExcluded++;
+      }
+    } else {
+      if (FragmentTrace.ON && FragmentTrace.isTraced (fragmentId)) {
+	FragmentTrace.trace (fragmentId, "belowWeightThreshold", objectWeight);
+      }
+      numWeightObjectsExcluded++;
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  countFragments: count the fragments of the BED records of reader. The BED
+   *  records of a fragment must be consecutive (and the BED records of a read if
+   *  singleReadWeightObjects is set).
+   *
+   ***********************************************************************************/
+
+  public void countFragments (BufferedReader reader) throws Exception {
+
+    WeightObject weightObject   = null;
+    String       oldFragmentId  = "";
+    String       oldReadId      = "";
+    boolean      oldIsPairedEnd = true;
+
+    String line = reader.readLine();
+    while (line != null) {
+
+      bedMetrics.addLine (line);
+      long parseStartTime = bedMetrics.getStartTime ();
+      BedRecord bedRecord = new BedRecord (line);
+      bedMetrics.addParseTime (parseStartTime);
+
+      if (bedRecord.getOverlap () > 0) {
+
+	/* We consider fragments as weight objects. If there are two single-read alignments of one fragment
+	   against a count object, then we count this as one. */
+	String fragmentId = bedRecord.getFragmentId ();
+
+	boolean newWeightObject = ! fragmentId.equals(oldFragmentId);
+	if (singleReadWeightObjects && ! oldIsPairedEnd) {
+	  newWeightObject = ! bedRecord.getReadId ().equals(oldReadId);
+	}
+
+	if (weightObject == null) {
+	  weightObject = new WeightObject (bedRecord);
+	  numWeightObjects++;
+	} else if (newWeightObject) {
+	  processFragment (weightObject);
+
+	  /* Reuse the weight object for the new fragment */
+	  numWeightObjects++;
+	  weightObject.reset (bedRecord);
+	} else {
+	  weightObject.addBedRecord (bedRecord);
+	}
+
+	oldFragmentId = fragmentId;
+	if (singleReadWeightObjects) {
+	  oldReadId      = bedRecord.getReadId ();
+	  oldIsPairedEnd = bedRecord.isPairedEnd ();
+	}
+      }
+
+      numLines++;
+      if (numLines % COUNT_UNIT == 0) {
+	System.err.print(".");
+	System.err.flush();
+      }
+
+      line = reader.readLine();
+
+    }
+
+    if (debugLevel >= 1) {
+      System.err.println ("Processing last fragment");
+    }
+
+    if (weightObject != null) {
+      processFragment (weightObject);
+    }
+
+    if (numLines >= COUNT_UNIT) {
+      System.err.println();
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  public static String getCountUnitMessage () {
+    return "(. = " + COUNT_UNIT + " lines)";
+  }
+
+
+  public void printStatistics () {
+    printStatistics (numWeightObjects, numWeightObjectsIncluded, numWeightObjectsExcluded, sumObjectWeight);
+  }
+
+  public static void printStatistics (int numWeightObjects, int numWeightObjectsIncluded, int numWeightObjectsExcluded, double sumObjectWeight) {
+
+    System.err.format ("Num weight objects in BED file: " + numWeightObjects + ", num weight objects included: " + numWeightObjectsIncluded +
+		       " (%.2f%%), num weight objects excluded: " + numWeightObjectsExcluded + " (%.2f%%).%n", numWeightObjectsIncluded * 100.0 / numWeightObjects,
+		       numWeightObjectsExcluded * 100.0 / numWeightObjects);
+    System.err.format ("Sum of weights contributing to count objects: %.2f%n", sumObjectWeight);
+
+  }
+
+}
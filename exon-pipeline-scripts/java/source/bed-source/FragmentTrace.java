@@ -0,0 +1,74 @@
+/**File: FragmentTrace.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class FragmentTrace
+ *
+ *  Structured traces of the counting decisions for selected fragments or count
+ *  objects. Each trace line has the tab separated fields
+ *
+ *    TRACE <fragment id> <step> <detail>
+ *
+ *  ON is determined from FragmentTraceOptions when the class is initialized and
+ *  is final afterwards, so the JIT compiles a guard
+ *
+ *    if (FragmentTrace.ON && FragmentTrace.isTraced (fragmentId)) { ... }
+ *
+ *  to nothing if no trace targets are set. The guards should test ON first so
+ *  that the arguments of the trace calls are not evaluated in this case.
+ *
+ ***********************************************************************************/
+
+class FragmentTrace {
+
+  public static final boolean ON = FragmentTraceOptions.freeze ();
+
+  private static final HashSet<String> fragmentIds    = FragmentTraceOptions.getFragmentIds ();
+  private static final HashSet<String> countObjectIds = FragmentTraceOptions.getCountObjectIds ();
+  private static final boolean         traceAll       = FragmentTraceOptions.getTraceAll ();
+
+  private static final PrintWriter traceWriter = ON?FragmentTraceOptions.getTraceWriter ():null;
+
+  public static boolean isTraced (String fragmentId) {
+    return ON && (traceAll || fragmentIds.contains (fragmentId));
+  }
+
+  public static boolean isTracedCountObject (String countObjectId) {
+    return ON && (traceAll || countObjectIds.contains (countObjectId));
+  }
+
+  public static synchronized void trace (String fragmentId, String step, Object detail) {
+    traceWriter.println ("TRACE\t" + fragmentId + "\t" + step + "\t" + detail);
+  }
+
+  public static synchronized void close () {
+    if (ON) {
+      traceWriter.flush ();
+      /* System.err is not closed */
+      if (FragmentTraceOptions.hasTraceWriter ()) {
+	traceWriter.close ();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/**File: FragmentTraceOptions.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class FragmentTraceOptions
+ *
+ *  The targets of the fragment traces (see FragmentTrace): the traced fragment
+ *  ids (option -D of ComputeCounts), the traced count object ids (option -S), or
+ *  all fragments, and the writer to which the traces are written.
+ *
+ *  The options have to be set before FragmentTrace is initialized; they are
+ *  frozen by the initialization of FragmentTrace.
+ *
+ ***********************************************************************************/
+
+class FragmentTraceOptions {
+
+  private static HashSet<String> fragmentIds    = new HashSet<String> ();
+  private static HashSet<String> countObjectIds = new HashSet<String> ();
+  private static boolean         traceAll       = false;
+  private static PrintWriter     traceWriter    = null;
+
+  private static boolean frozen = false;
+
+  private static void checkNotFrozen () {
+    if (frozen) {
+      throw new IllegalStateException ("ERROR: fragment trace options set after the tracing was initialized.");
+    }
+  }
+
+  /* fragmentIds is a colon separated list of fragment ids */
+  public static synchronized void addFragmentIds (String fragmentIds) {
+
+    checkNotFrozen ();
+    StringTokenizer st = new StringTokenizer (fragmentIds, ":");
+    while (st.hasMoreTokens ()) {
+      FragmentTraceOptions.fragmentIds.add (st.nextToken ());
+    }
+
+  }
+
+  public static synchronized void addCountObjectId (String countObjectId) {
+    checkNotFrozen ();
+    countObjectIds.add (countObjectId);
+  }
+
+  public static synchronized void setTraceAll (boolean value) {
+    checkNotFrozen ();
+    traceAll = value;
+  }
+
+  public static synchronized void setTraceWriter (PrintWriter writer) {
+    checkNotFrozen ();
+    traceWriter = writer;
+  }
+
+  public static synchronized boolean hasTargets () {
+    return traceAll || fragmentIds.size () > 0 || countObjectIds.size () > 0;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  Accessed by FragmentTrace during its initialization
+   *
+   ***********************************************************************************/
+
+  static synchronized boolean freeze () {
+    frozen = true;
+    return hasTargets ();
+  }
+
+  static HashSet<String> getFragmentIds () {
+    return fragmentIds;
+  }
+
+  static HashSet<String> getCountObjectIds () {
+    return countObjectIds;
+  }
+
+  static boolean getTraceAll () {
+    return traceAll;
+  }
+
+  static boolean hasTraceWriter () {
+    return traceWriter != null;
+  }
+
+  static PrintWriter getTraceWriter () {
+    if (traceWriter == null) {
+      return new PrintWriter (System.err);
+    }
+    return traceWriter;
+  }
+
+}
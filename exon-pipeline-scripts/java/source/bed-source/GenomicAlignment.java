@@ -40,8 +40,14 @@ public class GenomicAlignment implements Comparable {
    *
    ***********************************************************************************/
 
-  private TreeSet<GenomicInterval> genomicIntervals = null;
-  private Hashtable<GenomicInterval, GenomicInterval> genomicIntervalTable = null;
+  /* GenomicInterval implements the raw Comparable interface */
+  private static final Comparator<GenomicInterval> genomicIntervalComparator = new Comparator<GenomicInterval> () {
+    public int compare (GenomicInterval genomicInterval1, GenomicInterval genomicInterval2) {
+      return genomicInterval1.compareTo (genomicInterval2);
+    }
+  };
+
+  private SmallSet<GenomicInterval> genomicIntervals = null;
   private int start = Integer.MAX_VALUE;
   private WeightObjectAlignment weightObjectAlignment = null;
   private String alignmentString = null;
@@ -66,14 +72,63 @@ public class GenomicAlignment implements Comparable {
   
   GenomicAlignment () {
     debugLevel = UtilLib.getDebugLevel ();
-    genomicIntervals     = new TreeSet<GenomicInterval> ();
-    genomicIntervalTable = new Hashtable <GenomicInterval, GenomicInterval> ();
+    genomicIntervals = new SmallSet<GenomicInterval> (4, genomicIntervalComparator);
+  }
+
+  GenomicAlignment (SmallSet<BedRecord> bedRecords, WeightObjectAlignment weightObjectAlignment) throws IOException {
+
+    this ();
+
+    initialize (bedRecords, weightObjectAlignment);
+
   }
 
 
   /***********************************************************************************
    *
-   *                              computeGenomicAlignments
+   *                              reset
+   *
+   *  Resets the genomic alignment to the state of a newly created one; the
+   *  genomic interval array is kept.
+   *
+   ***********************************************************************************/
+
+  private void reset () {
+
+    debugLevel = UtilLib.getDebugLevel ();
+    genomicIntervals.clear ();
+
+    start = Integer.MAX_VALUE;
+    weightObjectAlignment = null;
+    alignmentString = null;
+    strand = null;
+    referenceGenomicAlignmentOrientation = null;
+
+    maxFieldIndex = -1;
+    correctionDifference = 0;
+
+    readAlignedLength = -1;
+    readAlignStart  = -1;
+    genomicBedRecords = false;
+
+    numInsertions = -1;
+    numDeletions  = -1;
+
+    chromosome = "";
+    lengthDifference = 0;
+
+    isTranscriptExonAlignmentIsSet = false;
+    isTranscriptExonAlignment      = false;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              initialize
+   *
+   * Computes the genomic alignment of bedRecords; a genomic alignment which is
+   * initialized again is reused for the new BED records.
    *
    * Note that the BedRecords are traversed in sorted order. If there are overlapping
    * exons, then this could cause problems with counting consecutive exons, for instance,
@@ -89,9 +144,9 @@ public class GenomicAlignment implements Comparable {
    *
    ***********************************************************************************/
 
-  GenomicAlignment (TreeSet<BedRecord> bedRecords, WeightObjectAlignment weightObjectAlignment) throws IOException {
+  void initialize (SmallSet<BedRecord> bedRecords, WeightObjectAlignment weightObjectAlignment) throws IOException {
 
-    this ();
+    reset ();
 
     this.weightObjectAlignment = weightObjectAlignment;
 
@@ -186,18 +241,11 @@ public class GenomicAlignment implements Comparable {
 	}
 
 
-	if (! genomicIntervals.contains (genomicInterval)) {
-	  if (debugLevel >= 2) {
-	    System.err.println( "Adding " + genomicInterval + " to genomicIntervals: " + genomicIntervals);
-	  }
-	  genomicIntervals.add (genomicInterval);
-	  genomicIntervalTable.put (genomicInterval, genomicInterval);
-	} else {
-	  if (debugLevel >= 2) {
-	    System.err.println ("Else branch.");
-	    System.err.println (genomicIntervalTable);
-	  }
-	  GenomicInterval genomicTableInterval = genomicIntervalTable.get (genomicInterval);
+	if (debugLevel >= 2) {
+	  System.err.println( "Adding " + genomicInterval + " to genomicIntervals: " + genomicIntervals);
+	}
+	GenomicInterval genomicTableInterval = genomicIntervals.addOrGet (genomicInterval);
+	if (genomicTableInterval != null) {
 	  if (debugLevel >= 2) {
 	    System.err.println ("genomicTableInterval: " + genomicTableInterval);
 	  }
@@ -340,17 +388,11 @@ public class GenomicAlignment implements Comparable {
 	  }
 	}
 
-	if (! genomicIntervals.contains (genomicInterval)) {
-	  if (debugLevel >= 2) {
-	    System.err.println("Genomic interval " + genomicInterval + " not contained in: " + genomicIntervals);
-	  }
-	  genomicIntervals.add (genomicInterval);
-	  genomicIntervalTable.put (genomicInterval, genomicInterval);
-	} else {
+	GenomicInterval genomicTableInterval = genomicIntervals.addOrGet (genomicInterval);
+	if (genomicTableInterval != null) {
 	  if (debugLevel >= 2) {
 	    System.err.println("Genomic interval " + genomicInterval + " contained in: " + genomicIntervals);
 	  }
-	  GenomicInterval genomicTableInterval = genomicIntervalTable.get (genomicInterval);
 	  genomicTableInterval.addExonSet (genomicInterval.getExonSet ());
 	}
 	 
@@ -425,7 +467,6 @@ public class GenomicAlignment implements Comparable {
 
     if (debugLevel >= 3) {
       System.err.println ("genomicIntervals: " + genomicIntervals);
-      System.err.println ("genomicIntervalTable: " + genomicIntervalTable);
     }
 
     if (! genomicBedRecords) {
@@ -502,13 +543,6 @@ public class GenomicAlignment implements Comparable {
 
     debugLevel = UtilLib.getDebugLevel();
     
-    int oldDebugLevel = debugLevel;
-
-    if (ComputeCounts.getSpecialReadIdSet().contains(weightObjectAlignment.getFragmentId())) {
-      debugLevel = 1;
-      UtilLib.setDebugLevel(1);
-    }
-    
     if (debugLevel >= 1) {
       System.err.println ("genomicIntervals: " + genomicIntervals);
     }
@@ -539,9 +573,9 @@ public class GenomicAlignment implements Comparable {
       System.err.println ("Done.");
     }
 
-    UtilLib.setDebugLevel(oldDebugLevel);
-    debugLevel = UtilLib.getDebugLevel();
-    GenomicInterval.setDebugLevel ();
+    if (FragmentTrace.ON && FragmentTrace.isTraced (weightObjectAlignment.getFragmentId())) {
+      FragmentTrace.trace (weightObjectAlignment.getFragmentId(), "overlaps", this + "\t" + overlapTable);
+    }
     
   }
 
@@ -565,11 +599,23 @@ public class GenomicAlignment implements Comparable {
    *  - this is indicated by a negative countObjectThreshold (note that in this case
    *  the overlap threshold needs to be set to one).
    *
+   *  addConformingCountObjects adds the countObjects to conformingCountObjectSet so
+   *  that the set can be reused for the next GenomicAlignment.
+   *
    ***********************************************************************************/
 
   public HashSet<String> getConformingCountObjects (int countObjectThreshold, HashSetTable<Exon, String> countObjectTable,
 						    boolean countConsecutive, boolean excludeAmbiguousGenomicIntervals) throws IOException {
 
+    HashSet<String> conformingCountObjectSet = new HashSet <String> ();
+    addConformingCountObjects (countObjectThreshold, countObjectTable, countConsecutive, excludeAmbiguousGenomicIntervals, conformingCountObjectSet);
+    return conformingCountObjectSet;
+
+  }
+
+  public void addConformingCountObjects (int countObjectThreshold, HashSetTable<Exon, String> countObjectTable, boolean countConsecutive,
+					 boolean excludeAmbiguousGenomicIntervals, HashSet<String> conformingCountObjectSet) throws IOException {
+
 
     /* A negative value of countObjectThreshold indicates that the countObject needs to have conforming alignment with all
        genomic intervals */
@@ -577,6 +623,95 @@ public class GenomicAlignment implements Comparable {
       countObjectThreshold = maxFieldIndex + 1;
     }
 
+    /* The field indices of long alignments do not fit into the bits of a long */
+    if (maxFieldIndex > CountObjectMasks.MAX_FIELD_INDEX) {
+      conformingCountObjectSet.addAll (getConformingCountObjectsFieldIndexArrays (countObjectThreshold, countObjectTable, countConsecutive,
+										  excludeAmbiguousGenomicIntervals));
+      return;
+    }
+
+    /* countObjectMasks contains for each count object the mask of the field indices of the genomic intervals for which there
+       is a conforming alignment */
+    CountObjectMasks countObjectMasks = CountObjectMasks.getThreadMasks ();
+
+    /* conformingCountObjectSet contains the countObjects for whom the number of genomic intervals with a conforming
+       alignment to an exon associated to the countObject is at least countObjectThreshold */
+    try {
+
+      /* For each count object compute the genomic intervals for which there is a conforming alignment */
+      for (GenomicInterval genomicInterval: genomicIntervals) {
+
+	SmallSet<Exon> exonSet = genomicInterval.updateExonSet ();
+
+	if (debugLevel >= 2) {
+	  System.err.println("Genomic interval: " + genomicInterval + " exon set: " + exonSet + ", field index: " + genomicInterval.getFieldIndex () +
+			     ", excludeAmbiguousGenomicIntervals: " + excludeAmbiguousGenomicIntervals);
+	}
+
+	/* We exclude genomic intervals if more than two exons conform */
+	if (excludeAmbiguousGenomicIntervals && exonSet.size() >= 2) {
+	  if (debugLevel >= 2) {
+	    System.err.println("Excluding exon set: " + exonSet + " for genomic interval: " + genomicInterval);
+	  }
+	  exonSet.clear ();
+	}
+
+	int fieldIndex = genomicInterval.getFieldIndex ();
+	if (fieldIndex > maxFieldIndex) {
+	  throw new IOException ("ERROR: field index " + fieldIndex + " of genomic interval " + genomicInterval + " is larger than the max field index " +
+				 maxFieldIndex + " of genomic alignment: " + this);
+	}
+
+	for (Exon exon: exonSet) {
+	  for (int countObjectId: CountObjectMasks.getExonIds (exon, countObjectTable, debugLevel)) {
+	    countObjectMasks.record (countObjectId, fieldIndex);
+	  }
+	}
+      }
+
+      /* Add the countObjects whose number of (consecutive) genomic intervals with a conforming alignment to an associated exon is at least
+	 countObjectThreshold to conformingCountObjectSet */
+      for (int i = 0; i < countObjectMasks.getNumIds (); i++) {
+
+	long mask = countObjectMasks.getMask (i);
+
+	boolean isConforming = false;
+	if (countConsecutive) {
+	  isConforming = CountObjectMasks.hasConsecutiveFieldIndices (mask, countObjectThreshold);
+	} else {
+	  isConforming = CountObjectMasks.getNumFieldIndices (mask) >= countObjectThreshold;
+	}
+
+	if (debugLevel >= 2) {
+	  System.err.println("Count object: " + CountObjectMasks.getCountObject (countObjectMasks.getId (i)) + ", field indices: " + Long.toBinaryString (mask) +
+			     ", threshold: " + countObjectThreshold + ", conforming: " + isConforming);
+	}
+
+	if (isConforming) {
+	  conformingCountObjectSet.add (CountObjectMasks.getCountObject (countObjectMasks.getId (i)));
+	}
+      }
+
+    } finally {
+      countObjectMasks.clear ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *               getConformingCountObjectsFieldIndexArrays
+   *
+   *  getConformingCountObjects for genomic alignments with more than
+   *  CountObjectMasks.MAX_FIELD_INDEX + 1 field indices; the genomic intervals with a
+   *  conforming alignment are recorded in an array per count object.
+   *
+   ***********************************************************************************/
+
+  private HashSet<String> getConformingCountObjectsFieldIndexArrays (int countObjectThreshold, HashSetTable<Exon, String> countObjectTable,
+								     boolean countConsecutive, boolean excludeAmbiguousGenomicIntervals) throws IOException {
+
     /* countObjectGenomicIntervalTable contains the array of indices of the genomic intervals for which there is a
        conforming alignment for a given count object */
     Hashtable<String, int []> countObjectGenomicIntervalTable = new Hashtable <String, int []> (500);
@@ -592,7 +727,7 @@ public class GenomicAlignment implements Comparable {
 	 This is used to determine consecutive genomicIntervals having conforming alignments with the exons associated to a countObject. */
       HashSet<String> curCountObjects = new HashSet <String> (500);
 
-      HashSet<Exon> exonSet = genomicInterval.updateExonSet ();
+      SmallSet<Exon> exonSet = genomicInterval.updateExonSet ();
 
       if (debugLevel >= 2) {
 	System.err.println("Genomic interval: " + genomicInterval + " exon set: " + exonSet + ", field index: " + genomicInterval.getFieldIndex () +
@@ -1053,7 +1188,7 @@ public class GenomicAlignment implements Comparable {
   }
 
   
-  public TreeSet<GenomicInterval> getGenomicIntervals () {
+  public SmallSet<GenomicInterval> getGenomicIntervals () {
     return genomicIntervals;
   }
 
@@ -1162,7 +1297,7 @@ public class GenomicAlignment implements Comparable {
 
 
 
-  public TreeSet<BedRecord> getBedRecords () {
+  public SmallSet<BedRecord> getBedRecords () {
 
     if (weightObjectAlignment.getGenomicAlignment1 () != null && this.equals(weightObjectAlignment.getGenomicAlignment1 ())) {
       return weightObjectAlignment.getBedRecords1 ();
@@ -1174,7 +1309,7 @@ public class GenomicAlignment implements Comparable {
 
     System.err.println("weightObjectAlignment: " + weightObjectAlignment + " does not have genomic alignment for " + this);
 
-    return new TreeSet<BedRecord> ();
+    return SmallSet.sortedSet (1);
     
   }
 
@@ -97,7 +97,7 @@ public class GenomicInterval extends Exon implements Comparable {
    ***********************************************************************************/
 
   private int overlap = 0;
-  private HashSet<Exon> exonSet = null;
+  private SmallSet<Exon> exonSet = null;
   
   private GenomicAlignment genomicAlignment = null;
   private BedRecord bedRecord = null;
@@ -139,7 +139,7 @@ public class GenomicInterval extends Exon implements Comparable {
     this.genomicAlignment = genomicAlignment;
     this.bedRecord        = bedRecord;
  
-    exonSet = new HashSet<Exon> ();
+    exonSet = new SmallSet<Exon> (2);
 
     this.isConformingAlignment = isConformingAlignment && (overlap >= Math.min(UtilLib.getOverlapThreshold (), exon.getLength ()));
     if (debugLevel >= 2) {
@@ -428,7 +428,7 @@ public class GenomicInterval extends Exon implements Comparable {
    *
    ***********************************************************************************/
 
-  public void addExonSet (HashSet<Exon> exonSet) {
+  public void addExonSet (SmallSet<Exon> exonSet) {
 
     if (debugLevel >= 2) {
       System.out.println ("Adding exon set: " + exonSet + " to this.exonSet: " + this.exonSet);
@@ -443,7 +443,7 @@ public class GenomicInterval extends Exon implements Comparable {
   }
 
 
-  public HashSet<Exon> getExonSet () {
+  public SmallSet<Exon> getExonSet () {
     return exonSet;
   }
 
@@ -476,7 +476,7 @@ public class GenomicInterval extends Exon implements Comparable {
    *
    ***********************************************************************************/
   
-  public HashSet<Exon> updateExonSet () {
+  public SmallSet<Exon> updateExonSet () {
 
     int maxOverlap = 0;
 
@@ -492,7 +492,6 @@ public class GenomicInterval extends Exon implements Comparable {
       if (maxOverlap > 0) {
 	overlap = Math.max(overlap, maxOverlap);
 	
-	HashSet<Exon> exonDeletionSet = new HashSet <Exon> ();
 	for (Exon exon: exonSet) {
 	  if (! exon.isGenomicExon ()) {
 	    if (getOverlap (exon) < maxOverlap) {
@@ -508,12 +507,18 @@ public class GenomicInterval extends Exon implements Comparable {
 		  System.err.println (newExon);
 		}
 	      }
-	      exonDeletionSet.add (exon);
 	    }
 	  }
 	}
-	
-	exonSet.removeAll(exonDeletionSet);
+
+	/* The exons are removed after the warnings so that these show the complete exon set */
+	Iterator<Exon> it = exonSet.iterator ();
+	while (it.hasNext ()) {
+	  Exon exon = it.next ();
+	  if (! exon.isGenomicExon () && getOverlap (exon) < maxOverlap) {
+	    it.remove ();
+	  }
+	}
 	
       }
     }
@@ -0,0 +1,211 @@
+/**File: ManageCountStore.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class ManageCountStore
+ *
+ *  Creates a CountStore for the count objects of a count object map file, adds
+ *  or replaces the samples of count files, and exports the counts of the store
+ *  as a table.
+ *
+ ***********************************************************************************/
+
+public class ManageCountStore {
+
+  private static int debugLevel = 0;
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("ManageCountStore.java\n" +
+      "   -- Program to update and export a count store.\n" +
+      "\n" +
+      "USAGE: java ManageCountStore -S <count store> [-m <count object map file>]\n" +
+      "        [-E <export file>] [-i <count file> ...]\n" +
+      "\n" +
+      "A count store is a directory with the counts of the samples of a project for\n" +
+      "the count objects of a count object map file (see CountStore). Samples are\n" +
+      "added or replaced without reading the other samples of the store. ComputeCounts\n" +
+      "can write its counts directly into a count store (option -K).\n" +
+      "\n" +
+      "-S STRING: count store - the directory of the count store.\n" +
+      "-m STRING: count object map file - creates the count store for the count\n" +
+      "   objects of the file if it does not exist or checks that the count store\n" +
+      "   has the same count objects. The rows are the ids that ComputeCounts writes\n" +
+      "   (the ids of the second column of a file with three columns).\n" +
+      "-i STRING: count files - the counts of the files are added to the count store;\n" +
+      "   a sample which is already in the count store is replaced. The sample name of\n" +
+      "   a count file is its base name without the suffix (option -s) unless the\n" +
+      "   file starts with a header line \"Id <sample name> ...\".\n" +
+      "-s STRING: suffix (regular expression) which is removed from the file names to\n" +
+      "   obtain the sample names [].\n" +
+      "-E STRING: export file - write the counts of the count store as a table with\n" +
+      "   the header line \"Id <sample name> ...\" (- for STDOUT).\n" +
+      "-k STRING: the colon separated samples which are exported [all samples].\n" +
+      "-n: export only rows with at least one non-zero count.\n" +
+      "-d INT: debug level [0].\n");
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    String  countStoreDirName      = "";
+    String  countObjectMapFilename = "";
+    String  exportFilename         = "";
+    String  exportSamples          = "";
+    String  fileSuffix             = "";
+    boolean outputZeroes           = true;
+
+    Vector<String> countFilenames = new Vector<String> ();
+
+    Getopt g = new Getopt("ManageCountStore.java", args, "d:E:i:k:m:nS:s:h");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'd':
+	debugLevel = Integer.parseInt(g.getOptarg());
+	break;
+      case 'E':
+	exportFilename = g.getOptarg();
+	break;
+      case 'i':
+	countFilenames.add (g.getOptarg());
+	break;
+      case 'k':
+	exportSamples = g.getOptarg();
+	break;
+      case 'm':
+	countObjectMapFilename = g.getOptarg();
+	break;
+      case 'n':
+	outputZeroes = false;
+	break;
+      case 'S':
+	countStoreDirName = g.getOptarg();
+	break;
+      case 's':
+	fileSuffix = g.getOptarg();
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned unknown option: " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    for (int i = g.getOptind (); i < args.length; i++) {
+      countFilenames.add (args[i]);
+    }
+
+    if (countStoreDirName.equals("")) {
+      printHelp();
+      System.exit(1);
+    }
+
+    MappedCountMatrix countMatrix = null;
+    try {
+
+      CountStore countStore = null;
+      if (! countObjectMapFilename.equals("")) {
+	System.err.println ("Loading exon count object map file " + countObjectMapFilename);
+	Exon.loadCountObjectFile (countObjectMapFilename);
+	countStore = CountStore.open (countStoreDirName, Exon.getOutputCountObjectIds ().keySet ());
+      } else {
+	countStore = CountStore.open (countStoreDirName);
+      }
+
+
+      /***********************************************************************************
+       *
+       *  Add the samples of the count files
+       *
+       ***********************************************************************************/
+
+      HashMap<String, Integer> rowIndex = new HashMap<String, Integer> (2 * countStore.getNumRows () + 1);
+      for (String countObjectId: countStore.getRowIds ()) {
+	rowIndex.put (countObjectId, new Integer (countStore.getRowIndex (countObjectId)));
+      }
+
+      StageMetrics countFileMetrics = PipelineMetrics.getStage ("ManageCountStore count files");
+      for (String countFilename: countFilenames) {
+
+	CountFile countFile = new CountFile (countFilename, fileSuffix);
+	countMatrix = new MappedCountMatrix (countStore.getNumRows (), countFile.getNumColumns (), "");
+	countFile.readCounts (rowIndex, null, countMatrix, countFileMetrics);
+
+	if (countFile.getNumUnknownIds () > 0) {
+	  System.err.println ("Warning: " + countFile.getNumUnknownIds () + " ids of " + countFilename + " are not in the count store and are ignored.");
+	}
+
+	for (int column = 0; column < countFile.getNumColumns (); column++) {
+	  String sampleName = countFile.getColumnHeaders ()[column];
+	  boolean replaced = countStore.putSample (sampleName, countMatrix.getColumn (column));
+	  System.err.println ((replaced?"Replaced":"Added") + " sample " + sampleName + " of " + countFilename + ".");
+	}
+
+	countMatrix.close ();
+	countMatrix = null;
+
+      }
+
+
+      /***********************************************************************************
+       *
+       *  Export
+       *
+       ***********************************************************************************/
+
+      if (! exportFilename.equals("")) {
+	Vector<String> sampleNames = null;
+	if (! exportSamples.equals("")) {
+	  sampleNames = new Vector<String> (Arrays.asList (exportSamples.split (":")));
+	}
+
+	System.err.println ("Exporting count store " + countStoreDirName + " to " + (exportFilename.equals("-")?"stdout":exportFilename));
+	PrintWriter exportWriter = UtilLib.getPrintWriter (exportFilename);
+	countStore.export (exportWriter, sampleNames, outputZeroes);
+	exportWriter.close ();
+      }
+
+    }
+    catch (Exception e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      System.exit (1);
+    }
+    finally {
+      if (countMatrix != null) {
+	countMatrix.close ();
+      }
+    }
+  }
+}
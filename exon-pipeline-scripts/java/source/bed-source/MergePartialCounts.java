@@ -0,0 +1,171 @@
+/**File: MergePartialCounts.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class MergePartialCounts
+ *
+ *  Merges the partial counts of the shards of a BED file (ComputeCounts -P, see
+ *  SplitFragmentShards) into the count file of the whole BED file. The partial
+ *  counts of the i-th file are read into shard i of a CountAccumulator, so the
+ *  shards are always merged in the order of the files. The counts are written
+ *  like ComputeCounts writes them.
+ *
+ ***********************************************************************************/
+
+public class MergePartialCounts {
+
+  private static int debugLevel = 0;
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("MergePartialCounts.java\n" +
+      "   -- Program to merge the partial counts of the shards of a BED file.\n" +
+      "\n" +
+      "USAGE: java MergePartialCounts [-m <count object map file>] [-o <output file>]\n" +
+      "        [-n] -i <partial count file> ...\n" +
+      "\n" +
+      "-i STRING: partial count files - the output files of ComputeCounts -P for the\n" +
+      "   shards of a BED file (see SplitFragmentShards); can be used several times.\n" +
+      "   The files can also be given after the options.\n" +
+      "-m STRING: count object map file - the count object map file of ComputeCounts.\n" +
+      "-o STRING: output file - the counts of the BED file (- for STDOUT) [-].\n" +
+      "-n: output only non-zero counts (otherwise output all counts).\n" +
+      "-d INT: debug level [0].\n");
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    String  countObjectMapFilename = "";
+    String  outputFilename         = "-";
+    boolean outputZeroes           = true;
+
+    Vector<String> partialCountFilenames = new Vector<String> ();
+
+    Getopt g = new Getopt("MergePartialCounts.java", args, "d:i:m:no:h");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'd':
+	debugLevel = Integer.parseInt(g.getOptarg());
+	break;
+      case 'i':
+	partialCountFilenames.add (g.getOptarg());
+	break;
+      case 'm':
+	countObjectMapFilename = g.getOptarg();
+	break;
+      case 'n':
+	outputZeroes = false;
+	break;
+      case 'o':
+	outputFilename = g.getOptarg();
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned unknown option: " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    for (int i = g.getOptind (); i < args.length; i++) {
+      partialCountFilenames.add (args[i]);
+    }
+
+    if (partialCountFilenames.size () == 0) {
+      printHelp();
+      System.exit(1);
+    }
+
+    try {
+
+      System.err.println("Loading exon count object map file " + countObjectMapFilename);
+      Exon.loadCountObjectFile (countObjectMapFilename);
+
+      CountAccumulator countTable = new CountAccumulator (Exon.getCountObjectIds ().keySet ());
+
+      String countMode                = null;
+      int    numWeightObjects         = 0;
+      int    numWeightObjectsIncluded = 0;
+      int    numWeightObjectsExcluded = 0;
+      double sumObjectWeight          = 0;
+
+      for (int shard = 0; shard < partialCountFilenames.size (); shard++) {
+
+	String partialCountFilename = partialCountFilenames.get (shard);
+	BufferedReader reader = UtilLib.getBufferedReader (partialCountFilename);
+
+	String header = reader.readLine ();
+	String [] headerFields = header == null?new String [0]:header.split ("\t");
+	if (headerFields.length < 6 || ! headerFields[0].equals ("#" + ComputeCounts.PARTIAL_COUNTS_HEADER)) {
+	  throw new IOException ("ERROR: " + partialCountFilename + " is not a partial count file of ComputeCounts -P.");
+	}
+
+	if (countMode != null && ! countMode.equals (headerFields[1])) {
+	  throw new IOException ("ERROR: The count mode " + headerFields[1] + " of " + partialCountFilename + " differs from the count mode " +
+				 countMode + " of " + partialCountFilenames.get (0) + ".");
+	}
+	countMode = headerFields[1];
+
+	numWeightObjects         = numWeightObjects         + UtilLib.toInt (headerFields[2]);
+	numWeightObjectsIncluded = numWeightObjectsIncluded + UtilLib.toInt (headerFields[3]);
+	numWeightObjectsExcluded = numWeightObjectsExcluded + UtilLib.toInt (headerFields[4]);
+	sumObjectWeight          = sumObjectWeight          + UtilLib.toDouble (headerFields[5]);
+
+	if (debugLevel >= 1) {
+	  System.err.println ("Reading partial counts of shard " + (shard + 1) + " from " + partialCountFilename);
+	}
+	countTable.readPartialCounts (reader, shard);
+	reader.close ();
+
+      }
+
+      System.err.println("Writing to " + (outputFilename.equals("-")?"stdout":outputFilename));
+      PrintWriter outputWriter = UtilLib.getPrintWriter (outputFilename);
+      ComputeCounts.writeCounts (countTable, countObjectMapFilename, "", outputFilename, outputWriter, outputZeroes);
+      outputWriter.close ();
+
+      FragmentCounter.printStatistics (numWeightObjects, numWeightObjectsIncluded, numWeightObjectsExcluded, sumObjectWeight);
+
+      if (countMode.equals ("gene")) {
+	System.err.println("NUMBER_EXPRESSED_READS=" + numWeightObjectsIncluded);
+      }
+
+    }
+    catch (Exception e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      System.exit (1);
+    }
+  }
+}
@@ -0,0 +1,317 @@
+/**File: SplitFragmentShards.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class SplitFragmentShards
+ *
+ *  Splits a fragment sorted intersection BED file (or combined SAM file) into N
+ *  shards which can be counted independently. The lines of a fragment are always
+ *  written to the same shard: the fragments are cut into blocks of consecutive
+ *  fragments and block b is written to shard b mod N. Each shard therefore remains
+ *  sorted by fragment id and the shards have about the same size even if the
+ *  input is read from a pipe.
+ *
+ *  The read weight file is split along with the input: the weights of the
+ *  fragments of a shard are written to the read weight file of the shard.
+ *
+ *  The partial counts of the shards (ComputeCounts -P) are merged with
+ *  MergePartialCounts.
+ *
+ ***********************************************************************************/
+
+public class SplitFragmentShards {
+
+  private static int debugLevel = 0;
+
+  /* The next line of the read weight file and its fragment id and key */
+  private static String weightLine        = null;
+  private static String weightFragmentId  = null;
+  private static long   weightFragmentKey = FragmentNameKey.noKey;
+  private static int    weightLineNumber  = 0;
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("SplitFragmentShards.java\n" +
+      "   -- Program to split a fragment sorted BED or SAM file into shards.\n" +
+      "\n" +
+      "USAGE: java SplitFragmentShards -n <number of shards> -o <output prefix>\n" +
+      "        [-i <input file>] [-w <read weight file>] [-S] [-B <block size>]\n" +
+      "\n" +
+      "The shards are written to the files <output prefix>-<shard number>.<extension>\n" +
+      "and the read weights of the fragments of the shards to the files\n" +
+      "<output prefix>-<shard number>.wgt. The shard numbers start at 1. Each shard is\n" +
+      "counted with ComputeCounts -P and the partial counts of all shards are merged\n" +
+      "with MergePartialCounts.\n" +
+      "\n" +
+      "-i STRING: input file - an intersection BED file or a combined SAM file sorted\n" +
+      "   by fragment id (- for STDIN) [-].\n" +
+      "-S: the input file is a SAM file; the header lines are written to all shards.\n" +
+      "-w STRING: read weight file - the read weight file of the input file.\n" +
+      "-n INT: number of shards.\n" +
+      "-o STRING: output prefix.\n" +
+      "-x STRING: extension of the shard files [bed or sam].\n" +
+      "-B INT: number of consecutive fragments which are written to the same shard\n" +
+      "   [100000].\n" +
+      "-V: validate that the input and read weight files are sorted by fragment id.\n" +
+      "-d INT: debug level [0].\n");
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getFragmentId: the fragment id of a BED line (<fragment id>-A<alignment>... in
+   *  the name field as in BedRecord) or of a SAM line (the query name)
+   *
+   ***********************************************************************************/
+
+  private static String getFragmentId (String line, boolean samMode) throws IOException {
+
+    if (samMode) {
+      int tabIndex = line.indexOf ('\t');
+      return tabIndex == -1?line:line.substring (0, tabIndex);
+    }
+
+    int nameStart = 0;
+    for (int i = 0; i < 3; i++) {
+      nameStart = line.indexOf ('\t', nameStart) + 1;
+      if (nameStart == 0) {
+	throw new IOException ("ERROR: BED line without name field: " + line);
+      }
+    }
+
+    int nameEnd = line.indexOf ('\t', nameStart);
+    String name = nameEnd == -1?line.substring (nameStart):line.substring (nameStart, nameEnd);
+
+    int lastAIndex = name.lastIndexOf ("-A");
+    return lastAIndex > 0?name.substring (0, lastAIndex):name;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  readWeightLine: advance the read weight file to the next line
+   *
+   ***********************************************************************************/
+
+  private static void readWeightLine (BufferedReader weightReader) throws IOException {
+
+    weightLine = weightReader.readLine ();
+    if (weightLine == null) {
+      weightFragmentId = null;
+      return;
+    }
+
+    weightLineNumber++;
+    int tabIndex = weightLine.indexOf ('\t');
+    if (tabIndex == -1) {
+      throw new IOException ("ERROR: No weight in line " + weightLineNumber + " of the read weight file: " + weightLine);
+    }
+
+    String previousWeightFragmentId  = weightFragmentId;
+    long   previousWeightFragmentKey = weightFragmentKey;
+    weightFragmentId  = weightLine.substring (0, tabIndex);
+    weightFragmentKey = FragmentNameKey.getKey (weightFragmentId);
+    if (FragmentNameKey.validateOrder () && previousWeightFragmentId != null) {
+      FragmentNameKey.checkOrder (previousWeightFragmentId, previousWeightFragmentKey, weightFragmentId, weightFragmentKey, "Read weight file",
+				  weightLineNumber);
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  writeWeight: write the read weight of fragmentId (with key fragmentKey) to
+   *  weightWriter; the weights of fragments which are not in the input are skipped
+   *
+   ***********************************************************************************/
+
+  private static void writeWeight (String fragmentId, long fragmentKey, BufferedReader weightReader, PrintWriter weightWriter) throws IOException {
+
+    while (weightLine != null && FragmentNameKey.compare (weightFragmentId, weightFragmentKey, fragmentId, fragmentKey) < 0) {
+      readWeightLine (weightReader);
+    }
+
+    if (weightLine != null && weightFragmentId.equals (fragmentId)) {
+      weightWriter.println (weightLine);
+      readWeightLine (weightReader);
+    } else if (debugLevel >= 1) {
+      System.err.println ("No read weight for fragment " + fragmentId + " found.");
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    String  inputFilename  = "-";
+    String  weightFilename = "";
+    String  outputPrefix   = "";
+    String  extension      = "";
+    int     numShards      = 0;
+    int     blockSize      = 100 * 1000;
+    boolean samMode        = false;
+
+    Getopt g = new Getopt("SplitFragmentShards.java", args, "B:d:i:n:o:Sw:x:Vh");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'B':
+	blockSize = Integer.parseInt(g.getOptarg());
+	break;
+      case 'd':
+	debugLevel = Integer.parseInt(g.getOptarg());
+	break;
+      case 'i':
+	inputFilename = g.getOptarg();
+	break;
+      case 'n':
+	numShards = Integer.parseInt(g.getOptarg());
+	break;
+      case 'o':
+	outputPrefix = g.getOptarg();
+	break;
+      case 'S':
+	samMode = true;
+	break;
+      case 'w':
+	weightFilename = g.getOptarg();
+	break;
+      case 'x':
+	extension = g.getOptarg();
+	break;
+      case 'V':
+	FragmentNameKey.setValidateOrder (true);
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned unknown option: " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    if (numShards <= 0 || blockSize <= 0 || outputPrefix.equals("")) {
+      printHelp();
+      System.exit(1);
+    }
+
+    if (extension.equals("")) {
+      extension = samMode?"sam":"bed";
+    }
+
+    try {
+
+      BufferedReader reader = UtilLib.getBufferedReader (inputFilename);
+
+      BufferedReader weightReader = null;
+      if (! weightFilename.equals("")) {
+	weightReader = UtilLib.getBufferedReader (weightFilename);
+	readWeightLine (weightReader);
+      }
+
+      PrintWriter [] shardWriters  = new PrintWriter [numShards];
+      PrintWriter [] weightWriters = new PrintWriter [numShards];
+      for (int shard = 0; shard < numShards; shard++) {
+	shardWriters[shard] = UtilLib.getPrintWriter (outputPrefix + "-" + (shard + 1) + "." + extension);
+	if (weightReader != null) {
+	  weightWriters[shard] = UtilLib.getPrintWriter (outputPrefix + "-" + (shard + 1) + ".wgt");
+	}
+      }
+
+      System.err.println ("Splitting " + (inputFilename.equals("-")?"stdin":inputFilename) + " into " + numShards + " shards of blocks of " +
+			  blockSize + " fragments.");
+
+      String oldFragmentId = null;
+      long   oldKey        = FragmentNameKey.noKey;
+      long   numFragments  = 0;
+      int    shard         = 0;
+      int    lineNumber    = 0;
+
+      String line = reader.readLine ();
+      while (line != null) {
+
+	lineNumber++;
+	if (samMode && line.startsWith ("@")) {
+	  for (PrintWriter shardWriter: shardWriters) {
+	    shardWriter.println (line);
+	  }
+	  line = reader.readLine ();
+	  continue;
+	}
+
+	String fragmentId = getFragmentId (line, samMode);
+	if (! fragmentId.equals (oldFragmentId)) {
+	  long key = FragmentNameKey.getKey (fragmentId);
+	  if (FragmentNameKey.validateOrder () && oldFragmentId != null) {
+	    FragmentNameKey.checkOrder (oldFragmentId, oldKey, fragmentId, key, inputFilename, lineNumber);
+	  }
+
+	  shard = (int) ((numFragments / blockSize) % numShards);
+	  numFragments++;
+
+	  if (weightReader != null) {
+	    writeWeight (fragmentId, key, weightReader, weightWriters[shard]);
+	  }
+
+	  oldFragmentId = fragmentId;
+	  oldKey        = key;
+	}
+
+	shardWriters[shard].println (line);
+	line = reader.readLine ();
+
+      }
+
+      reader.close ();
+      if (weightReader != null) {
+	weightReader.close ();
+      }
+
+      for (shard = 0; shard < numShards; shard++) {
+	shardWriters[shard].close ();
+	if (weightWriters[shard] != null) {
+	  weightWriters[shard].close ();
+	}
+      }
+
+      System.err.println (numFragments + " fragments written to " + numShards + " shards.");
+
+    }
+    catch (Exception e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      System.exit (1);
+    }
+  }
+}
@@ -58,6 +58,11 @@ class WeightObject {
   private String readId = "";
   private String fragmentId = "";
   private String curAlignmentId = "";
+
+  /* The FragmentNameKey of fragmentId which is computed when it is first needed */
+  private long    fragmentKey    = FragmentNameKey.noKey;
+  private boolean fragmentKeySet = false;
+
   private String curAlignmentBaseId = "";
   private double weight = 1;
 
@@ -65,6 +70,14 @@ class WeightObject {
   private HashSet<WeightObjectAlignment> weightObjectAlignmentSet = new HashSet<WeightObjectAlignment> (20);
   private WeightObjectAlignment lastWeightObjectAlignment = null;
 
+  /* All weight object alignments created by the weight object; the first numUsedWeightObjectAlignments
+     are used by the current fragment and the others are reused for the next fragments (see reset) */
+  private Vector<WeightObjectAlignment> createdWeightObjectAlignments = new Vector<WeightObjectAlignment> (20);
+  private int numUsedWeightObjectAlignments = 0;
+
+  /* The weight object alignments of mergeWeightAlignments indexed by their genomic alignment string */
+  private Hashtable<String, WeightObjectAlignment> weightObjectAlignmentTable = new Hashtable<String, WeightObjectAlignment> ();
+
   
   /***********************************************************************************
    *
@@ -82,9 +95,53 @@ class WeightObject {
   public WeightObject (BedRecord bedRecord) throws Exception {
 
     this ();
-          
+
+    initialize (bedRecord);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                         reset
+   *
+   *  Resets the weight object to the first BED record of the next fragment. The
+   *  weight object alignments, their BED record arrays and genomic alignments are
+   *  reused so that only the BED records and genomic intervals are created anew
+   *  for each fragment. A weight object can therefore only be reset if none of its
+   *  alignments is used after the fragment is processed.
+   *
+   ***********************************************************************************/
+
+  public void reset (BedRecord bedRecord) throws Exception {
+
+    debugLevel = UtilLib.getDebugLevel ();
+
+    curAlignmentId     = "";
+    curAlignmentBaseId = "";
+    weight             = 1;
+
+    weightObjectAlignments.clear ();
+    weightObjectAlignmentSet.clear ();
+    lastWeightObjectAlignment     = null;
+    numUsedWeightObjectAlignments = 0;
+
+    initialize (bedRecord);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                         initialize
+   *
+   ***********************************************************************************/
+
+  private void initialize (BedRecord bedRecord) throws Exception {
+
     readAlignmentId = bedRecord.getReadAlignmentId ();
     fragmentId      = bedRecord.getFragmentId ();
+    fragmentKeySet  = false;
     
     int    readIndex = bedRecord.getReadIndex ();
     String readAlignmentIdEnd = readAlignmentId.substring(readAlignmentId.length()-2, readAlignmentId.length());
@@ -122,7 +179,14 @@ class WeightObject {
     curAlignmentId     = bedRecord.getAlignmentId ();
     curAlignmentBaseId = bedRecord.getAlignmentBaseId ();
     
-    lastWeightObjectAlignment = new WeightObjectAlignment (curAlignmentId, curAlignmentBaseId, fragmentId);
+    if (numUsedWeightObjectAlignments < createdWeightObjectAlignments.size ()) {
+      lastWeightObjectAlignment = createdWeightObjectAlignments.get (numUsedWeightObjectAlignments);
+      lastWeightObjectAlignment.reset (curAlignmentId, curAlignmentBaseId, fragmentId);
+    } else {
+      lastWeightObjectAlignment = new WeightObjectAlignment (curAlignmentId, curAlignmentBaseId, fragmentId);
+      createdWeightObjectAlignments.add (lastWeightObjectAlignment);
+    }
+    numUsedWeightObjectAlignments++;
 
     weightObjectAlignments.add(lastWeightObjectAlignment);
     lastWeightObjectAlignment.addBedRecord (bedRecord);
@@ -215,7 +279,7 @@ class WeightObject {
   
   public void mergeWeightAlignments () throws IOException {
 
-    Hashtable<String, WeightObjectAlignment>  weightObjectAlignmentTable = new Hashtable<String, WeightObjectAlignment> ();
+    weightObjectAlignmentTable.clear ();
 
     /* Note that getGenomicAlignmentString is called as via equals when we add weightObjectAlignment to
        the hash set weigthObjectAlignmentSet ! */
@@ -777,7 +841,7 @@ class WeightObject {
 
     HashSet<String> countObjectIds = new HashSet<String> ();
     
-    for (WeightObjectAlignment weightObjectAlignment: weightObjectAlignments) {
+    for (WeightObjectAlignment weightObjectAlignment: getFragmentWeightObjectAlignments ()) {
       countObjectIds.addAll (weightObjectAlignment.getCountObjectIds (overlapThreshold, countObjectLengthTable));
     }
 
@@ -888,6 +952,21 @@ class WeightObject {
     return fragmentId;
   }
 
+  public long getFragmentKey () {
+    if (! fragmentKeySet) {
+      fragmentKey    = FragmentNameKey.getKey (fragmentId);
+      fragmentKeySet = true;
+    }
+
+    return fragmentKey;
+  }
+
+  /* All alignments of the fragment - including the alignments whose exons were combined with another
+     alignment by mergeWeightAlignments */
+  public List<WeightObjectAlignment> getFragmentWeightObjectAlignments () {
+    return createdWeightObjectAlignments.subList (0, numUsedWeightObjectAlignments);
+  }
+
   public HashSet<WeightObjectAlignment> getWeightObjectAlignmentSet () {
     return weightObjectAlignmentSet;
   }
@@ -67,8 +67,12 @@ class WeightObjectAlignment {
   GenomicAlignment genomicAlignment1 = null;
   GenomicAlignment genomicAlignment2 = null;
 
-  private TreeSet<BedRecord> bedRecords1 = null;
-  private TreeSet<BedRecord> bedRecords2 = null;
+  private SmallSet<BedRecord> bedRecords1 = null;
+  private SmallSet<BedRecord> bedRecords2 = null;
+
+  /* The genomic alignments of the previous use of the weight object alignment which are reused */
+  private GenomicAlignment reusableGenomicAlignment1 = null;
+  private GenomicAlignment reusableGenomicAlignment2 = null;
 
   boolean fromGenomicBedRecords = false;
 
@@ -78,8 +82,8 @@ class WeightObjectAlignment {
     alignmentId = "";
     numReads    = 0;
 
-    bedRecords1 = new TreeSet<BedRecord> ();
-    bedRecords2 = new TreeSet<BedRecord> ();
+    bedRecords1 = SmallSet.sortedSet (4);
+    bedRecords2 = SmallSet.sortedSet (4);
     
   }
 
@@ -92,11 +96,51 @@ class WeightObjectAlignment {
     numReads             = 0;
     this.fragmentId      = fragmentId;
 
-    bedRecords1 = new TreeSet<BedRecord> ();
-    bedRecords2 = new TreeSet<BedRecord> ();
+    bedRecords1 = SmallSet.sortedSet (4);
+    bedRecords2 = SmallSet.sortedSet (4);
    
   }
 
+
+  /***********************************************************************************
+   *
+   *                              reset
+   *
+   *  Resets the weight object alignment to the state of a newly created one so
+   *  that it can be reused for the next fragment (see WeightObject.reset). The
+   *  arrays of the BED records and the genomic alignments are kept.
+   *
+   ***********************************************************************************/
+
+  public void reset (String alignmentId, String alignmentBaseId, String fragmentId) {
+
+    debugLevel = UtilLib.getDebugLevel ();
+
+    this.alignmentId     = alignmentId;
+    this.alignmentBaseId = alignmentBaseId;
+    numReads             = 0;
+    this.fragmentId      = fragmentId;
+
+    genomicAlignmentString = null;
+    pairedEnd              = false;
+    fromGenomicBedRecords  = false;
+    referenceId            = null;
+
+    bedRecords1.clear ();
+    bedRecords2.clear ();
+
+    if (genomicAlignment1 != null) {
+      reusableGenomicAlignment1 = genomicAlignment1;
+      genomicAlignment1 = null;
+    }
+
+    if (genomicAlignment2 != null) {
+      reusableGenomicAlignment2 = genomicAlignment2;
+      genomicAlignment2 = null;
+    }
+
+  }
+
  
   /***********************************************************************************
    *
@@ -230,12 +274,20 @@ class WeightObjectAlignment {
   public void initializeGenomicAlignmentString () throws IOException {
 
     if (bedRecords1.size() > 0) {
-      genomicAlignment1 = new GenomicAlignment (bedRecords1, this);
+      if (genomicAlignment1 == null) {
+	genomicAlignment1 = reusableGenomicAlignment1 != null?reusableGenomicAlignment1:new GenomicAlignment ();
+	reusableGenomicAlignment1 = null;
+      }
+      genomicAlignment1.initialize (bedRecords1, this);
       fromGenomicBedRecords = genomicAlignment1.fromGenomicBedRecords ();
     }
       
     if (bedRecords2.size() > 0) {
-      genomicAlignment2 = new GenomicAlignment (bedRecords2, this);
+      if (genomicAlignment2 == null) {
+	genomicAlignment2 = reusableGenomicAlignment2 != null?reusableGenomicAlignment2:new GenomicAlignment ();
+	reusableGenomicAlignment2 = null;
+      }
+      genomicAlignment2.initialize (bedRecords2, this);
       fromGenomicBedRecords = genomicAlignment2.fromGenomicBedRecords ();
     }
 
@@ -393,9 +445,6 @@ class WeightObjectAlignment {
     Hashtable<String, Hashtable<GenomicAlignment, Integer>> alignmentOverlapTable2 = new Hashtable<String, Hashtable<GenomicAlignment, Integer>> ();
 
     debugLevel = UtilLib.getDebugLevel();
-    if (ComputeCounts.getSpecialReadIdSet ().contains(getFragmentId())) {
-      debugLevel = 2;
-    }
     
     if (genomicAlignment1 == null && genomicAlignment2 == null) {
       genomicAlignmentString = getGenomicAlignmentString ();
@@ -571,12 +620,12 @@ class WeightObjectAlignment {
     return pairedEnd;
   }
 
-  public TreeSet<BedRecord> getBedRecords1 () {
+  public SmallSet<BedRecord> getBedRecords1 () {
     return bedRecords1;
   }
 
 
-  public TreeSet<BedRecord> getBedRecords2 () {
+  public SmallSet<BedRecord> getBedRecords2 () {
     return bedRecords2;
   }
 
@@ -28,7 +28,12 @@ import java.util.regex.Pattern;
  * 
  *                           Class ComputeExonCountsBed
  *
- *  
+ *  Counts the fragments of an intersection BED file for the count objects of the
+ *  exons they overlap. The fragments are read and weighted by the FragmentCounter
+ *  of ComputeCounts; a fragment contributes its weight at most once to a count
+ *  object. Each read of an unpaired fragment is counted on its own and the weight
+ *  of a fragment is the weight of the read weight file.
+ *
  ***********************************************************************************/
 
 
@@ -36,169 +41,119 @@ public class ComputeExonCountsBed {
 
   private static int debugLevel = 0;
 
-  private static Hashtable<String, Hashtable<GenomicAlignment, Integer>> overlapTable1 = null;
-  private static Hashtable<String, Hashtable<GenomicAlignment, Integer>> overlapTable2 = null;
-  
-  private static Hashtable<String, Double>  countTable = null;
-  private static Hashtable<String, Integer> countObjectLengthTable = null;
-  private static HashSetTable<String, Exon> countObjectExonTable   = null;
+  private static CountAccumulator countTable = null;
+
+  /* The count object indices of the exons */
+  private static HashMap<Exon, int []> exonCountObjectIndices = new HashMap<Exon, int []> ();
 
-  private static Hashtable<String, Double> readWeightTable = new  Hashtable<String, Double> (50 * 1000 * 1000);
+  /* countedFragments[i] is the number of the last fragment that was counted for the count object with index i */
+  private static int [] countedFragments = new int [0];
+  private static int    fragmentNumber   = 0;
 
-  private static String previousFragmentId = "";
-  
 
   /***********************************************************************************
    *
-   *                       Compute count object lengths  
+   *  getCountObjectIndices: the count object indices of exon in countTable; an exon
+   *  without count object is its own count object
    *
    ***********************************************************************************/
 
-  public static void computeCountObjectLengths () {
-
-    HashSetTable<Exon, String> exonCountObjectTable = Exon.getCountObjectTable ();
+  private static int [] getCountObjectIndices (Exon exon) {
 
-    countObjectExonTable = new HashSetTable<String, Exon> (2 * exonCountObjectTable.size());
-    for (Exon exon: exonCountObjectTable.keySet ()) {
-      for (String countObjectId: exonCountObjectTable.getSet (exon)) {
-	countObjectExonTable.putValue (countObjectId, exon);
-      }
+    int [] countObjectIndices = exonCountObjectIndices.get (exon);
+    if (countObjectIndices != null) {
+      return countObjectIndices;
     }
 
-    countObjectLengthTable = new Hashtable<String, Integer> (countObjectExonTable.size ());
-
-    for (String countObjectId: countObjectExonTable.keySet ()) {
-      int countObjectLength = Exon.computeExonSetLength (countObjectExonTable.getSet (countObjectId));
-      countObjectLengthTable.put (countObjectId, new Integer (countObjectLength));
+    HashSet<String> countObjectIds = Exon.getCountObjectTable ().get (exon);
+    if (countObjectIds == null) {
+      countObjectIds = new HashSet<String> ();
+      countObjectIds.add (exon.toString());
     }
-    
-  }
 
+    countObjectIndices = new int [countObjectIds.size ()];
+    int i = 0;
+    for (String countObjectId: countObjectIds) {
+      countObjectIndices[i++] = countTable.getIndex (countObjectId);
+    }
 
-  /***********************************************************************************
-   *
-   *                           addToTableEntry  
-   *
-   ***********************************************************************************/
+    exonCountObjectIndices.put (exon, countObjectIndices);
 
-  public static void addToTableEntry (Hashtable<String, Double> entryTable, String key, double value) {
+    return countObjectIndices;
 
-    Double tableValueDouble = entryTable.get(key);
-    double tableValue = 0;
-    if (tableValueDouble != null) {
-      tableValue = tableValueDouble.doubleValue();
-    }
-	    
-    tableValue = tableValue + value;
-    entryTable.put(key, new Double(tableValue));
   }
 
-  
 
   /***********************************************************************************
-   * 
-   *                           getReadWeight
+   *
+   *  countBedRecords: add objectWeight to the count objects of the BED records with
+   *  an overlap of at least overlapThreshold which are not yet counted for the
+   *  fragment
    *
    ***********************************************************************************/
 
-  private static double getReadWeight (String fragmentId, BufferedReader weightReader, boolean useReadWeights) throws IOException {
-
-    if (weightReader == null) {
-      return 1.0;
-    }
-
-    if (! useReadWeights) {
-      return 1.0;
-    }
-
-    /* Store the last used fragment id and delete it if it changes; note that getReadWeight can also be
-       called if the read id changes */
-    if (! previousFragmentId.equals(fragmentId) && previousFragmentId != "") {
-      readWeightTable.remove (previousFragmentId);
-    }
-    previousFragmentId = fragmentId;
-
-    Double readWeight = readWeightTable.get (fragmentId);
-    if (readWeight != null) {
-      return 1.0 / readWeight.doubleValue ();
-    }
-
-    String line = weightReader.readLine ();
-
-    if (line == null) {
-      return 1.0;
-    }
-
-    StringTokenizer st = new StringTokenizer (line, "\t");
+  private static double countBedRecords (SmallSet<BedRecord> bedRecords, double objectWeight, int overlapThreshold,
+					 CountAccumulator.Shard countShard) {
 
-    String weightFragmentId = "";
-    if (st.hasMoreTokens()) {
-      weightFragmentId = st.nextToken ();	
+    double weightAdded = 0;
+    if (bedRecords == null) {
+      return weightAdded;
     }
-    
-    if (st.hasMoreTokens()) {
-      readWeight = new Double(st.nextToken ());	
-    } else {
-      throw new IOException ("No weight for read " + weightFragmentId + " found.");
-    }
-
-    while (! weightFragmentId.equals (fragmentId)) {
 
-      readWeightTable.put (weightFragmentId, readWeight);
-
-      line = weightReader.readLine ();
-
-      if (line == null) {
-	return 1.0;
+    for (BedRecord bedRecord: bedRecords) {
+      if (bedRecord.getOverlap () < overlapThreshold) {
+	continue;
       }
 
-      st = new StringTokenizer (line, "\t");
-      
-      if (st.hasMoreTokens()) {
-	weightFragmentId = st.nextToken ();	
-      }
+      for (int countObjectIndex: getCountObjectIndices (bedRecord.getExon ())) {
+	if (countObjectIndex >= countedFragments.length) {
+	  countedFragments = Arrays.copyOf (countedFragments, Math.max (countObjectIndex + 1, 2 * countedFragments.length));
+	}
 
-      if (st.hasMoreTokens()) {
-	readWeight = new Double(st.nextToken ());	
-      } else {
-	throw new IOException ("No weight for read " + weightFragmentId + " found.");
+	if (countedFragments[countObjectIndex] != fragmentNumber) {
+	  countedFragments[countObjectIndex] = fragmentNumber;
+	  countShard.add (countObjectIndex, objectWeight);
+	  weightAdded = weightAdded + objectWeight;
+	}
       }
-
     }
 
-    readWeightTable.put (weightFragmentId, readWeight);
-
-    if (debugLevel >= 1) {
-      System.out.println ("Weight: " + readWeight + " from " + line + " for " + fragmentId);
-    }
-
-    return 1.0 / readWeight;
+    return weightAdded;
 
   }
 
 
-
   /***********************************************************************************
    * 
    *                          processWeightObject
    *
+   *  Each count object of an exon that overlaps one of the reads of the fragment
+   *  by at least overlapThreshold bases is counted once with the weight of the
+   *  fragment.
+   *
    ***********************************************************************************/
 
-  private static void processWeightObject (WeightObject weightObject, double objectWeight, int globalOverlapThreshold) throws IOException {
+  private static double processWeightObject (WeightObject weightObject, double objectWeight, int overlapThreshold,
+					     CountAccumulator.Shard countShard) throws IOException {
 
-
-    HashSet<String> countObjectIdSet = weightObject.getCountObjectIds (globalOverlapThreshold, countObjectLengthTable);
-    
     if (debugLevel >= 1) {
-      System.out.println("Processing weight object: " + weightObject + " (weight: " + objectWeight + ") with count object set: " + countObjectIdSet);
+      System.out.println("Processing weight object: " + weightObject + " (weight: " + objectWeight + ") with count object set: " +
+			 weightObject.getCountObjectIds (overlapThreshold, null));
     }
-    
-    
-    for (String countObjectId: countObjectIdSet) {
 
-      addToTableEntry (countTable, countObjectId, objectWeight);
-	      
+    if (Exon.getCountObjectTable () == null) {
+      return 0;
+    }
+
+    fragmentNumber++;
+
+    double weightAdded = 0;
+    for (WeightObjectAlignment weightObjectAlignment: weightObject.getFragmentWeightObjectAlignments ()) {
+      weightAdded = weightAdded + countBedRecords (weightObjectAlignment.getBedRecords1 (), objectWeight, overlapThreshold, countShard);
+      weightAdded = weightAdded + countBedRecords (weightObjectAlignment.getBedRecords2 (), objectWeight, overlapThreshold, countShard);
     }
+
+    return weightAdded;
     
   }
 
@@ -265,22 +220,10 @@ public class ComputeExonCountsBed {
     int  readLength = -1;
     int  overlapThreshold = 3;
 
-    String oldAlignmentId = "";
-    String oldFragmentId = "";
-    String oldReadId = "";
-
-    boolean oldIsPairedEnd = false;
-
-    WeightObjectAlignment weightObjectAlignment = null;
-    WeightObject          weightObject = null;
-
-    boolean printLines    = false;
     boolean pairedEndMode = false;
     boolean useReadWeights = true;
     boolean strandSpecificProcessing = false;
 
-    final int countUnit = 2 * 1250 * 1000;
-    
     Getopt g = new Getopt("ComputeExonCountsBed", args, "b:d:gL:m:o:O:psw:W:h");
     
     int c;
@@ -340,16 +283,13 @@ public class ComputeExonCountsBed {
       System.exit(0);	
     }
 
-    String line = "";
     try {
       
       BufferedReader reader       = UtilLib.getBufferedReader (intersectionFilename);
       PrintWriter    outputWriter = UtilLib.getPrintWriter    (outputFilename);
 
-      BufferedReader countObjectReader = UtilLib.getBufferedReader (countObjectMapFilename);
       System.err.println("Loading exon count object file " + countObjectMapFilename);
-      Exon.loadCountObjectFile (countObjectReader);
-      computeCountObjectLengths ();
+      Exon.loadCountObjectFile (countObjectMapFilename);
       System.err.println("Done.");
 
       if (readWeightThreshold < 0 || weightFilename.equals("none")) {
@@ -361,104 +301,28 @@ public class ComputeExonCountsBed {
 	weightReader = UtilLib.getBufferedReader (weightFilename);
       }
 
-      countTable    = new Hashtable<String, Double> (400 * 1000);
+      countTable = new CountAccumulator (Exon.getCountObjectIds ().keySet ());
 
-      line = reader.readLine();
-      int lineNumber = 1;
-      Double objectWeightDouble = null;
-      double objectWeight = 1.0;
-
-      System.err.println("Reading bed file: " + intersectionFilename + " (. = " + countUnit + " lines)");
-
-      while (line != null) {
-	
-	BedRecord bedRecord = new BedRecord (line);
-
-	if (bedRecord.getOverlap () > 0) {
-	
-	  /* We consider fragments as weight objects. If there are two single-read alignments of one fragment
-	     against a count object, then we count this as one. */
-	  String  fragmentId  = bedRecord.getFragmentId ();
-	  String  readId      = bedRecord.getReadId ();
-	  boolean isPairedEnd = bedRecord.isPairedEnd ();
-
-	  if (debugLevel >= 2) {
-	    System.out.println ("BedRecord Weight object id: " + fragmentId);
+      final int processOverlapThreshold = overlapThreshold;
+      FragmentCounter fragmentCounter = new FragmentCounter ("ComputeExonCountsBed", new FragmentCounter.FragmentProcessor () {
+	  public double processWeightObject (WeightObject weightObject, double objectWeight, CountAccumulator.Shard countShard) throws IOException {
+	    return ComputeExonCountsBed.processWeightObject (weightObject, objectWeight, processOverlapThreshold, countShard);
 	  }
-
-	  if (printLines) {
-	    System.out.println (bedRecord.toString());
-	  }
-
-	  if (weightObject == null) {
-	    
-	    weightObject = new WeightObject (bedRecord);
-	  
-	  } else if ((! fragmentId.equals(oldFragmentId) && oldIsPairedEnd) || (! oldIsPairedEnd && ! readId.equals(oldReadId))){
-
-	    objectWeight = getReadWeight (oldFragmentId, weightReader, useReadWeights);
-	  
-	    if (debugLevel >= 1) {
-	      System.out.println ("Weight for " + oldFragmentId + ": " + objectWeight);
-	    }
-
-	    if (objectWeight >= readWeightThreshold) {
-	      processWeightObject (weightObject, objectWeight, overlapThreshold);
-	    }
-
-	    /* Create new weight object */
-	    weightObject = new WeightObject (bedRecord);
-	  
-	  } else {
-	  
-	    weightObject.addBedRecord (bedRecord);
-	  
-	  }
-
-	  oldFragmentId  = fragmentId;
-	  oldReadId      = readId;
-	  oldIsPairedEnd = isPairedEnd;
-	}
-	  
-	if (lineNumber % countUnit == 0) {
-	  System.err.print(".");
-	}
-	lineNumber++;
-	  
-	
-	line = reader.readLine();
-
-	if (debugLevel >= 2) {
-	  System.out.println ("Line: " + line);
-	  System.out.println ("count table: " + countTable);
-	}
-	
-      }
-
-      if (debugLevel >= 1) {
-	System.out.println ("Processing last fragment");
-      }
-
-      /* process last fragment */
-      if (weightObject != null) {
-	objectWeight = getReadWeight (oldFragmentId, weightReader, useReadWeights);
-	
-	if (objectWeight >= readWeightThreshold) {
-	  processWeightObject (weightObject, objectWeight, overlapThreshold);
-	}
-      }
-
-      if (lineNumber >= countUnit) {
-	System.err.println();
-      }
-      
+	}, countTable);
+      fragmentCounter.setWeightReader (weightReader);
+      fragmentCounter.setReadWeightThreshold (readWeightThreshold);
+      fragmentCounter.setLimitReadWeights (false);
+      fragmentCounter.setSingleReadWeightObjects (true);
+
+      System.err.println("Reading bed file: " + intersectionFilename + " " + FragmentCounter.getCountUnitMessage ());
+      fragmentCounter.countFragments (reader);
       reader.close();
 
       if (debugLevel >= 1) {
 	System.out.println ("count table final: " + countTable);
       }
 
-      TreeSet<String> countObjectIds = new TreeSet<String> (countTable.keySet ());
+      TreeSet<String> countObjectIds = new TreeSet<String> (countTable.getKeys ());
       if (countObjectMapFilename != "" && Exon.getCountObjectIds() != null) {
 	countObjectIds = new TreeSet<String> (Exon.getCountObjectIds().keySet ());	
       }
@@ -476,10 +340,12 @@ public class ComputeExonCountsBed {
 
       outputWriter.close ();
 
+      fragmentCounter.printStatistics ();
+
     }
     catch (Exception e) {
-      System.out.println ("Problem in line: " + line + ": " + e==null?"No error message":e.getMessage());
+      System.err.println (e==null?"No error message":e.getMessage());
+      System.exit (1);
     }
   }
 }
-
@@ -19,10 +19,75 @@ permissions and limitations under the License.
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
+/***********************************************************************************
+ *
+ * 
+ *                           Class GenomeSamBatch
+ *
+ *   Computes the genome SAM records for a batch of fragments; the batches are
+ *   computed by worker threads while the main thread of ComputeGenomeSamFile reads
+ *   the BED and the combined SAM file.
+ *  
+ ***********************************************************************************/
+
+class GenomeSamBatch implements Callable<String> {
+
+  /* weightObjects contains null for the fragments without BED records */
+  private Vector<WeightObject> weightObjects = new Vector<WeightObject> ();
+  private Vector<Vector<SamRecord>> combinedSamRecordsVector = new Vector<Vector<SamRecord>> ();
+  private boolean pairedEndAlignments = false;
+  private HashSet<String> chromosomeIds = null;
+
+  GenomeSamBatch (boolean pairedEndAlignments, HashSet<String> chromosomeIds) {
+    this.pairedEndAlignments = pairedEndAlignments;
+    this.chromosomeIds       = chromosomeIds;
+  }
+
+  public void add (WeightObject weightObject, Vector<SamRecord> combinedSamRecords) {
+    weightObjects.add(weightObject);
+    combinedSamRecordsVector.add(combinedSamRecords);
+  }
+
+  public int size () {
+    return weightObjects.size ();
+  }
+
+  public String call () throws IOException {
+
+    StageMetrics fragmentMetrics = ComputeGenomeSamFile.getFragmentMetrics ();
+    long processStartTime = fragmentMetrics.getStartTime ();
+
+    StringWriter stringWriter = new StringWriter ();
+    PrintWriter  outputWriter = new PrintWriter (stringWriter);
+    for (int i = 0; i < weightObjects.size (); i++) {
+      WeightObject weightObject = weightObjects.get(i);
+      Vector<SamRecord> combinedSamRecords = combinedSamRecordsVector.get(i);
+      
+      Vector <SamRecordPair> computedGenomeSamPairs = new Vector <SamRecordPair> ();
+      if (weightObject != null) {
+	/* Compute the genome SAM read for the current read that is contained in the BED file */
+	computedGenomeSamPairs = weightObject.computeGenomeSamPairs (combinedSamRecords, chromosomeIds);
+      }
+      
+      ComputeGenomeSamFile.printGenomeSamRecords (computedGenomeSamPairs, combinedSamRecords, pairedEndAlignments, chromosomeIds, outputWriter);
+    }
+    outputWriter.close ();
+
+    fragmentMetrics.addRecords (weightObjects.size ());
+    fragmentMetrics.addProcessTime (processStartTime);
+
+    return stringWriter.toString ();
+    
+  }
+  
+}
+
+
 /***********************************************************************************
  *
  * 
@@ -37,6 +102,7 @@ public class ComputeGenomeSamFile {
 
   private static String bedLine          = "";
   private static String oldBedFragmentId = "";
+  private static long   oldBedFragmentKey = FragmentNameKey.noKey;
   private static int bedLineNumber       = 1;
   
   private static WeightObject classWeightObject = null;
@@ -50,6 +116,30 @@ public class ComputeGenomeSamFile {
   
   private static final int countUnit = 1 * 1000 * 1000;
 
+  /* With more than one thread (option -t) the genome SAM records of batchSize fragments are computed
+     by a worker thread; the batches are written in the order of the input */
+  private static int numThreads = 1;
+  private static final int batchSize = 1000;
+
+  private static PrintWriter outputWriter = null;
+  private static BamWriter   bamWriter    = null;
+
+  /* The metrics of the reading of the input files and of the computation of the genome SAM records (option -X) */
+  private static StageMetrics bedMetrics      = PipelineMetrics.getStage ("ComputeGenomeSamFile BED");
+  private static StageMetrics samMetrics      = PipelineMetrics.getStage ("ComputeGenomeSamFile SAM");
+  private static StageMetrics fragmentMetrics = PipelineMetrics.getStage ("ComputeGenomeSamFile fragments");
+
+  static StageMetrics getFragmentMetrics () {
+    return fragmentMetrics;
+  }
+
+  /* With option -C the genome SAM records are sorted by coordinate before they are written */
+  private static SamRecordSorter samRecordSorter = null;
+
+  /* The chromosome names and lengths in the order of the chromosome id file (used for the BAM header) */
+  private static Vector<String>  chromosomeNames   = new Vector<String>  (200);
+  private static Vector<Integer> chromosomeLengths = new Vector<Integer> (200);
+
 
 
   /***********************************************************************************/
@@ -61,7 +151,9 @@ public class ComputeGenomeSamFile {
     }
 
     while (bedLine != null) {
+      long parseStartTime = bedMetrics.getStartTime ();
       BedRecord bedRecord = new BedRecord (bedLine);
+      bedMetrics.addParseTime (parseStartTime);
 	
       if (bedRecord.getOverlap () > 0 && ! chromosomeIds.contains(bedRecord.getReferenceSequenceId ())) {
 	  
@@ -70,6 +162,11 @@ public class ComputeGenomeSamFile {
 	if (classWeightObject == null) {	    
 	  classWeightObject = new WeightObject (bedRecord);	    
 	} else if (! fragmentId.equals(oldBedFragmentId)) {	    
+	  if (FragmentNameKey.validateOrder ()) {
+	    long fragmentKey = FragmentNameKey.getKey (fragmentId);
+	    FragmentNameKey.checkOrder (oldBedFragmentId, oldBedFragmentKey, fragmentId, fragmentKey, "BED file", bedLineNumber);
+	    oldBedFragmentKey = fragmentKey;
+	  }
 	  WeightObject oldWeightObject = classWeightObject;
 	  classWeightObject = null;
 	  oldBedFragmentId = fragmentId;
@@ -87,6 +184,9 @@ public class ComputeGenomeSamFile {
       bedLineNumber++;
 	
       bedLine = bedReader.readLine();
+      if (bedLine != null) {
+	bedMetrics.addLine (bedLine);
+      }
 	
       if (debugLevel >= 1) {
 	System.err.println ("BedLine: " + bedLine);
@@ -112,7 +212,9 @@ public class ComputeGenomeSamFile {
 
       if (! combinedSamLine.startsWith("@") && ! combinedSamLine.equals("")) {
 	
+	long parseStartTime = samMetrics.getStartTime ();
 	SamRecord samRecord    = new SamRecord (combinedSamLine, combinedSamLineNumber, samFilename);
+	samMetrics.addParseTime (parseStartTime);
 	String    queryName    = samRecord.getQueryName();
 	String    fragmentName = samRecord.getFragmentName();
 
@@ -120,6 +222,11 @@ public class ComputeGenomeSamFile {
 	  classCombinedSamRecords = new Vector<SamRecord> (500);
 	  classCombinedSamRecords.add(samRecord);
 	} else if (! fragmentName.equals(oldCombinedSamFragmentName)) {
+	  if (FragmentNameKey.validateOrder ()) {
+	    SamRecord oldSamRecord = classCombinedSamRecords.lastElement ();
+	    FragmentNameKey.checkOrder (oldCombinedSamFragmentName, oldSamRecord.getFragmentKey (), fragmentName, samRecord.getFragmentKey (),
+					"SAM file " + samFilename, combinedSamLineNumber);
+	  }
 	  Vector<SamRecord> oldSamRecords = classCombinedSamRecords;
 	  classCombinedSamRecords = null;
 	  oldCombinedSamFragmentName = fragmentName;
@@ -138,6 +245,9 @@ public class ComputeGenomeSamFile {
       }
 	
       combinedSamLine = samReader.readLine();
+      if (combinedSamLine != null) {
+	samMetrics.addLine (combinedSamLine);
+      }
 	
     }
 
@@ -184,7 +294,12 @@ public class ComputeGenomeSamFile {
 
       StringTokenizer st = new StringTokenizer (chromosomeIdLine, "\t");
       if (st.hasMoreTokens()) {
-	chromosomeIds.add(st.nextToken());
+	String chromosomeId = st.nextToken();
+	chromosomeIds.add(chromosomeId);
+	chromosomeNames.add(chromosomeId);
+	if (st.hasMoreTokens()) {
+	  chromosomeLengths.add(Integer.valueOf (UtilLib.toInt (st.nextToken())));
+	}
       }
       chromosomeIdLine = chromosomeIdReader.readLine();
 	
@@ -430,8 +545,8 @@ public class ComputeGenomeSamFile {
    *
    *****************************************************************************/
 
-  private static void printGenomeSamRecords (Vector <SamRecordPair> computedGenomeSamPairs, Vector <SamRecord> originalGenomeSamRecords, boolean pairedEndAlignments,
-					      HashSet<String> chromosomeIds, PrintWriter outputWriter) throws IOException {
+  static void printGenomeSamRecords (Vector <SamRecordPair> computedGenomeSamPairs, Vector <SamRecord> originalGenomeSamRecords, boolean pairedEndAlignments,
+				     HashSet<String> chromosomeIds, PrintWriter outputWriter) throws IOException {
 
     Vector<SamRecordPair>[] originalGenomeSamRecordPairs = createSamRecordPairs(originalGenomeSamRecords, pairedEndAlignments, chromosomeIds);
     if (debugLevel >= 2) {
@@ -579,12 +694,70 @@ public class ComputeGenomeSamFile {
     }
   }
   
+  /*****************************************************************************
+   *
+   *  writeGenomeSamLines: write SAM lines to the SAM and (if specified) the BAM file
+   *
+   *****************************************************************************/
+
+  private static void writeGenomeSamLines (String samLines) throws IOException {
+
+    if (samRecordSorter != null) {
+      samRecordSorter.add (samLines);
+      return;
+    }
+
+    outputWriter.print (samLines);
+    if (bamWriter != null) {
+      bamWriter.println (samLines);
+    }
+    
+  }
+
+
+  /*****************************************************************************
+   *
+   *  processBatch: compute the batch directly or submit it to the executor
+   *  service; the output of the batches is written in the order of submission
+   *
+   *****************************************************************************/
+
+  private static void processBatch (GenomeSamBatch batch, ExecutorService executorService, LinkedList<Future<String>> pendingBatches) throws Exception {
+
+    if (batch.size () == 0) {
+      return;
+    }
+    
+    if (executorService == null) {
+      writeGenomeSamLines (batch.call ());
+      return;
+    }
+
+    pendingBatches.add (executorService.submit (batch));
+    fragmentMetrics.setQueueDepth (pendingBatches.size ());
+    while (pendingBatches.size () > 0 && (pendingBatches.getFirst ().isDone () || pendingBatches.size () > 2 * numThreads)) {
+      writeGenomeSamLines (pendingBatches.removeFirst ().get ());
+    }
+    
+  }
+
+
+  private static void writePendingBatches (LinkedList<Future<String>> pendingBatches) throws Exception {
+
+    while (pendingBatches.size () > 0) {
+      writeGenomeSamLines (pendingBatches.removeFirst ().get ());
+    }
+    
+  }
+
+  
   /***********************************************************************************/
 
   private static void printHelp () {
     System.err.println("ComputeGenomeSamFile\n" +                                              
     "USAGE: ComputeGenomeSamFile -b <intersect. bed file> -s <Combined SAM file>\n" +
-    "   -c <chromosome id file> -H <SAM header file> -o <outputFile>\n" +
+    "   -c <chromosome id file> -H <SAM header file> -o <outputFile> [-B <BAM file>]\n" +
+    "   [-t <threads>] [-C [-m <memory>] [-T <temp dir>]] [-V] [-X <metrics file>]\n" +
     "\n" +
     " -b STRING: intersect. bed file - the bed file containing the intersection of\n" +
     "     the exons transcript intervals and the reads mapped to the transcripts.\n" +
@@ -598,6 +771,19 @@ public class ComputeGenomeSamFile {
     " -o STRING: output file - the file to which the output is written (- for STDOUT)\n" + 
     "    [-]\n" +
     " -S: alignments are single read alignments\n" +
+    " -B STRING: write the genome alignments also to the BAM file STRING; the\n" +
+    "     chromosome id file needs to contain the chromosome lengths in the second\n" +
+    "     column (as a fai file does).\n" +
+    " -t INT: compute the genome alignments with INT threads [1]\n" +
+    " -C: sort the genome alignments by coordinate (in the order of the chromosome\n" +
+    "     id file)\n" +
+    " -m INT: use at most INT MB of memory to buffer alignments for sorting [2000]\n" +
+    " -T STRING: directory for the temporary files of the sorting [java.io.tmpdir]\n" +
+    " -V: validate that the BED and the combined SAM file are sorted by fragment name\n" +
+    "     and report the first fragment out of order.\n" +
+    " -X STRING: write the throughput metrics of the reading of the input files and\n" +
+    "     the computation of the genome alignments as JSON lines to file STRING every\n" +
+    "     10 seconds.\n" +
     "\n");
   }
 
@@ -612,10 +798,15 @@ public class ComputeGenomeSamFile {
     String chromosomeIdFilename    = "";
     String headerFilename          = "";
     String outputFilename          = "-";
+    String bamFilename             = "";
+    boolean sortByCoordinate       = false;
+    int sortMemorySize             = 2000;
+    String tempDirname             = "";
     boolean quiet = false;
     boolean singleReadAlignments = false;
+    String metricsFilename = "";
     
-    Getopt g = new Getopt("ComputeGenomeSamFile.java", args, "b:c:d:g:H:o:qs:SWh");
+    Getopt g = new Getopt("ComputeGenomeSamFile.java", args, "b:B:c:Cd:g:H:m:o:qs:St:T:VWX:h");
     
     int c;
     String arg = "";
@@ -627,6 +818,21 @@ public class ComputeGenomeSamFile {
       case 'b':
 	intersectionBedFilename = g.getOptarg();
 	break;
+      case 'B':
+	bamFilename = g.getOptarg();
+	break;
+      case 'C':
+	sortByCoordinate = true;
+	break;
+      case 'm':
+	sortMemorySize = Integer.parseInt(g.getOptarg());
+	break;
+      case 'T':
+	tempDirname = g.getOptarg();
+	break;
+      case 'V':
+	FragmentNameKey.setValidateOrder (true);
+	break;
       case 'c':
 	chromosomeIdFilename = g.getOptarg();
 	break;
@@ -649,11 +855,17 @@ public class ComputeGenomeSamFile {
       case 's':
 	combinedSamFilename = g.getOptarg();
 	break;
+      case 't':
+	numThreads = Integer.parseInt(g.getOptarg());
+	break;
       case 'S':
 	singleReadAlignments = false;
       case 'W':
 	UtilLib.setWarningsOn (true);
 	break;	
+      case 'X':
+	metricsFilename = g.getOptarg();
+	break;
       case 'h':
 	printHelp();
 	System.exit(0);
@@ -672,12 +884,18 @@ public class ComputeGenomeSamFile {
 
     debugLevel = UtilLib.getDebugLevel ();
     int lineNumber = 0;
+    ExecutorService executorService = null;
+    boolean metricsStarted = false;
     try {
+
+      if (! metricsFilename.equals("")) {
+	metricsStarted = PipelineMetrics.start (metricsFilename);
+      }
       
       BufferedReader chromosomeIdReader = UtilLib.getBufferedReader (chromosomeIdFilename, true, "Chromosome Id file");
       BufferedReader bedReader          = UtilLib.getBufferedReader (intersectionBedFilename, true, "Intersection BED file");
       BufferedReader combinedSamReader  = UtilLib.getBufferedReader (combinedSamFilename, true, "Combined SAM file");
-      PrintWriter    outputWriter       = UtilLib.getPrintWriter    (outputFilename);
+      outputWriter = UtilLib.getPrintWriter (outputFilename);
 
       String samHeader = "";
       if (! headerFilename.equals("")) {
@@ -690,6 +908,24 @@ public class ComputeGenomeSamFile {
       System.err.println("Reading chromosome ids: " + chromosomeIdFilename);
       HashSet<String> chromosomeIds = readChromosomeIds (chromosomeIdReader);
       chromosomeIdReader.close ();
+
+      if (! bamFilename.equals("")) {
+	if (chromosomeLengths.size () != chromosomeNames.size ()) {
+	  throw new IOException ("Chromosome id file " + chromosomeIdFilename + " does not contain the chromosome lengths needed for the BAM file.");
+	}
+	System.err.println("Writing to genome BAM file: " + bamFilename);
+	bamWriter = new BamWriter (bamFilename, samHeader, chromosomeNames, chromosomeLengths);
+      }
+
+      if (numThreads > 1) {
+	executorService = Executors.newFixedThreadPool (numThreads);
+      }
+      LinkedList<Future<String>> pendingBatches = new LinkedList<Future<String>> ();
+
+      if (sortByCoordinate) {
+	samRecordSorter = new SamRecordSorter (SamRecordSorter.COORDINATE_ORDER, chromosomeNames, sortMemorySize * 1024L * 1024L, numThreads,
+					       tempDirname.equals("")?null:new File (UtilLib.getPath (tempDirname)));
+      }
       
       System.err.println("Reading BED file: " + intersectionBedFilename);
       bedLine = bedReader.readLine();
@@ -711,6 +947,7 @@ public class ComputeGenomeSamFile {
 	System.err.println("pairedEndAlignments: " + pairedEndAlignments);
       }
       
+      GenomeSamBatch batch = new GenomeSamBatch (pairedEndAlignments, chromosomeIds);
       while (weightObject != null || combinedSamRecords != null) {
 	/* Note that bedLine and combinedSamLine can be null at this point */
 
@@ -727,24 +964,20 @@ public class ComputeGenomeSamFile {
 	  System.err.flush();
 	}
 
-	Vector <SamRecordPair> computedGenomeSamPairs = new Vector <SamRecordPair> ();;	
-	if (weightObject != null && weightObject.getFragmentId ().compareTo(combinedSamFragmentName) == 0) {
-	  
-	  /* Compute the genome SAM read for the current read that is contained in the BED file */
-	  computedGenomeSamPairs = weightObject.computeGenomeSamPairs (combinedSamRecords, chromosomeIds);
+	int compValue = 1;
+	if (weightObject != null) {
+	  compValue = FragmentNameKey.compare (weightObject.getFragmentId (), weightObject.getFragmentKey (),
+					       combinedSamFragmentName, combinedSamRecords.get(0).getFragmentKey());
+	}
+	
+	WeightObject fragmentWeightObject = null;
+	if (compValue == 0) {
 	  
-	  if (debugLevel >= 1) {
-	    System.err.println (computedGenomeSamPairs.size () + " SAM record pairs computed from the BED entries for fragment: " + combinedSamFragmentName);
-	    for (SamRecordPair samRecordPair: computedGenomeSamPairs) {
-	      System.err.println ("First read: " + samRecordPair.getFirstRead ());
-	      System.err.println ("Second read: " + samRecordPair.getSecondRead ());
-	    }
-	  }
-
+	  fragmentWeightObject = weightObject;
 	  weightObject = readNextBedRecord (bedReader, chromosomeIds);
 	  numBedRecords++;
 
-	} else if (weightObject != null && weightObject.getFragmentId ().compareTo(combinedSamFragmentName) < 0) {
+	} else if (compValue < 0) {
 	  throw new IOException ("BED fragment: " + weightObject.getFragmentId () + " without a SAM Record.\n" +
 				 "Next SAM Record: " + combinedSamFragmentName);
 	}
@@ -752,8 +985,12 @@ public class ComputeGenomeSamFile {
 	if (debugLevel >= 1) {
 	  System.err.println ("Print at most " + combinedSamRecords.size () + " genome SAM records for fragment: " + combinedSamFragmentName);
 	}
-	
-	printGenomeSamRecords (computedGenomeSamPairs, combinedSamRecords, pairedEndAlignments, chromosomeIds, outputWriter);
+
+	batch.add (fragmentWeightObject, combinedSamRecords);
+	if (batch.size () >= (executorService == null?1:batchSize)) {
+	  processBatch (batch, executorService, pendingBatches);
+	  batch = new GenomeSamBatch (pairedEndAlignments, chromosomeIds);
+	}
 	
 	/* Read next SAM records */
 	combinedSamRecords = readNextCombinedSamRecord (combinedSamReader, combinedSamFilename);
@@ -764,6 +1001,9 @@ public class ComputeGenomeSamFile {
 	}
       }
 
+      processBatch (batch, executorService, pendingBatches);
+      writePendingBatches (pendingBatches);
+
       if (bedLine != null && combinedSamLine == null) {
 	throw new IOException ("BED fragment: " + weightObject.getFragmentId () + " without a SAM Record (at end of file).\n");
       }
@@ -784,7 +1024,7 @@ public class ComputeGenomeSamFile {
       while (combinedSamRecords != null) {
 	for (SamRecord samRecord: combinedSamRecords) {
 	  if (chromosomeIds.contains(samRecord.getReferenceName ()) || samRecord.getReferenceName ().equals("*")) {
-	    outputWriter.println (samRecord);
+	    writeGenomeSamLines (samRecord.toString () + "\n");
 	  }
 	}
 	combinedSamRecords = readNextCombinedSamRecord (combinedSamReader, combinedSamFilename);
@@ -801,7 +1041,15 @@ public class ComputeGenomeSamFile {
 
       combinedSamReader.close();
       bedReader.close();
+
+      if (samRecordSorter != null) {
+	System.err.println("Sorting " + samRecordSorter.getNumLines () + " genome SAM records in " + (samRecordSorter.getNumRuns () + 1) + " runs.");
+	samRecordSorter.writeSorted (outputWriter, bamWriter);
+      }
       outputWriter.close ();
+      if (bamWriter != null) {
+	bamWriter.close ();
+      }
 
       if (lineNumber > countUnit  && ! quiet) {
 	System.err.println();
@@ -816,6 +1064,17 @@ public class ComputeGenomeSamFile {
 			  "Error message: " + (e==null?"No error message":e.getMessage()));
       System.exit(1);
     }
+    finally {
+      if (executorService != null) {
+	executorService.shutdownNow ();
+      }
+      if (samRecordSorter != null) {
+	samRecordSorter.close ();
+      }
+      if (metricsStarted) {
+	PipelineMetrics.stop ();
+      }
+    }
 
     System.err.println("\nGenome SAM file " + outputFilename + " created.");
   }
@@ -128,8 +128,8 @@ public class ComputeGenomicBedEntries {
 	    /* Finish old weight object */
 	    weightObject.printGenomicBedEntries(outputWriter);	  
 	    
-	    /* Create new weight object */
-	    weightObject = new WeightObject (bedRecord);
+	    /* Reuse the weight object for the new fragment */
+	    weightObject.reset (bedRecord);
 	    
 	  } else {
 
@@ -46,14 +46,30 @@ public class ChangeFastqIdsAndSplit {
       "\n" +
       "Options:\n" + 
       "-a <int>        -  lower threshold for non A/T characters in a read [5]\n" + 
+      "-c              -  collapse identical reads (read pairs for paired-end data) into\n" +
+      "                   one entry, the first occurrence of the read; its multiplicity\n" +
+      "                   is appended to the read id after a space, i.e. the ids have the\n" +
+      "                   form Fxxxxx/[12] <multiplicity>. The reads are identified by a\n" +
+      "                   128-bit hash of their sequences. The entries keep the order of\n" +
+      "                   the input if the input is read from files into one partition;\n" +
+      "                   otherwise they are ordered by partition.\n" +
       "-f <file name>  -  name of the fastq input file with the reads (- for STDIN) [-]\n" + 
       "-F <file name>  -  name of the 2. fastq input file with the reads (- for STDIN) [-]\n" + 
       "-o <file name>  -  name of the output file (- for STDOUT) [].\n" +
       "-O <file name>  -  name of the 2. output file (- for STDOUT) [].\n" +
+      "-P <int>        -  number of temporary partitions for collapsing (option -c);\n" +
+      "                   more partitions need less memory. The input is read twice\n" +
+      "                   instead if it is one partition and not read from STDIN. The\n" +
+      "                   input or a partition whose distinct reads do not fit into half\n" +
+      "                   of the memory of the JVM is split into 16 partitions [1]\n" +
       "-S              -  data are single read and not paired-end\n" + 
       "-r <read index> -  read index [1]\n" + 
       "-s <num reads>  -  split fastq files into chunks each containing at most \n" +
       "                   <num reads> many fastq entries.\n" +
+      "-t <int>        -  number of threads which compress the chunks; the reads are\n" +
+      "                   still read on one thread and the chunks and ids do not\n" +
+      "                   depend on the number of threads [1]\n" +
+      "-T <dir>        -  directory for the temporary partitions [java.io.tmpdir]\n" +
       "-u              -  uncompress the fastq files\n" +
       "-h              -  help: display this information.");
   }
@@ -79,8 +95,14 @@ public class ChangeFastqIdsAndSplit {
       int nonAThresh = 5;
 
       boolean pairedEnd = true;
+
+      boolean collapseReads = false;
+      int     numPartitions = 1;
+      String  tempDirname   = "";
+
+      int numThreads = 1;
       
-      Getopt g = new Getopt("ChangeFastqIdsAndSplit", args, "a:d:f:F:o:O:r:s:Suh");
+      Getopt g = new Getopt("ChangeFastqIdsAndSplit", args, "a:cd:f:F:o:O:P:r:s:St:T:uh");
 
       int c;
       String arg = "";
@@ -93,6 +115,9 @@ public class ChangeFastqIdsAndSplit {
 	case 'a':
 	  nonAThresh = Integer.parseInt(g.getOptarg());
 	  break;
+	case 'c':
+	  collapseReads = true;
+	  break;
 	case 'd':
 	  debugLevel = Integer.parseInt(g.getOptarg());
 	  break;
@@ -112,6 +137,9 @@ public class ChangeFastqIdsAndSplit {
 	  arg = g.getOptarg();
 	  outputFilename2 = arg;
 	  break;
+	case 'P':
+	  numPartitions = Integer.parseInt(g.getOptarg());
+	  break;
 	case 'r':
 	  readIndex = Integer.parseInt(g.getOptarg());
 	  break;
@@ -121,6 +149,12 @@ public class ChangeFastqIdsAndSplit {
 	case 'S':
 	  pairedEnd = false;
 	  break;
+	case 't':
+	  numThreads = Integer.parseInt(g.getOptarg());
+	  break;
+	case 'T':
+	  tempDirname = g.getOptarg();
+	  break;
 	case 'u':
 	  compress = false;
 	  break;
@@ -159,15 +193,8 @@ public class ChangeFastqIdsAndSplit {
 	throw new Exception ("Please specify the input and output filenames of the 2. fastq files with the correct extension (.fq or .fastq).");
       }
       
-      BufferedReader fastqReader1 = null;
-      BufferedReader fastqReader2 = null;
-      PrintWriter    fastqWriter1 = null;
-      PrintWriter    fastqWriter2 = null;
-
-      fastqReader1 = UtilLib.getBufferedReader (inputFilename1);
-      if (pairedEnd && inputFilename2 != "") {
-	fastqReader2 = UtilLib.getBufferedReader (inputFilename2);
-      }
+      PrintWriter fastqWriter1 = null;
+      PrintWriter fastqWriter2 = null;
 
       Counter fragmentCounter = new Counter (9);
       Counter fileCounter     = new Counter (3);
@@ -211,19 +238,51 @@ public class ChangeFastqIdsAndSplit {
 	fastqSuffix = "fq";
       }
 
-      FastqEntry fastqEntry1 = null;
-      FastqEntry fastqEntry2 = null;
-      boolean newFileOpened  = false;
+      ParallelGzipCompressor parallelGzipCompressor = null;
+      if (compress && numThreads > 1) {
+	parallelGzipCompressor = new ParallelGzipCompressor (numThreads);
+      }
+
+      if (collapseReads) {
+	ReadPairCollapser readPairCollapser =
+	  new ReadPairCollapser (inputFilename1, pairedEnd?inputFilename2:"", nonAThresh, numPartitions, tempDirname.equals("")?null:new File (UtilLib.getPath (tempDirname)));
+	FastqChunkWriter fastqChunkWriter =
+	  new FastqChunkWriter (outputFilename1Base, outputFilename1BaseSuffix, outputFilename2Base, outputFilename2BaseSuffix, fastqSuffix, chunkSize, readIndex,
+				pairedEnd && inputFilename2 != "", parallelGzipCompressor);
+	readPairCollapser.collapse (fastqChunkWriter);
+	fastqChunkWriter.close ();
+	if (parallelGzipCompressor != null) {
+	  parallelGzipCompressor.finish ();
+	}
+
+	System.err.println ("Number of reads before duplicate removal: " + readPairCollapser.getNumReads ());
+	if (nonAThresh > 0) {
+	  System.err.println ("Number of entries filtered since at least one read has less than " + nonAThresh + " non-As or non-Ts: " +
+			      readPairCollapser.getNumFilteredReads ());
+	}
+	System.err.println ("Number of reads after duplicate removal: " + readPairCollapser.getNumUniqueReads ());
+	return;
+      }
+
+      FastqRecordReader fastqReader1 = new FastqRecordReader (inputFilename1);
+      FastqRecordReader fastqReader2 = null;
+      if (pairedEnd && inputFilename2 != "") {
+	fastqReader2 = new FastqRecordReader (inputFilename2);
+      }
+
+      /* The records are reused for all entries */
+      FastqRecord fastqRecord1  = new FastqRecord ();
+      FastqRecord fastqRecord2  = new FastqRecord ();
+      boolean     newFileOpened = false;
       int filteredEntries = 0;
 
       try {
 
 	int i = 0;;
-	while (true) {
+	while (fastqReader1.next (fastqRecord1)) {
 
-	  fastqEntry1 = new FastqEntry (fastqReader1);
-	  if (pairedEnd && inputFilename2 != "") {
-	    fastqEntry2 = new FastqEntry (fastqReader2);
+	  if (fastqReader2 != null && ! fastqReader2.next (fastqRecord2)) {
+	    throw new IOException ("ERROR: " + inputFilename2 + " has fewer entries than " + inputFilename1 + ".");
 	  }
 	  
 	  if (! newFileOpened && ((chunkSize > 0 && i % chunkSize == 0) || i == 0)) {
@@ -237,12 +296,12 @@ public class ChangeFastqIdsAndSplit {
 	    String fastqOutputFilename1 = outputFilename1Base + "-C" + fileCounter.getZeroFilledCount () + outputFilename1BaseSuffix + "." + fastqSuffix;
 	    System.err.println ("Writing to file " + fastqOutputFilename1 + " (line: " + i + ")");
 	    System.err.flush();
-	    fastqWriter1 = UtilLib.getPrintWriter (fastqOutputFilename1);
+	    fastqWriter1 = FastqChunkWriter.getPrintWriter (fastqOutputFilename1, parallelGzipCompressor);
 
 	    if (pairedEnd && inputFilename2 != "") {
 	      String fastqOutputFilename2 = outputFilename2Base + "-C" + fileCounter.getZeroFilledCount () + outputFilename2BaseSuffix + "." + fastqSuffix;
 	      System.err.println ("Writing to file " + fastqOutputFilename2 + " (line: " + i + ")");
-	      fastqWriter2 = UtilLib.getPrintWriter (fastqOutputFilename2);
+	      fastqWriter2 = FastqChunkWriter.getPrintWriter (fastqOutputFilename2, parallelGzipCompressor);
 	    }
 
 	    fileCounter.inc();
@@ -252,25 +311,29 @@ public class ChangeFastqIdsAndSplit {
 	  
 	  if (nonAThresh > 0) {
 	    if (pairedEnd && inputFilename2 != "") {
-	      if (fastqEntry1.getSequenceWithoutChar ("A").length () >= nonAThresh && fastqEntry2.getSequenceWithoutChar ("A").length () >= nonAThresh &&
-		  fastqEntry1.getSequenceWithoutChar ("T").length () >= nonAThresh && fastqEntry2.getSequenceWithoutChar ("T").length () >= nonAThresh) {
-		fastqWriter1.println (fastqEntry1.toString (fragmentCounter, readIndex));
-		fastqWriter2.println (fastqEntry2.toString (fastqEntry1.getFragmentId (), 3-readIndex));
+	      if (fastqRecord1.hasNonATs (nonAThresh) && fastqRecord2.hasNonATs (nonAThresh)) {
+		String fragmentId = "@F" + fragmentCounter.getZeroFilledCount ();
+		fragmentCounter.inc ();
+		fastqRecord1.write (fastqWriter1, fragmentId, readIndex);
+		fastqRecord2.write (fastqWriter2, fragmentId, 3-readIndex);
 		i++;
 		newFileOpened = false;
 	      } else {
 		filteredEntries++;
 	      }
-	    } else if (fastqEntry1.getSequenceWithoutChar ("A").length () >= nonAThresh && fastqEntry1.getSequenceWithoutChar ("T").length () >= nonAThresh) {
-		fastqWriter1.println (fastqEntry1.toString (fragmentCounter, readIndex));
+	    } else if (fastqRecord1.hasNonATs (nonAThresh)) {
+		fastqRecord1.write (fastqWriter1, "@F" + fragmentCounter.getZeroFilledCount (), readIndex);
+		fragmentCounter.inc ();
 		i++;
 	    } else {
 	      filteredEntries++;
 	    }
 	  } else {
-	    fastqWriter1.println (fastqEntry1.toString (fragmentCounter, readIndex));
+	    String fragmentId = "@F" + fragmentCounter.getZeroFilledCount ();
+	    fragmentCounter.inc ();
+	    fastqRecord1.write (fastqWriter1, fragmentId, readIndex);
 	    if (pairedEnd && inputFilename2 != "") {
-	      fastqWriter2.println (fastqEntry2.toString (fastqEntry1.getFragmentId (), 3-readIndex));
+	      fastqRecord2.write (fastqWriter2, fragmentId, 3-readIndex);
 	    }
 	    i++;
 	    newFileOpened = false;
@@ -280,6 +343,11 @@ public class ChangeFastqIdsAndSplit {
 	    // System.err.print (".");
 	  }
 	}
+
+	fastqReader1.close ();
+	if (fastqReader2 != null) {
+	  fastqReader2.close ();
+	}
 	
       } catch (IOException e) {
 	
@@ -292,6 +360,9 @@ public class ChangeFastqIdsAndSplit {
       if (pairedEnd && inputFilename2 != "") {
 	fastqWriter2.close ();
       }
+      if (parallelGzipCompressor != null) {
+	parallelGzipCompressor.finish ();
+      }
       
       if (nonAThresh > 0) {
 	if (pairedEnd) {
@@ -0,0 +1,132 @@
+/**File: FastqChunkWriter.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+
+
+/**********************************************************************************
+ *
+ *  Class FastqChunkWriter
+ *
+ *  Writes renamed fastq entries into chunk files with at most chunkSize entries;
+ *  the chunk files are named <base>-C<chunk number><suffix>.<fastq suffix>. If a
+ *  ParallelGzipCompressor is given, then the chunks are compressed by its worker
+ *  threads while the next entries are read.
+ *
+ **********************************************************************************/
+
+public class FastqChunkWriter {
+
+  private String outputFilename1Base       = null;
+  private String outputFilename1BaseSuffix = null;
+  private String outputFilename2Base       = null;
+  private String outputFilename2BaseSuffix = null;
+  private String fastqSuffix               = null;
+
+  private int     chunkSize = -1;
+  private int     readIndex = 1;
+  private boolean pairedEnd = false;
+
+  private PrintWriter fastqWriter1 = null;
+  private PrintWriter fastqWriter2 = null;
+
+  private ParallelGzipCompressor parallelGzipCompressor = null;
+
+  private Counter fragmentCounter = new Counter (9);
+  private Counter fileCounter     = new Counter (3);
+  private int     numEntries      = 0;
+
+  FastqChunkWriter (String outputFilename1Base, String outputFilename1BaseSuffix, String outputFilename2Base, String outputFilename2BaseSuffix,
+		    String fastqSuffix, int chunkSize, int readIndex, boolean pairedEnd, ParallelGzipCompressor parallelGzipCompressor) {
+    this.outputFilename1Base       = outputFilename1Base;
+    this.outputFilename1BaseSuffix = outputFilename1BaseSuffix;
+    this.outputFilename2Base       = outputFilename2Base;
+    this.outputFilename2BaseSuffix = outputFilename2BaseSuffix;
+    this.fastqSuffix               = fastqSuffix;
+    this.chunkSize                 = chunkSize;
+    this.readIndex                 = readIndex;
+    this.pairedEnd                 = pairedEnd;
+    this.parallelGzipCompressor    = parallelGzipCompressor;
+  }
+
+  public int getNumEntries () {
+    return numEntries;
+  }
+
+  public static PrintWriter getPrintWriter (String filename, ParallelGzipCompressor parallelGzipCompressor) throws IOException {
+
+    if (parallelGzipCompressor != null) {
+      return parallelGzipCompressor.getPrintWriter (filename);
+    }
+
+    return UtilLib.getPrintWriter (filename);
+
+  }
+
+  private void openChunk () throws IOException {
+
+    close ();
+
+    String fastqOutputFilename1 = outputFilename1Base + "-C" + fileCounter.getZeroFilledCount () + outputFilename1BaseSuffix + "." + fastqSuffix;
+    System.err.println ("Writing to file " + fastqOutputFilename1 + " (line: " + numEntries + ")");
+    System.err.flush();
+    fastqWriter1 = getPrintWriter (fastqOutputFilename1, parallelGzipCompressor);
+
+    if (pairedEnd) {
+      String fastqOutputFilename2 = outputFilename2Base + "-C" + fileCounter.getZeroFilledCount () + outputFilename2BaseSuffix + "." + fastqSuffix;
+      System.err.println ("Writing to file " + fastqOutputFilename2 + " (line: " + numEntries + ")");
+      fastqWriter2 = getPrintWriter (fastqOutputFilename2, parallelGzipCompressor);
+    }
+
+    fileCounter.inc();
+
+  }
+
+  /* Writes the entries with their multiplicity appended to the read ids */
+  public void write (FastqRecord fastqRecord1, FastqRecord fastqRecord2, int multiplicity) throws IOException {
+
+    if (numEntries == 0 || (chunkSize > 0 && numEntries % chunkSize == 0)) {
+      openChunk ();
+    }
+
+    String fragmentId = "@F" + fragmentCounter.getZeroFilledCount ();
+    fragmentCounter.inc();
+
+    fastqRecord1.write (fastqWriter1, fragmentId, readIndex, multiplicity);
+    if (pairedEnd) {
+      fastqRecord2.write (fastqWriter2, fragmentId, 3-readIndex, multiplicity);
+    }
+    numEntries++;
+
+  }
+
+  public void close () {
+
+    if (fastqWriter1 != null) {
+      fastqWriter1.close ();
+      fastqWriter1 = null;
+    }
+
+    if (fastqWriter2 != null) {
+      fastqWriter2.close ();
+      fastqWriter2 = null;
+    }
+
+  }
+
+}
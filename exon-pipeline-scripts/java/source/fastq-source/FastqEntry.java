@@ -115,6 +115,17 @@ public class FastqEntry {
   }
 
 
+  /* An entry without read id, e.g. read from a temporary file */
+  FastqEntry (String sequence, String qualities) {
+    this.sequence  = sequence;
+    this.qualities = qualities;
+    fullReadId = "";
+    readId     = "";
+    fragmentId = "";
+    readIndex  = 1;
+  }
+
+
   public String getReadId () {
     return readId;
   }
@@ -221,6 +232,35 @@ public class FastqEntry {
     
   }
 
+  /* The read id is followed by the multiplicity of the read as expected by FastqEntry (reader, true) */
+  public String toString (Counter fragmentCounter, int readIndex, int multiplicity) throws IOException {
+
+    fragmentId = "@F" + fragmentCounter.getZeroFilledCount ();
+    readId     = fragmentId + "/" + readIndex;
+    readMultiplicity = multiplicity;
+    fragmentCounter.inc();
+
+    return
+      readId + " " + multiplicity + "\n" + 
+      getSequence ()   + "\n" +
+      "+"              + "\n" +
+      getQualities ();
+    
+  }
+
+  public String toString (String fragmentId, int readIndex, int multiplicity) throws IOException {
+
+    this.fragmentId = fragmentId;
+    readId = fragmentId + "/" + readIndex;
+    readMultiplicity = multiplicity;
+    return
+      readId + " " + multiplicity + "\n" + 
+      getSequence ()   + "\n" +
+      "+"              + "\n" +
+      getQualities ();
+    
+  }
+
   public String toString (String fragmentId, int readIndex) throws IOException {
 
     this.fragmentId = fragmentId;
@@ -0,0 +1,358 @@
+/**File: FastqRecord.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.nio.charset.*;
+
+
+/**********************************************************************************
+ *
+ *  Class FastqRecord
+ *
+ *  A fastq (or fasta) entry held in byte arrays which are reused for the next
+ *  entry read into the record. The sequence is upper-cased when it is read and
+ *  the number of As and Ts is counted at the same time; the end of the read id
+ *  and of the fragment id (the read id without /1 or /2) are positions in the
+ *  header. Strings are only created on request.
+ *
+ **********************************************************************************/
+
+public class FastqRecord {
+
+  private byte [] header    = new byte [256];
+  private byte [] sequence  = new byte [256];
+  private byte [] qualities = new byte [256];
+
+  private int headerLength    = 0;
+  private int sequenceLength  = 0;
+  private int qualitiesLength = 0;
+
+  private int readIdLength     = 0;
+  private int fragmentIdLength = 0;
+
+  private int numAs = 0;
+  private int numTs = 0;
+
+  private int     readIndex        = 1;
+  private int     readMultiplicity = 1;
+  private boolean isFastaEntry     = false;
+
+  /* Buffer for the conversion of the bytes into characters for a writer */
+  private char [] charBuffer = new char [256];
+
+
+  /***********************************************************************************/
+
+  public int getSequenceLength () {
+    return sequenceLength;
+  }
+
+  public int getReadIndex () {
+    return readIndex;
+  }
+
+  public int getReadMultiplicity () {
+    return readMultiplicity;
+  }
+
+  public boolean isFastaEntry () {
+    return isFastaEntry;
+  }
+
+  public String getFullReadId () {
+    return new String (header, 0, headerLength, StandardCharsets.ISO_8859_1);
+  }
+
+  public String getReadId () {
+    return new String (header, 0, readIdLength, StandardCharsets.ISO_8859_1);
+  }
+
+  public String getFragmentId () {
+    return new String (header, 0, fragmentIdLength, StandardCharsets.ISO_8859_1);
+  }
+
+  public String getSequence () {
+    return new String (sequence, 0, sequenceLength, StandardCharsets.ISO_8859_1);
+  }
+
+  public String getQualities () {
+    return new String (qualities, 0, qualitiesLength, StandardCharsets.ISO_8859_1);
+  }
+
+  /* The first getSequenceLength () bytes are the sequence */
+  byte [] getSequenceBytes () {
+    return sequence;
+  }
+
+  /* The same as FastqEntry.getSequenceWithoutChar ("A").length () */
+  public int getNumNonAs () {
+    return sequenceLength - numAs;
+  }
+
+  public int getNumNonTs () {
+    return sequenceLength - numTs;
+  }
+
+  /* The criterion of option -a of ChangeFastqIdsAndSplit */
+  public boolean hasNonATs (int nonAThresh) {
+    return getNumNonAs () >= nonAThresh && getNumNonTs () >= nonAThresh;
+  }
+
+  public FastqEntry toFastqEntry () {
+    return new FastqEntry (getSequence (), getQualities ());
+  }
+
+
+  /***********************************************************************************
+   *
+   *  set: the methods used by FastqRecordReader to fill the record
+   *
+   ***********************************************************************************/
+
+  byte [] getHeaderBuffer (int length) {
+    if (header.length < length) {
+      header = Arrays.copyOf (header, Math.max (length, 2 * header.length));
+    }
+    return header;
+  }
+
+  byte [] getSequenceBuffer (int length) {
+    if (sequence.length < length) {
+      sequence = Arrays.copyOf (sequence, Math.max (length, 2 * sequence.length));
+    }
+    return sequence;
+  }
+
+  byte [] getQualitiesBuffer (int length) {
+    if (qualities.length < length) {
+      qualities = Arrays.copyOf (qualities, Math.max (length, 2 * qualities.length));
+    }
+    return qualities;
+  }
+
+  void setHeader (int headerLength, boolean extractReadMultiplicities) throws IOException {
+
+    this.headerLength = headerLength;
+
+    isFastaEntry = header[0] == '>';
+
+    readIdLength = 0;
+    while (readIdLength < headerLength && header[readIdLength] != ' ') {
+      readIdLength++;
+    }
+
+    readMultiplicity = 1;
+    if (extractReadMultiplicities) {
+      if (readIdLength == headerLength) {
+	throw new IOException ("ERROR: Fragment " + getFullReadId () + " does not contain a space separated field with read multiplicities.");
+      }
+      readMultiplicity = 0;
+      for (int i = readIdLength + 1; i < headerLength; i++) {
+	if (header[i] < '0' || header[i] > '9' || readMultiplicity > (Integer.MAX_VALUE - 9) / 10) {
+	  throw new IOException ("ERROR: Fragment " + getFullReadId () + " does not contain a number after the first space.");
+	}
+	readMultiplicity = 10 * readMultiplicity + (header[i] - '0');
+      }
+      if (readIdLength + 1 == headerLength) {
+	throw new IOException ("ERROR: Fragment " + getFullReadId () + " does not contain a number after the first space.");
+      }
+    }
+
+    readIndex = endsWithReadIndex (headerLength, '2')?2:1;
+
+    fragmentIdLength = readIdLength;
+    if (endsWithReadIndex (readIdLength, '1') || endsWithReadIndex (readIdLength, '2')) {
+      fragmentIdLength = readIdLength - 2;
+    }
+
+  }
+
+  private boolean endsWithReadIndex (int length, char index) {
+    return length >= 2 && header[length - 2] == '/' && header[length - 1] == index;
+  }
+
+  /* Upper-cases the sequence in place and counts its As and Ts */
+  void setSequence (int sequenceLength) {
+
+    this.sequenceLength = sequenceLength;
+
+    numAs = 0;
+    numTs = 0;
+    for (int i = 0; i < sequenceLength; i++) {
+      byte b = sequence[i];
+      if (b >= 'a' && b <= 'z') {
+	b -= 'a' - 'A';
+	sequence[i] = b;
+      }
+      if (b == 'A') {
+	numAs++;
+      } else if (b == 'T') {
+	numTs++;
+      }
+    }
+
+  }
+
+  void setQualities (int qualitiesLength) {
+    this.qualitiesLength = qualitiesLength;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  writeTo, readFrom: the sequence and qualities of the record in a temporary
+   *  file (see ReadPairCollapser); a record read from the file has no read id.
+   *  readFrom returns false at the end of the file.
+   *
+   ***********************************************************************************/
+
+  void writeTo (DataOutputStream outputStream) throws IOException {
+
+    outputStream.writeBoolean (isFastaEntry);
+    outputStream.writeInt (sequenceLength);
+    outputStream.write (sequence, 0, sequenceLength);
+    outputStream.writeInt (qualitiesLength);
+    outputStream.write (qualities, 0, qualitiesLength);
+
+  }
+
+  boolean readFrom (DataInputStream inputStream) throws IOException {
+
+    try {
+      isFastaEntry = inputStream.readBoolean ();
+    }
+    catch (EOFException e) {
+      return false;
+    }
+
+    headerLength     = 0;
+    readIdLength     = 0;
+    fragmentIdLength = 0;
+    readIndex        = 1;
+    readMultiplicity = 1;
+
+    int length = inputStream.readInt ();
+    inputStream.readFully (getSequenceBuffer (length), 0, length);
+    setSequence (length);
+
+    length = inputStream.readInt ();
+    inputStream.readFully (getQualitiesBuffer (length), 0, length);
+    setQualities (length);
+
+    return true;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  write: the counterparts of the toString methods of FastqEntry
+   *
+   ***********************************************************************************/
+
+  private void write (PrintWriter writer, byte [] bytes, int start, int length) {
+
+    if (charBuffer.length < length) {
+      charBuffer = new char [Math.max (length, 2 * charBuffer.length)];
+    }
+    for (int i = 0; i < length; i++) {
+      charBuffer[i] = (char) (bytes[start + i] & 0xff);
+    }
+    writer.write (charBuffer, 0, length);
+
+  }
+
+  private void writeSequenceAndQualities (PrintWriter writer, int sequenceLength, int qualitiesLength) {
+
+    write (writer, sequence, 0, sequenceLength);
+    if (! isFastaEntry) {
+      writer.write ("\n+\n");
+      write (writer, qualities, 0, qualitiesLength);
+    }
+    writer.println ();
+
+  }
+
+  /* The entry as read */
+  public void write (PrintWriter writer) {
+
+    write (writer, header, 0, headerLength);
+    writer.write ('\n');
+    writeSequenceAndQualities (writer, sequenceLength, qualitiesLength);
+
+  }
+
+  /* The entry with read id <fragment id>/<read index> */
+  public void write (PrintWriter writer, String fragmentId, int readIndex) {
+
+    writer.write (fragmentId);
+    writer.write ('/');
+    writer.write (Integer.toString (readIndex));
+    writer.write ('\n');
+    writeSequenceAndQualities (writer, sequenceLength, qualitiesLength);
+
+  }
+
+  /* The entry with read id <fragment id>/<read index> <multiplicity> as read by
+     FastqRecordReader (filename, true) */
+  public void write (PrintWriter writer, String fragmentId, int readIndex, int multiplicity) {
+
+    writer.write (fragmentId);
+    writer.write ('/');
+    writer.write (Integer.toString (readIndex));
+    writer.write (' ');
+    writer.write (Integer.toString (multiplicity));
+    writer.write ('\n');
+    writeSequenceAndQualities (writer, sequenceLength, qualitiesLength);
+
+  }
+
+  /* The entry with the sequence and qualities shortened to length */
+  public void write (PrintWriter writer, int length) throws IOException {
+
+    if (length > sequenceLength || (! isFastaEntry && length > qualitiesLength)) {
+      throw new IOException ("ERROR: Read " + getReadId () + " is shorter than " + length + ".");
+    }
+
+    write (writer, header, 0, headerLength);
+    writer.write ('\n');
+    writeSequenceAndQualities (writer, length, length);
+
+  }
+
+  /* The subsequences of the given length starting every inc bases */
+  public void write (PrintWriter writer, int length, int inc) {
+
+    boolean isFirst = true;
+    for (int start = 0; start + length < sequenceLength; start = start + inc) {
+      if (! isFirst) {
+	writer.write ('\n');
+      }
+      isFirst = false;
+      write (writer, header, 0, fragmentIdLength);
+      writer.write ("-" + start + "/" + readIndex + "\n");
+      write (writer, sequence, start, length);
+      writer.write ("\n+\n");
+      write (writer, qualities, start, length);
+    }
+    writer.println ();
+
+  }
+
+}
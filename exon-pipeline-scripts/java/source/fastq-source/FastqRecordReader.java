@@ -0,0 +1,222 @@
+/**File: FastqRecordReader.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.nio.charset.*;
+
+
+/**********************************************************************************
+ *
+ *  Class FastqRecordReader
+ *
+ *  Reads fastq entries from a byte stream into a FastqRecord without creating
+ *  strings; the lines are copied from the input buffer directly into the byte
+ *  arrays of the record.
+ *
+ **********************************************************************************/
+
+public class FastqRecordReader {
+
+  private static final int bufferSize = 1 << 16;
+
+  private InputStream inputStream = null;
+  private String      inputName   = null;
+  private boolean     extractReadMultiplicities = false;
+
+  private byte [] buffer   = new byte [bufferSize];
+  private int     position = 0;
+  private int     limit    = 0;
+  private boolean atEnd    = false;
+
+  private long numEntries = 0;
+
+
+  /***********************************************************************************
+   *
+   *                           Constructors
+   *
+   ***********************************************************************************/
+
+  FastqRecordReader (String filename, boolean extractReadMultiplicities) throws IOException {
+
+    this.inputStream = UtilLib.getInputStream (filename);
+    if (inputStream == null) {
+      throw new IOException ("ERROR: No fastq file given.");
+    }
+    this.inputName = filename.equals ("-")?"stdin":filename;
+    this.extractReadMultiplicities = extractReadMultiplicities;
+
+  }
+
+  FastqRecordReader (String filename) throws IOException {
+    this (filename, false);
+  }
+
+
+  public long getNumEntries () {
+    return numEntries;
+  }
+
+  public void close () throws IOException {
+    inputStream.close ();
+  }
+
+
+  /***********************************************************************************
+   *
+   *  fillBuffer: returns false if the end of the input is reached
+   *
+   ***********************************************************************************/
+
+  private boolean fillBuffer () throws IOException {
+
+    if (atEnd) {
+      return false;
+    }
+
+    limit    = inputStream.read (buffer, 0, buffer.length);
+    position = 0;
+    if (limit <= 0) {
+      limit = 0;
+      atEnd = true;
+      return false;
+    }
+
+    return true;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  readLine: the next line without line end is copied to the beginning of the
+   *  array returned by lineBuffer; returns the length of the line or -1 at the end
+   *  of the input.
+   *
+   ***********************************************************************************/
+
+  private static final int HEADER    = 0;
+  private static final int SEQUENCE  = 1;
+  private static final int SEPARATOR = 2;
+  private static final int QUALITIES = 3;
+
+  private byte [] separator = new byte [256];
+
+  private byte [] lineBuffer (FastqRecord record, int lineType, int length) {
+
+    switch (lineType) {
+    case HEADER:
+      return record.getHeaderBuffer (length);
+    case SEQUENCE:
+      return record.getSequenceBuffer (length);
+    case QUALITIES:
+      return record.getQualitiesBuffer (length);
+    default:
+      if (separator.length < length) {
+	separator = Arrays.copyOf (separator, Math.max (length, 2 * separator.length));
+      }
+      return separator;
+    }
+
+  }
+
+  private int readLine (FastqRecord record, int lineType) throws IOException {
+
+    if (position == limit && ! fillBuffer ()) {
+      return -1;
+    }
+
+    int length = 0;
+    while (true) {
+      int start = position;
+      while (position < limit && buffer[position] != '\n') {
+	position++;
+      }
+      int count = position - start;
+      byte [] line = lineBuffer (record, lineType, length + count);
+      System.arraycopy (buffer, start, line, length, count);
+      length += count;
+
+      if (position < limit) {
+	position++;
+	break;
+      }
+      if (! fillBuffer ()) {
+	break;
+      }
+    }
+
+    byte [] line = lineBuffer (record, lineType, length);
+    if (length > 0 && line[length - 1] == '\r') {
+      length--;
+    }
+
+    return length;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  next: reads the next entry into record; returns false at the end of the input
+   *
+   ***********************************************************************************/
+
+  public boolean next (FastqRecord record) throws IOException {
+
+    int headerLength = readLine (record, HEADER);
+    if (headerLength < 0) {
+      return false;
+    }
+
+    byte [] header = lineBuffer (record, HEADER, headerLength);
+    if (headerLength == 0 || (header[0] != '@' && header[0] != '>')) {
+      throw new IOException ("Read id not found in " + inputName + " for entry " + (numEntries + 1) + " instead: " +
+			     new String (header, 0, headerLength, StandardCharsets.ISO_8859_1));
+    }
+    record.setHeader (headerLength, extractReadMultiplicities);
+
+    int sequenceLength = readLine (record, SEQUENCE);
+    if (sequenceLength < 0) {
+      throw new IOException ("Sequence not found for the fastq entry of " + record.getFullReadId () + " in " + inputName);
+    }
+    record.setSequence (sequenceLength);
+
+    if (! record.isFastaEntry ()) {
+      int separatorLength = readLine (record, SEPARATOR);
+      if (separatorLength <= 0 || separator[0] != '+') {
+	throw new IOException ("Second read id not found for the fastq entry of " + record.getFullReadId () + " in " + inputName);
+      }
+
+      int qualitiesLength = readLine (record, QUALITIES);
+      if (qualitiesLength < 0) {
+	throw new IOException ("Qualities not found for the fastq entry of " + record.getFullReadId () + " in " + inputName);
+      }
+      record.setQualities (qualitiesLength);
+    } else {
+      record.setQualities (0);
+    }
+
+    numEntries++;
+
+    return true;
+
+  }
+
+}
@@ -52,12 +52,53 @@ public class FilterUnalignedFastqEntries {
       "-f <file name> -  name of the fastq input file with the reads (- for STDIN) [-]\n" + 
       "-w <file name> -  name of the read weight file with the number of alignments\n" +
       "                  for the reads\n" + 
+      "-m             -  load the fragment names of the read weight file into a compact\n" +
+      "                  index instead of merging the two files; the fastq file and the\n" +
+      "                  read weight file then need not be in the same order.\n" +
       "-o <file name> -  name of the output file (- for STDOUT) [-].\n" +
       "-h             -  help: display this information.");
   }
                                      
     
 
+  /***********************************************************************************
+   *
+   *  readFragmentNames: the (modified) fragment names of the read weight file
+   *
+   ***********************************************************************************/
+
+  private static FragmentNameSet readFragmentNames (BufferedReader weightReader) throws IOException {
+
+    FragmentNameSet fragmentNameSet = new FragmentNameSet ();
+
+    String line = weightReader.readLine ();
+    while (line != null) {
+      int tabIndex = line.indexOf ('\t');
+      fragmentNameSet.add (UtilLib.modifyFragmentId (tabIndex >= 0?line.substring (0, tabIndex):line));
+      line = weightReader.readLine ();
+    }
+    weightReader.close ();
+
+    fragmentNameSet.build ();
+
+    return fragmentNameSet;
+
+  }
+
+
+  /***********************************************************************************/
+
+  private static void writeFastqRecord (PrintWriter writer, FastqRecord fastqRecord, int length, int inc) {
+
+    if (length < 0) {
+      fastqRecord.write (writer);
+    } else {
+      fastqRecord.write (writer, length, inc);
+    }
+
+  }
+
+
   /***********************************************************************************/
 
  
@@ -74,8 +115,10 @@ public class FilterUnalignedFastqEntries {
 
       int inc    = 5;
       int length = -1;
+
+      boolean useFragmentNameIndex = false;
       
-      Getopt g = new Getopt("FilterUnalignedFastqEntries", args, "c:C:f:i:l:o:w:h");
+      Getopt g = new Getopt("FilterUnalignedFastqEntries", args, "c:C:f:i:l:mo:w:h");
 
       int c;
       String arg = "";
@@ -102,6 +145,9 @@ public class FilterUnalignedFastqEntries {
 	case 'l':
 	  length = Integer.parseInt(g.getOptarg());
 	  break;
+	case 'm':
+	  useFragmentNameIndex = true;
+	  break;
 	case 'o':
 	  arg = g.getOptarg();
 	  outputFilename = arg;
@@ -138,41 +184,51 @@ public class FilterUnalignedFastqEntries {
 	throw new Exception ("Please specify the input and output filenames of the Fastq files.");
       }
 
-      BufferedReader fastqReader  = UtilLib.getBufferedReader (inputFilename);
-      BufferedReader weightReader = UtilLib.getBufferedReader (readWeightFilename);
+      FastqRecordReader fastqReader  = new FastqRecordReader (inputFilename);
+      BufferedReader    weightReader = UtilLib.getBufferedReader (readWeightFilename);
 
       PrintWriter writer = UtilLib.getPrintWriter (outputFilename);
 
-      Hashtable<String, FragmentEntry> fragmentEntryTable = new Hashtable<String, FragmentEntry> ();
-      
       int countUnit = 1000 * 1000;
 
       try {
 
-	FastqEntry fastqEntry = new FastqEntry (fastqReader);
+	/* The record is reused for all entries */
+	FastqRecord fastqRecord = new FastqRecord ();
+
+	if (useFragmentNameIndex) {
+	  FragmentNameSet fragmentNameSet = readFragmentNames (weightReader);
+	  System.err.println (fragmentNameSet.getNumAddedNames () + " fragment names read from " + readWeightFilename + ".");
+	  while (fastqReader.next (fastqRecord)) {
+	    if (! fragmentNameSet.contains (UtilLib.modifyFragmentId (fastqRecord.getFragmentId ()))) {
+	      writeFastqRecord (writer, fastqRecord, length, inc);
+	    }
+	  }
+	  fastqReader.close ();
+	  writer.close ();
+	  return;
+	}
+
+	boolean hasEntry = fastqReader.next (fastqRecord);
 	
 	String        line               = weightReader.readLine ();
 	FragmentEntry fragmentEntry      = new FragmentEntry (line);
 	String        modifiedFragmentId = UtilLib.modifyFragmentId (fragmentEntry.getFragmentName ());
 
 	int i = 0;;
-	while (line != null) {
+	while (line != null && hasEntry) {
 
-	  if (modifiedFragmentId.equals(UtilLib.modifyFragmentId (fastqEntry.getFragmentId()))) {
+	  if (modifiedFragmentId.equals(UtilLib.modifyFragmentId (fastqRecord.getFragmentId()))) {
 	    line = weightReader.readLine ();
 	    if (line != null) {
 	      fragmentEntry      = new FragmentEntry (line);
 	      modifiedFragmentId = UtilLib.modifyFragmentId (fragmentEntry.getFragmentName ());
 	    }
 	  } else {
-	    if (length < 0) {
-	      writer.println (fastqEntry.toString ());
-	    } else {
-	      writer.println (fastqEntry.toString(length, inc));
-	    }
+	    writeFastqRecord (writer, fastqRecord, length, inc);
 	  }
 
-	  fastqEntry = new FastqEntry (fastqReader);
+	  hasEntry = fastqReader.next (fastqRecord);
 
 	  i++;
 	  if (i % countUnit == 0) {
@@ -181,16 +237,13 @@ public class FilterUnalignedFastqEntries {
 	  }
 	}
 
-	while (true) {
-	  fastqEntry = new FastqEntry (fastqReader);
+	while (hasEntry) {
+	  writeFastqRecord (writer, fastqRecord, length, inc);
 
-	  if (length < 0) {
-	    writer.println (fastqEntry.toString ());
-	  } else {
-	    writer.println (fastqEntry.toString(length, inc));
-	  }
-	  
+	  hasEntry = fastqReader.next (fastqRecord);
 	}
+
+	fastqReader.close ();
 	
       } catch (IOException e) {
 	
@@ -0,0 +1,614 @@
+/**File: ReadPairCollapser.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class ReadPairTable
+ *
+ *   An open addressing hash table which counts read pairs by a 128-bit hash of
+ *   their sequences. The table is stored off-heap in a direct buffer; each slot
+ *   consists of the two hash values and a value with the count in the lower 32
+ *   bits and the emitted flag in bit 32. A slot with value 0 is empty. The table
+ *   grows up to maxCapacity slots; a resize needs the old and the new slots.
+ *
+ ***********************************************************************************/
+
+class ReadPairTable {
+
+  private static final int  slotSize    = 3;
+  private static final long emittedFlag = 1L << 32;
+  private static final long countMask   = emittedFlag - 1;
+
+  /* A direct buffer holds at most 2GB */
+  private static final int  maxDirectCapacity = 1 << 26;
+
+  private LongBuffer slots       = null;
+  private int        capacity    = 0;
+  private int        maxCapacity = 0;
+  private int        size        = 0;
+
+  ReadPairTable (int initialCapacity, int maxCapacity) {
+
+    this.maxCapacity = maxCapacity;
+    capacity = 1024;
+    while (capacity < 2 * initialCapacity && capacity < maxCapacity) {
+      capacity = 2 * capacity;
+    }
+    slots = allocateSlots (capacity);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getMaxCapacity: the largest capacity such that the slots of a resize to it fit
+   *  into half of the maximum memory of the JVM (the direct memory of the JVM is
+   *  limited by the maximum heap size by default)
+   *
+   ***********************************************************************************/
+
+  public static int getMaxCapacity () {
+
+    long memory   = Runtime.getRuntime ().maxMemory () / 2;
+    int  capacity = 1024;
+    while (capacity < maxDirectCapacity && 3L * capacity * slotSize * 8 <= memory) {
+      capacity = 2 * capacity;
+    }
+
+    return capacity;
+
+  }
+
+  private static LongBuffer allocateSlots (int capacity) {
+    return ByteBuffer.allocateDirect (capacity * slotSize * 8).order (ByteOrder.nativeOrder ()).asLongBuffer ();
+  }
+
+  public int size () {
+    return size;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getSlot: the slot of (hash1, hash2) or the empty slot where it is to be inserted
+   *
+   ***********************************************************************************/
+
+  private int getSlot (long hash1, long hash2) {
+
+    int mask = capacity - 1;
+    int slot = (int) (hash2 ^ (hash2 >>> 32)) & mask;
+    while (true) {
+      int offset = slot * slotSize;
+      if (slots.get (offset + 2) == 0 || (slots.get (offset) == hash1 && slots.get (offset + 1) == hash2)) {
+	return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  add: increment the count of (hash1, hash2); false is returned if the table is
+   *  full, i.e. if it has reached maxCapacity and (hash1, hash2) would be a new entry.
+   *
+   ***********************************************************************************/
+
+  public boolean add (long hash1, long hash2) {
+
+    if (2 * (size + 1) > capacity) {
+      if (capacity >= maxCapacity) {
+	int offset = getSlot (hash1, hash2) * slotSize;
+	if (slots.get (offset + 2) == 0) {
+	  return false;
+	}
+	slots.put (offset + 2, slots.get (offset + 2) + 1);
+	return true;
+      }
+      resize ();
+    }
+
+    int offset = getSlot (hash1, hash2) * slotSize;
+    long value = slots.get (offset + 2);
+    if (value == 0) {
+      slots.put (offset,     hash1);
+      slots.put (offset + 1, hash2);
+      size++;
+    }
+    slots.put (offset + 2, value + 1);
+
+    return true;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  emit: returns the count of (hash1, hash2) if it is not yet emitted and 0
+   *  otherwise; the pair is marked as emitted.
+   *
+   ***********************************************************************************/
+
+  public int emit (long hash1, long hash2) {
+
+    int  offset = getSlot (hash1, hash2) * slotSize;
+    long value  = slots.get (offset + 2);
+    if (value == 0 || (value & emittedFlag) != 0) {
+      return 0;
+    }
+    slots.put (offset + 2, value | emittedFlag);
+
+    return (int) (value & countMask);
+
+  }
+
+
+  /***********************************************************************************/
+
+  private void resize () {
+
+    LongBuffer oldSlots    = slots;
+    int        oldCapacity = capacity;
+
+    capacity = 2 * capacity;
+    slots    = allocateSlots (capacity);
+    for (int i = 0; i < oldCapacity; i++) {
+      int  oldOffset = i * slotSize;
+      long value     = oldSlots.get (oldOffset + 2);
+      if (value != 0) {
+	long hash1  = oldSlots.get (oldOffset);
+	long hash2  = oldSlots.get (oldOffset + 1);
+	int  offset = getSlot (hash1, hash2) * slotSize;
+	slots.put (offset,     hash1);
+	slots.put (offset + 1, hash2);
+	slots.put (offset + 2, value);
+      }
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  hash: two independent 64-bit hashes of the sequences of a read pair; record2
+   *  is null for single reads
+   *
+   ***********************************************************************************/
+
+  static long mix (long h) {
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  public static long hash1 (FastqRecord record1, FastqRecord record2) {
+
+    byte [] sequence1 = record1.getSequenceBytes ();
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < record1.getSequenceLength (); i++) {
+      h = (h ^ (sequence1[i] & 0xff)) * 0x100000001b3L;
+    }
+    h = (h ^ 0x01) * 0x100000001b3L;
+    if (record2 != null) {
+      byte [] sequence2 = record2.getSequenceBytes ();
+      for (int i = 0; i < record2.getSequenceLength (); i++) {
+	h = (h ^ (sequence2[i] & 0xff)) * 0x100000001b3L;
+      }
+    }
+
+    return mix (h);
+
+  }
+
+  public static long hash2 (FastqRecord record1, FastqRecord record2) {
+
+    byte [] sequence1 = record1.getSequenceBytes ();
+    long h = 0x9e3779b97f4a7c15L;
+    for (int i = 0; i < record1.getSequenceLength (); i++) {
+      h = Long.rotateLeft ((h ^ (sequence1[i] & 0xff)) * 0xbf58476d1ce4e5b9L, 29);
+    }
+    h = Long.rotateLeft ((h ^ 0x01) * 0xbf58476d1ce4e5b9L, 29);
+    int sequenceLength2 = 0;
+    if (record2 != null) {
+      byte [] sequence2 = record2.getSequenceBytes ();
+      sequenceLength2 = record2.getSequenceLength ();
+      for (int i = 0; i < sequenceLength2; i++) {
+	h = Long.rotateLeft ((h ^ (sequence2[i] & 0xff)) * 0xbf58476d1ce4e5b9L, 29);
+      }
+    }
+
+    return mix (h ^ (record1.getSequenceLength () + 31L * sequenceLength2));
+
+  }
+
+}
+
+
+/***********************************************************************************
+ *
+ *                              Class ReadPairCollapser
+ *
+ *   Collapses identical reads (or read pairs) into one entry with a multiplicity.
+ *   The reads are counted in a ReadPairTable in a first pass and the first
+ *   occurrence of each read is written with its multiplicity in a second pass;
+ *   hence the order of the output follows the order of the input. If the input
+ *   is read from STDIN or more than one partition is requested, the reads are
+ *   first distributed by their hash values onto deflated temporary partition files
+ *   which are then collapsed one after the other; this bounds the size of the table
+ *   by the number of distinct reads of a partition. The output is then ordered by
+ *   partition.
+ *
+ *   The table is limited by the memory of the JVM (see ReadPairTable.getMaxCapacity).
+ *   If the distinct reads of the input or of a partition do not fit into the table,
+ *   the input or the partition is split into numSubPartitions partitions (by the
+ *   hash values mixed with the seed of the next level) before any of its reads is
+ *   written; a partition of level maxNumLevels is not split anymore.
+ *
+ ***********************************************************************************/
+
+public class ReadPairCollapser {
+
+  private static final int numSubPartitions = 16;
+
+  /* A partition of this level is not split anymore: 16^8 partitions are only exceeded by
+     a table which is far too small for the input */
+  private static final int maxNumLevels = 8;
+
+  private String  inputFilename1 = null;
+  private String  inputFilename2 = null;
+  private boolean pairedEnd      = false;
+  private int     nonAThresh     = 0;
+  private int     numPartitions  = 1;
+  private File    tempDir        = null;
+  private int     maxCapacity    = 0;
+
+  /* The records of the current read pair; they are reused for all read pairs */
+  private FastqRecord fastqRecord1 = new FastqRecord ();
+  private FastqRecord fastqRecord2 = null;
+
+  private long numReads         = 0;
+  private long numFilteredReads = 0;
+  private long numUniqueReads   = 0;
+
+
+  /***********************************************************************************
+   *
+   *                           Constructor
+   *
+   ***********************************************************************************/
+
+  ReadPairCollapser (String inputFilename1, String inputFilename2, int nonAThresh, int numPartitions, File tempDir) {
+
+    this.inputFilename1 = inputFilename1;
+    this.inputFilename2 = inputFilename2;
+    this.pairedEnd      = inputFilename2 != null && ! inputFilename2.equals ("");
+    this.nonAThresh     = nonAThresh;
+    this.numPartitions  = Math.max (numPartitions, 1);
+    this.tempDir        = tempDir;
+    this.maxCapacity    = ReadPairTable.getMaxCapacity ();
+    this.fastqRecord2   = pairedEnd?new FastqRecord ():null;
+
+  }
+
+  public long getNumReads () {
+    return numReads;
+  }
+
+  public long getNumFilteredReads () {
+    return numFilteredReads;
+  }
+
+  public long getNumUniqueReads () {
+    return numUniqueReads;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  passesFilter: both reads contain at least nonAThresh non-As and non-Ts
+   *
+   ***********************************************************************************/
+
+  private boolean passesFilter (FastqRecord fastqRecord1, FastqRecord fastqRecord2) {
+    return nonAThresh <= 0 || (fastqRecord1.hasNonATs (nonAThresh) && (fastqRecord2 == null || fastqRecord2.hasNonATs (nonAThresh)));
+  }
+
+
+  /***********************************************************************************
+   *
+   *  readReadPair: read the next read pair of the input files or of a partition file
+   *  into the records; false is returned at the end of the input. The records are
+   *  reused for all read pairs; fastqRecord2 is null for single reads.
+   *
+   ***********************************************************************************/
+
+  private boolean readReadPair (FastqRecordReader fastqReader1, FastqRecordReader fastqReader2, FastqRecord fastqRecord1,
+				FastqRecord fastqRecord2) throws IOException {
+
+    if (! fastqReader1.next (fastqRecord1)) {
+      return false;
+    }
+
+    if (pairedEnd && ! fastqReader2.next (fastqRecord2)) {
+      throw new IOException ("ERROR: " + inputFilename2 + " has fewer entries than " + inputFilename1 + ".");
+    }
+
+    return true;
+
+  }
+
+  private boolean readReadPair (DataInputStream partitionStream, FastqRecord fastqRecord1, FastqRecord fastqRecord2) throws IOException {
+    return fastqRecord1.readFrom (partitionStream) && (! pairedEnd || fastqRecord2.readFrom (partitionStream));
+  }
+
+  private void writeReadPair (DataOutputStream partitionStream, FastqRecord fastqRecord1, FastqRecord fastqRecord2) throws IOException {
+    fastqRecord1.writeTo (partitionStream);
+    if (pairedEnd) {
+      fastqRecord2.writeTo (partitionStream);
+    }
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getPartition: the partition of a read pair on level 0 (the input) or on a
+   *  level > 0 (a partition which is split); hash1 is mixed with a different seed
+   *  on each level so that the partitions of the levels are independent.
+   *
+   ***********************************************************************************/
+
+  private static int getPartition (long hash1, int level, int numPartitions) {
+    return (int) ((ReadPairTable.mix (hash1 + level * 0x9e3779b97f4a7c15L) >>> 1) % numPartitions);
+  }
+
+
+  /***********************************************************************************
+   *
+   *  collapse: write the distinct reads with their multiplicities to fastqChunkWriter
+   *
+   ***********************************************************************************/
+
+  public void collapse (FastqChunkWriter fastqChunkWriter) throws IOException {
+
+    if (numPartitions == 1 && ! inputFilename1.equals ("-") && (! pairedEnd || ! inputFilename2.equals ("-"))) {
+      if (collapseInputFiles (fastqChunkWriter)) {
+	return;
+      }
+      System.err.println ("More than " + (maxCapacity / 2) + " distinct reads - collapsing the reads in " + numSubPartitions + " partitions.");
+      numPartitions    = numSubPartitions;
+      numReads         = 0;
+      numFilteredReads = 0;
+    }
+
+    /* Distribute the reads onto the partition files */
+    File [] partitionFiles = createPartitionFiles (numPartitions);
+    DataOutputStream [] partitionStreams = getPartitionStreams (partitionFiles);
+
+    FastqRecordReader fastqReader1 = new FastqRecordReader (inputFilename1);
+    FastqRecordReader fastqReader2 = pairedEnd?new FastqRecordReader (inputFilename2):null;
+
+    while (readReadPair (fastqReader1, fastqReader2, fastqRecord1, fastqRecord2)) {
+      numReads++;
+      if (passesFilter (fastqRecord1, fastqRecord2)) {
+	int p = getPartition (ReadPairTable.hash1 (fastqRecord1, fastqRecord2), 0, numPartitions);
+	writeReadPair (partitionStreams[p], fastqRecord1, fastqRecord2);
+      } else {
+	numFilteredReads++;
+      }
+    }
+
+    fastqReader1.close ();
+    if (pairedEnd) {
+      fastqReader2.close ();
+    }
+
+    for (int p = 0; p < numPartitions; p++) {
+      partitionStreams[p].close ();
+    }
+
+    /* Collapse the partitions */
+    for (int p = 0; p < numPartitions; p++) {
+      collapsePartition (partitionFiles[p], 1, fastqChunkWriter);
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  Partition files: deflated files with the sequences and qualities of the reads
+   *
+   ***********************************************************************************/
+
+  private File [] createPartitionFiles (int numFiles) throws IOException {
+
+    File [] partitionFiles = new File [numFiles];
+    for (int p = 0; p < numFiles; p++) {
+      partitionFiles[p] = File.createTempFile ("fastq-partition-", ".deflate", tempDir);
+      partitionFiles[p].deleteOnExit ();
+    }
+
+    return partitionFiles;
+
+  }
+
+  private static DataOutputStream [] getPartitionStreams (File [] partitionFiles) throws IOException {
+
+    DataOutputStream [] partitionStreams = new DataOutputStream [partitionFiles.length];
+    for (int p = 0; p < partitionFiles.length; p++) {
+      partitionStreams[p] = new DataOutputStream (new BufferedOutputStream (new DeflaterOutputStream (new FileOutputStream (partitionFiles[p]),
+												    new Deflater (Deflater.BEST_SPEED), 1 << 16), 1 << 16));
+    }
+
+    return partitionStreams;
+
+  }
+
+  private static DataInputStream getPartitionStream (File partitionFile) throws IOException {
+    return new DataInputStream (new BufferedInputStream (new InflaterInputStream (new FileInputStream (partitionFile), new Inflater (), 1 << 16), 1 << 16));
+  }
+
+
+  /***********************************************************************************
+   *
+   *  collapsePartition: count the reads of the partition file and read it a second
+   *  time to write them; the partition is split into numSubPartitions partitions of
+   *  the next level if its distinct reads do not fit into the table.
+   *
+   ***********************************************************************************/
+
+  private void collapsePartition (File partitionFile, int level, FastqChunkWriter fastqChunkWriter) throws IOException {
+
+    ReadPairTable readPairTable = new ReadPairTable (1 << 16, maxCapacity);
+    for (int pass = 0; pass < 2; pass++) {
+      DataInputStream partitionStream = getPartitionStream (partitionFile);
+
+      while (readReadPair (partitionStream, fastqRecord1, fastqRecord2)) {
+	if (! processReadPair (readPairTable, pass, fastqChunkWriter)) {
+	  partitionStream.close ();
+	  splitPartition (partitionFile, level, fastqChunkWriter);
+	  return;
+	}
+      }
+      partitionStream.close ();
+    }
+
+    numUniqueReads += readPairTable.size ();
+    partitionFile.delete ();
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  splitPartition: distribute the reads of the partition file of level onto
+   *  numSubPartitions partition files of the next level and collapse them
+   *
+   ***********************************************************************************/
+
+  private void splitPartition (File partitionFile, int level, FastqChunkWriter fastqChunkWriter) throws IOException {
+
+    if (level >= maxNumLevels) {
+      throw new IOException ("ERROR: More than " + (maxCapacity / 2) + " distinct reads in a partition of level " + level +
+			     " - please increase the maximal heap size (java -mx).");
+    }
+
+    System.err.println ("More than " + (maxCapacity / 2) + " distinct reads in a partition of level " + level + " - splitting it into " +
+			numSubPartitions + " partitions.");
+
+    File [] partitionFiles = createPartitionFiles (numSubPartitions);
+    DataOutputStream [] partitionStreams = getPartitionStreams (partitionFiles);
+
+    DataInputStream partitionStream = getPartitionStream (partitionFile);
+    while (readReadPair (partitionStream, fastqRecord1, fastqRecord2)) {
+      int p = getPartition (ReadPairTable.hash1 (fastqRecord1, fastqRecord2), level, numSubPartitions);
+      writeReadPair (partitionStreams[p], fastqRecord1, fastqRecord2);
+    }
+    partitionStream.close ();
+    partitionFile.delete ();
+
+    for (int p = 0; p < numSubPartitions; p++) {
+      partitionStreams[p].close ();
+    }
+
+    for (int p = 0; p < numSubPartitions; p++) {
+      collapsePartition (partitionFiles[p], level + 1, fastqChunkWriter);
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  collapseInputFiles: count the reads of the input files and read them a second
+   *  time to write them; false is returned (and nothing is written) if the distinct
+   *  reads do not fit into the table.
+   *
+   ***********************************************************************************/
+
+  private boolean collapseInputFiles (FastqChunkWriter fastqChunkWriter) throws IOException {
+
+    ReadPairTable readPairTable = new ReadPairTable (1 << 20, maxCapacity);
+    for (int pass = 0; pass < 2; pass++) {
+      FastqRecordReader fastqReader1 = new FastqRecordReader (inputFilename1);
+      FastqRecordReader fastqReader2 = pairedEnd?new FastqRecordReader (inputFilename2):null;
+
+      boolean isFull = false;
+      while (! isFull && readReadPair (fastqReader1, fastqReader2, fastqRecord1, fastqRecord2)) {
+	if (passesFilter (fastqRecord1, fastqRecord2)) {
+	  isFull = ! processReadPair (readPairTable, pass, fastqChunkWriter);
+	} else if (pass == 0) {
+	  numFilteredReads++;
+	}
+	if (pass == 0) {
+	  numReads++;
+	}
+      }
+
+      fastqReader1.close ();
+      if (pairedEnd) {
+	fastqReader2.close ();
+      }
+
+      if (isFull) {
+	return false;
+      }
+    }
+
+    numUniqueReads = readPairTable.size ();
+
+    return true;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  processReadPair: count the read pair in the records in pass 0 and write its
+   *  first occurrence in pass 1; false is returned if the read pair does not fit
+   *  into the table
+   *
+   ***********************************************************************************/
+
+  private boolean processReadPair (ReadPairTable readPairTable, int pass, FastqChunkWriter fastqChunkWriter) throws IOException {
+
+    long hash1 = ReadPairTable.hash1 (fastqRecord1, fastqRecord2);
+    long hash2 = ReadPairTable.hash2 (fastqRecord1, fastqRecord2);
+
+    if (pass == 0) {
+      return readPairTable.add (hash1, hash2);
+    }
+
+    int multiplicity = readPairTable.emit (hash1, hash2);
+    if (multiplicity > 0) {
+      fastqChunkWriter.write (fastqRecord1, fastqRecord2, multiplicity);
+    }
+
+    return true;
+
+  }
+
+}
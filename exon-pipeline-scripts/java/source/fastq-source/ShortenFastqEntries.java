@@ -138,14 +138,14 @@ public class ShortenFastqEntries {
       }
 
       
-      BufferedReader fastqReader1 = null;
-      BufferedReader fastqReader2 = null;
-      PrintWriter    fastqWriter1 = null;
-      PrintWriter    fastqWriter2 = null;
+      FastqRecordReader fastqReader1 = null;
+      FastqRecordReader fastqReader2 = null;
+      PrintWriter       fastqWriter1 = null;
+      PrintWriter       fastqWriter2 = null;
 
-      fastqReader1 = UtilLib.getBufferedReader (inputFilename1);
+      fastqReader1 = new FastqRecordReader (inputFilename1);
       if (inputFilename2 != "") {
-	fastqReader2 = UtilLib.getBufferedReader (inputFilename2);
+	fastqReader2 = new FastqRecordReader (inputFilename2);
       }
       
       int countUnit = 1 * 1000 * 1000;
@@ -180,8 +180,9 @@ public class ShortenFastqEntries {
 	fastqSuffix = "fq";
       }
 
-      FastqEntry fastqEntry1 = null;
-      FastqEntry fastqEntry2 = null;
+      /* The records are reused for all entries */
+      FastqRecord fastqRecord1 = new FastqRecord ();
+      FastqRecord fastqRecord2 = new FastqRecord ();
 
       int i = 0;
       
@@ -201,13 +202,14 @@ public class ShortenFastqEntries {
 	  fastqWriter2 = UtilLib.getPrintWriter (fastqOutputFilename2);
 	}
 
-	while (true) {
+	while (fastqReader1.next (fastqRecord1)) {
 
-	  fastqEntry1 = new FastqEntry (fastqReader1);
-	  fastqWriter1.println (fastqEntry1.toString (readLength));
-	  if (inputFilename2 != "") {
-	    fastqEntry2 = new FastqEntry (fastqReader2);
-	    fastqWriter2.println (fastqEntry2.toString (readLength));
+	  fastqRecord1.write (fastqWriter1, readLength);
+	  if (fastqReader2 != null) {
+	    if (! fastqReader2.next (fastqRecord2)) {
+	      throw new IOException ("ERROR: " + inputFilename2 + " has fewer entries than " + inputFilename1 + ".");
+	    }
+	    fastqRecord2.write (fastqWriter2, readLength);
 	  }
 	      
 	  i++;
@@ -217,6 +219,13 @@ public class ShortenFastqEntries {
 
 	}
 
+	if (i >= countUnit) {
+	  System.err.println ();
+	}
+	fastqReader1.close ();
+	if (fastqReader2 != null) {
+	  fastqReader2.close ();
+	}
 	
       } catch (IOException e) {
 	
@@ -0,0 +1,392 @@
+/**File: BamWriter.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class BamWriter
+ *
+ *   Encodes SAM lines as BAM records and writes them to a BGZF compressed file;
+ *   this makes a separate "samtools view -bS" call unnecessary. The reference
+ *   sequences of the BAM header are given by their names and lengths (for instance,
+ *   as read from a fai file).
+ *
+ ***********************************************************************************/
+
+public class BamWriter {
+
+  private static final String cigarOperations = "MIDNSHP=X";
+  private static final String seqCharacters   = "=ACMGRSVTWYHKDBN";
+
+  private DataOutputStream outputStream = null;
+  private Hashtable<String, Integer> referenceIndexTable = null;
+
+  /* Buffer for the current record in little endian byte order */
+  private byte [] record = new byte [1024];
+  private int recordSize = 0;
+
+
+  /***********************************************************************************
+   *
+   *                           Constructor
+   *
+   ***********************************************************************************/
+
+  BamWriter (String filename, String samHeader, Vector<String> referenceNames, Vector<Integer> referenceLengths) throws IOException {
+
+    File outputFile = new File (UtilLib.getPath (filename));
+    if (outputFile.exists() && ! outputFile.canWrite()) {
+      throw new IOException ("Warning: file " + filename + " cannot be written to.");
+    }
+
+    if (filename.equals("-")) {
+      outputStream = new DataOutputStream (new BgzfOutputStream (new BufferedOutputStream (System.out)));
+    } else {
+      outputStream = new DataOutputStream (new BgzfOutputStream (new BufferedOutputStream (new FileOutputStream (outputFile))));
+    }
+
+    if (samHeader.equals("")) {
+      for (int i = 0; i < referenceNames.size(); i++) {
+	samHeader = samHeader + "@SQ\tSN:" + referenceNames.get(i) + "\tLN:" + referenceLengths.get(i) + "\n";
+      }
+    } else if (! samHeader.endsWith("\n")) {
+      samHeader = samHeader + "\n";
+    }
+
+    byte [] headerBytes = samHeader.getBytes ("US-ASCII");
+    outputStream.write (new byte [] {'B', 'A', 'M', 1});
+    writeInt32 (headerBytes.length);
+    outputStream.write (headerBytes);
+
+    writeInt32 (referenceNames.size());
+    referenceIndexTable = new Hashtable<String, Integer> (2 * referenceNames.size() + 1);
+    for (int i = 0; i < referenceNames.size(); i++) {
+      byte [] nameBytes = referenceNames.get(i).getBytes ("US-ASCII");
+      writeInt32 (nameBytes.length + 1);
+      outputStream.write (nameBytes);
+      outputStream.write (0);
+      writeInt32 (referenceLengths.get(i).intValue ());
+      referenceIndexTable.put(referenceNames.get(i), Integer.valueOf (i));
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  println: write one or more SAM lines separated by newlines; header and empty
+   *  lines are skipped
+   *
+   ***********************************************************************************/
+
+  public void println (String samLines) throws IOException {
+
+    int pos = 0;
+    while (pos < samLines.length()) {
+      int end = samLines.indexOf ('\n', pos);
+      if (end == -1) {
+	end = samLines.length();
+      }
+      int lineEnd = (end > pos && samLines.charAt(end - 1) == '\r')?end - 1:end;
+      if (lineEnd > pos && samLines.charAt(pos) != '@') {
+	writeSamLine (samLines.substring (pos, lineEnd));
+      }
+      pos = end + 1;
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           writeSamLine
+   *
+   ***********************************************************************************/
+
+  private void writeSamLine (String line) throws IOException {
+
+    String [] fields = line.split ("\t");
+    if (fields.length < 11) {
+      throw new IOException ("Too few fields in SAM line for BAM conversion: " + line);
+    }
+
+    String queryName = fields[0];
+    int flag         = UtilLib.toInt (fields[1]);
+    int referenceId  = getReferenceIndex (fields[2]);
+    int position     = UtilLib.toInt (fields[3]) - 1;
+    int mapQuality   = UtilLib.toInt (fields[4]);
+    String cigar     = fields[5];
+    int mateReferenceId = fields[6].equals("=")?referenceId:getReferenceIndex (fields[6]);
+    int matePosition = UtilLib.toInt (fields[7]) - 1;
+    int insertSize   = UtilLib.toInt (fields[8]);
+    String sequence  = fields[9].equals("*")?"":fields[9];
+    String qualities = fields[10];
+
+    /* Encode the CIGAR operations and compute the length on the reference */
+    Vector<int []> cigarFields = new Vector<int []> (10);
+    int referenceLength = 0;
+    if (! cigar.equals("*")) {
+      int length = 0;
+      for (int i = 0; i < cigar.length(); i++) {
+	char c = cigar.charAt(i);
+	if (c >= '0' && c <= '9') {
+	  length = 10 * length + (c - '0');
+	} else {
+	  int operation = cigarOperations.indexOf (c);
+	  if (operation < 0) {
+	    throw new IOException ("Unknown CIGAR operation " + c + " in: " + line);
+	  }
+	  int [] cigarField = {length, operation};
+	  cigarFields.add(cigarField);
+	  if (c == 'M' || c == 'D' || c == 'N' || c == '=' || c == 'X') {
+	    referenceLength += length;
+	  }
+	  length = 0;
+	}
+      }
+    }
+
+    int end = (referenceLength > 0)?position + referenceLength:position + 1;
+
+    recordSize = 0;
+    putInt32 (referenceId);
+    putInt32 (position);
+    putInt8  (queryName.length() + 1);
+    putInt8  (mapQuality);
+    putInt16 (reg2bin (position, end));
+    putInt16 (cigarFields.size());
+    putInt16 (flag);
+    putInt32 (sequence.length());
+    putInt32 (mateReferenceId);
+    putInt32 (matePosition);
+    putInt32 (insertSize);
+
+    putString (queryName);
+    putInt8 (0);
+
+    for (int [] cigarField: cigarFields) {
+      putInt32 ((cigarField[0] << 4) | cigarField[1]);
+    }
+
+    for (int i = 0; i < sequence.length(); i += 2) {
+      int high = getSeqCode (sequence.charAt(i));
+      int low  = (i + 1 < sequence.length())?getSeqCode (sequence.charAt(i + 1)):0;
+      putInt8 ((high << 4) | low);
+    }
+
+    if (qualities.equals("*")) {
+      for (int i = 0; i < sequence.length(); i++) {
+	putInt8 (0xff);
+      }
+    } else {
+      if (qualities.length() != sequence.length()) {
+	throw new IOException ("Sequence and quality string have different lengths in: " + line);
+      }
+      for (int i = 0; i < qualities.length(); i++) {
+	putInt8 (qualities.charAt(i) - 33);
+      }
+    }
+
+    for (int i = 11; i < fields.length; i++) {
+      if (! fields[i].equals("")) {
+	putOptionalField (fields[i]);
+      }
+    }
+
+    writeInt32 (recordSize);
+    outputStream.write (record, 0, recordSize);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  putOptionalField: encode a TAG:TYPE:VALUE field; integers are stored with the
+   *  smallest type that can hold them
+   *
+   ***********************************************************************************/
+
+  private void putOptionalField (String field) throws IOException {
+
+    if (field.length() < 5 || field.charAt(2) != ':' || field.charAt(4) != ':') {
+      throw new IOException ("Optional SAM field " + field + " is not of the form TAG:TYPE:VALUE.");
+    }
+
+    putInt8 (field.charAt(0));
+    putInt8 (field.charAt(1));
+    char type = field.charAt(3);
+    String value = field.substring(5);
+
+    if (type == 'A') {
+      putInt8 ('A');
+      putInt8 (value.charAt(0));
+    } else if (type == 'i') {
+      long intValue = Long.parseLong (value);
+      if (intValue < 0) {
+	if (intValue >= Byte.MIN_VALUE) {
+	  putInt8 ('c');
+	  putInt8 ((int) intValue);
+	} else if (intValue >= Short.MIN_VALUE) {
+	  putInt8 ('s');
+	  putInt16 ((int) intValue);
+	} else {
+	  putInt8 ('i');
+	  putInt32 ((int) intValue);
+	}
+      } else if (intValue <= 0xff) {
+	putInt8 ('C');
+	putInt8 ((int) intValue);
+      } else if (intValue <= 0xffff) {
+	putInt8 ('S');
+	putInt16 ((int) intValue);
+      } else {
+	putInt8 ('I');
+	putInt32 ((int) intValue);
+      }
+    } else if (type == 'f') {
+      putInt8 ('f');
+      putInt32 (Float.floatToIntBits (Float.parseFloat (value)));
+    } else if (type == 'Z' || type == 'H') {
+      putInt8 (type);
+      putString (value);
+      putInt8 (0);
+    } else if (type == 'B') {
+      String [] values = value.split (",");
+      char subType = values[0].charAt(0);
+      putInt8 ('B');
+      putInt8 (subType);
+      putInt32 (values.length - 1);
+      for (int i = 1; i < values.length; i++) {
+	if (subType == 'c' || subType == 'C') {
+	  putInt8 ((int) Long.parseLong (values[i]));
+	} else if (subType == 's' || subType == 'S') {
+	  putInt16 ((int) Long.parseLong (values[i]));
+	} else if (subType == 'i' || subType == 'I') {
+	  putInt32 ((int) Long.parseLong (values[i]));
+	} else if (subType == 'f') {
+	  putInt32 (Float.floatToIntBits (Float.parseFloat (values[i])));
+	} else {
+	  throw new IOException ("Unknown array type " + subType + " in optional SAM field " + field);
+	}
+      }
+    } else {
+      throw new IOException ("Unknown type " + type + " in optional SAM field " + field);
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  reg2bin: the BAI bin of the zero-based interval [beg, end) as given in the SAM
+   *  specification
+   *
+   ***********************************************************************************/
+
+  public static int reg2bin (int beg, int end) {
+
+    --end;
+    if (beg >> 14 == end >> 14) return ((1 << 15) - 1) / 7 + (beg >> 14);
+    if (beg >> 17 == end >> 17) return ((1 << 12) - 1) / 7 + (beg >> 17);
+    if (beg >> 20 == end >> 20) return ((1 <<  9) - 1) / 7 + (beg >> 20);
+    if (beg >> 23 == end >> 23) return ((1 <<  6) - 1) / 7 + (beg >> 23);
+    if (beg >> 26 == end >> 26) return ((1 <<  3) - 1) / 7 + (beg >> 26);
+    return 0;
+
+  }
+
+
+  /***********************************************************************************/
+
+  private int getReferenceIndex (String referenceName) throws IOException {
+
+    if (referenceName.equals("*")) {
+      return -1;
+    }
+
+    Integer referenceIndex = referenceIndexTable.get(referenceName);
+    if (referenceIndex == null) {
+      throw new IOException ("Reference " + referenceName + " not contained in the BAM header.");
+    }
+
+    return referenceIndex.intValue ();
+
+  }
+
+  private static int getSeqCode (char c) {
+    int code = seqCharacters.indexOf (Character.toUpperCase (c));
+    if (code < 0) {
+      return 15;
+    }
+    return code;
+  }
+
+
+  /***********************************************************************************
+   *
+   *                    Little endian output to the record buffer
+   *
+   ***********************************************************************************/
+
+  private void ensureCapacity (int size) {
+    if (recordSize + size > record.length) {
+      record = Arrays.copyOf (record, Math.max (2 * record.length, recordSize + size));
+    }
+  }
+
+  private void putInt8 (int value) {
+    ensureCapacity (1);
+    record[recordSize++] = (byte) value;
+  }
+
+  private void putInt16 (int value) {
+    ensureCapacity (2);
+    record[recordSize++] = (byte) value;
+    record[recordSize++] = (byte) (value >> 8);
+  }
+
+  private void putInt32 (int value) {
+    ensureCapacity (4);
+    record[recordSize++] = (byte) value;
+    record[recordSize++] = (byte) (value >> 8);
+    record[recordSize++] = (byte) (value >> 16);
+    record[recordSize++] = (byte) (value >> 24);
+  }
+
+  private void putString (String s) {
+    ensureCapacity (s.length());
+    for (int i = 0; i < s.length(); i++) {
+      record[recordSize++] = (byte) s.charAt(i);
+    }
+  }
+
+  private void writeInt32 (int value) throws IOException {
+    outputStream.writeInt (Integer.reverseBytes (value));
+  }
+
+
+  /***********************************************************************************/
+
+  public void close () throws IOException {
+    outputStream.close ();
+  }
+
+}
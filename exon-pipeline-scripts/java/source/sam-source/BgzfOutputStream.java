@@ -0,0 +1,173 @@
+/**File: BgzfOutputStream.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class BgzfOutputStream
+ *
+ *   Writes the BGZF format used by BAM files: a series of gzip members each of
+ *   which holds at most 64KB of uncompressed data and has the compressed block
+ *   size in the extra field BC. The stream is terminated by the empty BGZF block.
+ *
+ ***********************************************************************************/
+
+public class BgzfOutputStream extends OutputStream {
+
+  /* Maximal number of uncompressed bytes per block such that the compressed block fits into 64KB */
+  private static final int maxBlockInputSize = 0xff00;
+  private static final int blockHeaderSize   = 18;
+  private static final int blockFooterSize   = 8;
+
+  private static final byte [] emptyBlock = {
+    0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+    0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00
+  };
+
+  private OutputStream outputStream = null;
+  private Deflater deflater = null;
+  private CRC32 crc32 = new CRC32 ();
+
+  private byte [] inputBuffer  = new byte [maxBlockInputSize];
+  private byte [] outputBuffer = new byte [2 * maxBlockInputSize];
+  private int inputSize = 0;
+
+
+  /***********************************************************************************
+   *
+   *                           Constructors
+   *
+   ***********************************************************************************/
+
+  BgzfOutputStream (OutputStream outputStream, int compressionLevel) {
+    this.outputStream = outputStream;
+    this.deflater     = new Deflater (compressionLevel, true);
+  }
+
+  BgzfOutputStream (OutputStream outputStream) {
+    this (outputStream, Deflater.DEFAULT_COMPRESSION);
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           write
+   *
+   ***********************************************************************************/
+
+  public void write (int b) throws IOException {
+
+    if (inputSize == maxBlockInputSize) {
+      writeBlock ();
+    }
+    inputBuffer[inputSize++] = (byte) b;
+
+  }
+
+
+  public void write (byte [] b, int offset, int length) throws IOException {
+
+    while (length > 0) {
+      if (inputSize == maxBlockInputSize) {
+	writeBlock ();
+      }
+      int copyLength = Math.min (length, maxBlockInputSize - inputSize);
+      System.arraycopy (b, offset, inputBuffer, inputSize, copyLength);
+      inputSize += copyLength;
+      offset    += copyLength;
+      length    -= copyLength;
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  writeBlock: compress the buffered input into one BGZF block
+   *
+   ***********************************************************************************/
+
+  private void writeBlock () throws IOException {
+
+    if (inputSize == 0) {
+      return;
+    }
+
+    deflater.reset ();
+    deflater.setInput (inputBuffer, 0, inputSize);
+    deflater.finish ();
+    int compressedSize = 0;
+    while (! deflater.finished ()) {
+      compressedSize += deflater.deflate (outputBuffer, compressedSize, outputBuffer.length - compressedSize);
+    }
+
+    int blockSize = blockHeaderSize + compressedSize + blockFooterSize;
+    if (blockSize > 65536) {
+      throw new IOException ("BGZF block of size " + blockSize + " exceeds 64KB.");
+    }
+
+    crc32.reset ();
+    crc32.update (inputBuffer, 0, inputSize);
+
+    byte [] header = {
+      0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+      (byte) ((blockSize - 1) & 0xff), (byte) ((blockSize - 1) >> 8)
+    };
+    outputStream.write (header);
+    outputStream.write (outputBuffer, 0, compressedSize);
+    writeInt32 (outputStream, (int) crc32.getValue ());
+    writeInt32 (outputStream, inputSize);
+
+    inputSize = 0;
+
+  }
+
+
+  /***********************************************************************************/
+
+  private static void writeInt32 (OutputStream outputStream, int value) throws IOException {
+    outputStream.write (value & 0xff);
+    outputStream.write ((value >> 8) & 0xff);
+    outputStream.write ((value >> 16) & 0xff);
+    outputStream.write ((value >> 24) & 0xff);
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           flush and close
+   *
+   ***********************************************************************************/
+
+  public void flush () throws IOException {
+    writeBlock ();
+    outputStream.flush ();
+  }
+
+  public void close () throws IOException {
+    writeBlock ();
+    outputStream.write (emptyBlock);
+    outputStream.close ();
+    deflater.end ();
+  }
+
+}
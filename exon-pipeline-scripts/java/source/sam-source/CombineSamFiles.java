@@ -23,6 +23,337 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
+/***********************************************************************************
+ *
+ * 
+ *                           Class SamFragmentReader
+ *
+ *  Reads the SAM records of a SAM file fragment by fragment, i.e. it returns the
+ *  consecutive SAM records with the same fragment name.
+ *  
+ ***********************************************************************************/
+
+class SamFragmentReader {
+
+  private BufferedReader samReader   = null;
+  private String         samFilename = null;
+  private String         samLine     = null;
+  private int            lineNumber  = 0;
+
+  SamFragmentReader (String samFilename) throws IOException {
+
+    this.samFilename = samFilename;
+    samReader = UtilLib.getBufferedReader (samFilename);
+
+    samLine = samReader.readLine ();
+    lineNumber++;
+    while (samLine != null && samLine.startsWith ("@")) {
+      samLine = samReader.readLine ();
+      lineNumber++;
+    }
+    
+  }
+
+  public String getSamFilename () {
+    return samFilename;
+  }
+
+  public int getLineNumber () {
+    return lineNumber;
+  }
+
+  /* Returns null if the end of the file is reached */
+  public Vector<SamRecord> getSamRecords () throws IOException {
+
+    if (samLine == null) {
+      return null;
+    }
+
+    StageMetrics samMetrics = CombineSamFiles.getSamMetrics ();
+
+    Vector<SamRecord> samRecords = new Vector<SamRecord> ();
+    SamRecord samRecord = new SamRecord (samLine, lineNumber, samFilename);
+    String fragmentName = samRecord.getFragmentName ();
+    while (samRecord != null && samRecord.getFragmentName ().equals(fragmentName)) {
+      samRecords.add (samRecord);
+      samLine = samReader.readLine ();
+      lineNumber++;
+      samRecord = null;
+      if (samLine != null) {
+	samMetrics.addLine (samLine);
+	long parseStartTime = samMetrics.getStartTime ();
+	samRecord = new SamRecord (samLine, lineNumber, samFilename);
+	samMetrics.addParseTime (parseStartTime);
+      }
+    }
+
+    return samRecords;
+    
+  }
+
+  public void close () throws IOException {
+    samReader.close ();
+  }
+  
+}
+
+
+/***********************************************************************************
+ *
+ * 
+ *                           Class FragmentEntryBuffer
+ *
+ *  Retrieves the fragment entries of a read weight file for fragments that are
+ *  requested in increasing order. The read weight file needs to be in the order
+ *  of its SAM file: entries read before the requested one are stored for a later
+ *  request whereas the entries of smaller fragments are skipped. A stored entry
+ *  is only dropped once a larger fragment is requested; if the stored entries
+ *  need more than maxStoredBytes, an exception is thrown.
+ *
+ *  In validation mode the read weight file is checked: sorted by fragment name
+ *  for the merge join, or with the reorder buffer (windowed) every entry must be
+ *  requested exactly once, i.e. the read weight file holds the mapped fragments
+ *  of its SAM file within the window.
+ *  
+ ***********************************************************************************/
+
+class FragmentEntryBuffer {
+
+  /* The estimated memory of a stored entry in addition to the characters of its line */
+  private static final int storedEntryOverhead = 256;
+
+  private BufferedReader weightReader        = null;
+  private String         weightFilename      = null;
+  private long           maxStoredBytes      = 0;
+  private boolean        windowed            = false;
+  private boolean        validate            = false;
+  private int            lineNumber          = 0;
+
+  private FragmentEntry  lastFragmentEntry   = null;
+  private long           storedBytes         = 0;
+
+  private PriorityQueue<FragmentEntry> fragmentEntryQueue = new PriorityQueue<FragmentEntry> ();
+  private Hashtable<String, String>    weightLineTable    = new Hashtable<String, String> ();
+
+  FragmentEntryBuffer (String weightFilename, long maxStoredBytes, boolean windowed, boolean validate) throws IOException {
+    this.weightFilename = weightFilename;
+    this.maxStoredBytes = maxStoredBytes;
+    this.windowed       = windowed;
+    this.validate       = validate;
+    weightReader = UtilLib.getBufferedReader (weightFilename);
+  }
+
+  public String getWeightFilename () {
+    return weightFilename;
+  }
+
+  public String getFragmentEntryLine (String fragmentName) throws IOException {
+
+    long fragmentKey = FragmentNameKey.getKey (fragmentName);
+
+    /* Entries of fragments smaller than fragmentName are no longer requested */
+    while (fragmentEntryQueue.size () > 0) {
+      FragmentEntry minFragmentEntry = fragmentEntryQueue.peek ();
+      if (FragmentNameKey.compare (minFragmentEntry.getFragmentName (), minFragmentEntry.getFragmentKey (), fragmentName, fragmentKey) >= 0) {
+	break;
+      }
+      fragmentEntryQueue.poll ();
+      removeFragmentEntry (minFragmentEntry);
+      if (validate && windowed) {
+	throw new IOException ("ERROR: Fragment " + minFragmentEntry.getFragmentName () + " of read weight file " + weightFilename +
+			       " is not requested - it is not a mapped fragment of the SAM file or it is displaced by the window size or more.");
+      }
+    }
+
+    String weightLine = null;
+    if (fragmentEntryQueue.size () > 0 && fragmentEntryQueue.peek ().getFragmentName ().equals (fragmentName)) {
+      weightLine = removeFragmentEntry (fragmentEntryQueue.poll ());
+    }
+    
+    while (weightLine == null) {
+      String line = weightReader.readLine ();
+      if (line == null) {
+	throw new IOException ("ERROR: No fragment entry corresponding to fragment " + fragmentName + " found in " + weightFilename);
+      }
+      lineNumber++;
+
+      FragmentEntry fragmentEntry = new FragmentEntry (line);
+      String weightFragmentName   = fragmentEntry.getFragmentName ();
+      if (validate && ! windowed && lastFragmentEntry != null) {
+	FragmentNameKey.checkOrder (lastFragmentEntry.getFragmentName (), lastFragmentEntry.getFragmentKey (), weightFragmentName,
+				    fragmentEntry.getFragmentKey (), "Read weight file " + weightFilename, lineNumber);
+      }
+      lastFragmentEntry = fragmentEntry;
+	
+      if (weightFragmentName.equals (fragmentName)) {
+	weightLine = line;
+      } else if (FragmentNameKey.compare (weightFragmentName, fragmentEntry.getFragmentKey (), fragmentName, fragmentKey) > 0) {
+	storeFragmentEntry (fragmentEntry, line, fragmentName);
+      } else if (validate && windowed) {
+	throw new IOException ("ERROR: Fragment " + weightFragmentName + " in line " + lineNumber + " of read weight file " + weightFilename +
+			       " is not requested - it is not a mapped fragment of the SAM file or it is displaced by the window size or more.");
+      }
+    }
+
+    return weightLine;
+    
+  }
+
+  private void storeFragmentEntry (FragmentEntry fragmentEntry, String line, String fragmentName) throws IOException {
+
+    if (weightLineTable.containsKey (fragmentEntry.getFragmentName ())) {
+      if (! validate) {
+	return;
+      }
+      throw new IOException ("ERROR: Duplicate fragment " + fragmentEntry.getFragmentName () + " in line " + lineNumber + " of read weight file " +
+			     weightFilename);
+    }
+
+    storedBytes += storedEntryOverhead + 2 * line.length ();
+    if (storedBytes > maxStoredBytes) {
+      throw new IOException ("ERROR: The read weight entries of " + weightFilename + " which are read before fragment " + fragmentName +
+			     " need more than " + String.format ("%.1f", maxStoredBytes / 1048576.0) + " MB (a quarter of the maximal heap size shared by the read weight files).\n" +
+			     "The read weight file is not in the order of its SAM file (within the window of option -b) or the maximal\n" +
+			     "heap size (java -mx) is too small.");
+    }
+
+    weightLineTable.put (fragmentEntry.getFragmentName (), line);
+    fragmentEntryQueue.add (fragmentEntry);
+    
+  }
+
+  private String removeFragmentEntry (FragmentEntry fragmentEntry) throws IOException {
+
+    String line = weightLineTable.remove (fragmentEntry.getFragmentName ());
+    storedBytes -= storedEntryOverhead + 2 * line.length ();
+
+    return line;
+
+  }
+
+  public FragmentEntry getFragmentEntry (String fragmentName) throws IOException {
+    return new FragmentEntry (getFragmentEntryLine (fragmentName));
+  }
+
+  public int size () {
+    return weightLineTable.size ();
+  }
+  
+  public void close () throws IOException {
+
+    if (validate && windowed) {
+      FragmentEntry fragmentEntry = fragmentEntryQueue.peek ();
+      String line = weightReader.readLine ();
+      if (fragmentEntry != null || line != null) {
+	throw new IOException ("ERROR: Fragment " + (fragmentEntry != null?fragmentEntry.getFragmentName ():new FragmentEntry (line).getFragmentName ()) +
+			       " of read weight file " + weightFilename + " is not requested - it is not a mapped fragment of the SAM file.");
+      }
+    }
+
+    weightReader.close ();
+
+  }
+  
+}
+
+
+/***********************************************************************************
+ *
+ * 
+ *                           Class PendingSamFragment
+ *
+ *  The SAM records of a fragment from the different input files that are kept in
+ *  the reorder buffer of CombineSamFiles until the fragment is complete.
+ *  
+ ***********************************************************************************/
+
+class PendingSamFragment implements Comparable<PendingSamFragment> {
+
+  private String fragmentName = null;
+  private long   fragmentKey  = FragmentNameKey.noKey;
+
+  private Vector<Vector<SamRecord>> samRecordsVector = null;
+
+  /* The number of fragments read from each input when the fragment was first read */
+  private int [] arrivalCounts = null;
+  
+  PendingSamFragment (String fragmentName, long fragmentKey, int [] numFragmentsRead) {
+    this.fragmentName  = fragmentName;
+    this.fragmentKey   = fragmentKey;
+    this.arrivalCounts = numFragmentsRead.clone ();
+    samRecordsVector   = new Vector<Vector<SamRecord>> (numFragmentsRead.length);
+    for (int i = 0; i < numFragmentsRead.length; i++) {
+      samRecordsVector.add (null);
+    }
+  }
+
+  public String getFragmentName () {
+    return fragmentName;
+  }
+
+  public long getFragmentKey () {
+    return fragmentKey;
+  }
+
+  public Vector<SamRecord> getSamRecords (int i) {
+    return samRecordsVector.get(i);
+  }
+
+  public void setSamRecords (int i, Vector<SamRecord> samRecords) {
+    samRecordsVector.set(i, samRecords);
+  }
+
+  public int getArrivalCount (int i) {
+    return arrivalCounts[i];
+  }
+
+  public int compareTo (PendingSamFragment p) {
+    return FragmentNameKey.compare (fragmentName, fragmentKey, p.getFragmentName (), p.getFragmentKey ());
+  }
+  
+}
+
+
+/***********************************************************************************
+ *
+ * 
+ *                           Class SamCombinationStage
+ *
+ *  One step of the combination of several SAM files: the combination of the first
+ *  SAM files is combined with the next SAM file. The stage holds the names of the
+ *  two inputs and the number of selected records.
+ *  
+ ***********************************************************************************/
+
+class SamCombinationStage {
+
+  String samFilename1        = null;
+  String samFilename2        = null;
+  String readWeightFilename1 = null;
+  String readWeightFilename2 = null;
+
+  int numSelectedMappedFrag1 = 0;
+  int numSelected1           = 0;
+  int numTotal1              = 0;
+  int numSelectedMappedFrag2 = 0;
+  int numSelected2           = 0;
+  int numTotal2              = 0;
+
+  SamCombinationStage (String samFilename1, String samFilename2, String readWeightFilename1, String readWeightFilename2) {
+    this.samFilename1        = samFilename1;
+    this.samFilename2        = samFilename2;
+    this.readWeightFilename1 = readWeightFilename1;
+    this.readWeightFilename2 = readWeightFilename2;
+  }
+
+  public void printStatistics () {
+    System.err.println(numSelected1 + " records of " + numTotal1 + " records selected from file " + samFilename1);
+    System.err.println(numSelected2 + " records of " + numTotal2 + " records selected from file " + samFilename2);
+  }
+  
+}
+
+
 /***********************************************************************************
  *
  * 
@@ -57,10 +388,29 @@ public class CombineSamFiles {
   private static int numOutput = 0;
   private static int numFragmentEntries = 0;
 
+  /* The slack constant of CombineReadWeightFiles which is used to combine the read weights of several SAM files */
+  private static final double readWeightDistanceSlack = 0.25;
+
+  /* The read weight entries that are stored for a later fragment by the FragmentEntryBuffers may use
+     a quarter of the maximal heap size */
+  private static final int storedFragmentEntriesHeapFraction = 4;
+
+  /* The last fragment entry read from each weight reader; only used in validation mode (option -V) */
+
+  private static Hashtable<BufferedReader, FragmentEntry> lastFragmentEntryTable = new Hashtable<BufferedReader, FragmentEntry> ();
+
+  /* The metrics of the reading of the SAM files and of the combination of the fragments (option -X) */
+  private static StageMetrics samMetrics      = PipelineMetrics.getStage ("CombineSamFiles SAM");
+  private static StageMetrics fragmentMetrics = PipelineMetrics.getStage ("CombineSamFiles fragments");
+
   public static void setDebugLevel (int value) {
     debugLevel = value;
   }
 
+  static StageMetrics getSamMetrics () {
+    return samMetrics;
+  }
+
 
   public static void setSamReader1 (BufferedReader samReader) {
     samReader1 = samReader;
@@ -123,6 +473,7 @@ public class CombineSamFiles {
 	samLine = samReader.readLine ();
 	counter++;
       }
+      samMetrics.addLine (samLine);
       samRecord = new SamRecord (samLine, counter, samFilename);
       // System.err.println("SAM record: " + samRecord.getFragmentName() + " read.");
     }
@@ -150,7 +501,10 @@ public class CombineSamFiles {
 	  System.err.println("Reading: " + samLine);
 	}
 	if (samLine != null) {
+	  samMetrics.addLine (samLine);
+	  long parseStartTime = samMetrics.getStartTime ();
 	  samRecord = new SamRecord (samLine, counter, samFilename);
+	  samMetrics.addParseTime (parseStartTime);
 	  // System.err.println("SAM record: " + samRecord.getFragmentName() + " read.");
 	} else {
 	  samRecord = null;
@@ -188,9 +542,10 @@ public class CombineSamFiles {
 	throw new IOException ("ERROR: Null elements in SAM record collections: " + samRecords + " and " + oldSamRecords);
       }
 
-      if (getCompValue(samRecords, oldSamRecords) < 0) {
-	throw new IOException ("ERROR: SAM records out of order " + samRecords.firstElement().getFragmentName() + " and " + oldSamRecords.firstElement().getFragmentName());	
-      }
+      SamRecord oldSamRecord = oldSamRecords.firstElement();
+      SamRecord samRecord    = samRecords.firstElement();
+      FragmentNameKey.checkOrder (oldSamRecord.getFragmentName(), oldSamRecord.getFragmentKey(), samRecord.getFragmentName(), samRecord.getFragmentKey(),
+				  "SAM file " + selectSamFilename (samReader), selectSamCounter (samReader) - samRecords.size() + 1);
       
     }
 
@@ -201,15 +556,16 @@ public class CombineSamFiles {
 
   /***********************************************************************************
    * 
-   *                           printSamRecordsSingleRead
+   *  selectSamRecordsSingleRead: add the SAM records of read readIndex to
+   *  selectedSamRecords
    *
    ***********************************************************************************/
 
-  public static void printSamRecordsSingleRead (PrintWriter outputWriter, String fragmentName, Vector<SamRecord> samRecords,
-						FragmentEntry fragmentEntry, int distanceThreshold, int readIndex,
-						PrintWriter outputWeightWriter) throws IOException {
+  private static void selectSamRecordsSingleRead (Vector<SamRecord> selectedSamRecords, String fragmentName, Vector<SamRecord> samRecords,
+						  FragmentEntry fragmentEntry, int distanceThreshold, int readIndex,
+						  PrintWriter outputWeightWriter) throws IOException {
 
-    if (samRecords == null || outputWriter == null) {
+    if (samRecords == null) {
       return;
     }
 
@@ -219,7 +575,7 @@ public class CombineSamFiles {
       if (samRecord.getReadIndex () == readIndex &&
 	  (distanceThreshold == -1 || samRecord.getEditDistance () <= distanceThreshold)) {
 	samRecordPrinted = true;
-	outputWriter.println (samRecord.toString ());
+	selectedSamRecords.add (samRecord);
       }
     }
 
@@ -244,6 +600,29 @@ public class CombineSamFiles {
       return;
     }
 
+    Vector<SamRecord> selectedSamRecords = new Vector<SamRecord> (samRecords.size ());
+    selectSamRecords (selectedSamRecords, fragmentName, samRecords, fragmentEntry, distanceThreshold, outputWeightWriter);
+    for (SamRecord samRecord: selectedSamRecords) {
+      outputWriter.println (samRecord.toString ());
+    }
+
+  }
+
+
+  /***********************************************************************************
+   * 
+   *  selectSamRecords: add the SAM records of a fragment whose edit distance is at
+   *  most distanceThreshold to selectedSamRecords
+   *
+   ***********************************************************************************/
+
+  private static void selectSamRecords (Vector<SamRecord> selectedSamRecords, String fragmentName, Vector<SamRecord> samRecords,
+					FragmentEntry fragmentEntry, int distanceThreshold, PrintWriter outputWeightWriter) throws IOException {
+
+    if (samRecords == null) {
+      return;
+    }
+
     boolean samRecordPrinted1 = false;
     boolean samRecordPrinted2 = false;
 
@@ -256,8 +635,8 @@ public class CombineSamFiles {
 	if (distanceThreshold == -1 || (samRecord.getEditDistance () + mateSamRecord.getEditDistance ()) / 2 <= distanceThreshold) {
 	  samRecordPrinted1 = true;
 	  samRecordPrinted2 = true;
-	  outputWriter.println (samRecord.toString ());
-	  outputWriter.println (mateSamRecord.toString ());
+	  selectedSamRecords.add (samRecord);
+	  selectedSamRecords.add (mateSamRecord);
 	}
       } else {
 	if (distanceThreshold == -1 || samRecord.getEditDistance () <= distanceThreshold) {
@@ -268,7 +647,7 @@ public class CombineSamFiles {
 	  } else {
 	    throw new IOException ("ERROR: Sam record not paired end and readIndex != 1 and 2: " + samRecord.toString ());
 	  }
-	  outputWriter.println (samRecord.toString ());
+	  selectedSamRecords.add (samRecord);
 	}
       }
     }
@@ -283,15 +662,17 @@ public class CombineSamFiles {
 
   /***********************************************************************************
    * 
-   *                           printSamRecords
+   *  selectSamRecords: add the SAM records of a fragment to selectedSamRecords
+   *  preferring samRecords1; the other read of a single read alignment in
+   *  samRecords1 is taken from samRecords2
    *
    ***********************************************************************************/
 
-  public static void printSamRecords (PrintWriter outputWriter, String fragmentName, Vector<SamRecord> samRecords1,
-				       Vector<SamRecord> samRecords2, FragmentEntry fragmentEntry1, FragmentEntry fragmentEntry2,
-				       int distanceThreshold, String samFilename1, String samFilename2, PrintWriter outputWeightWriter) throws IOException {
+  private static void selectSamRecords (Vector<SamRecord> selectedSamRecords, String fragmentName, Vector<SamRecord> samRecords1,
+					Vector<SamRecord> samRecords2, FragmentEntry fragmentEntry1, FragmentEntry fragmentEntry2,
+					int distanceThreshold, String samFilename1, String samFilename2, PrintWriter outputWeightWriter) throws IOException {
 
-    if (samRecords1 == null || outputWriter == null) {
+    if (samRecords1 == null) {
       return;
     }
 
@@ -300,19 +681,19 @@ public class CombineSamFiles {
     }
     
     if (fragmentEntry1.hasMate ()) {
-      printSamRecords (outputWriter, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
       return;
     }
 
     if (fragmentEntry2.hasMate ()) {
-      printSamRecords (outputWriter, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
       return;
     }
 
     String readIndices1 = getReadIndexSet (samRecords1);
 
     if (readIndices1.indexOf ("1") >= 0 && readIndices1.indexOf ("2") >= 0) {
-      printSamRecords (outputWriter, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
       return;
     }
 
@@ -328,8 +709,8 @@ public class CombineSamFiles {
 	fragmentEntry1.add(fragmentEntry2);
       }
 
-      printSamRecordsSingleRead (outputWriter, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, 1, outputWeightWriter);
-      printSamRecordsSingleRead (outputWriter, fragmentName, samRecords2, null, distanceThreshold, 2, outputWeightWriter);
+      selectSamRecordsSingleRead (selectedSamRecords, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, 1, outputWeightWriter);
+      selectSamRecordsSingleRead (selectedSamRecords, fragmentName, samRecords2, null, distanceThreshold, 2, outputWeightWriter);
       return;
     }
 
@@ -343,8 +724,8 @@ public class CombineSamFiles {
 	fragmentEntry1.add(fragmentEntry2);
       }
 
-      printSamRecordsSingleRead (outputWriter, fragmentName, samRecords2, null, distanceThreshold, 1, outputWeightWriter);
-      printSamRecordsSingleRead (outputWriter, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, 2, outputWeightWriter);
+      selectSamRecordsSingleRead (selectedSamRecords, fragmentName, samRecords2, null, distanceThreshold, 1, outputWeightWriter);
+      selectSamRecordsSingleRead (selectedSamRecords, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, 2, outputWeightWriter);
       return;
     }
 
@@ -354,6 +735,66 @@ public class CombineSamFiles {
   }
   
 
+  /***********************************************************************************
+   * 
+   *  selectBetterSamRecords: add the SAM records of a fragment that is mapped in
+   *  both files to selectedSamRecords; returns the index (1 or 2) of the selected
+   *  file
+   *
+   ***********************************************************************************/
+
+  private static int selectBetterSamRecords (Vector<SamRecord> selectedSamRecords, String fragmentName, Vector<SamRecord> samRecords1,
+					     Vector<SamRecord> samRecords2, FragmentEntry fragmentEntry1, FragmentEntry fragmentEntry2,
+					     int distanceThreshold, double distanceSlack, String samFilename1, String samFilename2,
+					     String readWeightFilename1, String readWeightFilename2, PrintWriter outputWeightWriter) throws IOException {
+
+    if (fragmentEntry2 == null) {
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
+      return 1;
+    }
+
+    if (fragmentEntry1 == null) {
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
+      return 2;
+    }
+
+    int compMultiplicity = fragmentEntry1.compareMultiplicity (fragmentEntry2);
+
+    /* Note that compMultiplicity is non-zero if and only if the multiplicity of exactly one of the two fragmentEntries
+       is two. */
+    if (compMultiplicity == 1) {
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
+      return 1;
+    }
+
+    if (compMultiplicity == -1) {
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
+      return 2;
+    }
+
+    if (fragmentEntry1.getEditDistance () < 0) {
+      throw new IOException ("ERROR: No edit distance for " + fragmentName + " in " + readWeightFilename1 + " given.");
+    }
+
+    if (fragmentEntry2.getEditDistance () < 0) {
+      throw new IOException ("ERROR: No edit distance for " + fragmentName + " in " + readWeightFilename2 + " given.");
+    }
+
+    int compDist = fragmentEntry1.compareEditDistance (fragmentEntry2, distanceSlack);
+
+    if (compDist == 1) {	      
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords1, samRecords2, fragmentEntry1, fragmentEntry2,
+			distanceThreshold, samFilename1, samFilename2, outputWeightWriter);
+      return 1;
+    }
+
+    selectSamRecords (selectedSamRecords, fragmentName, samRecords2, samRecords1, fragmentEntry2, fragmentEntry1,
+		      distanceThreshold, samFilename2, samFilename1, outputWeightWriter);
+    return 2;
+    
+  }
+
+
   /***********************************************************************************
    * 
    *                           getFragmentEntry
@@ -374,14 +815,17 @@ public class CombineSamFiles {
       return null;
     }
     
+    long fragmentKey = FragmentNameKey.getKey (fragmentName);
     FragmentEntry fragmentEntry   = new FragmentEntry (line);
     String fragmentNameFromReader = fragmentEntry.getFragmentName ();
-    while (line != null && fragmentName.compareTo(fragmentNameFromReader) > 0) {
+    checkFragmentEntryOrder (weightReader, fragmentEntry);
+    while (line != null && FragmentNameKey.compare (fragmentName, fragmentKey, fragmentNameFromReader, fragmentEntry.getFragmentKey ()) > 0) {
 
       line = weightReader.readLine ();
       if (line != null) {
 	fragmentEntry = new FragmentEntry (line);
 	fragmentNameFromReader = fragmentEntry.getFragmentName ();
+	checkFragmentEntryOrder (weightReader, fragmentEntry);
       }
 	  
     }
@@ -395,6 +839,29 @@ public class CombineSamFiles {
   }
 
     
+  /***********************************************************************************
+   * 
+   *  checkFragmentEntryOrder: in validation mode check that the fragment entries of
+   *  weightReader are sorted by fragment name
+   *
+   ***********************************************************************************/
+
+  private static void checkFragmentEntryOrder (BufferedReader weightReader, FragmentEntry fragmentEntry) throws IOException {
+
+    if (! FragmentNameKey.validateOrder ()) {
+      return;
+    }
+
+    FragmentEntry lastFragmentEntry = lastFragmentEntryTable.get(weightReader);
+    if (lastFragmentEntry != null) {
+      FragmentNameKey.checkOrder (lastFragmentEntry.getFragmentName (), lastFragmentEntry.getFragmentKey (), fragmentEntry.getFragmentName (),
+				  fragmentEntry.getFragmentKey (), "Read weight file", -1);
+    }
+    lastFragmentEntryTable.put(weightReader, fragmentEntry);
+
+  }
+
+    
   /***********************************************************************************
    * 
    *                           getReadIndexSet
@@ -507,10 +974,399 @@ public class CombineSamFiles {
       throw new IOException ("Problem with reading second SAM file.");
     }
     
-    return samRecords1.firstElement().getFragmentName().compareTo(samRecords2.firstElement().getFragmentName());
+    SamRecord samRecord1 = samRecords1.firstElement();
+    SamRecord samRecord2 = samRecords2.firstElement();
+    return FragmentNameKey.compare (samRecord1.getFragmentName(), samRecord1.getFragmentKey(), samRecord2.getFragmentName(), samRecord2.getFragmentKey());
+    
+  }
+
+
+
+  /***********************************************************************************
+   * 
+   *  combineFragment: combine the SAM records of a fragment from two inputs and add
+   *  the selected SAM records to selectedSamRecords; returns the index of the
+   *  selected input (0 if the fragment is not contained in either input)
+   *
+   ***********************************************************************************/
+
+  private static int combineFragment (Vector<SamRecord> selectedSamRecords, String fragmentName, Vector<SamRecord> samRecords1,
+				      Vector<SamRecord> samRecords2, FragmentEntry fragmentEntry1, FragmentEntry fragmentEntry2, SamCombinationStage stage,
+				      int distanceThreshold, double distanceSlack, PrintWriter outputWeightWriter) throws IOException {
+
+    boolean isMapped1 = isMapped (samRecords1);
+    boolean isMapped2 = isMapped (samRecords2);
+
+    if (! isMapped1 && ! isMapped2) {
+      if (samRecords1 != null) {
+	stage.numTotal1++;
+	stage.numSelected1++;
+	selectSamRecords (selectedSamRecords, fragmentName, samRecords1, null, distanceThreshold, outputWeightWriter);
+	return 1;
+      }
+
+      if (samRecords2 != null) {
+	stage.numTotal2++;
+	stage.numSelected2++;
+	selectSamRecords (selectedSamRecords, fragmentName, samRecords2, null, distanceThreshold, outputWeightWriter);
+	return 2;
+      }
+
+      return 0;
+    }
+
+    if (! isMapped2) {
+      stage.numSelectedMappedFrag1++;
+      stage.numTotal1++;
+      stage.numSelected1++;
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
+      return 1;
+    }
+
+    if (! isMapped1) {
+      stage.numSelectedMappedFrag2++;
+      stage.numTotal2++;
+      stage.numSelected2++;
+      selectSamRecords (selectedSamRecords, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
+      return 2;
+    }
+
+    stage.numTotal1++;
+    stage.numTotal2++;
+    if (selectBetterSamRecords (selectedSamRecords, fragmentName, samRecords1, samRecords2, fragmentEntry1, fragmentEntry2,
+				distanceThreshold, distanceSlack, stage.samFilename1, stage.samFilename2,
+				stage.readWeightFilename1, stage.readWeightFilename2, outputWeightWriter) == 1) {
+      stage.numSelectedMappedFrag1++;
+      stage.numSelected1++;
+      return 1;
+    }
+    
+    stage.numSelectedMappedFrag2++;
+    stage.numSelected2++;
+    return 2;
+    
+  }
+
+
+  /***********************************************************************************
+   * 
+   *  combineReadWeightLines: select the read weight entry of a fragment in the same
+   *  way as CombineReadWeightFiles -e; the line of the selected entry is returned.
+   *
+   ***********************************************************************************/
+
+  private static String combineReadWeightLines (String weightLine1, String weightLine2, String readWeightFilename1, String readWeightFilename2)
+    throws IOException {
+
+    if (weightLine1 == null && weightLine2 == null) {
+      return null;
+    }
+
+    FragmentEntry fragmentEntry1 = weightLine1 == null?null:new FragmentEntry (weightLine1);
+    FragmentEntry fragmentEntry2 = weightLine2 == null?null:new FragmentEntry (weightLine2);
+
+    if (fragmentEntry2 == null) {
+      return fragmentEntry1.toPrintString ();
+    }
+
+    if (fragmentEntry1 == null) {
+      return fragmentEntry2.toPrintString ();
+    }
+
+    if (fragmentEntry1.getEditDistance () < 0) {
+      throw new IOException ("ERROR: No edit distance for " + fragmentEntry1 + " in " + readWeightFilename1 + " given.");
+    }
+
+    if (fragmentEntry2.getEditDistance () < 0) {
+      throw new IOException ("ERROR: No edit distance for " + fragmentEntry2 + " in " + readWeightFilename2 + " given.");
+    }
+
+    if (fragmentEntry1.compareEditDistance (fragmentEntry2, readWeightDistanceSlack) >= 0) {
+      return fragmentEntry1.toPrintString ();
+    }
+
+    return fragmentEntry2.toPrintString ();
+    
+  }
+
+  
+  /***********************************************************************************
+   * 
+   *  combineFragment: combine the SAM records of a fragment from all inputs
+   *
+   * The inputs are combined from left to right: stage k combines the SAM records
+   * selected from the first k inputs with the SAM records of input k + 1. The read
+   * weight entry of the first k inputs is the one that CombineReadWeightFiles -e
+   * selects. Hence the result is the same as the one of the chain of pairwise
+   * CombineSamFiles calls. The SAM records selected by a stage are passed to the
+   * next stage as they are.
+   *
+   ***********************************************************************************/
+
+  private static void combineFragment (PrintWriter outputWriter, PendingSamFragment pendingFragment, FragmentEntryBuffer [] fragmentEntryBuffers,
+				       SamCombinationStage [] stages, int distanceThreshold, double distanceSlack, PrintWriter outputWeightWriter)
+    throws IOException {
+
+    String fragmentName = pendingFragment.getFragmentName ();
+
+    Vector<SamRecord> samRecords1 = pendingFragment.getSamRecords (0);
+    String weightLine1 = isMapped (samRecords1)?fragmentEntryBuffers[0].getFragmentEntryLine (fragmentName):null;
+    
+    for (int k = 1; k < fragmentEntryBuffers.length; k++) {
+
+      SamCombinationStage stage = stages[k - 1];
+      
+      Vector<SamRecord> samRecords2 = pendingFragment.getSamRecords (k);
+      String weightLine2 = isMapped (samRecords2)?fragmentEntryBuffers[k].getFragmentEntryLine (fragmentName):null;
+
+      FragmentEntry fragmentEntry1 = null;
+      if (isMapped (samRecords1)) {
+	if (weightLine1 == null) {
+	  throw new IOException ("ERROR: No fragment entry corresponding to fragment " + fragmentName + " found in " + stage.readWeightFilename1);
+	}
+	fragmentEntry1 = new FragmentEntry (weightLine1);
+      }
+      FragmentEntry fragmentEntry2 = weightLine2 == null?null:new FragmentEntry (weightLine2);
+
+      Vector<SamRecord> selectedSamRecords = new Vector<SamRecord> ();
+      if (k == fragmentEntryBuffers.length - 1) {
+	combineFragment (selectedSamRecords, fragmentName, samRecords1, samRecords2, fragmentEntry1, fragmentEntry2, stage, distanceThreshold,
+			 distanceSlack, outputWeightWriter);
+	for (SamRecord samRecord: selectedSamRecords) {
+	  outputWriter.println (samRecord.toString ());
+	}
+	return;
+      }
+
+      combineFragment (selectedSamRecords, fragmentName, samRecords1, samRecords2, fragmentEntry1, fragmentEntry2, stage, distanceThreshold,
+		       distanceSlack, null);
+      samRecords1 = selectedSamRecords.size () == 0?null:selectedSamRecords;
+
+      weightLine1 = combineReadWeightLines (weightLine1, weightLine2, stage.readWeightFilename1, stage.readWeightFilename2);
+      
+    }
     
   }
 
+  
+  /***********************************************************************************
+   * 
+   *  combineSamFiles: combine two or more SAM files in one pass
+   *
+   * If windowSize is zero, then the SAM files must be sorted by fragment name and
+   * they are merged. Otherwise, the fragments of the SAM files are read alternately
+   * and stored in a buffer that is sorted by fragment name. The smallest fragment of
+   * the buffer is combined and output as soon as windowSize further fragments have
+   * been read from each file after it was first read (or the files are exhausted).
+   * Hence the SAM files need not be sorted by fragment name as long as no fragment
+   * is displaced by windowSize or more fragments in any file (e.g. by the
+   * multi-threaded execution of the aligner); otherwise an exception is thrown. At
+   * most about windowSize fragments per file are buffered and the output is sorted
+   * by fragment name. The read weight files need to be in the order of their SAM
+   * files in this case; the entries read ahead are stored until their fragment is
+   * output (see FragmentEntryBuffer).
+   *
+   ***********************************************************************************/
+
+  private static void combineSamFiles (PrintWriter outputWriter, Vector<String> samFilenames, Vector<String> readWeightFilenames,
+				       int windowSize, int distanceThreshold, double distanceSlack, boolean outputNumExpressedReads,
+				       PrintWriter outputWeightWriter) throws IOException {
+
+    final int countUnit = 5 * 1000 * 1000;
+
+    int numInputs = samFilenames.size ();
+    
+    SamFragmentReader   [] samFragmentReaders   = new SamFragmentReader   [numInputs];
+    FragmentEntryBuffer [] fragmentEntryBuffers = new FragmentEntryBuffer [numInputs];
+    for (int i = 0; i < numInputs; i++) {
+      samFragmentReaders[i]   = new SamFragmentReader   (samFilenames.get(i));
+      fragmentEntryBuffers[i] = new FragmentEntryBuffer (readWeightFilenames.get(i),
+							 Runtime.getRuntime ().maxMemory () / storedFragmentEntriesHeapFraction / numInputs,
+							 windowSize > 0, FragmentNameKey.validateOrder ());
+    }
+
+    SamCombinationStage [] stages = new SamCombinationStage [numInputs - 1];
+    String samFilenameList    = samFilenames.get(0);
+    String weightFilenameList = readWeightFilenames.get(0);
+    for (int k = 1; k < numInputs; k++) {
+      stages[k - 1] = new SamCombinationStage (k == 1?samFilenameList:"combination of " + samFilenameList, samFilenames.get(k),
+					       k == 1?weightFilenameList:"combination of " + weightFilenameList, readWeightFilenames.get(k));
+      samFilenameList    = samFilenameList + ", " + samFilenames.get(k);
+      weightFilenameList = weightFilenameList + ", " + readWeightFilenames.get(k);
+    }
+
+    int [] numFragmentsRead = new int [numInputs];
+    int    numFragments     = 0;
+    int    maxNumPending    = 0;
+
+    if (windowSize == 0) {
+
+      /* Merge the sorted SAM files */
+      Vector<Vector<SamRecord>> samRecordsVector = new Vector<Vector<SamRecord>> (numInputs);
+      for (int i = 0; i < numInputs; i++) {
+	samRecordsVector.add (samFragmentReaders[i].getSamRecords ());
+      }
+
+      while (true) {
+
+	SamRecord minSamRecord = null;
+	for (int i = 0; i < numInputs; i++) {
+	  Vector<SamRecord> samRecords = samRecordsVector.get(i);
+	  if (samRecords != null) {
+	    SamRecord samRecord = samRecords.firstElement();
+	    if (minSamRecord == null || FragmentNameKey.compare (samRecord.getFragmentName(), samRecord.getFragmentKey(),
+								  minSamRecord.getFragmentName(), minSamRecord.getFragmentKey()) < 0) {
+	      minSamRecord = samRecord;
+	    }
+	  }
+	}
+
+	if (minSamRecord == null) {
+	  break;
+	}
+
+	String fragmentName = minSamRecord.getFragmentName();
+	PendingSamFragment pendingFragment = new PendingSamFragment (fragmentName, minSamRecord.getFragmentKey(), numFragmentsRead);
+	for (int i = 0; i < numInputs; i++) {
+	  Vector<SamRecord> samRecords = samRecordsVector.get(i);
+	  if (samRecords != null && samRecords.firstElement().getFragmentName().equals(fragmentName)) {
+	    pendingFragment.setSamRecords (i, samRecords);
+
+	    Vector<SamRecord> nextSamRecords = samFragmentReaders[i].getSamRecords ();
+	    if (nextSamRecords != null) {
+	      SamRecord samRecord = nextSamRecords.firstElement();
+	      if (samRecord.getFragmentName().equals(fragmentName)) {
+		throw new IOException ("ERROR: Duplicate fragment name " + fragmentName + " in " + samFragmentReaders[i].getSamFilename ());
+	      }
+	      FragmentNameKey.checkOrder (fragmentName, minSamRecord.getFragmentKey(), samRecord.getFragmentName(), samRecord.getFragmentKey(),
+					  "SAM file " + samFragmentReaders[i].getSamFilename (), samFragmentReaders[i].getLineNumber () - nextSamRecords.size());
+	    }
+	    samRecordsVector.set(i, nextSamRecords);
+	  }
+	}
+
+	long processStartTime = fragmentMetrics.getStartTime ();
+	combineFragment (outputWriter, pendingFragment, fragmentEntryBuffers, stages, distanceThreshold, distanceSlack, outputWeightWriter);
+	fragmentMetrics.addProcessTime (processStartTime);
+	fragmentMetrics.addRecords (1);
+
+	numFragments++;
+	if (numFragments % countUnit == 0) {
+	  System.err.print(".");
+	  System.err.flush();
+	}
+      }
+      
+    } else {
+
+      /* Reorder the SAM files with a buffer of fragments */
+      TreeSet<PendingSamFragment>           pendingFragments     = new TreeSet<PendingSamFragment> ();
+      Hashtable<String, PendingSamFragment> pendingFragmentTable = new Hashtable<String, PendingSamFragment> ();
+
+      boolean [] isExhausted = new boolean [numInputs];
+      int        numExhausted = 0;
+
+      String lastFragmentName = null;
+      long   lastFragmentKey  = FragmentNameKey.noKey;
+
+      while (numExhausted < numInputs || pendingFragments.size () > 0) {
+
+	/* Read one fragment from each SAM file */
+	for (int i = 0; i < numInputs; i++) {
+	  if (isExhausted[i]) {
+	    continue;
+	  }
+
+	  Vector<SamRecord> samRecords = samFragmentReaders[i].getSamRecords ();
+	  if (samRecords == null) {
+	    isExhausted[i] = true;
+	    numExhausted++;
+	    continue;
+	  }
+	  numFragmentsRead[i]++;
+
+	  SamRecord samRecord = samRecords.firstElement();
+	  String fragmentName = samRecord.getFragmentName();
+	  if (lastFragmentName != null &&
+	      FragmentNameKey.compare (fragmentName, samRecord.getFragmentKey(), lastFragmentName, lastFragmentKey) <= 0) {
+	    throw new IOException ("ERROR: Fragment " + fragmentName + " in line " + (samFragmentReaders[i].getLineNumber () - samRecords.size()) +
+				   " of " + samFragmentReaders[i].getSamFilename () + " is read after fragment " + lastFragmentName +
+				   " was output.\nPlease increase the window size (option -b, current value: " + windowSize + ").");
+	  }
+
+	  PendingSamFragment pendingFragment = pendingFragmentTable.get(fragmentName);
+	  if (pendingFragment == null) {
+	    pendingFragment = new PendingSamFragment (fragmentName, samRecord.getFragmentKey(), numFragmentsRead);
+	    pendingFragments.add (pendingFragment);
+	    pendingFragmentTable.put (fragmentName, pendingFragment);
+	  } else if (pendingFragment.getSamRecords (i) != null) {
+	    throw new IOException ("ERROR: Duplicate fragment name " + fragmentName + " in " + samFragmentReaders[i].getSamFilename ());
+	  }
+	  pendingFragment.setSamRecords (i, samRecords);
+	}
+
+	maxNumPending = Math.max (maxNumPending, pendingFragments.size ());
+	fragmentMetrics.setQueueDepth (pendingFragments.size ());
+
+	/* Output the fragments that cannot be preceded by a fragment that is still to be read */
+	while (pendingFragments.size () > 0) {
+	
+	  PendingSamFragment pendingFragment = pendingFragments.first ();
+	  boolean isComplete = true;
+	  for (int i = 0; i < numInputs && isComplete; i++) {
+	    isComplete = isExhausted[i] || numFragmentsRead[i] - pendingFragment.getArrivalCount (i) >= windowSize;
+	  }
+
+	  if (! isComplete) {
+	    break;
+	  }
+
+	  pendingFragments.remove (pendingFragment);
+	  pendingFragmentTable.remove (pendingFragment.getFragmentName ());
+	  lastFragmentName = pendingFragment.getFragmentName ();
+	  lastFragmentKey  = pendingFragment.getFragmentKey ();
+
+	  long processStartTime = fragmentMetrics.getStartTime ();
+	  combineFragment (outputWriter, pendingFragment, fragmentEntryBuffers, stages, distanceThreshold, distanceSlack, outputWeightWriter);
+	  fragmentMetrics.addProcessTime (processStartTime);
+	  fragmentMetrics.addRecords (1);
+	  fragmentMetrics.setQueueDepth (pendingFragments.size ());
+
+	  numFragments++;
+	  if (numFragments % countUnit == 0) {
+	    System.err.print(".");
+	    System.err.flush();
+	  }
+	}
+      }
+    }
+
+    if (numFragments >= countUnit) {
+      System.err.println();
+    }
+
+    for (int k = 0; k < stages.length; k++) {
+      stages[k].printStatistics ();
+    }
+
+    if (windowSize > 0) {
+      System.err.println("Maximal number of buffered fragments: " + maxNumPending);
+    }
+      
+    if (outputWeightWriter != null) {
+      System.err.println("Total number of fragments output: " + numOutput);
+    }
+
+    if (outputNumExpressedReads) {
+      System.err.println("NUMBER_EXPRESSED_READS=" + stages[stages.length - 1].numSelectedMappedFrag1);
+    }
+
+    for (int i = 0; i < numInputs; i++) {
+      samFragmentReaders[i].close();
+      fragmentEntryBuffers[i].close();
+    }
+
+  }
 
 
   /***********************************************************************************/
@@ -519,9 +1375,11 @@ public class CombineSamFiles {
     System.err.println("CombineSamFiles.java\n" +                                              
      "   -- Script to select the best alignment of two SAM files for the same set of reads.\n" +
      "\n" +
-     "USAGE: java CombineSamFiles [-s <slack constant>] [-t <distance threshold>]\n" +
+     "USAGE: java CombineSamFiles [-s <slack constant>] [-t <distance threshold>] [-V]\n" +
+     "       [-b <window size>] [-X <metrics file>]\n" +
      "       -1 <sam file 1> -2 <sam file 2> -w <read weight file1>\n" +
-     "       -W <read weight file2> -o <output file> [-O <output weight file>]\n" +
+     "       -W <read weight file2> [-a <sam file 3> -A <read weight file 3> ...]\n" +
+     "       -o <output file> [-O <output weight file>]\n" +
      "\n" +
      "Reads two SAM files and selects the better alignment for each read based on the \n" +
      "edit distance (see <sam file 1> and <sam file 2> for more details). The reads\n" +
@@ -545,11 +1403,29 @@ public class CombineSamFiles {
      "              reported.\n" +
      "<read weight file1>: the read weight file for sam file 1.\n" +
      "<read weight file2>: the read weight file for sam file 2.\n" +
+     "-a STRING: an additional SAM file; the option can be given several times. The\n" +
+     "        SAM files are combined in one pass with the same result as the chain of\n" +
+     "        pairwise combinations, i.e. the combination of the first k SAM files is\n" +
+     "        combined with SAM file k + 1 using the read weights of the first k files\n" +
+     "        as combined by CombineReadWeightFiles -e.\n" +
+     "-A STRING: the read weight file for the SAM file of the corresponding option -a.\n" +
+     "-b INT: combine the SAM files with a reorder buffer instead of a merge join. The\n" +
+     "        SAM files need not be sorted by fragment name; a fragment may be displaced\n" +
+     "        by less than INT fragments between the files (e.g. due to the\n" +
+     "        multi-threaded execution of the aligner). The read weight files need to\n" +
+     "        be in the order of their SAM files. The output is sorted by fragment name.\n" +
      "-s DOUBLE: slack constant for the comparison of the av. edit distance of the SAM\n" +
      "           records; twice for paired-end reads [0.25].\n" + 
      "-t INT: edit distance threshold for aligned reads. Alignments with an edit\n" +
      "        distance more than the threshold are not reported (-1 for no\n" +
-     "        threshold [default: -1]\n");
+     "        threshold [default: -1]\n" +
+     "-V: validate that the read weight files are sorted by fragment name and report\n" +
+     "    the first fragment out of order. With option -b validate that the read\n" +
+     "    weight files hold exactly the mapped fragments of their SAM files in the\n" +
+     "    order of the SAM files (within the window) and report the first fragment\n" +
+     "    which is not requested.\n" +
+     "-X STRING: write the throughput metrics of the SAM reading and the combination\n" +
+     "    of the fragments as JSON lines to file STRING every 10 seconds.\n");
   }
                                     
 
@@ -567,12 +1443,15 @@ public class CombineSamFiles {
     double  distanceSlack = 0.25;
     String  readIdCutOffString = ":";
     int     distanceThreshold = -1;
+    int     windowSize = 0;
+    String  metricsFilename = "";
 
-    boolean outputNumExpressedReads = false;
+    Vector<String> additionalSamFilenames        = new Vector<String> ();
+    Vector<String> additionalReadWeightFilenames = new Vector<String> ();
 
-    final int countUnit = 5 * 1000 * 1000;
+    boolean outputNumExpressedReads = false;
 
-    Getopt g = new Getopt("CombineSamFiles", args, "1:2:ed:o:O:s:t:w:W:h");
+    Getopt g = new Getopt("CombineSamFiles", args, "1:2:a:A:b:ed:o:O:s:t:Vw:W:X:h");
     
     int c;
     String arg = "";
@@ -587,6 +1466,15 @@ public class CombineSamFiles {
       case '2':
 	samFilename2 = g.getOptarg();
 	break;
+      case 'a':
+	additionalSamFilenames.add (g.getOptarg());
+	break;
+      case 'A':
+	additionalReadWeightFilenames.add (g.getOptarg());
+	break;
+      case 'b':
+	windowSize = Integer.parseInt (g.getOptarg());
+	break;
       case 'd':
 	debugLevel = Integer.parseInt (g.getOptarg());
 	UtilLib.setDebugLevel (debugLevel);
@@ -606,12 +1494,18 @@ public class CombineSamFiles {
       case 't':
 	distanceThreshold = Integer.parseInt (g.getOptarg());
 	break;
+      case 'V':
+	FragmentNameKey.setValidateOrder (true);
+	break;
       case 'w':
 	readWeightFilename1 = g.getOptarg();
 	break;
       case 'W':
 	readWeightFilename2 = g.getOptarg();
 	break;
+      case 'X':
+	metricsFilename = g.getOptarg();
+	break;
       case 'h':
 	printHelp();
 	System.exit(0);
@@ -642,10 +1536,23 @@ public class CombineSamFiles {
       }
 
 
+      if (additionalSamFilenames.size () != additionalReadWeightFilenames.size ()) {
+	throw new IOException ("ERROR: The number of additional SAM files (option -a) and read weight files (option -A) must be the same.");
+      }
+
+      if (additionalSamFilenames.contains ("-")) {
+	throw new IOException ("ERROR: Only <sam file 1> and <sam file 2> can be read from STDIN (option -1 and -2).");
+      }
+
       if (debugLevel >= 2) {
 	System.err.println("File name 1: " + samFilename1 + ", file name 2: " + samFilename2);
       }
 
+      boolean metricsStarted = false;
+      if (! metricsFilename.equals("")) {
+	metricsStarted = PipelineMetrics.start (metricsFilename);
+      }
+
       PrintWriter outputWriter       = UtilLib.getPrintWriter (outputFilename);
       PrintWriter outputWeightWriter = null;
       if (outputWeightFilename != "") {
@@ -653,335 +1560,28 @@ public class CombineSamFiles {
 	outputWeightWriter = UtilLib.getPrintWriter (outputWeightFilename);
       }
 
-      samReader1 = UtilLib.getBufferedReader (samFilename1);
-      samReader2 = UtilLib.getBufferedReader (samFilename2);
-
-      BufferedReader weightReader1 = UtilLib.getBufferedReader (readWeightFilename1);
-      BufferedReader weightReader2 = UtilLib.getBufferedReader (readWeightFilename2);
-
-      FragmentEntry fragmentEntry1 = null;
-      FragmentEntry fragmentEntry2 = null;
-
-      Vector<SamRecord> samRecords1 = null;
-      Vector<SamRecord> samRecords2 = null;
-      
-      samRecords1 = getSamRecords (samReader1);
-      samRecords2 = getSamRecords (samReader2);
-      
-      String fragmentName    = null;
-      String oldFragmentName = "";
-	
-      int numSelectedMappedFrag1 = 0;
-      int numSelected1           = 0;
-      int numTotal1              = 0;
-      int numSelectedMappedFrag2 = 0;
-      int numSelected2           = 0;
-      int numTotal2              = 0;
-      int numLines               = 0;
-      
-      while (samRecords1 != null && samRecords2 != null) {
-
-	if (debugLevel >= 2) {
-	  System.err.println ("SamRecords1: " + samRecords1);
-	  System.err.println ("SamRecords2: " + samRecords2);
-	}
-
-       String fragmentName1 = null;
-       String fragmentName2 = null;
-	if (samRecords1 != null && samRecords2 != null) {
-	  fragmentName1 = samRecords1.firstElement().getFragmentName();
-	  fragmentName2 = samRecords2.firstElement().getFragmentName();
-	  if (fragmentName1.compareTo(fragmentName2) < 0) {
-	    fragmentName = fragmentName1;
-	  } else {
-	    fragmentName = fragmentName2;
-	  }
-	} else if (samRecords1 != null) {
-	  fragmentName1 = samRecords1.firstElement().getFragmentName();
-	  fragmentName  = fragmentName1;
-	} else if (samRecords2 != null) {
-	  fragmentName2 = samRecords2.firstElement().getFragmentName();
-	  fragmentName  = fragmentName2;
-	} else {
-	  throw new IOException ("ERROR: samRecords1 and samRecords2 are null.");
-	}
-
-	if (oldFragmentName.equals(fragmentName)) {
-	  throw new IOException ("ERROR: Duplicate fragment name: old " + oldFragmentName + " vs new " + fragmentName);
-	}
-	
-	if (debugLevel >= 2) {
-	  System.err.println("Fragment name: " + fragmentName);
-	}
-	
-	boolean isMapped1 = isMapped (samRecords1) && fragmentName.equals(fragmentName1);
-	boolean isMapped2 = isMapped (samRecords2) && fragmentName.equals(fragmentName2);
-
-	fragmentEntry1 = null;
-	fragmentEntry2 = null;
-
-	if (! isMapped1 && ! isMapped2) {
-	  if (samRecords1 != null && fragmentName.equals(fragmentName1)) {
-	    numTotal1++;
-	    numSelected1++;
-	    // System.err.println("1. fragmentName: " + fragmentName);
-	    printSamRecords (outputWriter, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
-	  } else if (samRecords2 != null && fragmentName.equals(fragmentName2)) {
-	    numTotal2++;
-	    numSelected2++;
-	  // System.err.println("1. fragmentName: " + fragmentName);
-	    printSamRecords (outputWriter, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
-	  }
-	  
-	} else if (! isMapped2) {
-	  
-	  if (! fragmentName.equals (oldFragmentName)) {
-	    numSelectedMappedFrag1++;
-	  }
-	  
-	  numTotal1++;
-	  numSelected1++;
-	  // System.err.println("2. fragmentName: " + fragmentName);
-	  fragmentEntry1 = getFragmentEntry (weightReader1, fragmentName);
-	  printSamRecords (outputWriter, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
-	 
-	  
-	} else if (! isMapped1) {
-	  
-	  if (! fragmentName.equals (oldFragmentName)) {
-	    numSelectedMappedFrag2++;
-	  }
-	  
-	  numTotal2++;
-	  numSelected2++;
-	  // System.err.println("3. fragmentName: " + fragmentName);
-	  fragmentEntry2 = getFragmentEntry (weightReader2, fragmentName);
-	  printSamRecords (outputWriter, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
-	  
-	} else {
-	    
-	  // System.err.println("4. fragmentName: " + fragmentName);
-	  fragmentEntry1 = getFragmentEntry (weightReader1, fragmentName);
-	  numTotal1++;
-	  fragmentEntry2 = getFragmentEntry (weightReader2, fragmentName);
-	  numTotal2++;
-
-	  if (debugLevel >= 1) {
-	    System.err.println ("fragment entry 1: " + fragmentEntry1);
-	    System.err.println ("fragment entry 2: " + fragmentEntry2);
-	  }
-
-	  if (fragmentEntry2 == null) {
-	    
-	    printSamRecords (outputWriter, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
-	    numSelected1++;	      
-	    
-	  } else if (fragmentEntry1 == null) {
-	    
-	    printSamRecords (outputWriter, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
-	    numSelected2++;	      
-	    
-	  } else {
-
-	    int compMultiplicity = fragmentEntry1.compareMultiplicity (fragmentEntry2);
+      Vector<String> samFilenames        = new Vector<String> ();
+      Vector<String> readWeightFilenames = new Vector<String> ();
+      samFilenames.add (samFilename1);
+      samFilenames.add (samFilename2);
+      samFilenames.addAll (additionalSamFilenames);
+      readWeightFilenames.add (readWeightFilename1);
+      readWeightFilenames.add (readWeightFilename2);
+      readWeightFilenames.addAll (additionalReadWeightFilenames);
 
-	    /* Note that compMultiplicity is non-zero if and only if the multiplicity of exactly one of the two fragmentEntries
-	       is two. */
-	    if (compMultiplicity == 1) {
-	      if (! fragmentName.equals (oldFragmentName)) {
-		numSelectedMappedFrag1++;
-	      }
-	      numSelected1++;
-	      printSamRecords (outputWriter, fragmentName, samRecords1, fragmentEntry1, distanceThreshold, outputWeightWriter);
-	    } else if (compMultiplicity == -1) {
-	      if (! fragmentName.equals (oldFragmentName)) {
-		numSelectedMappedFrag2++;
-	      }
-	      numSelected2++;
-	      printSamRecords (outputWriter, fragmentName, samRecords2, fragmentEntry2, distanceThreshold, outputWeightWriter);
-	    } else {	    
-
-	      if (fragmentEntry1.getEditDistance () < 0) {
-		throw new IOException ("ERROR: No edit distance for " + fragmentName + " in " + readWeightFilename1 + " given.");
-	      }
-
-	      if (fragmentEntry2.getEditDistance () < 0) {
-		throw new IOException ("ERROR: No edit distance for " + fragmentName + " in " + readWeightFilename2 + " given.");
-	      }
-
-
-	      int compDist = fragmentEntry1.compareEditDistance (fragmentEntry2, distanceSlack);
-
-	      if (compDist == 1) {	      
-		printSamRecords (outputWriter, fragmentName, samRecords1, samRecords2, fragmentEntry1, fragmentEntry2,
-				 distanceThreshold, samFilename1, samFilename2, outputWeightWriter);
-		if (! fragmentName.equals (oldFragmentName)) {
-		  numSelectedMappedFrag1++;
-		}
-		numSelected1++;	      
-	      } else {
-		printSamRecords (outputWriter, fragmentName, samRecords2, samRecords1, fragmentEntry2, fragmentEntry1,
-				 distanceThreshold, samFilename2, samFilename1, outputWeightWriter);
-		if (! fragmentName.equals (oldFragmentName)) {
-		  numSelectedMappedFrag2++;
-		}
-		numSelected2++;	      
-	      }
-	    }	    
-	  }
-	}
-		      
-	oldFragmentName = fragmentName;
+      combineSamFiles (outputWriter, samFilenames, readWeightFilenames, windowSize, distanceThreshold, distanceSlack,
+		       outputNumExpressedReads, outputWeightWriter);
 
-	if (debugLevel >= 2) {
-	  System.err.println("Getting samRecords1 after " + fragmentName + " (w/o comparison)");
-	}
-	samRecords1 = getSamRecords (samReader1, samRecords1);
-	if (debugLevel >= 2) {
-	  System.err.println("Getting samRecords2 after " + fragmentName + " (w/o comparison)");
-	}
-	samRecords2 = getSamRecords (samReader2, samRecords2);
-	if (debugLevel >= 2) {
-	  System.err.println("samRecords2 read: " + samRecords2);
-	}
-
-	numLines++;
-	if (numLines % countUnit == 0) {
-	  System.err.print(".");
-	  System.err.flush();
-	}
-
-	if (debugLevel >= 2) {
-	  System.err.println("Computing comparison value");
-	}
-	int samRecordCompValue = getCompValue(samRecords1, samRecords2);
-	if (debugLevel >= 2) {
-	  System.err.println("Done: " + samRecordCompValue);
-	}
-	while (samRecordCompValue != 0 && samRecords1 != null && samRecords2 != null) {
-	  
-	  oldFragmentName = fragmentName;
-	  
-	  if (samRecordCompValue > 0) {
-	    
-	    numTotal2++;
-	    numSelected2++;
-
-	    fragmentName     = samRecords2.firstElement().getFragmentName();
-	    boolean isMapped = isMapped (samRecords2);
-	    FragmentEntry fragmentEntry = null;
-	    if (isMapped (samRecords2)) {
-	      if (! fragmentName.equals (oldFragmentName)) {
-		numSelectedMappedFrag2++;
-	      }
-	      fragmentEntry = getFragmentEntry (weightReader2, fragmentName);
-	    }	    
-	    printSamRecords (outputWriter, fragmentName, samRecords2, fragmentEntry, distanceThreshold, outputWeightWriter);
-
-	    if (debugLevel >= 2) {
-	      System.err.println("Getting samRecords2 after " + fragmentName);
-	    }
-	    samRecords2 = getSamRecords (samReader2, samRecords2);
-	    
-	  } else {
-	    
-	    numTotal1++;
-	    numSelected1++;
-
-	    fragmentName = samRecords1.firstElement().getFragmentName();
-	    FragmentEntry fragmentEntry = null;
-	    if (isMapped (samRecords1)) {
-	      if (! fragmentName.equals (oldFragmentName)) {
-		numSelectedMappedFrag1++;
-	      }
-	      fragmentEntry = getFragmentEntry (weightReader1, fragmentName);
-	    }
-	    printSamRecords (outputWriter, fragmentName, samRecords1, fragmentEntry, distanceThreshold, outputWeightWriter);
-
-	    if (debugLevel >= 2) {
-	      System.err.println("Getting samRecords1 after " + fragmentName);
-	    }
-	    samRecords1 = getSamRecords (samReader1, samRecords1);
-	  }
-
-	  if (debugLevel >= 2) {
-	    System.err.println("Comparing samRecords1 and samRecords2.");
-	  }
-	  samRecordCompValue = getCompValue(samRecords1, samRecords2);
-
-	}
-
-	numLines++;
-	if (numLines % countUnit == 0) {
-	  System.err.print(".");
-	  System.err.flush();
-	}
-	
-      }
-
-      if (samRecords1 != null || samRecords2 != null) {
-	Vector<SamRecord> samRecords   = samRecords1;
-	BufferedReader    samReader    = samReader1;
-	BufferedReader    weightReader = weightReader1;
-	if (samRecords2 != null) {
-	  samRecords   = samRecords1;
-	  samReader    = samReader2;
-	  weightReader = weightReader2;
-	}
-	
-	while (samRecords != null) {
-	  oldFragmentName = fragmentName;
-	  	      
-	  fragmentName = samRecords.firstElement().getFragmentName();
-	  FragmentEntry fragmentEntry = null;
-	  if (isMapped (samRecords)) {
-	    if (! fragmentName.equals (oldFragmentName) && samRecords1 != null) {
-	      numSelectedMappedFrag1++;
-	    }
-	    fragmentEntry = getFragmentEntry (weightReader, fragmentName);
-	  }
-	  printSamRecords (outputWriter, fragmentName, samRecords, fragmentEntry, distanceThreshold, outputWeightWriter);
-	  samRecords = getSamRecords (samReader, samRecords);
-
-	  if (samRecords1 != null) {
-	    numTotal1++;
-	    numSelected1++;
-	  } else {
-	    numTotal2++;
-	    numSelected2++;
-	  }
-	}
-      }
-
-
-      if (numLines >= countUnit) {
-	System.err.println();
-      }
-
-      System.err.println(numSelected1 + " records of " + numTotal1 + " records selected from file " + samFilename1);
-      System.err.println(numSelected2 + " records of " + numTotal2 + " records selected from file " + samFilename2);
-      
-      if (outputWeightWriter != null) {
-	System.err.println("Total number of fragments output: " + numOutput);
-      }
-
-      if (outputNumExpressedReads) {
-	System.err.println("NUMBER_EXPRESSED_READS=" + numSelectedMappedFrag1);
-      }
-
-
-      samReader1.close();
-      samReader2.close();
-
-      weightReader1.close();
-      weightReader2.close();
-      
       outputWriter.close ();
 
       if (outputWeightWriter != null) {
 	outputWeightWriter.close();
       }
 
+      if (metricsStarted) {
+	PipelineMetrics.stop ();
+      }
+
     }
     catch (Exception e) {
       System.err.println ("Problem in line: " + line + ": " + e==null?"No error message":e.getMessage());
@@ -41,6 +41,46 @@ public class ComputeGeneCountsSam {
   private static int minEffectiveLength = 100;
 
   
+  /***********************************************************************************
+   * 
+   *  addGeneTranscriptFields: add the fields of a line of the transcript gene map
+   *  file; returns true if the transcript position is set.
+   *
+   ***********************************************************************************/
+
+  private static boolean addGeneTranscriptFields (String [] fields, int numFields) throws IOException {
+
+    String transcriptId = numFields > 0?fields[0]:"";
+
+    if (numFields < 2) {
+      throw new IOException ("No gene for transcript " + transcriptId + " found.");
+    }
+    String geneId = fields[1];
+
+    transcriptGeneMapTable.putValue (UtilLib.getSimplifiedReferenceId(transcriptId), geneId);
+
+    if (numFields < 3) {
+      return false;
+    }
+	
+    if (transcriptPositionMapTable == null) {
+      transcriptPositionMapTable = new  Hashtable<String, Integer> (7000000);
+    }
+	
+    String positionToken = fields[2];
+    try {
+      transcriptPositionMapTable.put(transcriptId, new Integer(Integer.parseInt(positionToken)));
+    }
+    catch (NumberFormatException e) {
+      throw new IOException ("Position field for transcript" + transcriptId  + ": " + positionToken + " is not an integer" + "\n" +
+			     "Error message: " + (e==null?"Null message":e.getMessage()));
+    }
+
+    return true;
+
+  }
+
+
   /***********************************************************************************
    * 
    *                           loadGeneTranscriptFile
@@ -53,55 +93,47 @@ public class ComputeGeneCountsSam {
       return;
     }
     
-    BufferedReader reader = UtilLib.getBufferedReader (transcriptGeneMapFilename);
-
-    System.err.println("Loading gene transcript file " + transcriptGeneMapFilename);
-
-    String line = reader.readLine();
     int lineNumber = 0;
     int numTranscripts = 0;
-    while (line != null) {
-      StringTokenizer st = new StringTokenizer (line, "\t");
 
-      String transcriptId = "";
-      if (st.hasMoreTokens()) {
-	transcriptId = st.nextToken ();	
-      }
+    ReferenceBundle referenceBundle = ReferenceBundle.open (UtilLib.getPath (transcriptGeneMapFilename));
+    if (referenceBundle != null) {
 
-      String geneId = "";
-      if (st.hasMoreTokens()) {
-	geneId = st.nextToken ();
-      } else {
-	throw new IOException ("No gene for transcript " + transcriptId + " found.");
+      System.err.println("Loading gene transcript file " + transcriptGeneMapFilename + " from reference bundle " + referenceBundle.getFilename ());
+
+      String [] fields = new String [Math.max (referenceBundle.getMaxNumFields (), 3)];
+      for (int row = 0; row < referenceBundle.getNumRows (); row++) {
+	int numFields = referenceBundle.getFields (row, fields);
+	if (addGeneTranscriptFields (fields, Math.min (numFields, 3))) {
+	  numTranscripts++;
+	}
+	lineNumber++;
       }
 
-      transcriptGeneMapTable.putValue (UtilLib.getSimplifiedReferenceId(transcriptId), geneId);
+    } else {
 
-      if (st.hasMoreTokens()) {
-	
-	if (transcriptPositionMapTable == null) {
-	  transcriptPositionMapTable = new  Hashtable<String, Integer> (7000000);
-	}
-	
-	String positionToken = null;
-	try {
-	  positionToken = st.nextToken ();
-	  transcriptPositionMapTable.put(transcriptId, new Integer(Integer.parseInt(positionToken)));
+      BufferedReader reader = UtilLib.getBufferedReader (transcriptGeneMapFilename);
+
+      System.err.println("Loading gene transcript file " + transcriptGeneMapFilename);
+
+      /* At most three columns are used */
+      String [] fields = new String [3];
+
+      String line = reader.readLine();
+      while (line != null) {
+	if (addGeneTranscriptFields (fields, ReferenceBundle.splitLine (line, fields))) {
 	  numTranscripts++;
 	}
-	catch (NumberFormatException e) {
-	  throw new IOException ("Position field for transcript" + transcriptId  + ": " + positionToken + " is not an integer" + "\n" +
-				 "Error message: " + (e==null?"Null message":e.getMessage()));
-	}
-      }
       
-      line = reader.readLine();
-      lineNumber++;
+	line = reader.readLine();
+	lineNumber++;
       
+      }
+      reader.close ();
+
     }
 
     System.err.println(lineNumber + " lines read and " + numTranscripts + " transcripts added to the position table.");
-    reader.close ();
 
     if (debugLevel >= 2) {
       if (transcriptPositionMapTable != null) {
@@ -427,7 +459,7 @@ public class ComputeGeneCountsSam {
 
       BufferedReader readWeightReader = null;
       if (readWeightFilename != "" && ! readWeightFilename.equals("none")) {
-	readWeightReader = new BufferedReader (new FileReader (readWeightFilename));
+	readWeightReader = new BufferedReader (new FileReader (UtilLib.getPath (readWeightFilename)));
       }
 
       /* Fill transcriptGeneMapTable and transcriptPositionMapTable */
@@ -442,17 +474,18 @@ public class ComputeGeneCountsSam {
 	}
       }
       
-      Hashtable<String, Double> geneCountTable = new Hashtable<String, Double> (10000000);
+      /* All genes of the transcript gene map are counted with a count of at least 0 */
+      CountAccumulator geneCountTable = new CountAccumulator ();
       if (transcriptGeneMapTable != null) {
 	for (String transcriptId: transcriptGeneMapTable.keySet ()) {
 	  for (String geneId: transcriptGeneMapTable.getSet(transcriptId)) {
-	    geneCountTable.put (geneId, new Double(0));
+	    geneCountTable.getShard ().add (geneId, 0);
 	  }
 	}
       }
 
       if (debugLevel >= 2) {
-	System.err.println ("Transcript gene count table with " + geneCountTable.size() + " different gene ids loaded.");
+	System.err.println ("Transcript gene count table with " + geneCountTable.getNumIds () + " different gene ids loaded.");
       }
 
       UtilLib.setDebugLevel(debugLevel);
@@ -522,7 +555,7 @@ public class ComputeGeneCountsSam {
 	  geneIds.addAll (transcriptGeneMapTable.getSet (transcriptId));
 	}		  
       } else {
-	geneIds = new TreeSet<String> (geneCountTable.keySet());
+	geneIds = new TreeSet<String> (geneCountTable.getKeys ());
       }
 
       for (String geneId: geneIds) {
@@ -582,7 +615,7 @@ public class ComputeGeneCountsSam {
 	  }
 
 	  if (geneCountTable.get(startPositionId) == null) {
-	    geneCountTable.put(startPositionId, new Double (0));
+	    geneCountTable.getShard ().add (startPositionId, 0);
 	  }
 
 	  int transcriptStartPositionCount = transcriptStartPositionCountTable.get(startPositionId).intValue();
@@ -39,25 +39,6 @@ public class ComputeReadWeightsSam {
   private static int debugLevel = 0;
 
 
-  /***********************************************************************************/
-
-  private static HashSet<String> readChromosomeNames (BufferedReader chromosomeReader) throws IOException {
-
-    HashSet<String> chromosomeNames = new HashSet<String> (200);
-   
-    String line = chromosomeReader.readLine();
-    while (line != null) {
-      StringTokenizer st = new StringTokenizer (line, "\t");
-      if (st.hasMoreTokens ()) {
-	chromosomeNames.add(st.nextToken());
-      }
-      line = chromosomeReader.readLine();
-    }
-
-    return chromosomeNames;
-  }
-  
-
   /***********************************************************************************/
 
   private static void printHelp () {
@@ -166,8 +147,7 @@ public class ComputeReadWeightsSam {
       samProcessor.setWarningsOn(warningsOn);
 
       if (! chromosomeFilename.equals("")) {
-	BufferedReader chromosomeReader = UtilLib.getBufferedReader (chromosomeFilename);
-	HashSet<String> chromosomeIds = readChromosomeNames (chromosomeReader);
+	HashSet<String> chromosomeIds = UtilLib.readChromosomeNames (chromosomeFilename);
 	samProcessor.setReferenceSequenceIdSet (chromosomeIds);
       }
 
@@ -122,6 +122,10 @@ class FragmentEntry implements Comparable {
 
   private String fragmentName = null;
 
+  /* Sort key of the fragment name (see FragmentNameKey); computed on first use */
+  private long    fragmentKey    = FragmentNameKey.noKey;
+  private boolean fragmentKeySet = false;
+
   public FragmentEntry () {
 
     int debugLevel = UtilLib.getDebugLevel ();
@@ -404,7 +408,8 @@ class FragmentEntry implements Comparable {
 
   public void add (FragmentEntry f) throws IOException {
 
-    fragmentName = f.getFragmentName ();
+    fragmentName   = f.getFragmentName ();
+    fragmentKeySet = false;
 
     if (debugLevel >= 1) {
       System.out.println ("Adding fragment entry: " + f + " to " + this);
@@ -571,6 +576,14 @@ class FragmentEntry implements Comparable {
   public String getFragmentName () throws IOException {
     return UtilLib.modifyFragmentId(fragmentName);
   }
+
+  public long getFragmentKey () throws IOException {
+    if (! fragmentKeySet && fragmentName != null) {
+      fragmentKey    = FragmentNameKey.getKey (getFragmentName ());
+      fragmentKeySet = true;
+    }
+    return fragmentKey;
+  }
   
   public int getSumEditDistance () {
     return sumEditDistancePe + sumEditDistanceSr1 + sumEditDistanceSr2;
@@ -852,7 +865,7 @@ class FragmentEntry implements Comparable {
     FragmentEntry f = (FragmentEntry) o;
 
     try {
-      return getFragmentName().compareTo(f.getFragmentName ());
+      return FragmentNameKey.compare (getFragmentName(), getFragmentKey (), f.getFragmentName (), f.getFragmentKey ());
     } catch (IOException e) {
       System.err.println ("Comparison of " + this + " to " + f + " failed.");
       System.exit (1);
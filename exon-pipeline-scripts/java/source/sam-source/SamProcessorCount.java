@@ -48,7 +48,8 @@ class SamProcessorCount implements SamProcessor {
   private HashSetTable<String, String>     transcriptGeneMapTable       = null;
   private Hashtable<String, Integer>       transcriptPositionTable      = null;
   private Hashtable<String, FragmentEntry> readWeightTable              = null;
-  private Hashtable<String, Double>        geneCountTable               = null;
+  private CountAccumulator                geneCountTable               = null;
+  private CountAccumulator.Shard           geneCountShard               = null;
   private Hashtable<String, BitSet>        transcriptStartPositionTable = null;
 
   private BufferedReader readWeightReader = null;
@@ -86,13 +87,14 @@ class SamProcessorCount implements SamProcessor {
   }
 
   SamProcessorCount (HashSetTable<String, String> transcriptGeneMapTable, Hashtable<String, Integer> transcriptPositionTable, BufferedReader readWeightReader,
-		     double readWeightThreshold, int overlap, Hashtable<String, Double> geneCountTable, Hashtable<String, BitSet> transcriptStartPositionTable,
+		     double readWeightThreshold, int overlap, CountAccumulator geneCountTable, Hashtable<String, BitSet> transcriptStartPositionTable,
 		     boolean useAllGenes, boolean countReadAlignments, boolean primaryAlignmentsOnly, boolean unambiguous) {
     
     this.transcriptGeneMapTable       = transcriptGeneMapTable;
     this.transcriptPositionTable      = transcriptPositionTable;
     this.readWeightReader             = readWeightReader;
     this.geneCountTable               = geneCountTable;
+    this.geneCountShard               = geneCountTable.getShard ();
     this.transcriptStartPositionTable = transcriptStartPositionTable;
     
     this.overlap                 = overlap;
@@ -191,7 +193,7 @@ class SamProcessorCount implements SamProcessor {
    *
    ***********************************************************************************/
 
-  public void addReadWeight (String fragmentName, HashSet<String> geneIds, BufferedReader readWeightReader, Hashtable<String, Double> geneCountTable)
+  public void addReadWeight (String fragmentName, HashSet<String> geneIds, BufferedReader readWeightReader, CountAccumulator.Shard geneCountShard)
     throws IOException {
     
     if (debugLevel >= 1) {
@@ -220,21 +222,16 @@ class SamProcessorCount implements SamProcessor {
 
     if (readWeight >= readWeightThreshold) {
       for (String geneId: geneIds) {      
-	Double geneWeightDouble = geneCountTable.get(geneId);
-	
-	if (geneWeightDouble != null) {
+	int geneIndex = geneCountShard.getIndex (geneId);
+	if (debugLevel >= 2 || geneId.equals(specialGeneId)) {
+	  System.out.println("Gene: " + geneId + " adding " + fragmentName + " with weight " + readWeight + " to " + geneCountShard.get(geneIndex));
+	}
 
-	  if (debugLevel >= 2 || geneId.equals(specialGeneId)) {
-	    System.out.println("Gene: " + geneId + " adding " + fragmentName + " with weight " + readWeight + " to " + geneWeightDouble.doubleValue());
-	  }
-	  
-	  geneCountTable.put(geneId, new Double(geneWeightDouble.doubleValue() + readWeight));
-	} else {
-	  if (UtilLib.warningsOn ()) {
-	    System.err.println("WARNING: geneId " + geneId + " not in geneCountTable.");
-	  }
-	  geneCountTable.put(geneId, new Double(readWeight));
+	if (UtilLib.warningsOn () && ! geneCountShard.contains (geneIndex)) {
+	  System.err.println("WARNING: geneId " + geneId + " not in geneCountTable.");
 	}
+
+	geneCountShard.add(geneIndex, readWeight);
       }
 
       fragmentsCounted++;
@@ -276,7 +273,7 @@ class SamProcessorCount implements SamProcessor {
     if (geneIdSet == null) {
       if (useAllGenes) {
 	transcriptGeneMapTable.putValue (transcriptId, transcriptId);
-	geneCountTable.put(transcriptId, new Double(0));
+	geneCountShard.add(transcriptId, 0);
 	
 	geneIdSet = new HashSet<String> ();
 	geneIdSet.add (transcriptId);
@@ -422,7 +419,7 @@ class SamProcessorCount implements SamProcessor {
     }
 
     if (geneIds.size () > 0 && (! unambiguous || geneIds.size () == 1)) {
-      addReadWeight (fragmentName, geneIds, readWeightReader, geneCountTable);
+      addReadWeight (fragmentName, geneIds, readWeightReader, geneCountShard);
     }
 
     if (debugLevel >= 3) {
@@ -152,6 +152,8 @@ public class SamReader {
 
     Vector<SamRecord> samRecords = new Vector<SamRecord> (500);
 
+    StageMetrics stageMetrics = PipelineMetrics.getStage ("SamReader" + (filename == null?"":" " + filename));
+
     try {
 
       Pattern pattern = Pattern.compile("^F[0-9][0-9][0-9][0-9][0-9][0-9][0-9][0-9][0-9]$");
@@ -170,9 +172,13 @@ public class SamReader {
 	  System.err.flush();
 	}
 
+	stageMetrics.addLine (line);
+
 	if (! line.startsWith("@") && ! line.equals("")) {
 	
+	  long parseStartTime = stageMetrics.getStartTime ();
 	  SamRecord samRecord = new SamRecord (line, lineNumber, filename);
+	  stageMetrics.addParseTime (parseStartTime);
 	  if (! counterChecked) {
 	    counterChecked = true;
 	    Matcher match = pattern.matcher(samRecord.getFragmentName());
@@ -211,7 +217,9 @@ public class SamReader {
 		System.err.println ("Processing SAM records: " + samRecords);
 	      }
 	      
+	      long processStartTime = stageMetrics.getStartTime ();
 	      samProcessor.processSamRecords (samRecords);
+	      stageMetrics.addProcessTime (processStartTime);
 	      fragmentCounter.inc();
 	      samProcessor.init (samRecord);
 	      // samRecords.clear();
@@ -278,7 +286,9 @@ public class SamReader {
 	  System.err.println ("Processing last SAM Records set.");
 	  System.err.flush();
 	}
+	long processStartTime = stageMetrics.getStartTime ();
 	samProcessor.processSamRecords (samRecords);
+	stageMetrics.addProcessTime (processStartTime);
       }
 
       if (lineNumber >= countUnit) {
@@ -108,6 +108,14 @@ public class SamRecord implements Comparable<SamRecord> {
   private int endPosition = -1;
 
   private boolean useOriginalFragmentName = false;
+
+  /* Sort key of the fragment name (see FragmentNameKey); computed on first use */
+  private long    fragmentKey    = FragmentNameKey.noKey;
+  private boolean fragmentKeySet = false;
+
+  /* Sort key of the renamed fragment name and the count of fragmentCounter it was computed for */
+  private long renamedFragmentKey      = FragmentNameKey.noKey;
+  private int  renamedFragmentKeyCount = -1;
   
   Vector<BedEntry> bedEntries = new Vector<BedEntry> (5);
   
@@ -823,11 +831,29 @@ public class SamRecord implements Comparable<SamRecord> {
     return "F" + fragmentCounter.getZeroFilledCount ();
   }
 
+  public long getFragmentKey () {
+    if (fragmentCounter != null && ! useOriginalFragmentName) {
+      if (renamedFragmentKeyCount != fragmentCounter.getCount ()) {
+	renamedFragmentKey      = FragmentNameKey.getKey (getFragmentName ());
+	renamedFragmentKeyCount = fragmentCounter.getCount ();
+      }
+      return renamedFragmentKey;
+    }
+
+    if (! fragmentKeySet) {
+      fragmentKey    = FragmentNameKey.getKey (originalFragmentName);
+      fragmentKeySet = true;
+    }
+    
+    return fragmentKey;
+  }
+
   public void fixFragmentName () {
     if (fragmentCounter != null) {
       originalFragmentName = "F" + fragmentCounter.getZeroFilledCount ();
       originalQueryName = "F" + fragmentCounter.getZeroFilledCount () + "/" + (isFirstRead()?"1":"2");
       useOriginalFragmentName = true;
+      fragmentKeySet = false;
     }
   }
 
@@ -0,0 +1,586 @@
+/**File: SamRecordSorter.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class SamSortEntry
+ *
+ *   A SAM line together with its sort key: for coordinate order the key contains
+ *   the reference index in the upper and the position in the lower 32 bits; for
+ *   fragment name order the key is the FragmentNameKey of the fragment name. The
+ *   fragment name is only set for fragment name order; it is only compared if one
+ *   of the names has no key or the keys have different numbers of digits.
+ *
+ ***********************************************************************************/
+
+class SamSortEntry {
+
+  long   key          = 0;
+  String fragmentName = null;
+  String line         = null;
+
+  SamSortEntry (long key, String fragmentName, String line) {
+    this.key          = key;
+    this.fragmentName = fragmentName;
+    this.line         = line;
+  }
+
+  int compareTo (SamSortEntry entry) {
+
+    if (fragmentName == null) {
+      return key < entry.key?-1:(key == entry.key?0:1);
+    }
+
+    return FragmentNameKey.compare (fragmentName, key, entry.fragmentName, entry.key);
+
+  }
+
+  /* Approximate number of bytes occupied by the entry on the heap */
+  int getMemorySize () {
+    return 2 * (line.length () + (fragmentName == null?0:fragmentName.length ())) + 120;
+  }
+
+}
+
+
+/***********************************************************************************
+ *
+ *                              Class SamSortRun
+ *
+ *   A sorted run that was spilled to a temporary file. The entries are stored
+ *   deflated as key, fragment name (for fragment name order), and SAM line.
+ *
+ ***********************************************************************************/
+
+class SamSortRun implements Callable<SamSortRun> {
+
+  private File    runFile = null;
+  private int     runIndex = 0;
+  private boolean fragmentNameOrder = false;
+  private Vector<SamSortEntry> entries = null;
+  private DataInputStream inputStream = null;
+
+  SamSortEntry currentEntry = null;
+
+  SamSortRun (File runFile, int runIndex, boolean fragmentNameOrder, Vector<SamSortEntry> entries) {
+    this.runFile           = runFile;
+    this.runIndex          = runIndex;
+    this.fragmentNameOrder = fragmentNameOrder;
+    this.entries           = entries;
+  }
+
+  int getRunIndex () {
+    return runIndex;
+  }
+
+  void setRunIndex (int runIndex) {
+    this.runIndex = runIndex;
+  }
+
+  /* Sort and write the entries to the run file */
+  public SamSortRun call () throws IOException {
+
+    SamRecordSorter.sortEntries (entries);
+
+    DataOutputStream outputStream = getOutputStream ();
+    for (SamSortEntry entry: entries) {
+      writeEntry (outputStream, entry);
+    }
+    outputStream.close ();
+
+    entries = null;
+
+    return this;
+
+  }
+
+  DataOutputStream getOutputStream () throws IOException {
+    return new DataOutputStream (new BufferedOutputStream (new DeflaterOutputStream (new FileOutputStream (runFile), new Deflater (Deflater.BEST_SPEED), 1 << 16), 1 << 16));
+  }
+
+  void writeEntry (DataOutputStream outputStream, SamSortEntry entry) throws IOException {
+    outputStream.writeLong (entry.key);
+    if (fragmentNameOrder) {
+      writeString (outputStream, entry.fragmentName);
+    }
+    writeString (outputStream, entry.line);
+  }
+
+  void open () throws IOException {
+    inputStream = new DataInputStream (new BufferedInputStream (new InflaterInputStream (new FileInputStream (runFile), new Inflater (), 1 << 16), 1 << 16));
+    readNextEntry ();
+  }
+
+  /* Sets currentEntry to the next entry of the run or to null at the end of the run
+     whose file is deleted then */
+  void readNextEntry () throws IOException {
+
+    try {
+      long key = inputStream.readLong ();
+      String fragmentName = fragmentNameOrder?readString (inputStream):null;
+      String line         = readString (inputStream);
+      currentEntry = new SamSortEntry (key, fragmentName, line);
+    }
+    catch (EOFException e) {
+      currentEntry = null;
+      delete ();
+    }
+
+  }
+
+  void delete () {
+
+    if (inputStream != null) {
+      try {
+	inputStream.close ();
+      }
+      catch (IOException e) {
+	/* The run file is deleted anyway */
+      }
+      inputStream = null;
+    }
+
+    runFile.delete ();
+
+  }
+
+  private static void writeString (DataOutputStream outputStream, String s) throws IOException {
+    byte [] bytes = s.getBytes ("UTF-8");
+    outputStream.writeInt (bytes.length);
+    outputStream.write (bytes);
+  }
+
+  private static String readString (DataInputStream inputStream) throws IOException {
+    byte [] bytes = new byte [inputStream.readInt ()];
+    inputStream.readFully (bytes);
+    return new String (bytes, "UTF-8");
+  }
+
+}
+
+
+/***********************************************************************************
+ *
+ *                              Class SamRecordSorter
+ *
+ *   External merge sort of SAM lines by coordinate or by fragment name (the order
+ *   used by the merge-joins of CombineSamFiles, ComputeGenomeSamFile, etc.).
+ *   Lines are buffered until the memory budget is reached; then the buffer is
+ *   sorted and spilled as a compressed run to a temporary file (by a worker thread
+ *   if more than one thread is used). The runs are merged with a heap, at most
+ *   maxNumMergedRuns at a time: more runs are first merged in passes into fewer,
+ *   longer runs. A run file is deleted as soon as it has been merged. Lines with
+ *   equal keys keep their input order.
+ *
+ ***********************************************************************************/
+
+public class SamRecordSorter {
+
+  public static final int COORDINATE_ORDER    = 0;
+  public static final int FRAGMENT_NAME_ORDER = 1;
+
+  /* The number of runs which are open at the same time during a merge */
+  private static final int maxNumMergedRuns = 64;
+
+  private static final Comparator<SamSortEntry> entryComparator = new Comparator<SamSortEntry> () {
+    public int compare (SamSortEntry e1, SamSortEntry e2) {
+      return e1.compareTo (e2);
+    }
+  };
+
+  private int sortOrder = COORDINATE_ORDER;
+  private Hashtable<String, Integer> referenceIndexTable = new Hashtable<String, Integer> ();
+
+  private long bufferMemorySize = 0;
+  private long maxBufferMemorySize = 0;
+  private Vector<SamSortEntry> buffer = new Vector<SamSortEntry> ();
+
+  private File tempDir = null;
+  private int numThreads = 1;
+  private ExecutorService executorService = null;
+  private Vector<Future<SamSortRun>> runs = new Vector<Future<SamSortRun>> ();
+  private Vector<SamSortRun> intermediateRuns = new Vector<SamSortRun> ();
+
+  private int numLines = 0;
+
+
+  /***********************************************************************************
+   *
+   *                           Constructor
+   *
+   *   referenceNames defines the order of the references for the coordinate order;
+   *   unmapped reads without reference come last. memorySize is the number of bytes
+   *   that may be used for buffering; tempDir may be null for the default temporary
+   *   directory.
+   *
+   ***********************************************************************************/
+
+  SamRecordSorter (int sortOrder, Vector<String> referenceNames, long memorySize, int numThreads, File tempDir) {
+
+    this.sortOrder  = sortOrder;
+    this.tempDir    = tempDir;
+    this.numThreads = Math.max (numThreads, 1);
+
+    if (referenceNames != null) {
+      for (int i = 0; i < referenceNames.size (); i++) {
+	referenceIndexTable.put(referenceNames.get(i), Integer.valueOf (i));
+      }
+    }
+
+    /* With worker threads up to numThreads buffers are being spilled while the next one is filled */
+    maxBufferMemorySize = memorySize;
+    if (this.numThreads > 1) {
+      maxBufferMemorySize = memorySize / (this.numThreads + 1);
+      executorService = Executors.newFixedThreadPool (this.numThreads);
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  add: add one or more SAM lines separated by newlines; header and empty lines
+   *  are skipped
+   *
+   ***********************************************************************************/
+
+  public void add (String samLines) throws IOException {
+
+    int pos = 0;
+    while (pos < samLines.length()) {
+      int end = samLines.indexOf ('\n', pos);
+      if (end == -1) {
+	end = samLines.length();
+      }
+      if (end > pos && samLines.charAt(pos) != '@') {
+	addLine (samLines.substring (pos, end));
+      }
+      pos = end + 1;
+    }
+
+  }
+
+
+  private void addLine (String line) throws IOException {
+
+    SamSortEntry entry = createEntry (line);
+    buffer.add (entry);
+    bufferMemorySize += entry.getMemorySize ();
+    numLines++;
+
+    if (bufferMemorySize >= maxBufferMemorySize) {
+      spillBuffer ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  createEntry: compute the sort key from the first four fields
+   *
+   ***********************************************************************************/
+
+  private SamSortEntry createEntry (String line) throws IOException {
+
+    int end1 = line.indexOf ('\t');
+    int end2 = end1 == -1?-1:line.indexOf ('\t', end1 + 1);
+    int end3 = end2 == -1?-1:line.indexOf ('\t', end2 + 1);
+    int end4 = end3 == -1?-1:line.indexOf ('\t', end3 + 1);
+    if (end4 == -1) {
+      throw new IOException ("Too few fields in SAM line: " + line);
+    }
+
+    if (sortOrder == FRAGMENT_NAME_ORDER) {
+      String fragmentName = getFragmentName (line.substring (0, end1));
+      return new SamSortEntry (FragmentNameKey.getKey (fragmentName), fragmentName, line);
+    }
+
+    String referenceName = line.substring (end2 + 1, end3);
+    long referenceIndex = Integer.MAX_VALUE;
+    if (! referenceName.equals("*")) {
+      Integer index = referenceIndexTable.get(referenceName);
+      if (index == null) {
+	throw new IOException ("Unknown reference " + referenceName + " in SAM line: " + line);
+      }
+      referenceIndex = index.intValue ();
+    }
+
+    long position = UtilLib.toInt (line.substring (end3 + 1, end4));
+
+    return new SamSortEntry ((referenceIndex << 32) | position, null, line);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getFragmentName: remove the comment and the read suffix /1 or /2 as in
+   *  SamRecord
+   *
+   ***********************************************************************************/
+
+  private static String getFragmentName (String queryName) {
+
+    int spaceIndex = queryName.indexOf (' ');
+    if (spaceIndex > 0) {
+      queryName = queryName.substring (0, spaceIndex);
+    }
+
+    if (queryName.endsWith ("/1") || queryName.endsWith ("/2")) {
+      return queryName.substring (0, queryName.length () - 2);
+    }
+
+    return queryName;
+
+  }
+
+
+  /***********************************************************************************/
+
+  static void sortEntries (Vector<SamSortEntry> entries) {
+    /* Collections.sort is stable */
+    Collections.sort (entries, entryComparator);
+  }
+
+
+  /***********************************************************************************
+   *
+   *  spillBuffer: sort the current buffer and write it to a temporary run file
+   *
+   ***********************************************************************************/
+
+  private void spillBuffer () throws IOException {
+
+    if (buffer.size () == 0) {
+      return;
+    }
+
+    SamSortRun run = new SamSortRun (createRunFile (), runs.size (), sortOrder == FRAGMENT_NAME_ORDER, buffer);
+    if (executorService == null) {
+      FutureTask<SamSortRun> runTask = new FutureTask<SamSortRun> (run);
+      runTask.run ();
+      runs.add (runTask);
+      getRun (runTask);
+    } else {
+      /* Wait until at most numThreads runs are being written */
+      int numPending = 0;
+      for (Future<SamSortRun> future: runs) {
+	if (! future.isDone ()) {
+	  numPending++;
+	}
+      }
+      for (int i = 0; i < runs.size () && numPending >= numThreads; i++) {
+	if (! runs.get(i).isDone ()) {
+	  getRun (runs.get(i));
+	  numPending--;
+	}
+      }
+      runs.add (executorService.submit (run));
+    }
+
+    buffer = new Vector<SamSortEntry> ();
+    bufferMemorySize = 0;
+
+  }
+
+
+  /* The run files are deleted by close and not at the exit of the JVM which may run many sorts */
+  private File createRunFile () throws IOException {
+    return File.createTempFile ("sam-sort-run-", ".deflate", tempDir);
+  }
+
+
+  private static SamSortRun getRun (Future<SamSortRun> future) throws IOException {
+
+    try {
+      return future.get ();
+    }
+    catch (ExecutionException e) {
+      throw new IOException ("Problem writing SAM sort run: " + e.getCause ().getMessage ());
+    }
+    catch (InterruptedException e) {
+      throw new IOException ("Interrupted while writing SAM sort run.");
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  writeSorted: write the sorted SAM lines to outputWriter and bamWriter (each of
+   *  which may be null) and remove the temporary files
+   *
+   ***********************************************************************************/
+
+  public void writeSorted (PrintWriter outputWriter, BamWriter bamWriter) throws IOException {
+
+    try {
+
+      if (runs.size () == 0) {
+	sortEntries (buffer);
+	for (SamSortEntry entry: buffer) {
+	  writeLine (entry.line, outputWriter, bamWriter);
+	}
+	buffer = new Vector<SamSortEntry> ();
+	return;
+      }
+
+      spillBuffer ();
+
+      Vector<SamSortRun> mergedRuns = new Vector<SamSortRun> ();
+      for (Future<SamSortRun> future: runs) {
+	mergedRuns.add (getRun (future));
+      }
+
+      /* Merge consecutive runs into longer runs until the remaining runs can be merged at once */
+      while (mergedRuns.size () > maxNumMergedRuns) {
+	Vector<SamSortRun> nextRuns = new Vector<SamSortRun> ();
+	for (int i = 0; i < mergedRuns.size (); i += maxNumMergedRuns) {
+	  List<SamSortRun> passRuns = mergedRuns.subList (i, Math.min (i + maxNumMergedRuns, mergedRuns.size ()));
+	  SamSortRun nextRun = new SamSortRun (createRunFile (), nextRuns.size (), sortOrder == FRAGMENT_NAME_ORDER, null);
+	  nextRuns.add (nextRun);
+	  intermediateRuns.add (nextRun);
+	  DataOutputStream outputStream = nextRun.getOutputStream ();
+	  try {
+	    mergeRuns (passRuns, nextRun, outputStream, null, null);
+	  }
+	  finally {
+	    outputStream.close ();
+	  }
+	}
+	mergedRuns = nextRuns;
+      }
+
+      mergeRuns (mergedRuns, null, null, outputWriter, bamWriter);
+
+    }
+    finally {
+      close ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  mergeRuns: merge the runs into the run mergedRun or write the merged lines to
+   *  outputWriter and bamWriter
+   *
+   ***********************************************************************************/
+
+  private static void mergeRuns (List<SamSortRun> runList, SamSortRun mergedRun, DataOutputStream runStream,
+				 PrintWriter outputWriter, BamWriter bamWriter) throws IOException {
+
+    /* The run index breaks ties so that equal keys keep their input order */
+    PriorityQueue<SamSortRun> runQueue = new PriorityQueue<SamSortRun> (runList.size (), new Comparator<SamSortRun> () {
+	public int compare (SamSortRun r1, SamSortRun r2) {
+	  int result = r1.currentEntry.compareTo (r2.currentEntry);
+	  if (result != 0) {
+	    return result;
+	  }
+	  return r1.getRunIndex () - r2.getRunIndex ();
+	}
+      });
+
+    for (int i = 0; i < runList.size (); i++) {
+      SamSortRun run = runList.get(i);
+      run.setRunIndex (i);
+      run.open ();
+      if (run.currentEntry != null) {
+	runQueue.add (run);
+      }
+    }
+
+    while (runQueue.size () > 0) {
+      SamSortRun run = runQueue.poll ();
+      if (mergedRun != null) {
+	mergedRun.writeEntry (runStream, run.currentEntry);
+      } else {
+	writeLine (run.currentEntry.line, outputWriter, bamWriter);
+      }
+      run.readNextEntry ();
+      if (run.currentEntry != null) {
+	runQueue.add (run);
+      }
+    }
+
+  }
+
+
+  private static void writeLine (String line, PrintWriter outputWriter, BamWriter bamWriter) throws IOException {
+
+    if (outputWriter != null) {
+      outputWriter.println (line);
+    }
+    if (bamWriter != null) {
+      bamWriter.println (line);
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  public int getNumLines () {
+    return numLines;
+  }
+
+  public int getNumRuns () {
+    return runs.size ();
+  }
+
+
+  /***********************************************************************************
+   *
+   *  close: stop the worker threads and delete the run files
+   *
+   ***********************************************************************************/
+
+  public void close () {
+
+    if (executorService != null) {
+      executorService.shutdownNow ();
+      executorService = null;
+    }
+
+    for (Future<SamSortRun> future: runs) {
+      try {
+	if (future.isDone () && ! future.isCancelled ()) {
+	  future.get ().delete ();
+	}
+      }
+      catch (Exception e) {
+	/* The run file was not written */
+      }
+    }
+
+    for (SamSortRun run: intermediateRuns) {
+      run.delete ();
+    }
+    intermediateRuns = new Vector<SamSortRun> ();
+
+  }
+
+}
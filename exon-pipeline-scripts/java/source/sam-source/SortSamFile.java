@@ -0,0 +1,290 @@
+/**File: SortSamFile.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *
+ *                           Class SortSamFile
+ *
+ *
+ ***********************************************************************************/
+
+
+public class SortSamFile {
+
+  private static int debugLevel = 0;
+
+  private static final int countUnit = 5 * 1000 * 1000;
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("SortSamFile.java\n" +
+     "USAGE: java SortSamFile [-n] [-c <chromosome id file>] [-m <memory>]\n" +
+     "       [-t <threads>] [-T <temp dir>] -i <sam file> [-o <output file>]\n" +
+     "       [-B <BAM file>]\n" +
+     "\n" +
+     "Sorts a SAM file by coordinate or by fragment name with an external merge sort.\n" +
+     "\n" +
+     "<sam file>: the input SAM file (- for STDIN) [default: -].\n" +
+     "<output file>: the sorted SAM file (- for STDOUT) [default: -].\n" +
+     "-B STRING: write the sorted alignments to the BAM file STRING instead of the\n" +
+     "     SAM file.\n" +
+     "-c STRING: chromosome id file (fai file) with the chromosome names and lengths;\n" +
+     "     it determines the order of the chromosomes if the SAM file has no @SQ\n" +
+     "     header lines.\n" +
+     "-n: sort by fragment name (the order used by the merge tools) instead of by\n" +
+     "    coordinate.\n" +
+     "-m INT: use at most INT MB of memory to buffer alignments [2000]\n" +
+     "-t INT: use INT threads to sort and write the temporary runs [1]\n" +
+     "-T STRING: directory for the temporary files [java.io.tmpdir]\n");
+  }
+
+
+  /***********************************************************************************
+   *
+   *  readChromosomeLengths: read the names and lengths of a fai file
+   *
+   ***********************************************************************************/
+
+  private static void readChromosomeLengths (String chromosomeIdFilename, Vector<String> chromosomeNames, Vector<Integer> chromosomeLengths)
+    throws IOException {
+
+    BufferedReader chromosomeIdReader = UtilLib.getBufferedReader (chromosomeIdFilename);
+    String line = chromosomeIdReader.readLine();
+    while (line != null) {
+      StringTokenizer st = new StringTokenizer (line, "\t");
+      if (st.countTokens () < 2) {
+	throw new IOException ("Chromosome length missing in line: " + line + " of file " + chromosomeIdFilename);
+      }
+      chromosomeNames.add(st.nextToken());
+      chromosomeLengths.add(Integer.valueOf (UtilLib.toInt (st.nextToken())));
+      line = chromosomeIdReader.readLine();
+    }
+    chromosomeIdReader.close ();
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getHeaderField: return the value of field fieldName (e.g. "SN:") of a header
+   *  line
+   *
+   ***********************************************************************************/
+
+  private static String getHeaderField (String headerLine, String fieldName) {
+
+    StringTokenizer st = new StringTokenizer (headerLine, "\t");
+    while (st.hasMoreTokens()) {
+      String token = st.nextToken();
+      if (token.startsWith (fieldName)) {
+	return token.substring (fieldName.length ());
+      }
+    }
+
+    return "";
+
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    String samFilename          = "-";
+    String outputFilename       = "-";
+    String bamFilename          = "";
+    String chromosomeIdFilename = "";
+    String tempDirname          = "";
+    int    sortOrder            = SamRecordSorter.COORDINATE_ORDER;
+    int    memorySize           = 2000;
+    int    numThreads           = 1;
+
+    Getopt g = new Getopt("SortSamFile", args, "B:c:d:i:m:no:t:T:h");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'B':
+	bamFilename = g.getOptarg();
+	break;
+      case 'c':
+	chromosomeIdFilename = g.getOptarg();
+	break;
+      case 'd':
+	debugLevel = Integer.parseInt (g.getOptarg());
+	UtilLib.setDebugLevel (debugLevel);
+	break;
+      case 'i':
+	samFilename = g.getOptarg();
+	break;
+      case 'm':
+	memorySize = Integer.parseInt (g.getOptarg());
+	break;
+      case 'n':
+	sortOrder = SamRecordSorter.FRAGMENT_NAME_ORDER;
+	break;
+      case 'o':
+	outputFilename = g.getOptarg();
+	break;
+      case 't':
+	numThreads = Integer.parseInt (g.getOptarg());
+	break;
+      case 'T':
+	tempDirname = g.getOptarg();
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.out.print("Error: getopt() returned " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    if (debugLevel >= 2) {
+      System.out.println("Options read.");
+    }
+
+
+    String line = "";
+    SamRecordSorter samRecordSorter = null;
+    try {
+
+      Vector<String>  chromosomeNames   = new Vector<String>  (200);
+      Vector<Integer> chromosomeLengths = new Vector<Integer> (200);
+      if (! chromosomeIdFilename.equals("")) {
+	readChromosomeLengths (chromosomeIdFilename, chromosomeNames, chromosomeLengths);
+      }
+
+      BufferedReader samReader = UtilLib.getBufferedReader (samFilename);
+
+      /* Read the header; the @SQ lines take precedence over the chromosome id file */
+      Vector<String>  headerLines     = new Vector<String>  ();
+      Vector<String>  sqNames         = new Vector<String>  (200);
+      Vector<Integer> sqLengths       = new Vector<Integer> (200);
+      line = samReader.readLine();
+      while (line != null && line.startsWith ("@")) {
+	if (line.startsWith ("@SQ")) {
+	  sqNames.add(getHeaderField (line, "SN:"));
+	  sqLengths.add(Integer.valueOf (UtilLib.toInt (getHeaderField (line, "LN:"))));
+	}
+	headerLines.add(line);
+	line = samReader.readLine();
+      }
+
+      if (sqNames.size () > 0) {
+	chromosomeNames   = sqNames;
+	chromosomeLengths = sqLengths;
+      }
+
+      if (sortOrder == SamRecordSorter.COORDINATE_ORDER && chromosomeNames.size () == 0) {
+	throw new IOException ("ERROR: No @SQ header lines found in " + samFilename + ". Please specify a chromosome id file (option -c).");
+      }
+
+      /* Set the sort order in the @HD line and add @SQ lines if necessary */
+      String sortOrderName = sortOrder == SamRecordSorter.COORDINATE_ORDER?"coordinate":"queryname";
+      StringBuffer samHeader = new StringBuffer ();
+      if (headerLines.size () == 0 || ! headerLines.get(0).startsWith ("@HD")) {
+	samHeader.append ("@HD\tVN:1.0\tSO:" + sortOrderName + "\n");
+      }
+      for (int i = 0; i < headerLines.size (); i++) {
+	String headerLine = headerLines.get(i);
+	if (i == 0 && headerLine.startsWith ("@HD")) {
+	  String sortOrderField = getHeaderField (headerLine, "SO:");
+	  if (sortOrderField.equals("")) {
+	    headerLine = headerLine + "\tSO:" + sortOrderName;
+	  } else {
+	    headerLine = headerLine.replace ("SO:" + sortOrderField, "SO:" + sortOrderName);
+	  }
+	}
+	samHeader.append (headerLine + "\n");
+	if (i == 0 && sqNames.size () == 0) {
+	  for (int j = 0; j < chromosomeNames.size (); j++) {
+	    samHeader.append ("@SQ\tSN:" + chromosomeNames.get(j) + "\tLN:" + chromosomeLengths.get(j) + "\n");
+	  }
+	}
+      }
+      if (headerLines.size () == 0) {
+	for (int j = 0; j < chromosomeNames.size (); j++) {
+	  samHeader.append ("@SQ\tSN:" + chromosomeNames.get(j) + "\tLN:" + chromosomeLengths.get(j) + "\n");
+	}
+      }
+
+      samRecordSorter = new SamRecordSorter (sortOrder, chromosomeNames, memorySize * 1024L * 1024L, numThreads,
+					     tempDirname.equals("")?null:new File (UtilLib.getPath (tempDirname)));
+
+      int numLines = 0;
+      while (line != null) {
+	if (! line.equals ("")) {
+	  samRecordSorter.add (line);
+	}
+	numLines++;
+	if (numLines % countUnit == 0) {
+	  System.err.print (".");
+	}
+	line = samReader.readLine();
+      }
+      if (numLines >= countUnit) {
+	System.err.println();
+      }
+      samReader.close();
+
+      System.err.println("Sorting " + samRecordSorter.getNumLines () + " SAM records from " + samFilename + " in " + (samRecordSorter.getNumRuns () + 1) + " runs.");
+
+      PrintWriter outputWriter = null;
+      BamWriter   bamWriter    = null;
+      if (bamFilename.equals ("")) {
+	outputWriter = UtilLib.getPrintWriter (outputFilename);
+	outputWriter.print (samHeader.toString ());
+      } else {
+	bamWriter = new BamWriter (bamFilename, samHeader.toString (), chromosomeNames, chromosomeLengths);
+      }
+
+      samRecordSorter.writeSorted (outputWriter, bamWriter);
+
+      if (outputWriter != null) {
+	outputWriter.close ();
+      }
+      if (bamWriter != null) {
+	bamWriter.close ();
+      }
+
+    }
+    catch (IOException e) {
+      System.err.println ("Problem in line: " + line + ": " + (e==null?"No error message":e.getMessage()));
+      System.exit (1);
+    }
+    finally {
+      if (samRecordSorter != null) {
+	samRecordSorter.close ();
+      }
+    }
+  }
+}
@@ -43,7 +43,7 @@ public class SubtractSamFiles {
 
   private static void printHelp () {
     System.out.println("SubtractSamFiles.java\n" +                                              
-     "USAGE: java SubtractSamFiles [-s <slack constant>] [-t <distance threshold>]\n" +
+     "USAGE: java SubtractSamFiles [-s <slack constant>] [-t <distance threshold>] [-V]\n" +
      "       -1 <sam file 1> -2 <sam file 2> -w <read weight file1>\n" +
      "       -W <read weight file2> -o <output file> [-O <output weight file>]\n" +
      "\n" +
@@ -69,7 +69,9 @@ public class SubtractSamFiles {
      "           records; twice for paired-end reads [0.25].\n" + 
      "-t INT: edit distance threshold for aligned reads. Alignments with an edit\n" +
      "        distance more than the threshold are not reported (-1 for no\n" +
-     "        threshold [default: -1]\n");
+     "        threshold [default: -1]\n" +
+     "-V: validate that the read weight files are sorted by fragment name and report\n" +
+     "    the first fragment out of order.\n");
   }
                                     
 
@@ -96,7 +98,7 @@ public class SubtractSamFiles {
 
     final int countUnit = 5 * 1000 * 1000;
 
-    Getopt g = new Getopt("SubtractSamFiles", args, "1:2:d:o:O:s:t:w:W:h");
+    Getopt g = new Getopt("SubtractSamFiles", args, "1:2:d:o:O:s:t:Vw:W:h");
     
     int c;
     String arg = "";
@@ -128,6 +130,9 @@ public class SubtractSamFiles {
       case 't':
 	distanceThreshold = Integer.parseInt (g.getOptarg());
 	break;
+      case 'V':
+	FragmentNameKey.setValidateOrder (true);
+	break;
       case 'w':
 	readWeightFilename1 = g.getOptarg();
 	break;
@@ -0,0 +1,462 @@
+/**File: BatchPipe.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class BatchPipe
+ *
+ *   An in-memory pipe between two tools that run in the same JVM (see RunPipeline).
+ *   The text written to the pipe is cut into batches of whole lines which are
+ *   passed through a bounded queue: a writer blocks if the queue is full (back
+ *   pressure) and a reader blocks if it is empty. A pipe is addressed by the
+ *   filename pipe:<name> in UtilLib.getPrintWriter and UtilLib.getBufferedReader.
+ *
+ *   If one of the tools fails, all pipes are cancelled: blocked and subsequent reads
+ *   and writes throw an IOException so that the other tools terminate as well. If a
+ *   tool ends without reading all of its input, its pipes are closed and the tool
+ *   writing such a pipe fails as soon as it writes or closes the pipe.
+ *
+ ***********************************************************************************/
+
+public class BatchPipe {
+
+  public static final String pipePrefix = "pipe:";
+
+  private static int batchSize     = 64 * 1024;
+  private static int queueCapacity = 16;
+
+  private static Hashtable<String, BatchPipe> pipeTable = new Hashtable<String, BatchPipe> ();
+  private static volatile boolean isCancelled = false;
+
+  /* The end of the pipe */
+  private static final char [] endBatch = new char [0];
+
+  private String name = null;
+  private ArrayBlockingQueue<char []> batchQueue = null;
+
+  private Thread  writerThread = null;
+  private boolean writerClosed = false;
+  private Writer  pipeWriter   = null;
+
+  private Thread  readerThread = null;
+  private boolean readerOpened = false;
+  private Reader  pipeReader   = null;
+  private volatile boolean readerClosed = false;
+
+  /* The reader was closed before it read all lines, and the writer failed because of it */
+  private volatile boolean inputDropped = false;
+  private volatile boolean writeFailed  = false;
+
+  /* Batches and characters passed through the pipe and the number of batches in the queue */
+  private StageMetrics pipeMetrics = null;
+
+
+  /***********************************************************************************
+   *
+   *                           Constructor
+   *
+   ***********************************************************************************/
+
+  private BatchPipe (String name) {
+    this.name  = name;
+    batchQueue = new ArrayBlockingQueue<char []> (queueCapacity);
+    pipeMetrics = PipelineMetrics.getStage ("pipe " + name);
+  }
+
+
+  /***********************************************************************************/
+
+  public static void setBatchSize (int value) {
+    batchSize = value;
+  }
+
+  public static void setQueueCapacity (int value) {
+    queueCapacity = value;
+  }
+
+  public static boolean isPipeFilename (String filename) {
+    return filename.startsWith (pipePrefix);
+  }
+
+  private static synchronized BatchPipe getPipe (String filename) {
+
+    String pipeName = filename.substring (pipePrefix.length ());
+    BatchPipe batchPipe = pipeTable.get(pipeName);
+    if (batchPipe == null) {
+      batchPipe = new BatchPipe (pipeName);
+      pipeTable.put(pipeName, batchPipe);
+    }
+
+    return batchPipe;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getPrintWriter: the writer of pipe filename; each pipe has exactly one writer
+   *
+   ***********************************************************************************/
+
+  public static PrintWriter getPrintWriter (String filename) throws IOException {
+
+    BatchPipe batchPipe = getPipe (filename);
+    synchronized (batchPipe) {
+      if (batchPipe.pipeWriter != null) {
+	throw new IOException ("ERROR: Pipe " + batchPipe.name + " is written by more than one tool.");
+      }
+      batchPipe.writerThread = Thread.currentThread ();
+      batchPipe.pipeWriter   = batchPipe.new BatchWriter ();
+    }
+
+    return new PrintWriter (batchPipe.pipeWriter);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getBufferedReader: the reader of pipe filename; each pipe has exactly one reader
+   *
+   ***********************************************************************************/
+
+  public static BufferedReader getBufferedReader (String filename) throws IOException {
+
+    BatchPipe batchPipe = getPipe (filename);
+    synchronized (batchPipe) {
+      if (batchPipe.readerOpened) {
+	throw new IOException ("ERROR: Pipe " + batchPipe.name + " is read by more than one tool.");
+      }
+      batchPipe.readerOpened = true;
+      batchPipe.readerThread = Thread.currentThread ();
+      batchPipe.pipeReader   = batchPipe.new BatchReader ();
+    }
+
+    return new BufferedReader (batchPipe.pipeReader, batchSize);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getInputStream: the reader of pipe filename for tools which read bytes; the
+   *  characters are passed on as ISO-8859-1 bytes
+   *
+   ***********************************************************************************/
+
+  public static InputStream getInputStream (String filename) throws IOException {
+
+    final Reader reader = getBufferedReader (filename);
+
+    return new InputStream () {
+      private char [] charBuffer = new char [batchSize];
+
+      public int read () throws IOException {
+	return reader.read ();
+      }
+
+      public int read (byte [] b, int offset, int count) throws IOException {
+	int readCount = reader.read (charBuffer, 0, Math.min (count, charBuffer.length));
+	for (int i = 0; i < readCount; i++) {
+	  b[offset + i] = (byte) charBuffer[i];
+	}
+	return readCount;
+      }
+
+      public void close () throws IOException {
+	reader.close ();
+      }
+    };
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  closeWriters: close the pipes written by the current thread; this is called when
+   *  a tool terminates so that its readers see the end of the pipe even if the tool
+   *  does not close its output. An IOException is thrown if the reader of a pipe
+   *  ended before it read all lines of the pipe (PrintWriter hides the exceptions of
+   *  the writes of the tool).
+   *
+   ***********************************************************************************/
+
+  public static void closeWriters () throws IOException {
+
+    Vector<BatchPipe> batchPipes = null;
+    synchronized (BatchPipe.class) {
+      batchPipes = new Vector<BatchPipe> (pipeTable.values ());
+    }
+
+    for (BatchPipe batchPipe: batchPipes) {
+      if (batchPipe.writerThread == Thread.currentThread () && batchPipe.pipeWriter != null) {
+	batchPipe.pipeWriter.close ();
+	if (batchPipe.writeFailed) {
+	  throw new IOException ("ERROR: Pipe " + batchPipe.name + " is not read anymore: its reader ended before reading all lines.");
+	}
+      }
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  closeReaders: close the pipes read by the current thread; this is called when a
+   *  tool terminates so that a tool writing one of its pipes does not wait for the
+   *  tool forever.
+   *
+   ***********************************************************************************/
+
+  public static void closeReaders () throws IOException {
+
+    Vector<BatchPipe> batchPipes = null;
+    synchronized (BatchPipe.class) {
+      batchPipes = new Vector<BatchPipe> (pipeTable.values ());
+    }
+
+    for (BatchPipe batchPipe: batchPipes) {
+      if (batchPipe.readerThread == Thread.currentThread () && batchPipe.pipeReader != null) {
+	batchPipe.pipeReader.close ();
+	if (batchPipe.inputDropped && batchPipe.writerClosed && ! batchPipe.writeFailed) {
+	  System.err.println ("Warning: not all lines of pipe " + batchPipe.name + " were read.");
+	}
+      }
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  cancel: make all blocked and subsequent pipe operations fail
+   *
+   ***********************************************************************************/
+
+  public static void cancel () {
+    isCancelled = true;
+  }
+
+  public static boolean isCancelled () {
+    return isCancelled;
+  }
+
+  public static synchronized Vector<String> getUnconnectedPipes () {
+
+    Vector<String> pipeNames = new Vector<String> ();
+    for (BatchPipe batchPipe: pipeTable.values ()) {
+      if (batchPipe.pipeWriter == null || ! batchPipe.readerOpened) {
+	pipeNames.add (batchPipe.name);
+      }
+    }
+
+    return pipeNames;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  put and take: the blocking queue operations which check for cancellation
+   *
+   ***********************************************************************************/
+
+  private void put (char [] batch) throws IOException {
+
+    /* Nobody reads the pipe anymore */
+    if (readerClosed) {
+      checkReader (batch);
+      return;
+    }
+
+    try {
+      while (! batchQueue.offer (batch, 100, TimeUnit.MILLISECONDS)) {
+	if (isCancelled) {
+	  throw new IOException ("Pipe " + name + " cancelled.");
+	}
+	if (readerClosed) {
+	  checkReader (batch);
+	  return;
+	}
+      }
+      pipeMetrics.addRecords (1);
+      pipeMetrics.addBytes (batch.length);
+      pipeMetrics.setQueueDepth (batchQueue.size ());
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException ("Pipe " + name + " interrupted.");
+    }
+
+  }
+
+
+  /* The writer fails if lines are lost because the reader is closed */
+  private void checkReader (char [] batch) throws IOException {
+
+    if (batch != endBatch || inputDropped) {
+      writeFailed = true;
+      throw new IOException ("ERROR: Pipe " + name + " is not read anymore: its reader ended before reading all lines.");
+    }
+
+  }
+
+
+  private char [] take () throws IOException {
+
+    try {
+      char [] batch = batchQueue.poll (100, TimeUnit.MILLISECONDS);
+      while (batch == null) {
+	if (isCancelled) {
+	  throw new IOException ("Pipe " + name + " cancelled.");
+	}
+	batch = batchQueue.poll (100, TimeUnit.MILLISECONDS);
+      }
+      pipeMetrics.setQueueDepth (batchQueue.size ());
+      return batch;
+    }
+    catch (InterruptedException e) {
+      throw new InterruptedIOException ("Pipe " + name + " interrupted.");
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class BatchWriter
+   *
+   *   Collects the written characters and puts a batch into the queue as soon as the
+   *   batch size is reached at the end of a line.
+   *
+   ***********************************************************************************/
+
+  private class BatchWriter extends Writer {
+
+    private char [] buffer = new char [batchSize];
+    private int     length = 0;
+
+    public void write (char [] c, int offset, int count) throws IOException {
+
+      if (writerClosed) {
+	throw new IOException ("Pipe " + name + " is closed.");
+      }
+
+      for (int i = offset; i < offset + count; i++) {
+	if (length == buffer.length) {
+	  buffer = Arrays.copyOf (buffer, 2 * buffer.length);
+	}
+	buffer[length++] = c[i];
+	if (c[i] == '\n' && length >= batchSize) {
+	  putBuffer ();
+	}
+      }
+
+    }
+
+    private void putBuffer () throws IOException {
+
+      if (length > 0) {
+	put (Arrays.copyOf (buffer, length));
+	length = 0;
+	if (buffer.length > batchSize) {
+	  buffer = new char [batchSize];
+	}
+      }
+
+    }
+
+    /* Batches are only passed on when they are full or the pipe is closed */
+    public void flush () throws IOException {
+    }
+
+    public void close () throws IOException {
+
+      synchronized (BatchPipe.this) {
+	if (writerClosed) {
+	  return;
+	}
+	writerClosed = true;
+      }
+
+      putBuffer ();
+      put (endBatch);
+
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class BatchReader
+   *
+   ***********************************************************************************/
+
+  private class BatchReader extends Reader {
+
+    private char [] batch    = null;
+    private int     position = 0;
+    private boolean atEnd    = false;
+
+    public int read (char [] c, int offset, int count) throws IOException {
+
+      if (atEnd) {
+	return -1;
+      }
+
+      while (batch == null || position == batch.length) {
+	batch    = take ();
+	position = 0;
+	if (batch == endBatch) {
+	  atEnd = true;
+	  return -1;
+	}
+      }
+
+      int readCount = Math.min (count, batch.length - position);
+      System.arraycopy (batch, position, c, offset, readCount);
+      position += readCount;
+
+      return readCount;
+
+    }
+
+    public void close () throws IOException {
+
+      if (readerClosed) {
+	return;
+      }
+      readerClosed = true;
+
+      boolean unreadLines = batch != null && position < batch.length;
+      for (char [] queuedBatch: batchQueue) {
+	unreadLines = unreadLines || queuedBatch != endBatch;
+      }
+      inputDropped = ! atEnd && unreadLines;
+      batchQueue.clear ();
+
+    }
+
+  }
+
+}
@@ -40,6 +40,10 @@ class FragmentEntryFactory {
   private String  line               = "";
   private String  fragmentEntryId    = "";
   private boolean fragmentEntrySet   = false;
+  private int     lineNumber         = 0;
+
+  /* Only used in validation mode (option -V) */
+  private FragmentEntry previousFragmentEntry = null;
   
   private FragmentEntry  fragmentEntry = null;
   private BufferedReader weightReader  = null;
@@ -64,6 +68,15 @@ class FragmentEntryFactory {
     if (line != null) {
       fragmentEntry = new FragmentEntry (line);
       line = weightReader.readLine ();
+      lineNumber++;
+
+      if (FragmentNameKey.validateOrder ()) {
+	if (previousFragmentEntry != null) {
+	  FragmentNameKey.checkOrder (previousFragmentEntry.getFragmentName (), previousFragmentEntry.getFragmentKey (), fragmentEntry.getFragmentName (),
+				      fragmentEntry.getFragmentKey (), "Read weight file " + readWeightFilename, lineNumber);
+	}
+	previousFragmentEntry = fragmentEntry;
+      }
     }
 
     fragmentEntrySet = true;
@@ -82,8 +95,10 @@ class FragmentEntryFactory {
       return null;
     }
 
-    String queryFragmentEntryId = queryFragmentEntry.getFragmentName ();
-    while ((! fragmentEntrySet || queryFragmentEntry != null) && fragmentEntry != null && fragmentEntryId.compareTo(queryFragmentEntryId) < 0) {
+    String queryFragmentEntryId  = queryFragmentEntry.getFragmentName ();
+    long   queryFragmentEntryKey = queryFragmentEntry.getFragmentKey ();
+    while ((! fragmentEntrySet || queryFragmentEntry != null) && fragmentEntry != null &&
+	   FragmentNameKey.compare (fragmentEntryId, fragmentEntry.getFragmentKey (), queryFragmentEntryId, queryFragmentEntryKey) < 0) {
       fragmentEntry = getNextFragmentEntry ();
       
       if (debugLevel >= 1 && queryFragmentEntryId.equals(specialFragmentName)) {
@@ -163,7 +178,7 @@ public class CombineReadWeightFiles {
       return -1;
     }
 
-    return s1.compareTo(s2);
+    return FragmentNameKey.compare (s1, f1.getFragmentKey (), s2, f2.getFragmentKey ());
     
   }
 
@@ -282,7 +297,9 @@ public class CombineReadWeightFiles {
      "-m INT: weights in file1 are capped at this value; no capping if negative [-1].\n" +
      "-M INT: weights in file2 are capped at this value; no capping if negative [-1].\n" +
      "-o STRING: output file - the read weight file with the maximum of the alignment\n" +
-     "   numbers (- for STDOUT) [-].\n");
+     "   numbers (- for STDOUT) [-].\n" +
+     "-V: validate that the read weight files are sorted by fragment name and report\n" +
+     "    the first fragment out of order.\n");
   }
                                     
 
@@ -305,7 +322,7 @@ public class CombineReadWeightFiles {
     
     final int countUnit = 5 * 1000 * 1000;
 
-    Getopt g = new Getopt("CombineReadWeightFiles.java", args, "1:2:a:d:C:eF:m:M:o:h");
+    Getopt g = new Getopt("CombineReadWeightFiles.java", args, "1:2:a:d:C:eF:m:M:o:Vh");
     
     int c;
     String arg = "";
@@ -347,6 +364,9 @@ public class CombineReadWeightFiles {
       case 'M':
 	max2 = Integer.parseInt(g.getOptarg());
 	break;
+      case 'V':
+	FragmentNameKey.setValidateOrder (true);
+	break;
       case 'h':
 	printHelp();
 	System.exit(0);
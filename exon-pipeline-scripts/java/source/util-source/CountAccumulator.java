@@ -0,0 +1,336 @@
+/**File: CountAccumulator.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class CountAccumulator
+ *
+ *  The counts of the count objects of a counting tool. The count object ids are
+ *  mapped to dense indices; the ids of the count object map are registered when
+ *  the accumulator is created, other ids when they are first counted.
+ *
+ *  The counts are added to shards. A shard is a double [] over the dense indices
+ *  which is used by one thread at a time, so adding a count takes no lock. The
+ *  sums of a shard are compensated (Neumaier) and the shards are merged in the
+ *  order of their shard numbers. Hence, the counts do not depend on the number of
+ *  threads as long as the work of a shard is determined by the input (e.g. the
+ *  n-th batch of fragments is counted in shard n) and not by the thread which
+ *  happens to process it.
+ *
+ *  get returns null for a count object which was never counted (like the
+ *  Hashtable<String, Double> the accumulator replaces), so that the tools can
+ *  distinguish count objects without any fragment from count objects with a
+ *  count of 0.
+ *
+ *  The partial counts of a run on a part of the fragments are written with their
+ *  compensations (writePartialCounts) and read back as a shard of the accumulator
+ *  (readPartialCounts). Since the sums and compensations are kept, merging the
+ *  partial counts of the parts of an input gives the same counts as counting the
+ *  input in one run, up to rounding ties far below the precision of a double.
+ *
+ ***********************************************************************************/
+
+public class CountAccumulator {
+
+  private ConcurrentHashMap<String, Integer> idIndex = null;
+  private Vector<String>                     ids     = null;
+
+  /* The shards by shard number */
+  private TreeMap<Long, Shard> shards = new TreeMap<Long, Shard> ();
+
+
+  /***********************************************************************************/
+
+  public CountAccumulator (Collection<String> countObjectIds) {
+
+    idIndex = new ConcurrentHashMap<String, Integer> (Math.max (2 * countObjectIds.size (), 16));
+    ids     = new Vector<String> (Math.max (countObjectIds.size (), 16));
+    for (String countObjectId: countObjectIds) {
+      getIndex (countObjectId);
+    }
+
+  }
+
+  public CountAccumulator () {
+    this (new Vector<String> ());
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getIndex: the dense index of countObjectId which is registered if necessary
+   *
+   ***********************************************************************************/
+
+  public int getIndex (String countObjectId) {
+
+    Integer index = idIndex.get (countObjectId);
+    if (index != null) {
+      return index.intValue ();
+    }
+
+    synchronized (ids) {
+      index = idIndex.get (countObjectId);
+      if (index == null) {
+	index = new Integer (ids.size ());
+	ids.add (countObjectId);
+	idIndex.put (countObjectId, index);
+      }
+    }
+
+    return index.intValue ();
+
+  }
+
+  /* The dense index of countObjectId or -1 if it is not registered; the id is not registered */
+  public int findIndex (String countObjectId) {
+    Integer index = idIndex.get (countObjectId);
+    return index == null?-1:index.intValue ();
+  }
+
+  public int getNumIds () {
+    return ids.size ();
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getShard: the shard with number shardNumber; it is created if necessary
+   *
+   ***********************************************************************************/
+
+  public synchronized Shard getShard (long shardNumber) {
+
+    Shard shard = shards.get (shardNumber);
+    if (shard == null) {
+      shard = new Shard (this, getNumIds ());
+      shards.put (shardNumber, shard);
+    }
+
+    return shard;
+
+  }
+
+  /* The shard of a single-threaded tool */
+  public Shard getShard () {
+    return getShard (0);
+  }
+
+
+  /***********************************************************************************
+   *
+   *  Merged counts; the counts should only be read when no shard is being updated
+   *
+   ***********************************************************************************/
+
+  public synchronized Double get (String countObjectId) {
+
+    Integer index = idIndex.get (countObjectId);
+    if (index == null) {
+      return null;
+    }
+
+    double [] sumCompensation = new double [2];
+    if (! merge (index.intValue (), sumCompensation)) {
+      return null;
+    }
+
+    return new Double (sumCompensation[0] + sumCompensation[1]);
+
+  }
+
+  /* The merged sum and compensation of the count object with index i; false if it was never counted */
+  private boolean merge (int i, double [] sumCompensation) {
+
+    boolean counted = false;
+    double  sum     = 0;
+    double  compensation = 0;
+    for (Shard shard: shards.values ()) {
+      if (shard.isCounted (i)) {
+	counted = true;
+	double value = shard.sums[i];
+	double t = sum + value;
+	compensation = compensation + (Math.abs (sum) >= Math.abs (value)?(sum - t) + value:(value - t) + sum);
+	sum = t;
+	compensation = compensation + shard.compensations[i];
+      }
+    }
+
+    sumCompensation[0] = sum;
+    sumCompensation[1] = compensation;
+
+    return counted;
+
+  }
+
+  /* The ids of the counted count objects */
+  public synchronized HashSet<String> getKeys () {
+
+    HashSet<String> keys = new HashSet<String> ();
+    for (int i = 0; i < getNumIds (); i++) {
+      for (Shard shard: shards.values ()) {
+	if (shard.isCounted (i)) {
+	  keys.add (ids.get (i));
+	  break;
+	}
+      }
+    }
+
+    return keys;
+
+  }
+
+  /***********************************************************************************
+   *
+   *  Partial counts: one line "<count object id>\t<sum>\t<compensation>" for each
+   *  counted count object; lines starting with # are skipped when reading
+   *
+   ***********************************************************************************/
+
+  public synchronized void writePartialCounts (PrintWriter writer) {
+
+    double [] sumCompensation = new double [2];
+    for (int i = 0; i < getNumIds (); i++) {
+      if (merge (i, sumCompensation)) {
+	writer.println (ids.get (i) + "\t" + sumCompensation[0] + "\t" + sumCompensation[1]);
+      }
+    }
+
+  }
+
+  public void readPartialCounts (BufferedReader reader, long shardNumber) throws IOException {
+
+    Shard shard = getShard (shardNumber);
+
+    String line = reader.readLine ();
+    while (line != null) {
+      if (! line.startsWith ("#")) {
+	String [] fields = line.split ("\t");
+	if (fields.length < 3) {
+	  throw new IOException ("ERROR: Partial count line without sum and compensation: " + line);
+	}
+	shard.set (getIndex (fields[0]), UtilLib.toDouble (fields[1]), UtilLib.toDouble (fields[2]));
+      }
+      line = reader.readLine ();
+    }
+
+  }
+
+
+  public String toString () {
+    Hashtable<String, Double> countTable = new Hashtable<String, Double> ();
+    for (String countObjectId: getKeys ()) {
+      countTable.put (countObjectId, get (countObjectId));
+    }
+    return countTable.toString ();
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              Class Shard
+   *
+   *  The compensated sums of the counts of one shard
+   *
+   ***********************************************************************************/
+
+  public static class Shard {
+
+    private CountAccumulator accumulator = null;
+
+    private double[] sums          = null;
+    private double[] compensations = null;
+    private BitSet   counted       = new BitSet ();
+
+    private Shard (CountAccumulator accumulator, int numIds) {
+      this.accumulator = accumulator;
+      sums          = new double [Math.max (numIds, 16)];
+      compensations = new double [sums.length];
+    }
+
+    private boolean isCounted (int index) {
+      return counted.get (index);
+    }
+
+    /* The dense index of countObjectId which is registered if necessary */
+    public int getIndex (String countObjectId) {
+      return accumulator.getIndex (countObjectId);
+    }
+
+    /* True if countObjectId was counted in the shard */
+    public boolean contains (String countObjectId) {
+      int index = accumulator.findIndex (countObjectId);
+      return index >= 0 && isCounted (index);
+    }
+
+    public boolean contains (int index) {
+      return isCounted (index);
+    }
+
+    public void add (String countObjectId, double value) {
+      add (accumulator.getIndex (countObjectId), value);
+    }
+
+    private void ensureCapacity (int index) {
+      if (index >= sums.length) {
+	int length = Math.max (index + 1, 2 * sums.length);
+	sums          = Arrays.copyOf (sums, length);
+	compensations = Arrays.copyOf (compensations, length);
+      }
+    }
+
+    private void set (int index, double sum, double compensation) {
+      ensureCapacity (index);
+      sums[index]          = sum;
+      compensations[index] = compensation;
+      counted.set (index);
+    }
+
+    public void add (int index, double value) {
+
+      ensureCapacity (index);
+
+      double sum = sums[index];
+      double t   = sum + value;
+      if (Math.abs (sum) >= Math.abs (value)) {
+	compensations[index] = compensations[index] + ((sum - t) + value);
+      } else {
+	compensations[index] = compensations[index] + ((value - t) + sum);
+      }
+      sums[index] = t;
+      counted.set (index);
+
+    }
+
+    /* The count of the shard only */
+    public double get (String countObjectId) {
+      return get (accumulator.findIndex (countObjectId));
+    }
+
+    public double get (int index) {
+      return index >= 0 && index < sums.length?sums[index] + compensations[index]:0;
+    }
+
+  }
+
+}
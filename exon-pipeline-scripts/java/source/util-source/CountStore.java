@@ -0,0 +1,451 @@
+/**File: CountStore.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class CountStore
+ *
+ *  The counts of the samples of a project in a directory, one column file per
+ *  sample, for a fixed set of count objects (the rows). A sample is added or
+ *  replaced by writing its column file only, so the cost of an update depends on
+ *  the new samples and not on the number of samples in the store.
+ *
+ *  The directory contains
+ *
+ *    rows.txt:     the count object ids, one per line
+ *    samples.txt:  the lines <sample name> <column file> in the order in which
+ *                  the samples were added
+ *    *.col:        the column files - the counts of the rows as big-endian
+ *                  doubles
+ *    .lock:        the lock file for updates
+ *
+ *  An update writes the new column file, locks the store (also against updates of
+ *  other processes, e.g. ComputeCounts jobs on other nodes which finish at the
+ *  same time), and replaces samples.txt by renaming a new version of it. Readers
+ *  therefore see either the old or the new set of samples.
+ *
+ ***********************************************************************************/
+
+public class CountStore {
+
+  private static final String rowsFilename    = "rows.txt";
+  private static final String samplesFilename = "samples.txt";
+  private static final String lockFilename    = ".lock";
+  private static final String columnSuffix    = ".col";
+
+  /* The thread of this process which holds the lock of a store */
+  private static Thread lockingThread = null;
+
+  private File storeDir = null;
+
+  private Vector<String>           rowIds   = new Vector<String> ();
+  private HashMap<String, Integer> rowIndex = new HashMap<String, Integer> ();
+
+
+  /***********************************************************************************
+   *
+   *  open: open the count store in directory storeDirName. If rowIds is not null,
+   *  the store is created with the rows rowIds if it does not exist and, otherwise,
+   *  its rows have to be equal to rowIds.
+   *
+   ***********************************************************************************/
+
+  public static CountStore open (String storeDirName, Collection<String> rowIds) throws IOException {
+
+    File storeDir = new File (storeDirName);
+    if (rowIds != null && ! storeDir.isDirectory () && ! storeDir.mkdirs () && ! storeDir.isDirectory ()) {
+      throw new IOException ("ERROR: Count store directory " + storeDirName + " cannot be created.");
+    }
+
+    if (! storeDir.isDirectory ()) {
+      throw new IOException ("ERROR: Count store " + storeDirName + " not found.");
+    }
+
+    CountStore countStore = new CountStore (storeDir);
+
+    FileLock lock = countStore.lock ();
+    try {
+      File rowsFile = new File (storeDir, rowsFilename);
+      if (rowsFile.exists ()) {
+	countStore.readRows (rowsFile);
+	if (rowIds != null && ! countStore.rowIds.equals (new Vector<String> (rowIds))) {
+	  throw new IOException ("ERROR: The count objects of count store " + storeDirName + " differ from the count objects of the count object map.");
+	}
+      } else if (rowIds != null) {
+	System.err.println ("Creating count store " + storeDirName + " with " + rowIds.size () + " count objects.");
+	countStore.writeRows (rowsFile, rowIds);
+	countStore.writeSampleColumns (new LinkedHashMap<String, String> ());
+      } else {
+	throw new IOException ("ERROR: " + storeDirName + " is not a count store.");
+      }
+    }
+    finally {
+      countStore.unlock (lock);
+    }
+
+    return countStore;
+
+  }
+
+  public static CountStore open (String storeDirName) throws IOException {
+    return open (storeDirName, null);
+  }
+
+  private CountStore (File storeDir) {
+    this.storeDir = storeDir;
+  }
+
+
+  /***********************************************************************************/
+
+  public int getNumRows () {
+    return rowIds.size ();
+  }
+
+  public Vector<String> getRowIds () {
+    return rowIds;
+  }
+
+  /* -1 if countObjectId is not a row of the store */
+  public int getRowIndex (String countObjectId) {
+    Integer row = rowIndex.get (countObjectId);
+    return row == null?-1:row.intValue ();
+  }
+
+  public Vector<String> getSampleNames () throws IOException {
+    return new Vector<String> (readSampleColumns ().keySet ());
+  }
+
+
+  /***********************************************************************************
+   *
+   *  putSample: add the counts of sample sampleName (in the order of the rows) or
+   *  replace them if the sample exists already; returns true if the sample was
+   *  replaced
+   *
+   ***********************************************************************************/
+
+  public boolean putSample (String sampleName, DoubleBuffer counts) throws IOException {
+
+    if (sampleName.equals("") || sampleName.indexOf ('\t') >= 0 || sampleName.indexOf ('\n') >= 0) {
+      throw new IOException ("ERROR: Invalid sample name \"" + sampleName + "\" for count store " + storeDir + ".");
+    }
+
+    if (counts.remaining () != getNumRows ()) {
+      throw new IOException ("ERROR: " + counts.remaining () + " counts for sample " + sampleName + " but count store " + storeDir + " has " +
+			     getNumRows () + " count objects.");
+    }
+
+    /* The column is written before the store is locked */
+    File tmpColumnFile = File.createTempFile ("column-", ".tmp", storeDir);
+    try {
+      writeColumn (tmpColumnFile, counts.duplicate ());
+    }
+    catch (IOException e) {
+      tmpColumnFile.delete ();
+      throw e;
+    }
+
+    String tmpColumnName = tmpColumnFile.getName ();
+    File   columnFile    = new File (storeDir, tmpColumnName.substring (0, tmpColumnName.length () - ".tmp".length ()) + columnSuffix);
+
+    String oldColumnFilename = null;
+    FileLock lock = lock ();
+    try {
+      if (! tmpColumnFile.renameTo (columnFile)) {
+	throw new IOException ("ERROR: " + tmpColumnFile + " cannot be renamed to " + columnFile + ".");
+      }
+
+      LinkedHashMap<String, String> sampleColumns = readSampleColumns ();
+      oldColumnFilename = sampleColumns.put (sampleName, columnFile.getName ());
+      writeSampleColumns (sampleColumns);
+
+      /* Readers which mapped the old column file keep their mapping */
+      if (oldColumnFilename != null) {
+	new File (storeDir, oldColumnFilename).delete ();
+      }
+    }
+    catch (IOException e) {
+      tmpColumnFile.delete ();
+      columnFile.delete ();
+      throw e;
+    }
+    finally {
+      unlock (lock);
+    }
+
+    return oldColumnFilename != null;
+
+  }
+
+  public boolean putSample (String sampleName, double[] counts) throws IOException {
+    return putSample (sampleName, DoubleBuffer.wrap (counts));
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getColumn: the counts of sample sampleName (in the order of the rows)
+   *
+   ***********************************************************************************/
+
+  public DoubleBuffer getColumn (String sampleName) throws IOException {
+
+    /* The column file of a replaced sample is deleted while the store is locked */
+    FileLock lock = lock ();
+    try {
+      return mapColumn (sampleName, readSampleColumns ().get (sampleName));
+    }
+    finally {
+      unlock (lock);
+    }
+
+  }
+
+  private DoubleBuffer mapColumn (String sampleName, String columnFilename) throws IOException {
+
+    if (columnFilename == null) {
+      throw new IOException ("ERROR: Sample " + sampleName + " not found in count store " + storeDir + ".");
+    }
+
+    RandomAccessFile columnRandomAccessFile = new RandomAccessFile (new File (storeDir, columnFilename), "r");
+    try {
+      FileChannel columnChannel = columnRandomAccessFile.getChannel ();
+      if (columnChannel.size () != (long) getNumRows () * 8) {
+	throw new IOException ("ERROR: Column file " + columnFilename + " of sample " + sampleName + " in count store " + storeDir + " has the wrong size.");
+      }
+      /* The mapping remains valid after the file is closed or deleted */
+      return columnChannel.map (FileChannel.MapMode.READ_ONLY, 0, columnChannel.size ()).asDoubleBuffer ();
+    }
+    finally {
+      columnRandomAccessFile.close ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  export: write the counts of the samples sampleNames (all samples if null) as
+   *  a table with the header line "Id <sample name> ..." as written by
+   *  CombineCountFiles
+   *
+   ***********************************************************************************/
+
+  public void export (PrintWriter writer, Vector<String> sampleNames, boolean outputZeroes) throws IOException {
+
+    DoubleBuffer [] columns = null;
+    FileLock lock = lock ();
+    try {
+      LinkedHashMap<String, String> sampleColumns = readSampleColumns ();
+      if (sampleNames == null) {
+	sampleNames = new Vector<String> (sampleColumns.keySet ());
+      }
+
+      columns = new DoubleBuffer [sampleNames.size ()];
+      for (int i = 0; i < sampleNames.size (); i++) {
+	columns[i] = mapColumn (sampleNames.get (i), sampleColumns.get (sampleNames.get (i)));
+      }
+    }
+    finally {
+      unlock (lock);
+    }
+
+    StringBuffer lineBuffer = new StringBuffer ("Id");
+    for (String sampleName: sampleNames) {
+      lineBuffer.append ("\t" + sampleName);
+    }
+    writer.println (lineBuffer);
+
+    for (int row = 0; row < getNumRows (); row++) {
+      boolean isZero = true;
+      lineBuffer.setLength (0);
+      lineBuffer.append (rowIds.get (row));
+      for (int i = 0; i < columns.length; i++) {
+	double count = columns[i].get (row);
+	isZero = isZero && count == 0;
+	lineBuffer.append ('\t');
+	lineBuffer.append (count);
+      }
+
+      if (outputZeroes || ! isZero) {
+	writer.println (lineBuffer);
+      }
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  The store files
+   *
+   ***********************************************************************************/
+
+  private void readRows (File rowsFile) throws IOException {
+
+    BufferedReader reader = new BufferedReader (new FileReader (rowsFile));
+    String line = reader.readLine ();
+    while (line != null) {
+      rowIndex.put (line, new Integer (rowIds.size ()));
+      rowIds.add (line);
+      line = reader.readLine ();
+    }
+    reader.close ();
+
+  }
+
+  private void writeRows (File rowsFile, Collection<String> rowIds) throws IOException {
+
+    File tmpRowsFile = new File (storeDir, rowsFilename + ".tmp");
+    PrintWriter writer = new PrintWriter (new BufferedWriter (new FileWriter (tmpRowsFile)));
+    for (String countObjectId: rowIds) {
+      rowIndex.put (countObjectId, new Integer (this.rowIds.size ()));
+      this.rowIds.add (countObjectId);
+      writer.println (countObjectId);
+    }
+    writer.close ();
+
+    if (writer.checkError () || ! tmpRowsFile.renameTo (rowsFile)) {
+      throw new IOException ("ERROR: Rows of count store " + storeDir + " cannot be written.");
+    }
+
+  }
+
+  private LinkedHashMap<String, String> readSampleColumns () throws IOException {
+
+    LinkedHashMap<String, String> sampleColumns = new LinkedHashMap<String, String> ();
+
+    BufferedReader reader = new BufferedReader (new FileReader (new File (storeDir, samplesFilename)));
+    String line = reader.readLine ();
+    while (line != null) {
+      int tabPos = line.indexOf ('\t');
+      if (tabPos < 0) {
+	reader.close ();
+	throw new IOException ("ERROR: Invalid line " + line + " in " + samplesFilename + " of count store " + storeDir + ".");
+      }
+      sampleColumns.put (line.substring (0, tabPos), line.substring (tabPos + 1));
+      line = reader.readLine ();
+    }
+    reader.close ();
+
+    return sampleColumns;
+
+  }
+
+  /* Only called while the store is locked */
+  private void writeSampleColumns (LinkedHashMap<String, String> sampleColumns) throws IOException {
+
+    File tmpSamplesFile = new File (storeDir, samplesFilename + ".tmp");
+    PrintWriter writer = new PrintWriter (new BufferedWriter (new FileWriter (tmpSamplesFile)));
+    for (Map.Entry<String, String> sampleColumn: sampleColumns.entrySet ()) {
+      writer.println (sampleColumn.getKey () + "\t" + sampleColumn.getValue ());
+    }
+    writer.close ();
+
+    if (writer.checkError () || ! tmpSamplesFile.renameTo (new File (storeDir, samplesFilename))) {
+      throw new IOException ("ERROR: Samples of count store " + storeDir + " cannot be written.");
+    }
+
+  }
+
+  private static void writeColumn (File columnFile, DoubleBuffer counts) throws IOException {
+
+    FileOutputStream columnOutputStream = new FileOutputStream (columnFile);
+    try {
+      FileChannel columnChannel = columnOutputStream.getChannel ();
+      ByteBuffer  buffer        = ByteBuffer.allocate (64 * 1024);
+      while (counts.hasRemaining ()) {
+	buffer.clear ();
+	while (counts.hasRemaining () && buffer.remaining () >= 8) {
+	  buffer.putDouble (counts.get ());
+	}
+	buffer.flip ();
+	while (buffer.hasRemaining ()) {
+	  columnChannel.write (buffer);
+	}
+      }
+      columnChannel.force (true);
+    }
+    finally {
+      columnOutputStream.close ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  lock: the file lock excludes other processes, the monitor of the class other
+   *  threads of this process (a file lock is held by the whole process)
+   *
+   ***********************************************************************************/
+
+  private FileLock lock () throws IOException {
+
+    RandomAccessFile lockFile = new RandomAccessFile (new File (storeDir, lockFilename), "rw");
+    synchronized (CountStore.class) {
+      while (lockingThread != null) {
+	try {
+	  CountStore.class.wait ();
+	}
+	catch (InterruptedException e) {
+	  lockFile.close ();
+	  throw new IOException ("ERROR: Interrupted while waiting for count store " + storeDir + ".");
+	}
+      }
+      lockingThread = Thread.currentThread ();
+    }
+
+    try {
+      return lockFile.getChannel ().lock ();
+    }
+    catch (IOException e) {
+      lockFile.close ();
+      releaseThreadLock ();
+      throw e;
+    }
+
+  }
+
+  private void unlock (FileLock lock) throws IOException {
+
+    try {
+      lock.release ();
+      lock.channel ().close ();
+    }
+    finally {
+      releaseThreadLock ();
+    }
+
+  }
+
+  private static void releaseThreadLock () {
+    synchronized (CountStore.class) {
+      lockingThread = null;
+      CountStore.class.notifyAll ();
+    }
+  }
+
+}
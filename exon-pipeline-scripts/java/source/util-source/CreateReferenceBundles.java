@@ -0,0 +1,88 @@
+/**File: CreateReferenceBundles.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class CreateReferenceBundles
+ *
+ *   Creates the memory-mapped reference bundle <file>.bundle for each reference
+ *   file <file> given on the command line (see ReferenceBundle).
+ *
+ ***********************************************************************************/
+
+public class CreateReferenceBundles {
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("CreateReferenceBundles\n" +
+     "USAGE: CreateReferenceBundles <reference file 1> [<reference file 2> ...]\n" +
+     "\n" +
+     "Creates <reference file>.bundle for each reference file. The bundles are used by\n" +
+     "ComputeCounts, ComputeExonCountsBed, ComputeGeneCountsSam, ComputeReadWeightsSam,\n" +
+     "ExtractSplicedExonExonIds, and FilterSplicedReads instead of the count object\n" +
+     "map, transcript gene map, chromosome id, and GTF files as long as the reference\n" +
+     "files are not modified. The bundles need to be created once per reference\n" +
+     "release; bin/create-bowtie2-indices.sh creates them for the map, GTF, and\n" +
+     "chromosome id files of a project.\n");
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    Getopt g = new Getopt("CreateReferenceBundles", args, "h");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    if (g.getOptind () >= args.length) {
+      printHelp();
+      System.exit(1);
+    }
+
+    try {
+      for (int i = g.getOptind (); i < args.length; i++) {
+	ReferenceBundle.create (args[i]);
+      }
+    }
+    catch (IOException e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      System.exit (1);
+    }
+  }
+}
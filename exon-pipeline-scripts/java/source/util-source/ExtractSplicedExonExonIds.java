@@ -20,6 +20,7 @@ permissions and limitations under the License.
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,6 +38,36 @@ class GtfEntry {
   private static int debugLevel = 0;
 
   
+  /***********************************************************************************/
+
+  private static String [] getFields (String line) {
+
+    StringTokenizer st = new StringTokenizer (line, "\t");
+    String [] fields = new String [st.countTokens ()];
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = st.nextToken ();
+    }
+
+    return fields;
+
+  }
+
+  private static String getLine (String [] fields, String line) {
+
+    if (line != null) {
+      return line;
+    }
+
+    line = "";
+    for (int i = 0; i < fields.length; i++) {
+      line = line + (i > 0?"\t":"") + fields[i];
+    }
+
+    return line;
+
+  }
+
+
   /***********************************************************************************
    *
    *                             Object variables
@@ -75,12 +106,16 @@ class GtfEntry {
 
 
   GtfEntry (String line) throws IOException {
+    this (getFields (line), line);
+  }
+
+
+  /* The fields of a GTF line, e.g. of a reference bundle; line is only used for messages and may be null */
+  GtfEntry (String [] fields, String line) throws IOException {
 
-    StringTokenizer st = new StringTokenizer (line, "\t");
-    int i = 0;
     String attributes = "";
-    while (st.hasMoreTokens ()) {
-      String token = st.nextToken ();
+    for (int i = 0; i < fields.length; i++) {
+      String token = fields[i];
       switch (i) {
       case 0:
 	referenceName = token;
@@ -110,11 +145,8 @@ class GtfEntry {
 	attributes = token;
 	break;
       default:
-	System.err.println ("Too many fields for GFT entry: " + line);
+	System.err.println ("Too many fields for GFT entry: " + getLine (fields, line));
       }
-
-      i += 1;
-      
     }
 
     String idField = "";
@@ -132,13 +164,13 @@ class GtfEntry {
 	  }
 	  
 	  if (tokenSt.hasMoreTokens ()) {
-	    throw new IOException ("Attributes of GTF entry " + line + " wrongly formatted for field " + token);
+	    throw new IOException ("Attributes of GTF entry " + getLine (fields, line) + " wrongly formatted for field " + token);
 	  }
 	} else {
-	  throw new IOException ("Attributes of GTF entry " + line + " wrongly formatted for field " + token);
+	  throw new IOException ("Attributes of GTF entry " + getLine (fields, line) + " wrongly formatted for field " + token);
 	}
       } else {
-	throw new IOException ("Attributes of GTF entry " + line + " wrongly formatted for field " + token);
+	throw new IOException ("Attributes of GTF entry " + getLine (fields, line) + " wrongly formatted for field " + token);
       }
     }
 
@@ -248,6 +280,124 @@ class GtfEntry {
 
 
 
+/***********************************************************************************
+ *
+ *                              Class IntronIntervalBatch
+ *
+ *   Computes the intron intervals of a batch of SAM lines of one chromosome; the
+ *   batches are processed in parallel in ExtractSplicedExonExonIds. The batch keeps
+ *   the chromosome and the position of its first SAM line and, if the intervals are
+ *   quantified, the fragment names of its spliced SAM records.
+ *
+ ***********************************************************************************/
+
+class IntronIntervalBatch implements Callable<IntronIntervalBatch> {
+
+  private Vector<String> lines = null;
+  private int firstLineNumber = 0;
+  private String samFilename = null;
+  private boolean quantify = false;
+  private String chromosome = "";
+  private int firstPosition = 0;
+  
+  private TreeSet<Interval> intronIntervals = new TreeSet <Interval> ();
+  private Vector<String> splicedFragmentNames = new Vector<String> ();
+  private int numSplicedSamRecords = 0;
+  private int numSamJunctions = 0;
+  private int softClippingLength = 0;
+
+  
+  IntronIntervalBatch (Vector<String> lines, int firstLineNumber, String samFilename, boolean quantify, String chromosome, int firstPosition) {
+    this.lines           = lines;
+    this.firstLineNumber = firstLineNumber;
+    this.samFilename     = samFilename;
+    this.quantify        = quantify;
+    this.chromosome      = chromosome;
+    this.firstPosition   = firstPosition;
+  }
+
+
+  public int getNumLines () {
+    return lines.size ();
+  }
+
+  public IntronIntervalBatch call () throws IOException {
+
+    int lineNumber = firstLineNumber;
+    for (String line: lines) {
+
+      SamRecord samRecord = new SamRecord (line, lineNumber, samFilename);
+      lineNumber++;
+      if (! samRecord.isMapped()) {
+	continue;
+      }
+
+      CiagrString ciagrString = new CiagrString (samRecord, true);
+      softClippingLength += ciagrString.getSoftClippingLength ();
+      
+      if (samRecord.isSpliced ()) {
+	int position = samRecord.getPosition ();
+	Vector<int []> localIntronCoordinates = ciagrString.getIntronCoordinates ();
+	if (localIntronCoordinates.size() > 0) {
+	  numSplicedSamRecords += 1;
+	  if (quantify) {
+	    splicedFragmentNames.add (samRecord.getFragmentName ());
+	  }
+	  for (int [] localIntronInterval: localIntronCoordinates) {
+	    localIntronInterval[0] += position - 1;
+	    localIntronInterval[1] += position - 1;
+	    Interval interval = null;
+	    if (quantify) {
+	      interval = new Interval(samRecord.getReferenceName(), localIntronInterval, samRecord.getFragmentName ());
+	    } else {
+	      interval = new Interval(samRecord.getReferenceName(), localIntronInterval);
+	    }
+	    if (! intronIntervals.contains (interval)) {
+	      intronIntervals.add (interval);
+	    }
+	    numSamJunctions++;
+	  }
+	}
+      }
+    }
+
+    lines = null;
+    return this;
+    
+  }
+
+  public String getChromosome () {
+    return chromosome;
+  }
+
+  public int getFirstPosition () {
+    return firstPosition;
+  }
+
+  public TreeSet<Interval> getIntronIntervals () {
+    return intronIntervals;
+  }
+
+  public Vector<String> getSplicedFragmentNames () {
+    return splicedFragmentNames;
+  }
+
+  public int getNumSplicedSamRecords () {
+    return numSplicedSamRecords;
+  }
+
+  public int getNumSamJunctions () {
+    return numSamJunctions;
+  }
+
+  public int getSoftClippingLength () {
+    return softClippingLength;
+  }
+
+}
+
+
+
 /***********************************************************************************
  *
  *                              Class ExtractSplicedExonExonIds
@@ -263,6 +413,41 @@ public class ExtractSplicedExonExonIds {
   private static final int countUnit    = 2500 * 1000;
   private static final int gtfCountUnit =  100 * 1000;
 
+  /* In coordinate sorted mode (option -c) an intron interval is written to the output as soon as
+     the position of the SAM records has passed its start, since no later SAM record can contain
+     it; hence only the intron intervals of the current window are kept in memory. */
+  private static boolean coordinateSorted = false;
+
+  private static HashSetTable <String, GtfEntry> leftBoundarySet  = null;
+  private static HashSetTable <String, GtfEntry> rightBoundarySet = null;
+  private static PrintWriter outputWriter = null;
+
+  private static boolean printNonMatchingFragments = false;
+  private static int junctionCoveringThreshold = 5;
+
+  private static int numNoMatchingBoundary     = 0;
+  private static int numLeftMatchingBoundary   = 0;
+  private static int numRightMatchingBoundary  = 0;
+  private static int numBothMatchingBoundaries = 0;
+  private static int[] highCoverageJunctions   = null;
+
+  private static int numWrittenIntronIntervals   = 0;
+  private static int numWrittenFragmentJunctions = 0;
+
+  /* In coordinate sorted mode the fragments of the SAM records are not adjacent, so the spliced
+     fragments of all chromosomes are collected to count them: the fragment ids Fnnnnnnnnn as bits
+     of their number and other fragment names in a set. */
+  private static BitSet          splicedFragmentBits  = new BitSet ();
+  private static HashSet<String> splicedFragmentNames = new HashSet<String> ();
+
+  /* With more than one thread (option -t) the SAM lines of a coordinate sorted SAM file are
+     processed in batches of batchSize lines. The batches are merged in the order of the SAM file
+     into a window of intron intervals which is flushed like in coordinate sorted mode, so the
+     output is the same for any number of threads and only the intron intervals of the window
+     and of at most 2 * numThreads batches are kept in memory. */
+  private static int numThreads = 1;
+  private static final int batchSize = 200 * 1000;
+
 
   /***********************************************************************************
    *
@@ -275,27 +460,50 @@ public class ExtractSplicedExonExonIds {
     System.err.println("Reading GTF file " + (gtfFilename.equals("-")?"stdin":gtfFilename));
     System.err.println("(. = " + gtfCountUnit + " entries.)");
     System.err.flush();
-    BufferedReader gtfReader = UtilLib.getBufferedReader (gtfFilename);
-    String line = gtfReader.readLine();
     int lineNumber = 0;
 
     HashSetTable <String, GtfEntry> leftBoundarySet  = new HashSetTable <String, GtfEntry> (100000);
     HashSetTable <String, GtfEntry> rightBoundarySet = new HashSetTable <String, GtfEntry> (100000);
-    while (line != null) {
+
+    ReferenceBundle referenceBundle = ReferenceBundle.open (UtilLib.getPath (gtfFilename));
+    if (referenceBundle != null) {
+
+      System.err.println("Using reference bundle " + referenceBundle.getFilename ());
+      for (int row = 0; row < referenceBundle.getNumRows (); row++) {
+	String [] fields = new String [referenceBundle.getNumFields (row)];
+	referenceBundle.getFields (row, fields);
+
+	GtfEntry gtfEntry = new GtfEntry (fields, null);
+	leftBoundarySet.putValue(gtfEntry.getReferenceName () + "/" + gtfEntry.getStart (), gtfEntry);
+	rightBoundarySet.putValue(gtfEntry.getReferenceName () + "/" +  gtfEntry.getEnd (), gtfEntry);
+
+	lineNumber++;
+	if (lineNumber % gtfCountUnit == 0) {
+	  System.err.print(".");
+	}
+      }
+
+    } else {
+
+      BufferedReader gtfReader = UtilLib.getBufferedReader (gtfFilename);
+      String line = gtfReader.readLine();
+      while (line != null) {
 	
-      GtfEntry gtfEntry = new GtfEntry (line);
-      leftBoundarySet.putValue(gtfEntry.getReferenceName () + "/" + gtfEntry.getStart (), gtfEntry);
-      rightBoundarySet.putValue(gtfEntry.getReferenceName () + "/" +  gtfEntry.getEnd (), gtfEntry);
+	GtfEntry gtfEntry = new GtfEntry (line);
+	leftBoundarySet.putValue(gtfEntry.getReferenceName () + "/" + gtfEntry.getStart (), gtfEntry);
+	rightBoundarySet.putValue(gtfEntry.getReferenceName () + "/" +  gtfEntry.getEnd (), gtfEntry);
 	
-      lineNumber++;
-      if (lineNumber % gtfCountUnit == 0) {
-	System.err.print(".");
-      }
+	lineNumber++;
+	if (lineNumber % gtfCountUnit == 0) {
+	  System.err.print(".");
+	}
 	  
-      line = gtfReader.readLine();
-    }
+	line = gtfReader.readLine();
+      }
       
-    gtfReader.close ();
+      gtfReader.close ();
+
+    }
     if (lineNumber > gtfCountUnit) {
       System.err.print("\n");
     }
@@ -348,6 +556,10 @@ public class ExtractSplicedExonExonIds {
     int numMultiMappers = 0;
     int softClippingLengthTotal = 0;
 
+    String curChromosome = "";
+    int curPosition = 0;
+    HashSet<String> processedChromosomes = new HashSet<String> (200);
+
     
     /***********************************************************************************
      *
@@ -379,7 +591,7 @@ public class ExtractSplicedExonExonIds {
 	  SamRecord samRecord = new SamRecord (line, lineNumber, samFilename);
 	  String originalFragmentName = samRecord.getOriginalFragmentName ();
 	  
-	  if (! counterChecked) {
+	  if (! counterChecked && ! coordinateSorted) {
 	    counterChecked = true;
 	    Matcher match = pattern.matcher(samRecord.getFragmentName());
 	    if (! match.find()) {
@@ -393,6 +605,23 @@ public class ExtractSplicedExonExonIds {
 	    line = samReader.readLine();
 	    continue;
 	  }
+
+	  if (coordinateSorted) {
+	    String referenceName = samRecord.getReferenceName ();
+	    if (! referenceName.equals(curChromosome)) {
+	      flushIntronIntervals (intronIntervals, Integer.MAX_VALUE, quantify);
+	      if (processedChromosomes.contains(referenceName)) {
+		throw new IOException ("SAM file is not coordinate sorted: reference " + referenceName + " occurs in two separate blocks.");
+	      }
+	      processedChromosomes.add(referenceName);
+	      curChromosome = referenceName;
+	    } else if (samRecord.getPosition () < curPosition) {
+	      throw new IOException ("SAM file is not coordinate sorted: position " + samRecord.getPosition () + " of " + referenceName +
+				     " follows position " + curPosition);
+	    }
+	    curPosition = samRecord.getPosition ();
+	    flushIntronIntervals (intronIntervals, curPosition, quantify);
+	  }
 	
 	  if (! originalFragmentName.equals(oldMappedFragmentName)) {
 	    if (oldMappedFragmentName != "") {
@@ -410,7 +639,8 @@ public class ExtractSplicedExonExonIds {
 		System.err.println ("SAM fragment name: " + fragmentName + ", new fragment entry name: " + fragmentEntry.getFragmentName ());
 	      }
 	      if (! createNewFragmentIds) {
-		while (fragmentEntry.getFragmentName ().compareTo (fragmentName) < 0) {
+		long fragmentKey = samRecord.getFragmentKey ();
+		while (FragmentNameKey.compare (fragmentEntry.getFragmentName (), fragmentEntry.getFragmentKey (), fragmentName, fragmentKey) < 0) {
 		  weightLine = weightReader.readLine ();
 		  fragmentEntry = new FragmentEntry (weightLine);
 		  if (debugLevel >= 2) {
@@ -458,7 +688,7 @@ public class ExtractSplicedExonExonIds {
 	    if (localIntronCoordinates.size() > 0) {
 	      numSplicedSamRecords += 1;
 
-	      if (quantify) {
+	      if (quantify && ! coordinateSorted) {
 		Integer numFragmentJunctions = splicedFragmentTable.get(fragmentName);
 		if (numFragmentJunctions == null) {
 		  if (weightFilename != "") {
@@ -472,6 +702,8 @@ public class ExtractSplicedExonExonIds {
 		} else {
 		  splicedFragmentTable.put(fragmentName, new Integer (numFragmentJunctions.intValue () + 1));
 		}
+	      } else if (quantify) {
+		addSplicedFragment (fragmentName);
 	      }
 
 	      /* A relative intron interval [I0, I1] corresponds to the genomic interval [position - 1 + I0, position - 1 + I1] since the relative
@@ -536,6 +768,10 @@ public class ExtractSplicedExonExonIds {
 	}
       }
 
+      if (coordinateSorted) {
+	flushIntronIntervals (intronIntervals, Integer.MAX_VALUE, quantify);
+      }
+
       samReader.close();
       if (weightFilename != "") {
 	weightReader.close ();
@@ -551,14 +787,19 @@ public class ExtractSplicedExonExonIds {
 
     System.err.println("Number of spliced SAM records: " + numSplicedSamRecords);
     System.err.println("Number of read/junction pairs: " + numSamJunctions);
-    System.err.println("Number of intron intervals: " + intronIntervals.size());
+    System.err.println("Number of intron intervals: " + (numWrittenIntronIntervals + intronIntervals.size()));
     System.err.println("Number of SAM records that cover the same junction as the other read of the fragment: " + duplicateCoverage);
     if (weightFilename != "") {
       System.err.println("Number of uniquely mapping fragments: " + numUniquelyMappingFragments);
       System.err.println("Number of multi-mappers: " + numMultiMappers);
     }
 
-    if (quantify) {
+    int numSplicedFragments = splicedFragmentTable.keySet().size();
+    if (quantify && coordinateSorted) {
+      numSplicedFragments = splicedFragmentBits.cardinality () + splicedFragmentNames.size ();
+      System.err.println("Number of spliced fragments: " + numSplicedFragments);
+      System.err.println("Number of fragment/junction pairs: " + numWrittenFragmentJunctions);
+    } else if (quantify) {
       System.err.println("Number of spliced fragments: " + splicedFragmentTable.keySet().size());
       int numIntronIntervalFragments = 0;
       for (Interval interval: intronIntervals) {
@@ -578,10 +819,10 @@ public class ExtractSplicedExonExonIds {
     System.err.println("Soft clipped bases: " + softClippingLengthTotal);
     System.err.println();
     if (quantify) {
-      System.err.println("NUM_SPLICED_FRAGMENTS=" + splicedFragmentTable.keySet().size());
+      System.err.println("NUM_SPLICED_FRAGMENTS=" + numSplicedFragments);
     }
     System.err.println("NUM_SPLICED_SAM_RECORDS=" + numSplicedSamRecords);
-    System.err.println("NUM_INTRON_INTERVALS=" + intronIntervals.size());
+    System.err.println("NUM_INTRON_INTERVALS=" + (numWrittenIntronIntervals + intronIntervals.size()));
     if (weightFilename != "") {
       System.err.println("NUM_UNIQUE_MAPPERS=" + numUniquelyMappingFragments);
       System.err.println("NUM_MULTI_MAPPERS=" + numMultiMappers);
@@ -592,12 +833,329 @@ public class ExtractSplicedExonExonIds {
   }
      
 
+  /***********************************************************************************
+   *
+   *  Add a spliced fragment in coordinate sorted mode
+   *
+   ***********************************************************************************/
+
+  private static void addSplicedFragment (String fragmentName) {
+
+    boolean isFragmentId = fragmentName.length () == 10 && fragmentName.charAt (0) == 'F';
+    for (int i = 1; i < fragmentName.length () && isFragmentId; i++) {
+      isFragmentId = Character.isDigit (fragmentName.charAt (i));
+    }
+
+    if (isFragmentId) {
+      splicedFragmentBits.set (Integer.parseInt (fragmentName.substring (1)));
+    } else {
+      splicedFragmentNames.add (fragmentName);
+    }
+    
+  }
+
+
+  /***********************************************************************************
+   *
+   *  Read a coordinate sorted SAM file in parallel
+   *
+   ***********************************************************************************/
+
+  private static void readSamFileParallel (String samFilename, boolean quantify) throws IOException {
+
+    System.err.println("Reading SAM file " + (samFilename.equals("-")?"stdin":samFilename) + " with " + numThreads + " threads");
+    System.err.println("(. = " + countUnit + " entries.)");
+    System.err.flush();
+
+    ExecutorService executorService = Executors.newFixedThreadPool (numThreads);
+
+    /* The submitted batches in the order of the SAM file which are not merged yet */
+    LinkedList<Future<IntronIntervalBatch>> submittedBatches = new LinkedList<Future<IntronIntervalBatch>> ();
+    TreeSet<Interval> intronIntervals = new TreeSet <Interval> ();
+
+    HashSet<String> processedChromosomes = new HashSet<String> (200);
+
+    /* The number of spliced SAM records, SAM record/junction pairs, and soft clipped bases of the merged batches */
+    int[] batchCounts = {0, 0, 0};
+    
+    String line = "";
+    int lineNumber = 0;
+    String curChromosome = "";
+    int curPosition = 0;
+    Vector<String> batchLines = new Vector<String> (batchSize);
+    int batchLineNumber = 0;
+    int batchPosition = 0;
+    
+    try {
+      BufferedReader samReader = UtilLib.getBufferedReader (samFilename);
+      line = samReader.readLine();
+      
+      while (line != null) {
+
+	if (! line.startsWith("@") && ! line.equals("")) {
+
+	  /* Only the reference name and the position are needed to split the SAM file */
+	  int referenceStart = line.indexOf ('\t', line.indexOf ('\t') + 1) + 1;
+	  int positionStart  = line.indexOf ('\t', referenceStart) + 1;
+	  int positionEnd    = line.indexOf ('\t', positionStart);
+	  if (referenceStart <= 0 || positionStart <= 0 || positionEnd < 0) {
+	    throw new IOException ("Too few fields in SAM record.");
+	  }
+	  String referenceName = line.substring (referenceStart, positionStart - 1);
+	  
+	  if (! referenceName.equals("*")) {
+	    int position = UtilLib.toInt (line.substring (positionStart, positionEnd));
+	    
+	    if (! referenceName.equals(curChromosome)) {
+	      if (processedChromosomes.contains(referenceName)) {
+		throw new IOException ("SAM file is not coordinate sorted: reference " + referenceName + " occurs in two separate blocks.");
+	      }
+	      processedChromosomes.add(referenceName);
+	      submitBatch (executorService, new IntronIntervalBatch (batchLines, batchLineNumber, samFilename, quantify, curChromosome, batchPosition),
+			   submittedBatches, intronIntervals, batchCounts, quantify);
+	      batchLines = new Vector<String> (batchSize);
+	      batchLineNumber = lineNumber;
+	      curChromosome = referenceName;
+	    } else if (position < curPosition) {
+	      throw new IOException ("SAM file is not coordinate sorted: position " + position + " of " + referenceName + " follows position " + curPosition);
+	    }
+	    curPosition = position;
+
+	    if (batchLines.size () == 0) {
+	      batchPosition = position;
+	    }
+	    batchLines.add(line);
+	    if (batchLines.size () >= batchSize) {
+	      submitBatch (executorService, new IntronIntervalBatch (batchLines, batchLineNumber, samFilename, quantify, curChromosome, batchPosition),
+			   submittedBatches, intronIntervals, batchCounts, quantify);
+	      batchLines = new Vector<String> (batchSize);
+	      batchLineNumber = lineNumber + 1;
+	    }
+	  }
+	}
+	
+	lineNumber++;
+	if (lineNumber % countUnit == 0) {
+	  System.err.print(".");
+	}
+	  
+	line = samReader.readLine();
+      }
+      
+      samReader.close();
+      
+      submitBatch (executorService, new IntronIntervalBatch (batchLines, batchLineNumber, samFilename, quantify, curChromosome, batchPosition),
+		   submittedBatches, intronIntervals, batchCounts, quantify);
+      while (submittedBatches.size () > 0) {
+	mergeBatch (submittedBatches.removeFirst ().get (), intronIntervals, batchCounts, quantify);
+      }
+      flushIntronIntervals (intronIntervals, Integer.MAX_VALUE, quantify);
+      
+      if (lineNumber > countUnit) {
+	System.err.print("\n");
+      }
+    }
+    catch (Exception e) {
+      throw new IOException ("Problem with reading SAM file " + samFilename + " in line:\n" + line + "\nMessage: " + e);
+    }
+    finally {
+      executorService.shutdownNow ();
+    }
+
+    int numSplicedSamRecords    = batchCounts[0];
+    int numSamJunctions         = batchCounts[1];
+    int softClippingLengthTotal = batchCounts[2];
+
+    int numSplicedFragments = 0;
+    if (quantify) {
+      numSplicedFragments = splicedFragmentBits.cardinality () + splicedFragmentNames.size ();
+    }
+
+    /* Each SAM record/junction pair either creates a new intron interval or covers an existing one */
+    System.err.println("Number of spliced SAM records: " + numSplicedSamRecords);
+    System.err.println("Number of read/junction pairs: " + numSamJunctions);
+    System.err.println("Number of intron intervals: " + numWrittenIntronIntervals);
+    System.err.println("Number of SAM records that cover the same junction as the other read of the fragment: " + (numSamJunctions - numWrittenIntronIntervals));
+    if (quantify) {
+      System.err.println("Number of spliced fragments: " + numSplicedFragments);
+      System.err.println("Number of fragment/junction pairs: " + numWrittenFragmentJunctions);
+    }
+    System.err.println("Soft clipped bases: " + softClippingLengthTotal);
+    System.err.println();
+    if (quantify) {
+      System.err.println("NUM_SPLICED_FRAGMENTS=" + numSplicedFragments);
+    }
+    System.err.println("NUM_SPLICED_SAM_RECORDS=" + numSplicedSamRecords);
+    System.err.println("NUM_INTRON_INTERVALS=" + numWrittenIntronIntervals);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  Submit a batch of SAM lines of one chromosome; the oldest batches are merged
+   *  if too many batches are pending
+   *
+   ***********************************************************************************/
+
+  private static void submitBatch (ExecutorService executorService, IntronIntervalBatch batch, LinkedList<Future<IntronIntervalBatch>> submittedBatches,
+				   TreeSet<Interval> intronIntervals, int[] batchCounts, boolean quantify) throws Exception {
+
+    if (batch.getNumLines () == 0) {
+      return;
+    }
+
+    while (submittedBatches.size () >= 2 * numThreads) {
+      mergeBatch (submittedBatches.removeFirst ().get (), intronIntervals, batchCounts, quantify);
+    }
+    
+    submittedBatches.add (executorService.submit (batch));
+    
+  }
+
+  
+  /***********************************************************************************
+   *
+   *  Merge a computed batch into the window of intron intervals: the intron intervals
+   *  of a previous chromosome or which start before the first SAM record of the batch
+   *  are complete and written first; batchCounts are incremented by the numbers of
+   *  spliced SAM records, SAM record/junction pairs, and soft clipped bases of the batch
+   *
+   ***********************************************************************************/
+
+  private static void mergeBatch (IntronIntervalBatch batch, TreeSet<Interval> intronIntervals, int[] batchCounts, boolean quantify) throws IOException {
+
+    if (intronIntervals.size () > 0 && ! intronIntervals.first().getChromosome ().equals (batch.getChromosome ())) {
+      flushIntronIntervals (intronIntervals, Integer.MAX_VALUE, quantify);
+    } else {
+      flushIntronIntervals (intronIntervals, batch.getFirstPosition (), quantify);
+    }
+
+    /* contains merges the fragment name sets of equal intervals (see Interval.compareTo) */
+    for (Interval interval: batch.getIntronIntervals ()) {
+      if (! intronIntervals.contains (interval)) {
+	intronIntervals.add (interval);
+      }
+    }
+
+    if (quantify) {
+      for (String fragmentName: batch.getSplicedFragmentNames ()) {
+	addSplicedFragment (fragmentName);
+      }
+    }
+
+    batchCounts[0] += batch.getNumSplicedSamRecords ();
+    batchCounts[1] += batch.getNumSamJunctions ();
+    batchCounts[2] += batch.getSoftClippingLength ();
+    
+  }
+
+  
+  /***********************************************************************************
+   *
+   *  Write the intron intervals that start before position (only used in coordinate
+   *  sorted mode)
+   *
+   ***********************************************************************************/
+
+  private static void flushIntronIntervals (TreeSet<Interval> intronIntervals, int position, boolean quantify) throws IOException {
+
+    while (intronIntervals.size () > 0 && intronIntervals.first().getStart () < position) {
+      writeIntronInterval (intronIntervals.pollFirst (), quantify);
+    }
+    
+  }
+
+  
+  /***********************************************************************************
+   *
+   *  Write the exon - exon pairs of an intron interval
+   *
+   ***********************************************************************************/
+
+  private static void writeIntronInterval (Interval interval, boolean quantify) throws IOException {
+
+    // System.err.println(interval);
+    Set<GtfEntry> leftGtfEntrySet  = rightBoundarySet.get(interval.getChromosome() + "/" + (interval.getStart() - 1));	
+    Set<GtfEntry> rightGtfEntrySet = leftBoundarySet.get(interval.getChromosome()  + "/" + (interval.getEnd() + 1));
+
+    numWrittenIntronIntervals++;
+
+    String additionalFieldsString = "";
+    if (quantify) {
+      if (interval.getFragmentNameSet() == null) {
+	throw new IOException ("Intron interval " + interval + " has a null fragment name set.");
+      }
+      numWrittenFragmentJunctions += interval.getFragmentNameSet().size();
+      
+      if (leftGtfEntrySet == null && rightGtfEntrySet == null) {
+	numNoMatchingBoundary += interval.getFragmentNameSet().size();
+	if (printNonMatchingFragments) {
+	  for (String curFragmentName: interval.getFragmentNameSet()) {
+	    System.err.println ("Non matching: " + curFragmentName);
+	  }
+	}
+	    
+	leftGtfEntrySet = new HashSet<GtfEntry> ();
+	leftGtfEntrySet.add(new GtfEntry());
+	rightGtfEntrySet = new HashSet<GtfEntry> ();
+	rightGtfEntrySet.add(new GtfEntry());
+	    
+      } else if (leftGtfEntrySet == null) {
+	numLeftMatchingBoundary += interval.getFragmentNameSet().size();
+	if (printNonMatchingFragments) {
+	  for (String curFragmentName: interval.getFragmentNameSet()) {
+	    System.err.println ("Left matching: " + curFragmentName);
+	  }
+	}
+	leftGtfEntrySet = new HashSet<GtfEntry> ();
+	leftGtfEntrySet.add(new GtfEntry());
+      } else if (rightGtfEntrySet == null) {
+	numRightMatchingBoundary += interval.getFragmentNameSet().size();
+	if (printNonMatchingFragments) {
+	  for (String curFragmentName: interval.getFragmentNameSet()) {
+	    System.err.println ("Right matching: " + curFragmentName);
+	  }
+	}
+	rightGtfEntrySet = new HashSet<GtfEntry> ();
+	rightGtfEntrySet.add(new GtfEntry());
+      } else {
+	numBothMatchingBoundaries += interval.getFragmentNameSet().size();
+	int upperThreshold = Math.min (interval.getFragmentNameSet().size(), junctionCoveringThreshold);
+	for (int i = 2; i <= upperThreshold; i++) {
+	  highCoverageJunctions[i] += 1;
+	}
+      }
+	  
+      additionalFieldsString = "\t" + interval.getChromosome()  + ":" + interval.getStart() + "-" + interval.getEnd() + "\t" + interval.getFragmentNameSet().size();
+      interval.clearFragmentNameSet ();
+    } else if (leftGtfEntrySet == null || rightGtfEntrySet == null) {
+      return;
+    }
+
+    for (GtfEntry leftGtfEntry: leftGtfEntrySet) {
+      for (GtfEntry rightGtfEntry: rightGtfEntrySet) {
+	outputWriter.println(leftGtfEntry.getExonId ()  + "\t" + rightGtfEntry.getExonId () + additionalFieldsString);
+	if (! rightGtfEntry.getExonId ().equals(leftGtfEntry.getExonId ())) {
+	  outputWriter.println(rightGtfEntry.getExonId () + "\t" + leftGtfEntry.getExonId ()  + additionalFieldsString);
+	}
+      }
+    }
+    
+  }
+     
+
   /***********************************************************************************/
 
    private static void printHelp () {
     System.out.print("ExtractSplicedExonExonIds\n" +                                              
     "USAGE: ExtractSplicedExonExonIds [-w <weight file name>] [-j <junction covering\n" +
-    "          threshold>] [-Q] -s <SAM file> -g <GTF file> -o <exon exon pair file>\n");
+    "          threshold>] [-Q] [-c] [-t <threads>] -s <SAM file> -g <GTF file>\n" +
+    "          -o <exon exon pair file>\n" +
+    "  -c: the SAM file is coordinate sorted; exon exon pairs are written while the SAM\n" +
+    "      file is read (cannot be combined with -w).\n" +
+    "  -t INT: process the chromosomes of a coordinate sorted SAM file with INT threads\n" +
+    "      (requires -c).\n");
   }
                                      
   /***********************************************************************************/
@@ -611,11 +1169,8 @@ public class ExtractSplicedExonExonIds {
 
     boolean quantify = false;
     boolean quiet = false;
-    boolean printNonMatchingFragments = false;
 
-    int junctionCoveringThreshold = 5;
-
-    Getopt g = new Getopt("ExtractSplicedExonExonIds.java", args, "d:g:j:o:qQs:w:h");
+    Getopt g = new Getopt("ExtractSplicedExonExonIds.java", args, "cd:g:j:o:qQs:t:w:h");
     
     int c;
     String arg = "";
@@ -624,6 +1179,9 @@ public class ExtractSplicedExonExonIds {
     
     while (c  != -1) {
       switch(c) {
+      case 'c':
+	coordinateSorted = true;
+	break;	
       case 'd':
 	debugLevel = Integer.parseInt(g.getOptarg());
 	break;	
@@ -649,6 +1207,9 @@ public class ExtractSplicedExonExonIds {
       case 's':
 	samFilename = g.getOptarg();
 	break;
+      case 't':
+	numThreads = Integer.parseInt(g.getOptarg());
+	break;
       case 'w':
 	weightFilename = g.getOptarg();
 	break;
@@ -666,95 +1227,42 @@ public class ExtractSplicedExonExonIds {
     int lineNumber = 0;
     try {
 
+      if (coordinateSorted && weightFilename != "") {
+	throw new IOException ("A weight file cannot be used with a coordinate sorted SAM file.");
+      }
+
+      if (numThreads > 1 && ! coordinateSorted) {
+	throw new IOException ("Multiple threads can only be used with a coordinate sorted SAM file (option -c).");
+      }
+
       ArrayList<HashSetTable <String, GtfEntry>> boundarySetArrayList = readGtfFile (gtfFilename);
       
-      HashSetTable <String, GtfEntry> leftBoundarySet  = boundarySetArrayList.get(0);
-      HashSetTable <String, GtfEntry> rightBoundarySet = boundarySetArrayList.get(1);
-      
-      TreeSet<Interval> intronIntervals = readSamFile (samFilename, weightFilename, quantify, quiet);
+      leftBoundarySet  = boundarySetArrayList.get(0);
+      rightBoundarySet = boundarySetArrayList.get(1);
+
+      highCoverageJunctions = new int [junctionCoveringThreshold + 1];
+      for (int i = 1; i <= junctionCoveringThreshold; i++) {
+	highCoverageJunctions[i] = 0;
+      }
       
       /***********************************************************************************
        *
-       *  Write exon - exon file
+       *  Write exon - exon file (in coordinate sorted mode the exon - exon pairs
+       *  are already written while the SAM file is read)
        *
        ***********************************************************************************/
       
       System.err.println("Writing exon - exon pairs to file:\n" + "  " + (outputFilename.equals("-")?"stdout":outputFilename));
       System.err.flush();
-      PrintWriter outputWriter = UtilLib.getPrintWriter (outputFilename);
-
-      int numNoMatchingBoundary     = 0;
-      int numLeftMatchingBoundary   = 0;
-      int numRightMatchingBoundary  = 0;
-      int numBothMatchingBoundaries = 0;
+      outputWriter = UtilLib.getPrintWriter (outputFilename);
       
-      int[] highCoverageJunctions   = new int [junctionCoveringThreshold + 1];
-      for (int i = 1; i <= junctionCoveringThreshold; i++) {
-	highCoverageJunctions[i] = 0;
-      }
-
-      for (Interval interval: intronIntervals) {
-	String intronIntervalString = interval.getChromosome()  + ":" + interval.getStart() + "-" + interval.getEnd();
-	
-	// System.err.println(interval);
-	Set<GtfEntry> leftGtfEntrySet  = rightBoundarySet.get(interval.getChromosome() + "/" + (interval.getStart() - 1));	
-	Set<GtfEntry> rightGtfEntrySet = leftBoundarySet.get(interval.getChromosome()  + "/" + (interval.getEnd() + 1));
-
-	String additionalFieldsString = "";
-	if (quantify) {
-	  if (leftGtfEntrySet == null && rightGtfEntrySet == null) {
-	    numNoMatchingBoundary += interval.getFragmentNameSet().size();
-	    if (printNonMatchingFragments) {
-	      for (String curFragmentName: interval.getFragmentNameSet()) {
-		System.err.println ("Non matching: " + curFragmentName);
-	      }
-	    }
-	    
-	    leftGtfEntrySet = new HashSet<GtfEntry> ();
-	    leftGtfEntrySet.add(new GtfEntry());
-	    rightGtfEntrySet = new HashSet<GtfEntry> ();
-	    rightGtfEntrySet.add(new GtfEntry());
-	    
-	  } else if (leftGtfEntrySet == null) {
-	    numLeftMatchingBoundary += interval.getFragmentNameSet().size();
-	    if (printNonMatchingFragments) {
-	      for (String curFragmentName: interval.getFragmentNameSet()) {
-		System.err.println ("Left matching: " + curFragmentName);
-	      }
-	    }
-	    leftGtfEntrySet = new HashSet<GtfEntry> ();
-	    leftGtfEntrySet.add(new GtfEntry());
-	  } else if (rightGtfEntrySet == null) {
-	    numRightMatchingBoundary += interval.getFragmentNameSet().size();
-	    if (printNonMatchingFragments) {
-	      for (String curFragmentName: interval.getFragmentNameSet()) {
-		System.err.println ("Right matching: " + curFragmentName);
-	      }
-	    }
-	    rightGtfEntrySet = new HashSet<GtfEntry> ();
-	    rightGtfEntrySet.add(new GtfEntry());
-	  } else {
-	    numBothMatchingBoundaries += interval.getFragmentNameSet().size();
-	    int upperThreshold = Math.min (interval.getFragmentNameSet().size(), junctionCoveringThreshold);
-	    for (int i = 2; i <= upperThreshold; i++) {
-	      highCoverageJunctions[i] += 1;
-	    }
-	  }
-	  
-	  additionalFieldsString = "\t" + interval.getChromosome()  + ":" + interval.getStart() + "-" + interval.getEnd() + "\t" + interval.getFragmentNameSet().size();
-	  interval.clearFragmentNameSet ();
-	} else if (leftGtfEntrySet == null || rightGtfEntrySet == null) {
-	  continue;
+      if (numThreads > 1) {
+	readSamFileParallel (samFilename, quantify);
+      } else {
+	TreeSet<Interval> intronIntervals = readSamFile (samFilename, weightFilename, quantify, quiet);
+	for (Interval interval: intronIntervals) {
+	  writeIntronInterval (interval, quantify);
 	}
-
-	for (GtfEntry leftGtfEntry: leftGtfEntrySet) {
-	  for (GtfEntry rightGtfEntry: rightGtfEntrySet) {
-	    outputWriter.println(leftGtfEntry.getExonId ()  + "\t" + rightGtfEntry.getExonId () + additionalFieldsString);
-	    if (! rightGtfEntry.getExonId ().equals(leftGtfEntry.getExonId ())) {
-	      outputWriter.println(rightGtfEntry.getExonId () + "\t" + leftGtfEntry.getExonId ()  + additionalFieldsString);
-	    }
-	  }
-	}	
       }
       
       outputWriter.close ();
@@ -0,0 +1,142 @@
+/**File: FragmentNameKey.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class FragmentNameKey
+ *
+ *  The merge-join tools (CombineSamFiles, SubtractSamFiles, CombineReadWeightFiles,
+ *  ComputeGenomeSamFile, ComputeCounts, ...) require that their inputs are sorted
+ *  by fragment name in the order of String.compareTo. The fragment names created by
+ *  ChangeFastqIdsAndSplit have the form F<zero-filled number>; for these names the
+ *  key contains the number of digits in the upper and the number in the lower bits.
+ *  Two names with a key and the same number of digits are compared by their keys;
+ *  all other names are compared as strings. Hence the order is always the same as
+ *  the one of String.compareTo.
+ *
+ *  In validation mode (option -V of the merge tools) the order of all inputs is
+ *  checked and the first fragment out of order is reported with its file and line.
+ *
+ ***********************************************************************************/
+
+public class FragmentNameKey {
+
+  /* Key of a fragment name that is not of the form F<number> */
+  public static final long noKey = -1;
+
+  private static final int  maxDigits  = 17;
+  private static final int  digitShift = 57;
+  private static final long numberMask = (1L << digitShift) - 1;
+
+  private static boolean validateOrder = false;
+
+  public static void setValidateOrder (boolean value) {
+    validateOrder = value;
+  }
+
+  public static boolean validateOrder () {
+    return validateOrder;
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           getKey
+   *
+   ***********************************************************************************/
+
+  public static long getKey (String fragmentName) {
+
+    if (fragmentName == null) {
+      return noKey;
+    }
+
+    int numDigits = fragmentName.length () - 1;
+    if (numDigits < 1 || numDigits > maxDigits || fragmentName.charAt (0) != 'F') {
+      return noKey;
+    }
+
+    long number = 0;
+    for (int i = 1; i < fragmentName.length (); i++) {
+      char c = fragmentName.charAt (i);
+      if (c < '0' || c > '9') {
+	return noKey;
+      }
+      number = 10 * number + (c - '0');
+    }
+
+    return ((long) numDigits << digitShift) | number;
+
+  }
+
+
+  /* The number of digits and the number of a key other than noKey */
+  public static int getNumDigits (long key) {
+    return (int) (key >>> digitShift);
+  }
+
+  public static long getNumber (long key) {
+    return key & numberMask;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  compare: returns -1, 0, or 1 in the order of String.compareTo
+   *
+   ***********************************************************************************/
+
+  public static int compare (String fragmentName1, long key1, String fragmentName2, long key2) {
+
+    if (key1 != noKey && key2 != noKey && (key1 >>> digitShift) == (key2 >>> digitShift)) {
+      return key1 < key2?-1:(key1 == key2?0:1);
+    }
+
+    return Integer.signum (fragmentName1.compareTo (fragmentName2));
+
+  }
+
+  public static int compare (String fragmentName1, String fragmentName2) {
+    return compare (fragmentName1, getKey (fragmentName1), fragmentName2, getKey (fragmentName2));
+  }
+
+
+  /***********************************************************************************
+   *
+   *  checkOrder: throw an exception if fragmentName comes before previousFragmentName
+   *
+   ***********************************************************************************/
+
+  public static void checkOrder (String previousFragmentName, long previousKey, String fragmentName, long key, String inputName, int lineNumber)
+    throws IOException {
+
+    if (previousFragmentName == null || compare (previousFragmentName, previousKey, fragmentName, key) <= 0) {
+      return;
+    }
+
+    throw new IOException ("ERROR: " + inputName + " is not sorted by fragment name: fragment " + fragmentName +
+			   (lineNumber >= 0?" in line " + lineNumber:"") + " comes after fragment " + previousFragmentName + ".\n" +
+			   "Please sort the input by fragment name (e.g. with SortSamFile -n).");
+
+  }
+
+}
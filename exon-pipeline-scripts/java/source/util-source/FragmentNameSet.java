@@ -0,0 +1,153 @@
+/**File: FragmentNameSet.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class FragmentNameSet
+ *
+ *  A compact set of fragment names. The names F<number> created by
+ *  ChangeFastqIdsAndSplit are dense, so they are stored as bits of a bitmap
+ *  indexed by their number; this needs one bit per fragment of the sample instead
+ *  of a String per member. Names F<number> with a different number of digits are
+ *  kept in a sorted array of their keys (see FragmentNameKey) and all other names
+ *  in a sorted String array. Both arrays are searched with binary search.
+ *
+ *  The names are added first; build () must be called before contains ().
+ *
+ ***********************************************************************************/
+
+public class FragmentNameSet {
+
+  private BitSet fragmentBits = new BitSet ();
+  private int    numDigits    = -1;
+
+  private long [] fragmentKeys    = new long [1024];
+  private int     numFragmentKeys = 0;
+
+  private Vector<String> fragmentNameVector = new Vector<String> ();
+  private String []      fragmentNames      = null;
+
+  private int numAddedNames = 0;
+
+
+  /***********************************************************************************/
+
+  /* The number of names added including duplicates */
+  public int getNumAddedNames () {
+    return numAddedNames;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getBitIndex: the index of fragmentName in the bitmap or -1
+   *
+   ***********************************************************************************/
+
+  private int getBitIndex (long key) {
+
+    if (key == FragmentNameKey.noKey || FragmentNameKey.getNumDigits (key) != numDigits) {
+      return -1;
+    }
+
+    long number = FragmentNameKey.getNumber (key);
+    if (number > Integer.MAX_VALUE) {
+      return -1;
+    }
+
+    return (int) number;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           add
+   *
+   ***********************************************************************************/
+
+  public void add (String fragmentName) {
+
+    long key = FragmentNameKey.getKey (fragmentName);
+    if (key != FragmentNameKey.noKey && numDigits < 0) {
+      numDigits = FragmentNameKey.getNumDigits (key);
+    }
+
+    numAddedNames++;
+
+    int bitIndex = getBitIndex (key);
+    if (bitIndex >= 0) {
+      fragmentBits.set (bitIndex);
+    } else if (key != FragmentNameKey.noKey) {
+      if (numFragmentKeys == fragmentKeys.length) {
+	fragmentKeys = Arrays.copyOf (fragmentKeys, 2 * fragmentKeys.length);
+      }
+      fragmentKeys[numFragmentKeys++] = key;
+    } else {
+      fragmentNameVector.add (fragmentName);
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  build: sort the names which are not in the bitmap
+   *
+   ***********************************************************************************/
+
+  public void build () {
+
+    fragmentKeys = Arrays.copyOf (fragmentKeys, numFragmentKeys);
+    Arrays.sort (fragmentKeys);
+
+    fragmentNames = fragmentNameVector.toArray (new String [fragmentNameVector.size ()]);
+    Arrays.sort (fragmentNames);
+    fragmentNameVector = null;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           contains
+   *
+   ***********************************************************************************/
+
+  public boolean contains (String fragmentName) {
+
+    long key = FragmentNameKey.getKey (fragmentName);
+
+    int bitIndex = getBitIndex (key);
+    if (bitIndex >= 0) {
+      return fragmentBits.get (bitIndex);
+    }
+
+    if (key != FragmentNameKey.noKey) {
+      return Arrays.binarySearch (fragmentKeys, key) >= 0;
+    }
+
+    return Arrays.binarySearch (fragmentNames, fragmentName) >= 0;
+
+  }
+
+}
@@ -0,0 +1,113 @@
+/**File: MappedCountMatrix.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class MappedCountMatrix
+ *
+ *  A numRows x numColumns matrix of doubles which is stored column by column in a
+ *  temporary file and memory-mapped, so the size of the matrix is not limited by
+ *  the heap. Each column is a separate mapping: different threads can fill
+ *  different columns without synchronization. The entries are initially 0.
+ *
+ *  The temporary file is deleted by close; the pages of the matrix are released
+ *  when the mappings are garbage collected.
+ *
+ ***********************************************************************************/
+
+public class MappedCountMatrix {
+
+  private int numRows    = 0;
+  private int numColumns = 0;
+
+  private File           matrixFile = null;
+  private DoubleBuffer[] columns    = null;
+
+  public MappedCountMatrix (int numRows, int numColumns, String tmpDirName) throws IOException {
+
+    if ((long) numRows * 8 > Integer.MAX_VALUE) {
+      throw new IOException ("ERROR: " + numRows + " rows exceed the maximal size of a mapped column.");
+    }
+
+    this.numRows    = numRows;
+    this.numColumns = numColumns;
+
+    File tmpDir = tmpDirName.equals("")?null:new File (tmpDirName);
+    matrixFile = File.createTempFile ("count-matrix-", ".tmp", tmpDir);
+    matrixFile.deleteOnExit ();
+
+    long columnSize = (long) numRows * 8;
+
+    RandomAccessFile matrixRandomAccessFile = new RandomAccessFile (matrixFile, "rw");
+    try {
+      /* The file is extended sparsely and reads as 0 */
+      matrixRandomAccessFile.setLength (Math.max (columnSize * numColumns, 1));
+      FileChannel matrixChannel = matrixRandomAccessFile.getChannel ();
+      columns = new DoubleBuffer [numColumns];
+      for (int column = 0; column < numColumns; column++) {
+	columns[column] = matrixChannel.map (FileChannel.MapMode.READ_WRITE, column * columnSize, columnSize).asDoubleBuffer ();
+      }
+    }
+    finally {
+      /* The mappings remain valid after the file is closed */
+      matrixRandomAccessFile.close ();
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  public int getNumRows () {
+    return numRows;
+  }
+
+  public int getNumColumns () {
+    return numColumns;
+  }
+
+  public double get (int row, int column) {
+    return columns[column].get (row);
+  }
+
+  public void set (int row, int column, double value) {
+    columns[column].put (row, value);
+  }
+
+  public void add (int row, int column, double value) {
+    columns[column].put (row, columns[column].get (row) + value);
+  }
+
+  /* A view of the column */
+  public DoubleBuffer getColumn (int column) {
+    return columns[column].duplicate ();
+  }
+
+  public void close () {
+    columns = null;
+    if (! matrixFile.delete ()) {
+      System.err.println ("Warning: " + matrixFile + " could not be deleted.");
+    }
+  }
+
+}
@@ -0,0 +1,344 @@
+/**File: ParallelGzipCompressor.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class ParallelGzipCompressor
+ *
+ *   Compresses gzip files on a pool of worker threads. The text written to a file
+ *   is cut into blocks of blockSize bytes and each block is compressed into a gzip
+ *   member of its own; a gzip file may consist of several members, so the result
+ *   is read by gunzip, zcat and GZIPInputStream like any other gzip file. The
+ *   compressed blocks are written in the order in which they were created, hence
+ *   the output does not depend on the number of threads.
+ *
+ *   The blocks of all files opened by the compressor share one queue: when a file
+ *   is closed its last blocks are still compressed while the blocks of the next
+ *   file are created. At most maxBlocksInFlight blocks are pending; if the queue is
+ *   full, the writing thread waits for the oldest block and writes it to its file.
+ *
+ ***********************************************************************************/
+
+public class ParallelGzipCompressor {
+
+  private static final int defaultBlockSize = 1 << 20;
+
+  private static final byte [] gzipHeader = {
+    0x1f, (byte) 0x8b, 0x08, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff
+  };
+
+  private ExecutorService executorService = null;
+  private int blockSize         = defaultBlockSize;
+  private int maxBlocksInFlight = 0;
+
+  private LinkedList<PendingBlock> pendingBlocks = new LinkedList<PendingBlock> ();
+  private IOException failure = null;
+
+
+  /***********************************************************************************
+   *
+   *                           Constructors
+   *
+   ***********************************************************************************/
+
+  ParallelGzipCompressor (int numThreads, int blockSize) {
+
+    this.blockSize         = blockSize;
+    this.maxBlocksInFlight = 2 * numThreads + 2;
+
+    /* Daemon threads so that a failing tool does not wait for the pool */
+    executorService = Executors.newFixedThreadPool (numThreads, new ThreadFactory () {
+	public Thread newThread (Runnable runnable) {
+	  Thread thread = new Thread (runnable, "ParallelGzipCompressor");
+	  thread.setDaemon (true);
+	  return thread;
+	}
+      });
+
+  }
+
+  ParallelGzipCompressor (int numThreads) {
+    this (numThreads, defaultBlockSize);
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getPrintWriter: a writer for filename; only files ending in .gz are compressed
+   *  by the worker threads, all other files are opened with UtilLib.getPrintWriter.
+   *
+   ***********************************************************************************/
+
+  public PrintWriter getPrintWriter (String filename) throws IOException {
+
+    if (! filename.endsWith (".gz") || filename.equals ("-") || BatchPipe.isPipeFilename (filename)) {
+      return UtilLib.getPrintWriter (filename);
+    }
+
+    File outputFile = new File (UtilLib.getPath (filename));
+    if (outputFile.exists() && ! outputFile.canWrite()) {
+      throw new IOException ("Warning: file " + filename + " cannot be written to.");
+    }
+
+    return new PrintWriter (new OutputStreamWriter (new BlockOutputStream (new FileOutputStream (outputFile))));
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  submitBlock: queue the compression of a block; a block with a null buffer
+   *  closes the file after all its preceding blocks are written
+   *
+   ***********************************************************************************/
+
+  private synchronized void submitBlock (final byte [] buffer, final int length, OutputStream outputStream) throws IOException {
+
+    checkFailure ();
+
+    Future<byte []> future = null;
+    if (buffer != null) {
+      future = executorService.submit (new Callable<byte []> () {
+	  public byte [] call () throws IOException {
+	    return compressBlock (buffer, length);
+	  }
+	});
+    }
+    pendingBlocks.add (new PendingBlock (future, outputStream));
+
+    /* Write the blocks that are already compressed and wait if too many are pending */
+    while (pendingBlocks.size () > 0 && (pendingBlocks.size () > maxBlocksInFlight || pendingBlocks.getFirst ().isDone ())) {
+      writeFirstBlock ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  writeFirstBlock: wait for the oldest block and write it to its file
+   *
+   ***********************************************************************************/
+
+  private void writeFirstBlock () throws IOException {
+
+    PendingBlock pendingBlock = pendingBlocks.removeFirst ();
+    try {
+      if (pendingBlock.future == null) {
+	pendingBlock.outputStream.close ();
+      } else {
+	pendingBlock.outputStream.write (pendingBlock.future.get ());
+      }
+    }
+    catch (InterruptedException e) {
+      failure = new InterruptedIOException ("ERROR: Compression interrupted.");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause ();
+      failure = new IOException ("ERROR: Compression failed: " + (cause == null?"No error message":cause.getMessage ()), cause);
+    }
+    catch (IOException e) {
+      failure = e;
+    }
+
+    checkFailure ();
+
+  }
+
+
+  /***********************************************************************************/
+
+  private void checkFailure () throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+
+  /***********************************************************************************
+   *
+   *  finish: write all pending blocks and stop the worker threads; since PrintWriter
+   *  does not report exceptions, a failed compression or write is reported here.
+   *
+   ***********************************************************************************/
+
+  public synchronized void finish () throws IOException {
+
+    try {
+      while (failure == null && pendingBlocks.size () > 0) {
+	writeFirstBlock ();
+      }
+      checkFailure ();
+    }
+    finally {
+      executorService.shutdownNow ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  compressBlock: compress buffer into one gzip member
+   *
+   ***********************************************************************************/
+
+  private static byte [] compressBlock (byte [] buffer, int length) throws IOException {
+
+    ByteArrayOutputStream compressedStream = new ByteArrayOutputStream (length / 3 + 64);
+    compressedStream.write (gzipHeader);
+
+    Deflater deflater = new Deflater (Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput (buffer, 0, length);
+      deflater.finish ();
+      byte [] outputBuffer = new byte [1 << 16];
+      while (! deflater.finished ()) {
+	int compressedSize = deflater.deflate (outputBuffer);
+	compressedStream.write (outputBuffer, 0, compressedSize);
+      }
+    }
+    finally {
+      deflater.end ();
+    }
+
+    CRC32 crc32 = new CRC32 ();
+    crc32.update (buffer, 0, length);
+    writeInt32 (compressedStream, (int) crc32.getValue ());
+    writeInt32 (compressedStream, length);
+
+    return compressedStream.toByteArray ();
+
+  }
+
+
+  /***********************************************************************************/
+
+  private static void writeInt32 (OutputStream outputStream, int value) throws IOException {
+    outputStream.write (value & 0xff);
+    outputStream.write ((value >> 8) & 0xff);
+    outputStream.write ((value >> 16) & 0xff);
+    outputStream.write ((value >> 24) & 0xff);
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class PendingBlock
+   *
+   ***********************************************************************************/
+
+  private static class PendingBlock {
+
+    private Future<byte []> future       = null;
+    private OutputStream    outputStream = null;
+
+    PendingBlock (Future<byte []> future, OutputStream outputStream) {
+      this.future       = future;
+      this.outputStream = outputStream;
+    }
+
+    boolean isDone () {
+      return future == null || future.isDone ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class BlockOutputStream
+   *
+   *   Collects the written bytes and submits a block as soon as it is full.
+   *
+   ***********************************************************************************/
+
+  private class BlockOutputStream extends OutputStream {
+
+    private OutputStream fileStream = null;
+    private byte []      buffer     = new byte [blockSize];
+    private int          length     = 0;
+    private int          numBlocks  = 0;
+    private boolean      isClosed   = false;
+
+    BlockOutputStream (OutputStream fileStream) {
+      this.fileStream = new BufferedOutputStream (fileStream, 1 << 16);
+    }
+
+    public void write (int b) throws IOException {
+
+      if (length == buffer.length) {
+	submitBuffer ();
+      }
+      buffer[length++] = (byte) b;
+
+    }
+
+    public void write (byte [] b, int offset, int count) throws IOException {
+
+      while (count > 0) {
+	if (length == buffer.length) {
+	  submitBuffer ();
+	}
+	int copyLength = Math.min (count, buffer.length - length);
+	System.arraycopy (b, offset, buffer, length, copyLength);
+	length += copyLength;
+	offset += copyLength;
+	count  -= copyLength;
+      }
+
+    }
+
+    private void submitBuffer () throws IOException {
+
+      submitBlock (buffer, length, fileStream);
+      buffer = new byte [blockSize];
+      length = 0;
+      numBlocks++;
+
+    }
+
+    /* Blocks are only submitted when they are full or the file is closed */
+    public void flush () throws IOException {
+    }
+
+    public void close () throws IOException {
+
+      if (isClosed) {
+	return;
+      }
+      isClosed = true;
+
+      /* An empty file still consists of one (empty) gzip member */
+      if (length > 0 || numBlocks == 0) {
+	submitBlock (buffer, length, fileStream);
+      }
+      buffer = null;
+      submitBlock (null, 0, fileStream);
+
+    }
+
+  }
+
+}
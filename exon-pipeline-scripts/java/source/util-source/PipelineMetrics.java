@@ -0,0 +1,233 @@
+/**File: PipelineMetrics.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.lang.management.*;
+import javax.management.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class PipelineMetrics
+ *
+ *  Collects the StageMetrics of the stages of the tools (getStage) and, once it is
+ *  started with a metrics file (option -X of the tools), writes one JSON line with
+ *  the metrics of all stages every reportInterval seconds and a final line when it
+ *  is stopped:
+ *
+ *    {"time":<ms since epoch>,"seconds":<seconds since start>,"final":<bool>,
+ *     "heapUsedMB":..,"heapCommittedMB":..,"heapMaxMB":..,"gcCount":..,"gcMillis":..,
+ *     "stages":[{"name":..,"records":..,"recordsPerSecond":..,"bytes":..,
+ *                "parseMillis":..,"processMillis":..,"queueDepth":..,"maxQueueDepth":..}, ...]}
+ *
+ *  The stages are also registered as MBeans EQP:type=Stage,name=<stage name> with
+ *  the platform MBean server, so they can be watched with jconsole or any other
+ *  local JMX client.
+ *
+ ***********************************************************************************/
+
+public class PipelineMetrics {
+
+  private static final int defaultReportInterval = 10;
+
+  private static Hashtable<String, StageMetrics> stageTable = new Hashtable<String, StageMetrics> ();
+  private static Vector<StageMetrics>            stages     = new Vector<StageMetrics> ();
+
+  private static volatile boolean started = false;
+
+  private static PrintWriter metricsWriter  = null;
+  private static Timer       reportTimer    = null;
+  private static long        startTime      = 0;
+  private static long        lastReportTime = 0;
+
+  private static Vector<ObjectName> mbeanNames = new Vector<ObjectName> ();
+
+
+  /***********************************************************************************
+   *
+   *  getStage: the metrics of stage name; the stage is created if necessary
+   *
+   ***********************************************************************************/
+
+  public static synchronized StageMetrics getStage (String name) {
+
+    StageMetrics stageMetrics = stageTable.get(name);
+    if (stageMetrics == null) {
+      stageMetrics = new StageMetrics (name);
+      stageTable.put (name, stageMetrics);
+      stages.add (stageMetrics);
+      if (started) {
+	registerMBean (stageMetrics);
+      }
+    }
+
+    return stageMetrics;
+
+  }
+
+  public static boolean isStarted () {
+    return started;
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              start
+   *
+   ***********************************************************************************/
+
+  public static boolean start (String metricsFilename) throws IOException {
+    return start (metricsFilename, defaultReportInterval);
+  }
+
+  /* Returns false if the metrics have already been started (e.g. by RunPipeline for all tools); only the caller
+     that started the metrics should stop them */
+  public static synchronized boolean start (String metricsFilename, int reportInterval) throws IOException {
+
+    if (started) {
+      System.err.println ("Metrics are already written - ignoring metrics file " + metricsFilename + ".");
+      return false;
+    }
+
+    if (metricsFilename.equals("-")) {
+      throw new IOException ("ERROR: The metrics cannot be written to STDOUT.");
+    }
+
+    metricsWriter  = UtilLib.getPrintWriter (metricsFilename);
+    startTime      = System.currentTimeMillis ();
+    lastReportTime = startTime;
+    started        = true;
+
+    for (StageMetrics stageMetrics: stages) {
+      registerMBean (stageMetrics);
+    }
+
+    reportTimer = new Timer ("PipelineMetrics", true);
+    reportTimer.schedule (new TimerTask () {
+	public void run () {
+	  report (false);
+	}
+      }, reportInterval * 1000L, reportInterval * 1000L);
+
+    System.err.println ("Writing metrics to " + metricsFilename + " every " + reportInterval + " seconds.");
+
+    return true;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  stop: write the final metrics line and close the metrics file
+   *
+   ***********************************************************************************/
+
+  public static synchronized void stop () {
+
+    if (! started) {
+      return;
+    }
+
+    reportTimer.cancel ();
+    report (true);
+    metricsWriter.close ();
+
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer ();
+    for (ObjectName mbeanName: mbeanNames) {
+      try {
+	mbeanServer.unregisterMBean (mbeanName);
+      }
+      catch (JMException e) {
+	/* The MBean is gone already */
+      }
+    }
+    mbeanNames.clear ();
+
+    started = false;
+
+  }
+
+
+  /***********************************************************************************/
+
+  private static void registerMBean (StageMetrics stageMetrics) {
+
+    try {
+      ObjectName mbeanName = new ObjectName ("EQP:type=Stage,name=" + ObjectName.quote (stageMetrics.getName ()));
+      ManagementFactory.getPlatformMBeanServer ().registerMBean (stageMetrics, mbeanName);
+      mbeanNames.add (mbeanName);
+    }
+    catch (JMException e) {
+      /* e.g. a stage of the same name registered by PipelineMetrics of another class loader */
+      System.err.println ("Warning: metrics of stage " + stageMetrics.getName () + " not registered with JMX: " + e.getMessage ());
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              report
+   *
+   ***********************************************************************************/
+
+  private static synchronized void report (boolean isFinal) {
+
+    if (! started) {
+      return;
+    }
+
+    long   currentTime     = System.currentTimeMillis ();
+    double intervalSeconds = (currentTime - lastReportTime) / 1000.0;
+    lastReportTime = currentTime;
+
+    MemoryUsage heapUsage = ManagementFactory.getMemoryMXBean ().getHeapMemoryUsage ();
+    long gcCount  = 0;
+    long gcMillis = 0;
+    for (GarbageCollectorMXBean gcBean: ManagementFactory.getGarbageCollectorMXBeans ()) {
+      gcCount  = gcCount  + Math.max (0, gcBean.getCollectionCount ());
+      gcMillis = gcMillis + Math.max (0, gcBean.getCollectionTime ());
+    }
+
+    StringBuffer stringBuffer = new StringBuffer ();
+    stringBuffer.append ("{\"time\":" + currentTime + ",\"seconds\":" + String.format (Locale.US, "%.1f", (currentTime - startTime) / 1000.0) +
+			 ",\"final\":" + isFinal + ",\"heapUsedMB\":" + (heapUsage.getUsed () >> 20) +
+			 ",\"heapCommittedMB\":" + (heapUsage.getCommitted () >> 20) + ",\"heapMaxMB\":" + (heapUsage.getMax () >> 20) +
+			 ",\"gcCount\":" + gcCount + ",\"gcMillis\":" + gcMillis + ",\"stages\":[");
+    for (int i = 0; i < stages.size (); i++) {
+      if (i > 0) {
+	stringBuffer.append (",");
+      }
+      stringBuffer.append (stages.get(i).toJsonString (intervalSeconds));
+    }
+    stringBuffer.append ("]}");
+
+    metricsWriter.println (stringBuffer.toString ());
+    metricsWriter.flush ();
+
+  }
+
+
+  /***********************************************************************************/
+
+  static String toJsonString (String s) {
+    return "\"" + s.replace ("\\", "\\\\").replace ("\"", "\\\"") + "\"";
+  }
+
+}
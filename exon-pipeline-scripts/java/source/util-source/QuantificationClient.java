@@ -0,0 +1,219 @@
+/**File: QuantificationClient.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *
+ *                           Class QuantificationClient
+ *
+ *  Submits a tool with its arguments to a QuantificationServer, sends its
+ *  standard input to the job, writes the output of the job to its standard
+ *  output and error, and exits with the exit status of the job.
+ *
+ ***********************************************************************************/
+
+public class QuantificationClient {
+
+  private static final int bufferSize = 1 << 16;
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("QuantificationClient.java\n" +
+     "   -- Runs a tool in a QuantificationServer.\n" +
+     "\n" +
+     "USAGE: java QuantificationClient -f <server file> <tool> <tool arguments>\n" +
+     "       java QuantificationClient -f <server file> -s\n" +
+     "\n" +
+     "-f STRING: the server file written by QuantificationServer\n" +
+     "-s: stop the server\n");
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class InputSender
+   *
+   *  Sends the standard input in frames; the job may end before it has read all of
+   *  its input, so write errors are ignored.
+   *
+   ***********************************************************************************/
+
+  private static class InputSender implements Runnable {
+
+    private DataOutputStream socketOutput = null;
+
+    InputSender (DataOutputStream socketOutput) {
+      this.socketOutput = socketOutput;
+    }
+
+    public void run () {
+
+      try {
+	byte [] buffer = new byte [bufferSize];
+	int numRead = System.in.read (buffer);
+	while (numRead >= 0) {
+	  if (numRead > 0) {
+	    socketOutput.writeInt (numRead);
+	    socketOutput.write (buffer, 0, numRead);
+	    socketOutput.flush ();
+	  }
+	  numRead = System.in.read (buffer);
+	}
+	socketOutput.writeInt (0);
+	socketOutput.flush ();
+      }
+      catch (IOException e) {
+	/* The job has ended */
+      }
+
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    String  serverFilename = "";
+    boolean stopServer     = false;
+
+    /* Options after the tool name belong to the tool */
+    Getopt g = new Getopt("QuantificationClient", args, "+f:sh");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'f':
+	serverFilename = g.getOptarg();
+	break;
+      case 's':
+	stopServer = true;
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    int status = 1;
+    try {
+
+      if (serverFilename.equals ("")) {
+	throw new IOException ("ERROR: No server file specified.");
+      }
+
+      if (! stopServer && g.getOptind () >= args.length) {
+	throw new IOException ("ERROR: No tool specified.");
+      }
+
+      BufferedReader serverFileReader = UtilLib.getBufferedReader (serverFilename);
+      String line = serverFileReader.readLine ();
+      serverFileReader.close ();
+      StringTokenizer st = new StringTokenizer (line == null?"":line, " ");
+      if (st.countTokens () != 2) {
+	throw new IOException ("ERROR: " + serverFilename + " is not a server file.");
+      }
+      int    port  = UtilLib.toInt (st.nextToken ());
+      String token = st.nextToken ();
+
+      Socket socket = null;
+      try {
+	socket = new Socket (InetAddress.getLoopbackAddress (), port);
+      }
+      catch (IOException e) {
+	throw new IOException ("ERROR: Could not connect to the quantification server of " + serverFilename + ": " + e.getMessage ());
+      }
+
+      DataOutputStream socketOutput = new DataOutputStream (new BufferedOutputStream (socket.getOutputStream (), bufferSize));
+      DataInputStream  socketInput  = new DataInputStream (new BufferedInputStream (socket.getInputStream (), bufferSize));
+
+      socketOutput.writeUTF (QuantificationServer.protocolVersion);
+      socketOutput.writeUTF (token);
+      socketOutput.writeUTF (System.getProperty ("user.dir"));
+      if (stopServer) {
+	socketOutput.writeUTF (QuantificationServer.stopCommand);
+	socketOutput.writeInt (0);
+      } else {
+	socketOutput.writeUTF (args[g.getOptind ()]);
+	socketOutput.writeInt (args.length - g.getOptind () - 1);
+	for (int i = g.getOptind () + 1; i < args.length; i++) {
+	  socketOutput.writeUTF (args[i]);
+	}
+      }
+      socketOutput.flush ();
+
+      if (! stopServer) {
+	Thread inputSenderThread = new Thread (new InputSender (socketOutput), "InputSender");
+	inputSenderThread.setDaemon (true);
+	inputSenderThread.start ();
+      }
+
+      OutputStream stdout = new BufferedOutputStream (new FileOutputStream (FileDescriptor.out), bufferSize);
+      OutputStream stderr = new FileOutputStream (FileDescriptor.err);
+
+      byte [] buffer = new byte [bufferSize];
+      int channel = socketInput.readUnsignedByte ();
+      while (channel != QuantificationServer.exitChannel) {
+	int length = socketInput.readInt ();
+	if (length > buffer.length) {
+	  buffer = new byte [length];
+	}
+	socketInput.readFully (buffer, 0, length);
+	if (channel == QuantificationServer.stdoutChannel) {
+	  stdout.write (buffer, 0, length);
+	} else {
+	  stdout.flush ();
+	  stderr.write (buffer, 0, length);
+	}
+	channel = socketInput.readUnsignedByte ();
+      }
+      status = socketInput.readInt ();
+
+      stdout.flush ();
+      socket.close ();
+
+    }
+    catch (EOFException e) {
+      System.err.println ("ERROR: Connection to the quantification server lost.");
+      status = 1;
+    }
+    catch (IOException e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      status = 1;
+    }
+
+    System.exit (status);
+
+  }
+
+}
@@ -0,0 +1,725 @@
+/**File: QuantificationServer.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.net.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.management.*;
+
+
+/***********************************************************************************
+ *
+ *
+ *                           Class QuantificationServer
+ *
+ *  A resident JVM which runs tools (e.g. ComputeCounts, ComputeGeneCountsSam,
+ *  ConvertSamBed) for QuantificationClient. A job consists of a tool with its
+ *  arguments; the standard input of the client is sent to the job and the
+ *  standard output and error of the job are sent back to the client.
+ *
+ *  Since the tools keep their options and tables in static variables and call
+ *  System.exit, every job runs in a worker JVM of its own (see
+ *  QuantificationWorker). The workers are started before the jobs arrive: a job
+ *  takes a worker which has already loaded the tool classes and opened the
+ *  reference bundles, and a new worker is started for the next job. The mapped
+ *  reference bundles are shared by the workers through the page cache; the server
+ *  does not open them. The heap options of the server are not passed on to the
+ *  workers, whose heap is set with the option -J.
+ *
+ *  Protocol (DataOutputStream): the client sends the protocol version, the token
+ *  of the server file, its working directory, the tool, the number of arguments,
+ *  and the arguments (all as UTF strings except for the number), followed by its
+ *  standard input as frames <int length><bytes>; a frame of length 0 ends the
+ *  input. The server sends frames <byte channel><int length><bytes> for standard
+ *  output and error and a final frame <exitChannel><int exit status>.
+ *
+ ***********************************************************************************/
+
+public class QuantificationServer {
+
+  static final String protocolVersion = "EQPJOB1";
+  static final String stopCommand     = ".stop";
+
+  static final int exitChannel   = 0;
+  static final int stdoutChannel = 1;
+  static final int stderrChannel = 2;
+
+  private static int debugLevel = 0;
+
+  private static String       token         = null;
+  private static ServerSocket serverSocket  = null;
+  private static boolean      stopped       = false;
+  private static int          numJobs       = 0;
+
+  /* The heap options of the server which are not passed on to the workers */
+  private static final String [] heapOptionPrefixes = {"-Xmx", "-Xms", "-mx", "-ms", "-XX:MaxHeapSize=", "-XX:InitialHeapSize=", "-XX:MinHeapSize="};
+
+  /* The command which starts a worker and the workers waiting for a job */
+  private static Vector<String>               workerCommand = new Vector<String> ();
+  private static LinkedBlockingQueue<Process> idleWorkers   = new LinkedBlockingQueue<Process> ();
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("QuantificationServer.java\n" +
+     "   -- Runs tools for QuantificationClient in a resident JVM.\n" +
+     "\n" +
+     "USAGE: java QuantificationServer [-j <num jobs>] [-p <port>] [-r <reference file>]\n" +
+     "         [-J <worker JVM options>] -f <server file>\n" +
+     "\n" +
+     "The server listens on the loopback interface only and writes its port and a\n" +
+     "random token to <server file> which is readable by its owner only. A client\n" +
+     "needs the token to submit jobs, i.e. it has to run as the same user.\n" +
+     "\n" +
+     "  java QuantificationClient -f <server file> ComputeCounts -g ...\n" +
+     "\n" +
+     "runs ComputeCounts -g ... in the server. Relative file names are resolved\n" +
+     "against the working directory of the client. Each job runs in a worker JVM of\n" +
+     "its own, so the options of one job do not affect the next one and a tool that\n" +
+     "calls System.exit ends its job only. <num jobs> workers are started ahead of\n" +
+     "the jobs: they load the tool classes and open the reference bundles of the\n" +
+     "files given with -r (which may be repeated) while they wait, so a job does not\n" +
+     "wait for the start-up of its JVM.\n" +
+     "\n" +
+     "The server itself only relays the streams of the jobs and needs a small heap.\n" +
+     "The heap of the workers is set with -J; the heap options of the server are not\n" +
+     "passed on to the workers.\n" +
+     "\n" +
+     "  java QuantificationClient -f <server file> -s\n" +
+     "\n" +
+     "stops the server after the running jobs are finished.\n" +
+     "\n" +
+     "-f STRING: the server file\n" +
+     "-j INT: the number of jobs that are run concurrently [1]\n" +
+     "-J STRING: the JVM options of the workers, e.g. \"-mx4G\" [the JVM options of the\n" +
+     "    server without its heap options]\n" +
+     "-p INT: the port [a free port]\n" +
+     "-r STRING: a reference file whose reference bundle is opened by the workers\n");
+  }
+
+
+  /***********************************************************************************
+   *
+   *  writeServerFile: the port and the token; the file is made readable by its
+   *  owner before the token is written.
+   *
+   ***********************************************************************************/
+
+  private static void writeServerFile (String serverFilename, int port) throws IOException {
+
+    File serverFile = new File (serverFilename);
+    if (serverFile.exists () && ! serverFile.delete ()) {
+      throw new IOException ("ERROR: " + serverFilename + " cannot be deleted.");
+    }
+
+    if (! serverFile.createNewFile () || ! serverFile.setReadable (false, false) || ! serverFile.setWritable (false, false) ||
+	! serverFile.setReadable (true, true) || ! serverFile.setWritable (true, true)) {
+      throw new IOException ("ERROR: " + serverFilename + " cannot be created with owner-only access.");
+    }
+
+    PrintWriter writer = new PrintWriter (new FileWriter (serverFile));
+    writer.println (port + " " + token);
+    writer.close ();
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  checkReferenceBundle: warn if referenceFilename has no reference bundle; the
+   *  bundle is opened by the workers only.
+   *
+   ***********************************************************************************/
+
+  private static void checkReferenceBundle (String referenceFilename) {
+
+    if (! new File (referenceFilename + ReferenceBundle.bundleSuffix).exists ()) {
+      System.err.println ("Warning: no reference bundle for " + referenceFilename + " found.");
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  isHeapOption: true if jvmOption sets the heap size
+   *
+   ***********************************************************************************/
+
+  private static boolean isHeapOption (String jvmOption) {
+
+    for (String heapOptionPrefix: heapOptionPrefixes) {
+      if (jvmOption.startsWith (heapOptionPrefix)) {
+	return true;
+      }
+    }
+
+    return false;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  setWorkerCommand: the Java and the class path of the server with the given JVM
+   *  options or the JVM options of the server without its heap options
+   *
+   ***********************************************************************************/
+
+  private static void setWorkerCommand (String workerOptions, Vector<String> referenceFilenames) {
+
+    workerCommand.add (new File (new File (System.getProperty ("java.home"), "bin"), "java").getPath ());
+    if (workerOptions == null) {
+      for (String jvmOption: ManagementFactory.getRuntimeMXBean ().getInputArguments ()) {
+	if (! isHeapOption (jvmOption)) {
+	  workerCommand.add (jvmOption);
+	}
+      }
+    } else {
+      StringTokenizer st = new StringTokenizer (workerOptions, " \t");
+      while (st.hasMoreTokens ()) {
+	workerCommand.add (st.nextToken ());
+      }
+    }
+
+    workerCommand.add ("-cp");
+    workerCommand.add (System.getProperty ("java.class.path"));
+    workerCommand.add ("QuantificationWorker");
+    for (String referenceFilename: referenceFilenames) {
+      workerCommand.add ("-r");
+      workerCommand.add (new File (referenceFilename).getAbsolutePath ());
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  startWorker: start a worker which waits for its job on its standard input
+   *
+   ***********************************************************************************/
+
+  private static void startWorker () throws IOException {
+    idleWorkers.add (new ProcessBuilder (workerCommand).start ());
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getWorker: a waiting worker for a job; a new worker is started for the next
+   *  job. A worker which ended while waiting (e.g. since its JVM could not be
+   *  started) is replaced.
+   *
+   ***********************************************************************************/
+
+  private static Process getWorker () throws IOException {
+
+    Process worker = idleWorkers.poll ();
+    startWorker ();
+
+    if (worker != null) {
+      try {
+	worker.exitValue ();
+      }
+      catch (IllegalThreadStateException e) {
+	return worker;
+      }
+    }
+
+    return new ProcessBuilder (workerCommand).start ();
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  stopWorkers: the waiting workers see the end of their standard input and exit
+   *
+   ***********************************************************************************/
+
+  private static void stopWorkers () {
+
+    Process worker = idleWorkers.poll ();
+    while (worker != null) {
+      try {
+	worker.getOutputStream ().close ();
+      }
+      catch (IOException e) {
+	worker.destroy ();
+      }
+      worker = idleWorkers.poll ();
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  stop: close the server socket so that no further jobs are accepted
+   *
+   ***********************************************************************************/
+
+  private static synchronized void stop () {
+
+    stopped = true;
+    try {
+      serverSocket.close ();
+    }
+    catch (IOException e) {
+      System.err.println ("Warning: server socket could not be closed: " + e.getMessage ());
+    }
+
+  }
+
+  private static synchronized boolean isStopped () {
+    return stopped;
+  }
+
+  private static synchronized int getNextJobNumber () {
+    return ++numJobs;
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    String serverFilename = "";
+    String workerOptions  = null;
+    int    port           = 0;
+    int    numThreads     = 1;
+
+    Vector<String> referenceFilenames = new Vector<String> ();
+
+    Getopt g = new Getopt("QuantificationServer", args, "d:f:j:J:p:r:h");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'd':
+	debugLevel = Integer.parseInt (g.getOptarg());
+	UtilLib.setDebugLevel (debugLevel);
+	break;
+      case 'f':
+	serverFilename = g.getOptarg();
+	break;
+      case 'j':
+	numThreads = Integer.parseInt (g.getOptarg());
+	break;
+      case 'J':
+	workerOptions = g.getOptarg();
+	break;
+      case 'p':
+	port = Integer.parseInt (g.getOptarg());
+	break;
+      case 'r':
+	referenceFilenames.add (g.getOptarg());
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    ExecutorService executorService = null;
+    try {
+
+      if (serverFilename.equals ("")) {
+	throw new IOException ("ERROR: No server file specified.");
+      }
+
+      if (numThreads < 1) {
+	throw new IOException ("ERROR: The number of jobs must be positive.");
+      }
+
+      byte [] tokenBytes = new byte [16];
+      new SecureRandom ().nextBytes (tokenBytes);
+      StringBuffer tokenBuffer = new StringBuffer ();
+      for (byte b: tokenBytes) {
+	tokenBuffer.append (String.format ("%02x", b & 0xff));
+      }
+      token = tokenBuffer.toString ();
+
+      for (String referenceFilename: referenceFilenames) {
+	checkReferenceBundle (referenceFilename);
+      }
+
+      setWorkerCommand (workerOptions, referenceFilenames);
+      for (int i = 0; i < numThreads; i++) {
+	startWorker ();
+      }
+
+      serverSocket = new ServerSocket (port, 50, InetAddress.getLoopbackAddress ());
+      writeServerFile (serverFilename, serverSocket.getLocalPort ());
+      System.err.println ("Quantification server listening on port " + serverSocket.getLocalPort () + " (server file " + serverFilename + ").");
+
+      executorService = Executors.newFixedThreadPool (numThreads);
+      while (! isStopped ()) {
+	Socket socket = null;
+	try {
+	  socket = serverSocket.accept ();
+	}
+	catch (SocketException e) {
+	  if (isStopped ()) {
+	    break;
+	  }
+	  throw e;
+	}
+	executorService.submit (new ServerJob (socket));
+      }
+
+      System.err.println ("Quantification server stopped - waiting for the running jobs.");
+      executorService.shutdown ();
+      executorService.awaitTermination (Long.MAX_VALUE, TimeUnit.SECONDS);
+      stopWorkers ();
+      new File (serverFilename).delete ();
+
+    }
+    catch (Exception e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      stopWorkers ();
+      if (! serverFilename.equals ("")) {
+	new File (serverFilename).delete ();
+      }
+      System.exit (1);
+    }
+
+    System.exit (0);
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class ServerJob
+   *
+   *  Reads the job request from the socket, runs the tool, and sends its exit status.
+   *
+   ***********************************************************************************/
+
+  private static class ServerJob implements Runnable {
+
+    private Socket           socket       = null;
+    private DataOutputStream socketOutput = null;
+
+    private InputStream  stdin  = null;
+    private OutputStream stdout = null;
+    private OutputStream stderr = null;
+
+    ServerJob (Socket socket) {
+      this.socket = socket;
+    }
+
+    public void run () {
+
+      int       jobNumber = getNextJobNumber ();
+      String    jobString = "Job " + jobNumber;
+      long      startTime = System.currentTimeMillis ();
+      int       status    = 1;
+
+      try {
+	DataInputStream socketInput = new DataInputStream (new BufferedInputStream (socket.getInputStream (), 1 << 16));
+	socketOutput = new DataOutputStream (new BufferedOutputStream (socket.getOutputStream (), 1 << 16));
+
+	stdin  = new FrameInputStream (socketInput);
+	stdout = new BufferedOutputStream (new FrameOutputStream (socketOutput, stdoutChannel, false), 1 << 16);
+	stderr = new FrameOutputStream (socketOutput, stderrChannel, true);
+
+	PrintStream jobErr = new PrintStream (stderr, true);
+	try {
+	  if (! socketInput.readUTF ().equals (protocolVersion) || ! socketInput.readUTF ().equals (token)) {
+	    throw new IOException ("ERROR: Job request rejected - wrong protocol version or token.");
+	  }
+
+	  String workingDirectory = socketInput.readUTF ();
+	  String toolName         = socketInput.readUTF ();
+	  String [] toolArgs      = new String [socketInput.readInt ()];
+	  for (int i = 0; i < toolArgs.length; i++) {
+	    toolArgs[i] = socketInput.readUTF ();
+	  }
+
+	  if (toolName.equals (stopCommand)) {
+	    System.err.println (jobString + ": stop request");
+	    stop ();
+	    status = 0;
+	  } else {
+	    jobString = jobString + ": " + toolName + " " + Arrays.toString (toolArgs);
+	    System.err.println (jobString + " started.");
+	    status = runTool (workingDirectory, toolName, toolArgs);
+	  }
+	}
+	catch (IOException e) {
+	  jobErr.println (e.getMessage ());
+	}
+
+	stdout.flush ();
+	synchronized (socketOutput) {
+	  socketOutput.writeByte (exitChannel);
+	  socketOutput.writeInt (status);
+	  socketOutput.flush ();
+	}
+      }
+      catch (Throwable e) {
+	System.err.println (jobString + " failed: " + e);
+      }
+      finally {
+	try {
+	  socket.close ();
+	}
+	catch (IOException e) {
+	  System.err.println (jobString + ": socket could not be closed.");
+	}
+      }
+
+      System.err.println (jobString + " finished with status " + status + " after " + ((System.currentTimeMillis () - startTime) / 1000.0) +
+			   " seconds.");
+
+    }
+
+
+    /***********************************************************************************
+     *
+     *  runTool: send the job and the standard input of the client to a worker and
+     *  the standard output and error of the worker to the client; the exit status
+     *  of the worker is the exit status of the job
+     *
+     ***********************************************************************************/
+
+    private int runTool (String workingDirectory, String toolName, String [] toolArgs) throws IOException {
+
+      if (toolName.startsWith ("Quantification")) {
+	throw new IOException ("ERROR: Tool " + toolName + " cannot be run in the server.");
+      }
+
+      Process worker = getWorker ();
+      try {
+	DataOutputStream workerInput = new DataOutputStream (new BufferedOutputStream (worker.getOutputStream (), 1 << 16));
+	workerInput.writeUTF (workingDirectory);
+	workerInput.writeUTF (toolName);
+	workerInput.writeInt (toolArgs.length);
+	for (String toolArg: toolArgs) {
+	  workerInput.writeUTF (toolArg);
+	}
+	workerInput.flush ();
+
+	StreamCopier outputCopier = new StreamCopier (worker.getInputStream (), stdout, worker);
+	StreamCopier errorCopier  = new StreamCopier (worker.getErrorStream (), stderr, worker);
+	StreamCopier inputCopier  = new StreamCopier (stdin, workerInput, null);
+	inputCopier.setDaemon (true);
+	outputCopier.start ();
+	errorCopier.start ();
+	inputCopier.start ();
+
+	outputCopier.join ();
+	errorCopier.join ();
+	int status = worker.waitFor ();
+
+	if (outputCopier.getException () != null) {
+	  throw outputCopier.getException ();
+	}
+
+	return status;
+      }
+      catch (InterruptedException e) {
+	throw new IOException ("ERROR: Job " + toolName + " interrupted.");
+      }
+      finally {
+	worker.destroy ();
+      }
+
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class StreamCopier
+   *
+   *  Copies a stream of a job; the output stream is closed at the end of the input
+   *  stream. If the output stream fails, the worker (if any) is destroyed since
+   *  nobody reads its output anymore.
+   *
+   ***********************************************************************************/
+
+  private static class StreamCopier extends Thread {
+
+    private InputStream  inputStream  = null;
+    private OutputStream outputStream = null;
+    private Process      worker       = null;
+    private IOException  exception    = null;
+
+    StreamCopier (InputStream inputStream, OutputStream outputStream, Process worker) {
+      this.inputStream  = inputStream;
+      this.outputStream = outputStream;
+      this.worker       = worker;
+    }
+
+    IOException getException () {
+      return exception;
+    }
+
+    public void run () {
+
+      byte [] buffer = new byte [1 << 16];
+      try {
+	int numRead = inputStream.read (buffer);
+	while (numRead >= 0) {
+	  outputStream.write (buffer, 0, numRead);
+	  if (inputStream.available () == 0) {
+	    outputStream.flush ();
+	  }
+	  numRead = inputStream.read (buffer);
+	}
+	if (worker == null) {
+	  outputStream.close ();
+	}
+      }
+      catch (IOException e) {
+	exception = e;
+	if (worker != null) {
+	  worker.destroy ();
+	}
+      }
+
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class FrameOutputStream
+   *
+   *  Sends the written bytes as frames of a channel to the client.
+   *
+   ***********************************************************************************/
+
+  private static class FrameOutputStream extends OutputStream {
+
+    private DataOutputStream socketOutput = null;
+    private int              channel      = 0;
+    private boolean          flushFrames  = false;
+
+    FrameOutputStream (DataOutputStream socketOutput, int channel, boolean flushFrames) {
+      this.socketOutput = socketOutput;
+      this.channel      = channel;
+      this.flushFrames  = flushFrames;
+    }
+
+    public void write (int b) throws IOException {
+      write (new byte [] {(byte) b}, 0, 1);
+    }
+
+    public void write (byte [] b, int offset, int length) throws IOException {
+
+      if (length == 0) {
+	return;
+      }
+
+      synchronized (socketOutput) {
+	socketOutput.writeByte (channel);
+	socketOutput.writeInt (length);
+	socketOutput.write (b, offset, length);
+	if (flushFrames) {
+	  socketOutput.flush ();
+	}
+      }
+
+    }
+
+    public void flush () throws IOException {
+      synchronized (socketOutput) {
+	socketOutput.flush ();
+      }
+    }
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                           Class FrameInputStream
+   *
+   *  The standard input of the client as sent in frames.
+   *
+   ***********************************************************************************/
+
+  private static class FrameInputStream extends InputStream {
+
+    private DataInputStream socketInput = null;
+    private int             remaining   = 0;
+    private boolean         isAtEnd     = false;
+
+    FrameInputStream (DataInputStream socketInput) {
+      this.socketInput = socketInput;
+    }
+
+    public synchronized int read () throws IOException {
+
+      byte [] b = new byte [1];
+      if (read (b, 0, 1) < 0) {
+	return -1;
+      }
+
+      return b[0] & 0xff;
+
+    }
+
+    public synchronized int read (byte [] b, int offset, int length) throws IOException {
+
+      if (length == 0) {
+	return 0;
+      }
+
+      while (! isAtEnd && remaining == 0) {
+	remaining = socketInput.readInt ();
+	isAtEnd   = remaining == 0;
+      }
+
+      if (isAtEnd) {
+	return -1;
+      }
+
+      int numRead = socketInput.read (b, offset, Math.min (length, remaining));
+      if (numRead < 0) {
+	throw new EOFException ("ERROR: Standard input of the client ended unexpectedly.");
+      }
+      remaining -= numRead;
+
+      return numRead;
+
+    }
+
+    public synchronized int available () {
+      return remaining;
+    }
+
+  }
+
+}
@@ -0,0 +1,172 @@
+/**File: QuantificationWorker.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.lang.reflect.*;
+
+
+/***********************************************************************************
+ *
+ *
+ *                           Class QuantificationWorker
+ *
+ *  A JVM which QuantificationServer starts before a job arrives: it loads the
+ *  classes of the tools and opens the reference bundles, then reads one job from
+ *  its standard input and runs it. The rest of the standard input is the standard
+ *  input of the tool and the worker exits with the exit status of the tool, so
+ *  the static variables of the tools and System.exit concern this job only.
+ *
+ *  Job (DataOutputStream): the working directory of the client, the tool, the
+ *  number of arguments, and the arguments (all as UTF strings except for the
+ *  number).
+ *
+ ***********************************************************************************/
+
+public class QuantificationWorker {
+
+  /* The tools submitted by compute-counts.sh and their main classes */
+  private static final String [] preloadedClassNames = {"ComputeCounts", "ComputeGeneCountsSam", "ConvertSamBed", "Exon", "SamRecord", "UtilLib"};
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("QuantificationWorker.java\n" +
+     "   -- Runs one job of a QuantificationServer.\n" +
+     "\n" +
+     "USAGE: java QuantificationWorker [-r <reference file>]\n" +
+     "\n" +
+     "The worker is started by QuantificationServer and reads its job from the\n" +
+     "standard input.\n" +
+     "\n" +
+     "-r STRING: a reference file whose reference bundle is opened before the job\n" +
+     "    arrives (may be repeated)\n");
+  }
+
+
+  /***********************************************************************************
+   *
+   *  preload: load the tool classes and open the reference bundles; errors are
+   *  left to the job which needs the class or the bundle.
+   *
+   ***********************************************************************************/
+
+  private static void preload (Vector<String> referenceFilenames) {
+
+    ClassLoader classLoader = QuantificationWorker.class.getClassLoader ();
+    for (String className: preloadedClassNames) {
+      try {
+	Class.forName (className, false, classLoader);
+      }
+      catch (ClassNotFoundException e) {
+      }
+    }
+
+    for (String referenceFilename: referenceFilenames) {
+      try {
+	ReferenceBundle.open (referenceFilename);
+      }
+      catch (IOException e) {
+      }
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    Vector<String> referenceFilenames = new Vector<String> ();
+
+    Getopt g = new Getopt("QuantificationWorker", args, "r:h");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'r':
+	referenceFilenames.add (g.getOptarg());
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    preload (referenceFilenames);
+
+    String toolName = null;
+    try {
+
+      /* No buffering: the bytes after the job belong to the tool */
+      DataInputStream jobInput = new DataInputStream (System.in);
+
+      String workingDirectory = null;
+      try {
+	workingDirectory = jobInput.readUTF ();
+      }
+      catch (EOFException e) {
+	/* The server stopped without a job for this worker */
+	System.exit (0);
+      }
+
+      toolName = jobInput.readUTF ();
+      String [] toolArgs = new String [jobInput.readInt ()];
+      for (int i = 0; i < toolArgs.length; i++) {
+	toolArgs[i] = jobInput.readUTF ();
+      }
+
+      if (toolName.startsWith ("Quantification")) {
+	throw new IOException ("ERROR: Tool " + toolName + " cannot be run in the server.");
+      }
+
+      UtilLib.setWorkingDirectory (workingDirectory);
+
+      Method mainMethod = null;
+      try {
+	mainMethod = Class.forName (toolName).getMethod ("main", String [].class);
+      }
+      catch (ClassNotFoundException e) {
+	throw new IOException ("ERROR: Tool " + toolName + " not found.");
+      }
+      catch (NoSuchMethodException e) {
+	throw new IOException ("ERROR: Tool " + toolName + " has no main method.");
+      }
+
+      mainMethod.invoke (null, (Object) toolArgs);
+
+    }
+    catch (InvocationTargetException e) {
+      Throwable cause = e.getCause ();
+      System.err.println ("ERROR: " + toolName + " failed: " + (cause == null?"No error message":cause.toString ()));
+      System.exit (1);
+    }
+    catch (Exception e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      System.exit (1);
+    }
+  }
+}
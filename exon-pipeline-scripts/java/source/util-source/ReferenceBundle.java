@@ -0,0 +1,401 @@
+/**File: ReferenceBundle.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.util.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class ReferenceBundle
+ *
+ *  A tab-separated reference file (count object map, transcript gene map, GTF
+ *  file, chromosome id file) in a binary, memory-mapped form. The lines are split
+ *  into fields (as with a StringTokenizer on tabs) when the bundle is created
+ *  and every distinct field value is stored once. A tool which loads a reference
+ *  file therefore does not need to decompress or tokenize it and it creates one
+ *  String per distinct value. Since the bundle is mapped read-only, all jobs on
+ *  a node which use the same reference share its pages in the page cache.
+ *
+ *  The bundle of <file> is the file <file>.bundle; it is created once per
+ *  reference release with CreateReferenceBundles. It stores the length and the
+ *  modification time of <file> and is ignored if <file> has changed since.
+ *
+ *  Layout (big-endian):
+ *    header:        magic, version, source length, source modification time,
+ *                   number of rows, strings, field references, maximal number
+ *                   of fields of a row
+ *    row offsets:   int [number of rows + 1] into the field references
+ *    field refs:    int [number of field references]: string numbers
+ *    string ends:   int [number of strings]: end offsets into the string data
+ *    string data:   the UTF-8 bytes of the strings
+ *
+ ***********************************************************************************/
+
+public class ReferenceBundle {
+
+  public static final String bundleSuffix = ".bundle";
+
+  private static final long magic      = 0x4551505245464231L; /* EQPREFB1 */
+  private static final int  version    = 1;
+  private static final int  headerSize = 8 + 4 + 8 + 8 + 4 * 4;
+
+  private String filename = null;
+
+  private int numRows         = 0;
+  private int numStrings      = 0;
+  private int numFieldRefs    = 0;
+  private int maxNumFields    = 0;
+
+  private IntBuffer  rowOffsets = null;
+  private IntBuffer  fieldRefs  = null;
+  private IntBuffer  stringEnds = null;
+  private ByteBuffer stringData = null;
+
+  /* The strings which were already decoded */
+  private String [] strings = null;
+
+  private long sourceLength       = 0;
+  private long sourceLastModified = 0;
+  private long bundleLastModified = 0;
+
+  /* The bundles opened by this JVM; a bundle is opened only once */
+  private static Hashtable<String, ReferenceBundle> bundleTable = new Hashtable<String, ReferenceBundle> ();
+
+
+  /***********************************************************************************
+   *
+   *                           Constructor
+   *
+   ***********************************************************************************/
+
+  private ReferenceBundle (String filename, long bundleLastModified, MappedByteBuffer buffer) throws IOException {
+
+    this.filename           = filename;
+    this.bundleLastModified = bundleLastModified;
+
+    buffer.position (8 + 4);
+    sourceLength       = buffer.getLong ();
+    sourceLastModified = buffer.getLong ();
+    numRows      = buffer.getInt ();
+    numStrings   = buffer.getInt ();
+    numFieldRefs = buffer.getInt ();
+    maxNumFields = buffer.getInt ();
+
+    int position = headerSize;
+    rowOffsets = slice (buffer, position, 4 * (numRows + 1)).asIntBuffer ();
+    position += 4 * (numRows + 1);
+    fieldRefs  = slice (buffer, position, 4 * numFieldRefs).asIntBuffer ();
+    position += 4 * numFieldRefs;
+    stringEnds = slice (buffer, position, 4 * numStrings).asIntBuffer ();
+    position += 4 * numStrings;
+    stringData = slice (buffer, position, buffer.capacity () - position);
+
+    strings = new String [numStrings];
+
+  }
+
+  private static ByteBuffer slice (ByteBuffer buffer, int position, int length) {
+
+    ByteBuffer duplicate = buffer.duplicate ();
+    duplicate.position (position);
+    duplicate.limit (position + length);
+
+    return duplicate.slice ();
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  open: the bundle of sourceFilename or null if it does not exist or is out of
+   *  date; in the latter case the source file has to be read. A bundle which was
+   *  already opened is returned again as long as neither the bundle nor the source
+   *  file has changed.
+   *
+   ***********************************************************************************/
+
+  public static ReferenceBundle open (String sourceFilename) throws IOException {
+
+    if (sourceFilename == null || sourceFilename.equals ("") || sourceFilename.equals ("-") || BatchPipe.isPipeFilename (sourceFilename)) {
+      return null;
+    }
+
+    File sourceFile = new File (sourceFilename);
+    File bundleFile = new File (sourceFilename + bundleSuffix);
+    if (! bundleFile.exists ()) {
+      return null;
+    }
+
+    String bundleKey = bundleFile.getAbsolutePath ();
+    long   bundleLastModified = bundleFile.lastModified ();
+    ReferenceBundle referenceBundle = bundleTable.get (bundleKey);
+    if (referenceBundle != null && referenceBundle.bundleLastModified == bundleLastModified &&
+	referenceBundle.sourceLength == sourceFile.length () && referenceBundle.sourceLastModified == sourceFile.lastModified ()) {
+      return referenceBundle;
+    }
+
+    RandomAccessFile bundleRandomAccessFile = new RandomAccessFile (bundleFile, "r");
+    try {
+      FileChannel bundleChannel = bundleRandomAccessFile.getChannel ();
+      if (bundleChannel.size () < headerSize || bundleChannel.size () > Integer.MAX_VALUE) {
+	throw new IOException ("ERROR: " + bundleFile.getPath () + " is not a reference bundle.");
+      }
+
+      /* The mapping remains valid after the channel is closed */
+      MappedByteBuffer buffer = bundleChannel.map (FileChannel.MapMode.READ_ONLY, 0, bundleChannel.size ());
+      if (buffer.getLong () != magic || buffer.getInt () != version) {
+	throw new IOException ("ERROR: " + bundleFile.getPath () + " is not a reference bundle of version " + version + ".");
+      }
+
+      if (buffer.getLong () != sourceFile.length () || buffer.getLong () != sourceFile.lastModified ()) {
+	System.err.println ("Warning: reference bundle " + bundleFile.getPath () + " is out of date - reading " + sourceFilename + ".");
+	return null;
+      }
+
+      referenceBundle = new ReferenceBundle (bundleFile.getPath (), bundleLastModified, buffer);
+      bundleTable.put (bundleKey, referenceBundle);
+
+      return referenceBundle;
+    }
+    finally {
+      bundleRandomAccessFile.close ();
+    }
+
+  }
+
+
+  /***********************************************************************************/
+
+  public String getFilename () {
+    return filename;
+  }
+
+  public int getNumRows () {
+    return numRows;
+  }
+
+  public int getMaxNumFields () {
+    return maxNumFields;
+  }
+
+  public int getNumFields (int row) {
+    return rowOffsets.get (row + 1) - rowOffsets.get (row);
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getString: decode string number stringIndex once; concurrent threads
+   *  may decode a string twice, which is harmless.
+   *
+   ***********************************************************************************/
+
+  private String getString (int stringIndex) {
+
+    String string = strings[stringIndex];
+    if (string == null) {
+      int start = stringIndex == 0?0:stringEnds.get (stringIndex - 1);
+      int end   = stringEnds.get (stringIndex);
+
+      byte [] bytes = new byte [end - start];
+      ByteBuffer stringBuffer = stringData.duplicate ();
+      stringBuffer.position (start);
+      stringBuffer.get (bytes);
+
+      string = new String (bytes, StandardCharsets.UTF_8);
+      strings[stringIndex] = string;
+    }
+
+    return string;
+
+  }
+
+
+  /***********************************************************************************/
+
+  public String getField (int row, int fieldIndex) {
+    return getString (fieldRefs.get (rowOffsets.get (row) + fieldIndex));
+  }
+
+  /* Fills fields with the fields of row and returns their number */
+  public int getFields (int row, String [] fields) {
+
+    int offset    = rowOffsets.get (row);
+    int numFields = rowOffsets.get (row + 1) - offset;
+    for (int i = 0; i < numFields; i++) {
+      fields[i] = getString (fieldRefs.get (offset + i));
+    }
+
+    return numFields;
+
+  }
+
+  /* The fields of row separated by tabs, e.g. for error messages */
+  public String getLine (int row) {
+
+    StringBuffer line = new StringBuffer ();
+    for (int i = 0; i < getNumFields (row); i++) {
+      if (i > 0) {
+	line.append ("\t");
+      }
+      line.append (getField (row, i));
+    }
+
+    return line.toString ();
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  splitLine: the fields of a line as a StringTokenizer on tabs returns them;
+   *  used by the loaders for the lines of a source file
+   *
+   ***********************************************************************************/
+
+  public static int splitLine (String line, String [] fields) {
+
+    StringTokenizer st = new StringTokenizer (line, "\t");
+    int numFields = 0;
+    while (st.hasMoreTokens () && numFields < fields.length) {
+      fields[numFields++] = st.nextToken ();
+    }
+
+    return numFields;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  create: write the bundle of sourceFilename; the bundle is written to a
+   *  temporary file which is then renamed so that concurrent jobs never see a
+   *  partial bundle.
+   *
+   ***********************************************************************************/
+
+  public static void create (String sourceFilename) throws IOException {
+
+    File sourceFile = new File (sourceFilename);
+    if (! sourceFile.isFile ()) {
+      throw new IOException ("ERROR: " + sourceFilename + " is not a file.");
+    }
+
+    long sourceLength       = sourceFile.length ();
+    long sourceLastModified = sourceFile.lastModified ();
+
+    HashMap<String, Integer> stringTable = new HashMap<String, Integer> (1 << 16);
+    Vector<byte []> stringBytes = new Vector<byte []> ();
+    long numStringBytes = 0;
+
+    int [] rowOffsets = new int [1 << 16];
+    int [] fieldRefs  = new int [1 << 18];
+    int numRows      = 0;
+    int numFieldRefs = 0;
+    int maxNumFields = 0;
+
+    BufferedReader reader = UtilLib.getBufferedReader (sourceFilename);
+    String line = reader.readLine ();
+    while (line != null) {
+      StringTokenizer st = new StringTokenizer (line, "\t");
+      int numFields = 0;
+      while (st.hasMoreTokens ()) {
+	String field = st.nextToken ();
+	Integer stringIndex = stringTable.get (field);
+	if (stringIndex == null) {
+	  stringIndex = Integer.valueOf (stringBytes.size ());
+	  stringTable.put (field, stringIndex);
+	  byte [] bytes = field.getBytes (StandardCharsets.UTF_8);
+	  stringBytes.add (bytes);
+	  numStringBytes += bytes.length;
+	}
+	if (numFieldRefs == fieldRefs.length) {
+	  fieldRefs = Arrays.copyOf (fieldRefs, 2 * fieldRefs.length);
+	}
+	fieldRefs[numFieldRefs++] = stringIndex.intValue ();
+	numFields++;
+      }
+      maxNumFields = Math.max (maxNumFields, numFields);
+
+      if (numRows + 2 > rowOffsets.length) {
+	rowOffsets = Arrays.copyOf (rowOffsets, 2 * rowOffsets.length);
+      }
+      numRows++;
+      rowOffsets[numRows] = numFieldRefs;
+
+      line = reader.readLine ();
+    }
+    reader.close ();
+
+    long bundleSize = headerSize + 4L * (numRows + 1) + 4L * numFieldRefs + 4L * stringBytes.size () + numStringBytes;
+    if (bundleSize > Integer.MAX_VALUE) {
+      throw new IOException ("ERROR: The reference bundle of " + sourceFilename + " would exceed 2GB.");
+    }
+
+    File bundleFile = new File (sourceFilename + bundleSuffix);
+    File tempFile   = File.createTempFile (bundleFile.getName (), ".tmp", bundleFile.getAbsoluteFile ().getParentFile ());
+    try {
+      DataOutputStream outputStream = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (tempFile), 1 << 16));
+
+      outputStream.writeLong (magic);
+      outputStream.writeInt  (version);
+      outputStream.writeLong (sourceLength);
+      outputStream.writeLong (sourceLastModified);
+      outputStream.writeInt  (numRows);
+      outputStream.writeInt  (stringBytes.size ());
+      outputStream.writeInt  (numFieldRefs);
+      outputStream.writeInt  (maxNumFields);
+
+      for (int i = 0; i <= numRows; i++) {
+	outputStream.writeInt (rowOffsets[i]);
+      }
+      for (int i = 0; i < numFieldRefs; i++) {
+	outputStream.writeInt (fieldRefs[i]);
+      }
+      int stringEnd = 0;
+      for (byte [] bytes: stringBytes) {
+	stringEnd += bytes.length;
+	outputStream.writeInt (stringEnd);
+      }
+      for (byte [] bytes: stringBytes) {
+	outputStream.write (bytes);
+      }
+      outputStream.close ();
+
+      if (sourceFile.length () != sourceLength || sourceFile.lastModified () != sourceLastModified) {
+	throw new IOException ("ERROR: " + sourceFilename + " changed while its reference bundle was created.");
+      }
+
+      if (! tempFile.renameTo (bundleFile)) {
+	throw new IOException ("ERROR: Could not rename " + tempFile.getPath () + " to " + bundleFile.getPath () + ".");
+      }
+    }
+    finally {
+      tempFile.delete ();
+    }
+
+    System.err.println ("Reference bundle " + bundleFile.getPath () + " with " + numRows + " rows and " + stringBytes.size () +
+			" distinct fields created.");
+
+  }
+
+}
@@ -0,0 +1,332 @@
+/**File: RunPipeline.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.reflect.*;
+
+
+/***********************************************************************************
+ *
+ *
+ *                           Class PipelineStage
+ *
+ *  A tool of the pipeline: the main method of the tool class is called with the
+ *  arguments of the stage. The tool classes are loaded by a class loader of the
+ *  stage, so the static variables of the tools and of UtilLib, Exon, etc. are not
+ *  shared by the stages.
+ *
+ ***********************************************************************************/
+
+class PipelineStage implements Callable<Long> {
+
+  private String    toolName = null;
+  private String [] toolArgs = null;
+  private Method    mainMethod = null;
+
+  private StageClassLoader stageClassLoader = null;
+
+  PipelineStage (String line, URL [] classPathUrls) throws IOException {
+
+    StringTokenizer st = new StringTokenizer (line, " \t");
+    toolName = st.nextToken ();
+    toolArgs = new String [st.countTokens ()];
+    for (int i = 0; i < toolArgs.length; i++) {
+      toolArgs[i] = st.nextToken ();
+    }
+
+    stageClassLoader = new StageClassLoader (classPathUrls);
+    try {
+      mainMethod = Class.forName (toolName, false, stageClassLoader).getMethod ("main", String [].class);
+    }
+    catch (ClassNotFoundException e) {
+      throw new IOException ("ERROR: Tool " + toolName + " not found.");
+    }
+    catch (NoSuchMethodException e) {
+      throw new IOException ("ERROR: Tool " + toolName + " has no main method.");
+    }
+
+  }
+
+  public String getToolName () {
+    return toolName;
+  }
+
+  public String toString () {
+
+    StringBuffer stringBuffer = new StringBuffer (toolName);
+    for (String toolArg: toolArgs) {
+      stringBuffer.append (" " + toolArg);
+    }
+
+    return stringBuffer.toString ();
+
+  }
+
+  /* Returns the running time of the tool in milliseconds */
+  public Long call () throws Exception {
+
+    long startTime = System.currentTimeMillis ();
+    Thread.currentThread ().setContextClassLoader (stageClassLoader);
+    try {
+      mainMethod.invoke (null, (Object) toolArgs);
+    }
+    catch (InvocationTargetException e) {
+      Throwable cause = e.getCause ();
+      throw new IOException ("ERROR: " + toolName + " failed: " + (cause == null?"No error message":cause.toString ()), cause);
+    }
+    finally {
+      try {
+	BatchPipe.closeReaders ();
+	BatchPipe.closeWriters ();
+      }
+      finally {
+	stageClassLoader.close ();
+      }
+    }
+
+    return Long.valueOf (System.currentTimeMillis () - startTime);
+
+  }
+
+}
+
+
+/***********************************************************************************
+ *
+ *
+ *                           Class StageClassLoader
+ *
+ *  Loads the classes of the class path anew for a stage except for the pipes and
+ *  the metrics which are shared by all stages.
+ *
+ ***********************************************************************************/
+
+class StageClassLoader extends URLClassLoader {
+
+  private static final String [] sharedClassNames = {"BatchPipe", "PipelineMetrics", "StageMetrics", "StageMetricsMBean"};
+
+  private static HashSet<String> sharedClassNameSet = new HashSet<String> (Arrays.asList (sharedClassNames));
+
+  StageClassLoader (URL [] classPathUrls) {
+    super (classPathUrls, ClassLoader.getSystemClassLoader ().getParent ());
+  }
+
+  protected Class<?> loadClass (String name, boolean resolve) throws ClassNotFoundException {
+
+    if (sharedClassNameSet.contains (name)) {
+      return StageClassLoader.class.getClassLoader ().loadClass (name);
+    }
+
+    return super.loadClass (name, resolve);
+
+  }
+
+}
+
+
+/***********************************************************************************
+ *
+ *
+ *                           Class RunPipeline
+ *
+ *
+ ***********************************************************************************/
+
+public class RunPipeline {
+
+  private static int debugLevel = 0;
+
+
+  /***********************************************************************************/
+
+  private static void printHelp () {
+    System.out.println("RunPipeline.java\n" +
+     "   -- Runs a chain of tools in one JVM.\n" +
+     "\n" +
+     "USAGE: java RunPipeline [-b <batch size>] [-q <queue capacity>] [-X <metrics file>]\n" +
+     "       -p <pipeline file>\n" +
+     "\n" +
+     "Each line of <pipeline file> contains a tool (e.g. CombineSamFiles) with its\n" +
+     "arguments. The tools are run concurrently, each on its own thread. Instead of\n" +
+     "Unix pipes the tools exchange their data through in-memory pipes: an output or\n" +
+     "input file pipe:<name> denotes the pipe <name>. Each pipe must be written by\n" +
+     "exactly one tool and read by exactly one tool. A pipe holds at most\n" +
+     "<queue capacity> batches of lines, so a fast tool waits for a slow one.\n" +
+     "\n" +
+     "If a tool throws an exception, then all pipes are cancelled and RunPipeline\n" +
+     "exits with status 1. A tool that calls System.exit terminates the pipeline with\n" +
+     "its exit status. If a tool ends without reading all lines of a pipe, then the\n" +
+     "tool writing the pipe fails. Since the tools keep their options in static\n" +
+     "variables, each tool is loaded by a class loader of its own, so a tool may occur\n" +
+     "several times in a pipeline. Lines starting with # are ignored.\n" +
+     "\n" +
+     "Example:\n" +
+     "  CombineSamFiles -1 transcript.sam.gz -2 junction.sam.gz -a genome.sam.gz ...\n" +
+     "                  -o pipe:combined\n" +
+     "  ConvertSamBed -s pipe:combined ...\n" +
+     "\n" +
+     "-b INT: number of characters per batch [65536]\n" +
+     "-p STRING: the pipeline file (- for STDIN) [-]\n" +
+     "-q INT: number of batches per pipe [16]\n" +
+     "-X STRING: write the throughput metrics of the tools and the pipes as JSON lines\n" +
+     "    to file STRING every 10 seconds; option -X of the tools is ignored then.\n");
+  }
+
+
+  /***********************************************************************************
+   *
+   *  getClassPathUrls: the URLs of the class path which are used by the class
+   *  loaders of the stages
+   *
+   ***********************************************************************************/
+
+  private static URL [] getClassPathUrls () throws IOException {
+
+    StringTokenizer st = new StringTokenizer (System.getProperty ("java.class.path"), File.pathSeparator);
+    URL [] urls = new URL [st.countTokens ()];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = new File (st.nextToken ()).toURI ().toURL ();
+    }
+
+    return urls;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *  readPipelineStages: one stage per non-empty line that does not start with #
+   *
+   ***********************************************************************************/
+
+  private static Vector<PipelineStage> readPipelineStages (String pipelineFilename) throws IOException {
+
+    Vector<PipelineStage> pipelineStages = new Vector<PipelineStage> ();
+    URL []                classPathUrls  = getClassPathUrls ();
+
+    BufferedReader reader = UtilLib.getBufferedReader (pipelineFilename);
+    String line = reader.readLine ();
+    while (line != null) {
+      line = line.trim ();
+      if (! line.equals ("") && ! line.startsWith ("#")) {
+	pipelineStages.add (new PipelineStage (line, classPathUrls));
+      }
+      line = reader.readLine ();
+    }
+    reader.close ();
+
+    return pipelineStages;
+
+  }
+
+
+  /***********************************************************************************/
+
+  public static void main (String [] args) {
+
+    String pipelineFilename = "-";
+    String metricsFilename  = "";
+
+    Getopt g = new Getopt("RunPipeline", args, "b:d:p:q:X:h");
+
+    int c;
+
+    c = g.getopt();
+
+    while (c  != -1) {
+      switch(c) {
+      case 'b':
+	BatchPipe.setBatchSize (Integer.parseInt (g.getOptarg()));
+	break;
+      case 'd':
+	debugLevel = Integer.parseInt (g.getOptarg());
+	UtilLib.setDebugLevel (debugLevel);
+	break;
+      case 'p':
+	pipelineFilename = g.getOptarg();
+	break;
+      case 'q':
+	BatchPipe.setQueueCapacity (Integer.parseInt (g.getOptarg()));
+	break;
+      case 'X':
+	metricsFilename = g.getOptarg();
+	break;
+      case 'h':
+	printHelp();
+	System.exit(0);
+	break;
+      default:
+	System.err.print("Error: getopt() returned " + c + "\n");
+      }
+      c = g.getopt();
+    }
+
+    ExecutorService executorService = null;
+    try {
+
+      Vector<PipelineStage> pipelineStages = readPipelineStages (pipelineFilename);
+      if (pipelineStages.size () == 0) {
+	throw new IOException ("ERROR: No tools found in " + pipelineFilename + ".");
+      }
+
+      if (! metricsFilename.equals("")) {
+	PipelineMetrics.start (metricsFilename);
+      }
+
+      /* Every stage needs its own thread as the stages block on their pipes */
+      executorService = Executors.newFixedThreadPool (pipelineStages.size ());
+      ExecutorCompletionService<Long> completionService = new ExecutorCompletionService<Long> (executorService);
+
+      Hashtable<Future<Long>, PipelineStage> stageTable = new Hashtable<Future<Long>, PipelineStage> ();
+      for (PipelineStage pipelineStage: pipelineStages) {
+	System.err.println ("Starting " + pipelineStage);
+	stageTable.put (completionService.submit (pipelineStage), pipelineStage);
+      }
+
+      for (int i = 0; i < pipelineStages.size (); i++) {
+	Future<Long> future = completionService.take ();
+	try {
+	  long runningTime = future.get ().longValue ();
+	  System.err.println (stageTable.get(future).getToolName () + " finished after " + (runningTime / 1000.0) + " seconds.");
+	}
+	catch (ExecutionException e) {
+	  BatchPipe.cancel ();
+	  executorService.shutdownNow ();
+	  Throwable cause = e.getCause ();
+	  throw new IOException (cause == null?"ERROR: " + stageTable.get(future).getToolName () + " failed.":cause.getMessage ());
+	}
+      }
+
+      Vector<String> unconnectedPipes = BatchPipe.getUnconnectedPipes ();
+      if (unconnectedPipes.size () > 0) {
+	System.err.println ("Warning: the following pipes are not connected: " + unconnectedPipes);
+      }
+
+      executorService.shutdown ();
+      PipelineMetrics.stop ();
+
+    }
+    catch (Exception e) {
+      System.err.println (e==null?"No error message":e.getMessage());
+      System.exit (1);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/**File: SmallSet.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.util.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class SmallSet
+ *
+ *  A set of a few elements which are stored in an array. The alignments of a
+ *  fragment have only a handful of BED records, genomic intervals, and exons, so a
+ *  linear or binary search in an array is faster than a TreeSet or HashSet and
+ *  does not need an entry object per element.
+ *
+ *  A sorted set keeps its elements in the order of its comparator and identifies
+ *  elements which are compared as 0 (as a TreeSet); an unsorted set keeps its
+ *  elements in the order of insertion and identifies elements by equals (as a
+ *  HashSet).
+ *
+ *  clear keeps the array so that a set can be reused for the next fragment.
+ *
+ ***********************************************************************************/
+
+public class SmallSet<E> extends AbstractSet<E> {
+
+  private Object []             elements   = null;
+  private int                   size       = 0;
+  private Comparator<? super E> comparator = null;
+
+  /* An unsorted set */
+  public SmallSet (int capacity) {
+    this (capacity, null);
+  }
+
+  /* A sorted set if comparator is not null */
+  public SmallSet (int capacity, Comparator<? super E> comparator) {
+    elements        = new Object [Math.max (capacity, 1)];
+    this.comparator = comparator;
+  }
+
+  /* A set which is sorted by the natural order of its elements */
+  public static <T extends Comparable<? super T>> SmallSet<T> sortedSet (int capacity) {
+    return new SmallSet<T> (capacity, new Comparator<T> () {
+	public int compare (T element1, T element2) {
+	  return element1.compareTo (element2);
+	}
+      });
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              indexOf
+   *
+   *  The index of element o if it is contained in the set; otherwise
+   *  - (insertion point) - 1 for sorted sets and - size - 1 for unsorted sets.
+   *
+   ***********************************************************************************/
+
+  private int indexOf (Object o) {
+
+    if (comparator != null) {
+      E element = castElement (o);
+      int low  = 0;
+      int high = size - 1;
+      while (low <= high) {
+	int mid = (low + high) >>> 1;
+	int compValue = comparator.compare (get (mid), element);
+	if (compValue < 0) {
+	  low = mid + 1;
+	} else if (compValue > 0) {
+	  high = mid - 1;
+	} else {
+	  return mid;
+	}
+      }
+      return - low - 1;
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (elements[i].equals (o)) {
+	return i;
+      }
+    }
+
+    return - size - 1;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              addOrGet
+   *
+   *  Adds element if the set does not contain an equal element and returns null;
+   *  otherwise returns the element of the set which is equal to element.
+   *
+   ***********************************************************************************/
+
+  public E addOrGet (E element) {
+
+    int index = indexOf (element);
+    if (index >= 0) {
+      return get (index);
+    }
+
+    index = - index - 1;
+    if (size == elements.length) {
+      elements = Arrays.copyOf (elements, 2 * elements.length);
+    }
+
+    System.arraycopy (elements, index, elements, index + 1, size - index);
+    elements[index] = element;
+    size++;
+
+    return null;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              removeIndex
+   *
+   ***********************************************************************************/
+
+  private void removeIndex (int index) {
+
+    System.arraycopy (elements, index + 1, elements, index, size - index - 1);
+    size--;
+    elements[size] = null;
+
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              Set methods
+   *
+   ***********************************************************************************/
+
+  public boolean add (E element) {
+    return addOrGet (element) == null;
+  }
+
+  public boolean contains (Object o) {
+    return indexOf (o) >= 0;
+  }
+
+  public boolean remove (Object o) {
+
+    int index = indexOf (o);
+    if (index < 0) {
+      return false;
+    }
+
+    removeIndex (index);
+    return true;
+
+  }
+
+  public void clear () {
+    Arrays.fill (elements, 0, size, null);
+    size = 0;
+  }
+
+  public int size () {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public E get (int index) {
+    return (E) elements[index];
+  }
+
+  /* As for a TreeSet, an object of another type fails in the comparator */
+  @SuppressWarnings("unchecked")
+  private E castElement (Object o) {
+    return (E) o;
+  }
+
+  public Iterator<E> iterator () {
+
+    return new Iterator<E> () {
+
+      private int     index     = 0;
+      private boolean canRemove = false;
+
+      public boolean hasNext () {
+	return index < size;
+      }
+
+      public E next () {
+	if (index >= size) {
+	  throw new NoSuchElementException ();
+	}
+	canRemove = true;
+	return get (index++);
+      }
+
+      public void remove () {
+	if (! canRemove) {
+	  throw new IllegalStateException ();
+	}
+	canRemove = false;
+	index--;
+	removeIndex (index);
+      }
+    };
+
+  }
+
+}
@@ -0,0 +1,158 @@
+/**File: StageMetrics.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+
+/***********************************************************************************
+ *
+ *                              Class StageMetrics
+ *
+ *  The counters of one stage of a tool, e.g. the reading of a SAM file: the number
+ *  of records and bytes (characters) read, the time spent parsing and processing
+ *  the records, and the depth of the queue that feeds the stage. The counters may
+ *  be updated by several threads.
+ *
+ *  The times are measured with
+ *
+ *    long startTime = stageMetrics.getStartTime ();
+ *    ...
+ *    stageMetrics.addParseTime (startTime);
+ *
+ *  which does not call System.nanoTime if the metrics are not reported (see
+ *  PipelineMetrics.start).
+ *
+ ***********************************************************************************/
+
+public class StageMetrics implements StageMetricsMBean {
+
+  private String name = null;
+
+  private AtomicLong numRecords   = new AtomicLong ();
+  private AtomicLong numBytes     = new AtomicLong ();
+  private AtomicLong parseNanos   = new AtomicLong ();
+  private AtomicLong processNanos = new AtomicLong ();
+
+  private volatile int queueDepth    = 0;
+  private volatile int maxQueueDepth = 0;
+
+  /* The number of records at the last report of PipelineMetrics */
+  private long numReportedRecords = 0;
+
+  StageMetrics (String name) {
+    this.name = name;
+  }
+
+
+  /***********************************************************************************/
+
+  public void addRecords (long value) {
+    numRecords.addAndGet (value);
+  }
+
+  public void addBytes (long value) {
+    numBytes.addAndGet (value);
+  }
+
+  /* Adds a line and its line end */
+  public void addLine (String line) {
+    numRecords.incrementAndGet ();
+    numBytes.addAndGet (line.length () + 1);
+  }
+
+  public void setQueueDepth (int value) {
+    queueDepth = value;
+    if (value > maxQueueDepth) {
+      maxQueueDepth = value;
+    }
+  }
+
+  public long getStartTime () {
+    return PipelineMetrics.isStarted ()?System.nanoTime ():0;
+  }
+
+  public void addParseTime (long startTime) {
+    if (startTime != 0) {
+      parseNanos.addAndGet (System.nanoTime () - startTime);
+    }
+  }
+
+  public void addProcessTime (long startTime) {
+    if (startTime != 0) {
+      processNanos.addAndGet (System.nanoTime () - startTime);
+    }
+  }
+
+
+  /***********************************************************************************
+   *
+   *                              StageMetricsMBean
+   *
+   ***********************************************************************************/
+
+  public String getName () {
+    return name;
+  }
+
+  public long getNumRecords () {
+    return numRecords.get ();
+  }
+
+  public long getNumBytes () {
+    return numBytes.get ();
+  }
+
+  public long getParseTimeMillis () {
+    return parseNanos.get () / 1000000;
+  }
+
+  public long getProcessTimeMillis () {
+    return processNanos.get () / 1000000;
+  }
+
+  public int getQueueDepth () {
+    return queueDepth;
+  }
+
+  public int getMaxQueueDepth () {
+    return maxQueueDepth;
+  }
+
+
+  /***********************************************************************************
+   *
+   *  toJsonString: the counters as a JSON object; the record rate refers to the time
+   *  since the last report
+   *
+   ***********************************************************************************/
+
+  synchronized String toJsonString (double intervalSeconds) {
+
+    long numCurrentRecords = getNumRecords ();
+    double recordsPerSecond = intervalSeconds > 0?(numCurrentRecords - numReportedRecords) / intervalSeconds:0;
+    numReportedRecords = numCurrentRecords;
+
+    return "{\"name\":" + PipelineMetrics.toJsonString (name) + ",\"records\":" + numCurrentRecords +
+      ",\"recordsPerSecond\":" + String.format (Locale.US, "%.1f", recordsPerSecond) + ",\"bytes\":" + getNumBytes () +
+      ",\"parseMillis\":" + getParseTimeMillis () + ",\"processMillis\":" + getProcessTimeMillis () +
+      ",\"queueDepth\":" + getQueueDepth () + ",\"maxQueueDepth\":" + getMaxQueueDepth () + "}";
+
+  }
+
+}
@@ -0,0 +1,44 @@
+/**File: StageMetricsMBean.java
+
+Date: 19/10/2026
+
+Copyright 2015 Novartis Institutes for BioMedical Research
+Inc.Licensed under the Apache License, Version 2.0 (the "License"); you
+may not use this file except in compliance with the License. You may
+obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an "AS IS"
+BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+implied. See the License for the specific language governing
+permissions and limitations under the License.
+*/
+
+
+/***********************************************************************************
+ *
+ *                              Interface StageMetricsMBean
+ *
+ *  The JMX view of a StageMetrics object (see PipelineMetrics).
+ *
+ ***********************************************************************************/
+
+public interface StageMetricsMBean {
+
+  public String getName ();
+
+  public long getNumRecords ();
+
+  public long getNumBytes ();
+
+  public long getParseTimeMillis ();
+
+  public long getProcessTimeMillis ();
+
+  public int getQueueDepth ();
+
+  public int getMaxQueueDepth ();
+
+}
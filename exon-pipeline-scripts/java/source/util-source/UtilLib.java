@@ -310,11 +310,37 @@ public class UtilLib {
     }
 
     return unsetBit (f, i);
-    
+
   }
 
+
   /***********************************************************************************
-   * 
+   *
+   *  Working directory: relative file names are resolved against workingDirectory
+   *  if it is set; QuantificationWorker sets it to the directory of the client.
+   *
+   ***********************************************************************************/
+
+  private static String workingDirectory = null;
+
+  public static void setWorkingDirectory (String value) {
+    workingDirectory = value;
+  }
+
+  public static String getPath (String filename) {
+
+    if (workingDirectory == null || filename.equals ("") || filename.equals ("-") || BatchPipe.isPipeFilename (filename) ||
+	new File (filename).isAbsolute ()) {
+      return filename;
+    }
+
+    return new File (workingDirectory, filename).getPath ();
+
+  }
+
+
+  /***********************************************************************************
+   *
    *                           getPrintWriter
    *
    ***********************************************************************************/
@@ -328,8 +354,12 @@ public class UtilLib {
     if (filename.equals("-")) {
       return new PrintWriter (System.out);
     }
+
+    if (BatchPipe.isPipeFilename (filename)) {
+      return BatchPipe.getPrintWriter (filename);
+    }
     
-    File  outputFile = new File (filename);            
+    File  outputFile = new File (getPath (filename));            
     if (outputFile.exists() && ! outputFile.canWrite()) {
       throw new IOException ("Warning: file " + filename + " cannot be written to.");
     }
@@ -360,8 +390,12 @@ public class UtilLib {
       System.err.println ("Processing input from std in.");
       return new BufferedReader (new InputStreamReader (System.in));
     }
+
+    if (BatchPipe.isPipeFilename (filename)) {
+      return BatchPipe.getBufferedReader (filename);
+    }
     
-    File  inputFile = new File (filename);      
+    File  inputFile = new File (getPath (filename));      
     if (! inputFile.exists()) {
       throw new IOException ("Warning: file " + filename + " not found.");
     }
@@ -417,8 +451,12 @@ public class UtilLib {
     if (filename.equals("-")) {
       return new BufferedReader (new InputStreamReader (System.in));
     }
+
+    if (BatchPipe.isPipeFilename (filename)) {
+      return BatchPipe.getBufferedReader (filename);
+    }
     
-    File  inputFile = new File (filename);      
+    File  inputFile = new File (getPath (filename));      
     if (! inputFile.exists()) {
       throw new IOException ("Warning: file " + filename + " not found.");
     }
@@ -436,6 +474,82 @@ public class UtilLib {
     
   }
 
+  /***********************************************************************************
+   * 
+   *                           getInputStream
+   *
+   ***********************************************************************************/
+
+  public static InputStream getInputStream (String filename) throws IOException {
+
+    if (filename == "") {
+      return null;
+    }
+
+    if (filename.equals("-")) {
+      System.err.println ("Processing input from std in.");
+      return System.in;
+    }
+
+    if (BatchPipe.isPipeFilename (filename)) {
+      return BatchPipe.getInputStream (filename);
+    }
+    
+    File  inputFile = new File (getPath (filename));      
+    if (! inputFile.exists()) {
+      throw new IOException ("Warning: file " + filename + " not found.");
+    }
+      
+    if (! inputFile.canRead()) {
+      throw new IOException ("Warning: file " + filename + " cannot be read.");
+    }
+
+    if (filename.endsWith(".gz")) {
+      return new GZIPInputStream (new FileInputStream (inputFile), 1 << 16);
+    }
+
+    return new FileInputStream (inputFile);
+
+  }
+
+
+  /***********************************************************************************
+   * 
+   *  readChromosomeNames: the names in the first column of a chromosome id file;
+   *  the reference bundle of the file is used if it exists
+   *
+   ***********************************************************************************/
+
+  public static HashSet<String> readChromosomeNames (String chromosomeFilename) throws IOException {
+
+    HashSet<String> chromosomeNames = new HashSet<String> (200);
+
+    ReferenceBundle referenceBundle = ReferenceBundle.open (getPath (chromosomeFilename));
+    if (referenceBundle != null) {
+      for (int row = 0; row < referenceBundle.getNumRows (); row++) {
+	if (referenceBundle.getNumFields (row) > 0) {
+	  chromosomeNames.add(referenceBundle.getField (row, 0));
+	}
+      }
+      return chromosomeNames;
+    }
+   
+    BufferedReader chromosomeReader = getBufferedReader (chromosomeFilename);
+    String line = chromosomeReader.readLine();
+    while (line != null) {
+      StringTokenizer st = new StringTokenizer (line, "\t");
+      if (st.hasMoreTokens ()) {
+	chromosomeNames.add(st.nextToken());
+      }
+      line = chromosomeReader.readLine();
+    }
+    chromosomeReader.close ();
+
+    return chromosomeNames;
+
+  }
+
+
   /***********************************************************************************
    * 
    *                     reverseComplement
@@ -552,25 +666,6 @@ public class UtilLib {
   }
 
 
-  /***********************************************************************************
-   *
-   *                           addToTableEntry  
-   *
-   ***********************************************************************************/
-
-  public static void addToTableEntry (Hashtable<String, Integer> entryTable, String key, int value) {
-
-    Integer tableValueInt = entryTable.get(key);
-    int tableValue = 0;
-    if (tableValueInt != null) {
-      tableValue = tableValueInt.intValue();
-    }
-	    
-    tableValue = tableValue + value;
-    entryTable.put(key, new Integer(tableValue));
-  }
-
-
   /***********************************************************************************
    *
    *                           modifyFragmentId